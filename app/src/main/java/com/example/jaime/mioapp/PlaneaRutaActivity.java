@@ -1,13 +1,436 @@
 package com.example.jaime.mioapp;
 
+import android.content.SharedPreferences;
+import android.location.Location;
+import android.os.AsyncTask;
+import android.preference.PreferenceManager;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
+import android.text.format.Time;
+import android.view.View;
+import android.widget.ArrayAdapter;
+import android.widget.Button;
+import android.widget.CheckBox;
+import android.widget.EditText;
+import android.widget.ListView;
+import android.widget.ProgressBar;
+import android.widget.Spinner;
+import android.widget.TextView;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+
+import modeloPrueba.DatabaseHelper;
+import modeloPrueba.FareTable;
+import modeloPrueba.Isochrones;
+import modeloPrueba.Journey;
+import modeloPrueba.JourneyCache;
+import modeloPrueba.JourneyPlanner;
+import modeloPrueba.LocationHelper;
+import modeloPrueba.McRaptorRouter;
+import modeloPrueba.RealtimeOverlay;
+import modeloPrueba.Timetable;
+import modeloPrueba.TimetableLoader;
+import modeloPrueba.TransferPatterns;
+
+/**
+ * Planea una ruta entre dos paradas o coordenadas con los horarios instalados.
+ */
 public class PlaneaRutaActivity extends AppCompatActivity {
 
+    private static final int MAX_TRANSBORDOS = 4;
+    private static final int UNA_HORA = 3600;
+    // Hasta dónde se llega: franjas en minutos, sobre una salida por minuto durante ALCANCE_SALIDAS
+    private static final int[] ALCANCE_MINUTOS = { 30, 45, 60 };
+    private static final int ALCANCE_SALIDAS = 10;
+    private static final int ALCANCE_EJEMPLOS = 4;
+    // En el orden de R.array.planea_routers
+    private static final String[] ROUTERS = { JourneyPlanner.ROUTER_RAPTOR, JourneyPlanner.ROUTER_CSA,
+            JourneyPlanner.ROUTER_MC };
+
+    private EditText mOrigen, mDestino;
+    private TextView mEstado;
+    private Spinner mRouter;
+    private CheckBox mProximaHora;
+    private SharedPreferences mPrefs;
+    private ProgressBar mProgreso;
+    private ArrayAdapter<String> mAdapter;
+    private final ArrayList<String> mRutas = new ArrayList<String>();
+
+    private DatabaseHelper mDatabaseHelper;
+    private String mFeed;
+    private JourneyPlanner mPlanner;    // solo se usa desde la tarea de búsqueda
+    private String mPlannerRouter;
+    private AsyncTask<Void, String, ArrayList<String>> mTarea;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_planea_ruta);
+
+        mOrigen = (EditText) findViewById(R.id.etOrigen);
+        mDestino = (EditText) findViewById(R.id.etDestino);
+        mEstado = (TextView) findViewById(R.id.tvEstado);
+        mProgreso = (ProgressBar) findViewById(R.id.pbPlanea);
+        mAdapter = new ArrayAdapter<String>(this, android.R.layout.simple_list_item_1, mRutas);
+        ((ListView) findViewById(R.id.lvRutas)).setAdapter(mAdapter);
+
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(this);
+        mRouter = (Spinner) findViewById(R.id.spRouter);
+        mRouter.setSelection(Math.max(0, Arrays.asList(ROUTERS).indexOf(
+                mPrefs.getString(getString(R.string.pref_router_key), JourneyPlanner.ROUTER_RAPTOR))));
+        mProximaHora = (CheckBox) findViewById(R.id.cbProximaHora);
+
+        mDatabaseHelper = new DatabaseHelper(this);
+        mDatabaseHelper.gatherFiles();
+        final Iterator<String> feeds = mDatabaseHelper.GetListofDB().iterator();
+        mFeed = feeds.hasNext() ? feeds.next() : null;
+
+        final Button buscar = (Button) findViewById(R.id.btnBuscar);
+        buscar.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                buscar();
+            }
+        });
+        final Button alcance = (Button) findViewById(R.id.btnAlcance);
+        alcance.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                alcance();
+            }
+        });
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mTarea != null) {
+            mTarea.cancel(false);
+        }
+    }
+
+    private void buscar() {
+        if (mFeed == null) {
+            mEstado.setText(R.string.planea_sin_feed);
+            return;
+        }
+        if (mTarea != null) {
+            mTarea.cancel(false);
+        }
+        final String router = ROUTERS[mRouter.getSelectedItemPosition()];
+        mPrefs.edit().putString(getString(R.string.pref_router_key), router).apply();
+        mTarea = new BuscarRutas(mOrigen.getText().toString(), mDestino.getText().toString(), router,
+                mProximaHora.isChecked());
+        mTarea.execute();
+    }
+
+    private void alcance() {
+        if (mFeed == null) {
+            mEstado.setText(R.string.planea_sin_feed);
+            return;
+        }
+        final Location aqui = new LocationHelper(this).startLocationManager();
+        if (aqui == null) {
+            return;     // LocationHelper ya avisó por qué
+        }
+        if (mTarea != null) {
+            mTarea.cancel(false);
+        }
+        mTarea = new CalcularAlcance(aqui.getLatitude(), aqui.getLongitude(),
+                ROUTERS[mRouter.getSelectedItemPosition()]);
+        mTarea.execute();
+    }
+
+    /* Los horarios del día, cargados si hace falta, y mPlanner sobre ellos con el router
+     * pedido. Solo desde las tareas, nunca en el hilo principal. */
+    private Timetable cargar(String fecha, String router) {
+        final Timetable tt = TimetableLoader.get(mDatabaseHelper, mFeed, fecha);
+        if (tt != null && (mPlanner == null || mPlanner.getTimetable() != tt || !router.equals(mPlannerRouter))) {
+            mPlanner = new JourneyPlanner(tt, router);
+            mPlannerRouter = router;
+            // Los patrones de transbordo solo miran la hora de llegada, no sirven para McRAPTOR
+            final File patrones = new File(mDatabaseHelper.GetDBPath(), mFeed + TransferPatterns.SUFFIX);
+            if (!JourneyPlanner.ROUTER_MC.equals(router) && patrones.exists()) {
+                try {
+                    mPlanner.setTransferPatterns(TransferPatterns.read(patrones, tt));
+                } catch (IOException e) {
+                    // se buscará con el router
+                }
+            }
+        }
+        return tt;
+    }
+
+    /* Carga los horarios del día si hace falta y busca las rutas. */
+    private class BuscarRutas extends AsyncTask<Void, String, ArrayList<String>> {
+        private final String mTextoOrigen, mTextoDestino, mNombreRouter;
+        private final boolean mRango;
+        private String mError = null;
+        private long mMillis;
+        private boolean mRecortada, mGuardada, mPatrones;
+
+        BuscarRutas(String origen, String destino, String router, boolean rango) {
+            mTextoOrigen = origen;
+            mTextoDestino = destino;
+            mNombreRouter = router;
+            mRango = rango;
+        }
+
+        @Override
+        protected void onPreExecute() {
+            mProgreso.setVisibility(View.VISIBLE);
+        }
+
+        @Override
+        protected ArrayList<String> doInBackground(Void... nada) {
+            final Time t = new Time();
+            t.setToNow();
+            final String fecha = String.format("%04d%02d%02d", t.year, t.month + 1, t.monthDay);
+            publishProgress(getString(R.string.planea_cargando));
+            final Timetable tt = cargar(fecha, mNombreRouter);
+            if (tt == null) {
+                mError = getString(R.string.planea_sin_feed);
+                return null;
+            }
+            if (isCancelled()) {
+                return null;
+            }
+            publishProgress(getString(R.string.planea_buscando));
+
+            final double[] origen = ubicar(tt, mTextoOrigen);
+            final double[] destino = ubicar(tt, mTextoDestino);
+            if (origen == null || destino == null) {
+                mError = getString(R.string.planea_no_encontrado, origen == null ? mTextoOrigen : mTextoDestino);
+                return null;
+            }
+            final int ahora = t.hour * 3600 + t.minute * 60 + t.second;
+            final long inicio = System.currentTimeMillis();
+            // Puede que alguien haya pedido casi lo mismo hace poco
+            final JourneyCache cache = JourneyCache.get();
+            // Lo planeado con otros retrasos en tiempo real no vale
+            final RealtimeOverlay retrasos = tt.getRealtime();
+            final String router = (retrasos == null) ? mNombreRouter : mNombreRouter + "@" + retrasos.getGeneration();
+            final String clave = JourneyCache.key(mFeed, fecha, router, MAX_TRANSBORDOS, mRango ? UNA_HORA : 0,
+                    origen[0], origen[1], destino[0], destino[1], ahora);
+            ArrayList<Journey> journeys = cache.lookup(clave, ahora);
+            mGuardada = (journeys != null);
+            mRecortada = false;
+            // Entre dos paradas principales la respuesta sale de los patrones de transbordo
+            final int paradaOrigen = parada(tt, mTextoOrigen), paradaDestino = parada(tt, mTextoDestino);
+            mPatrones = !mGuardada && !mRango && mPlanner.hasPatterns(paradaOrigen, paradaDestino);
+            if (mPatrones) {
+                journeys = mPlanner.plan(paradaOrigen, paradaDestino, ahora, MAX_TRANSBORDOS);
+            } else if (journeys == null) {
+                // Con rango, todas las salidas de la próxima hora que valen la pena
+                journeys = mRango
+                        ? mPlanner.planRange(origen[0], origen[1], destino[0], destino[1], ahora, ahora + UNA_HORA,
+                                MAX_TRANSBORDOS)
+                        : mPlanner.plan(origen[0], origen[1], destino[0], destino[1], ahora, MAX_TRANSBORDOS);
+                mRecortada = !mRango && (mPlanner.getRouter() instanceof McRaptorRouter)
+                        && ((McRaptorRouter) mPlanner.getRouter()).isTruncated();
+                // Una búsqueda recortada no se guarda, la próxima vez puede salir mejor
+                if (!mRecortada) {
+                    cache.put(clave, mFeed, ahora, mRango, journeys);
+                }
+            }
+            mMillis = System.currentTimeMillis() - inicio;
+
+            // Lo que cuesta cada una, si el feed trae tarifas
+            final FareTable.Pricer tarifas = TimetableLoader.pricer(mDatabaseHelper, mFeed, tt);
+            final ArrayList<String> rutas = new ArrayList<String>();
+            for (Journey j : journeys) {
+                rutas.add(describir(tt, tarifas, j));
+            }
+            return rutas;
+        }
+
+        @Override
+        protected void onProgressUpdate(String... estado) {
+            mEstado.setText(estado[0]);
+        }
+
+        @Override
+        protected void onPostExecute(ArrayList<String> rutas) {
+            mProgreso.setVisibility(View.INVISIBLE);
+            mRutas.clear();
+            if (rutas == null) {
+                mEstado.setText(mError);
+            } else if (rutas.isEmpty()) {
+                mEstado.setText(R.string.planea_sin_rutas);
+            } else {
+                mRutas.addAll(rutas);
+                final String resultado = getString(R.string.planea_resultado, rutas.size(), (int) mMillis);
+                if (mRecortada) {
+                    mEstado.setText(getString(R.string.planea_recortada, resultado));
+                } else if (mGuardada) {
+                    mEstado.setText(getString(R.string.planea_guardada, resultado));
+                } else if (mPatrones) {
+                    mEstado.setText(getString(R.string.planea_patrones, resultado));
+                } else {
+                    mEstado.setText(resultado);
+                }
+            }
+            mAdapter.notifyDataSetChanged();
+        }
+    }
+
+    /* Las paradas a las que se llega desde aquí en cada franja de ALCANCE_MINUTOS. */
+    private class CalcularAlcance extends AsyncTask<Void, String, ArrayList<String>> {
+        private final double mLat, mLon;
+        private final String mNombreRouter;
+        private String mError = null;
+        private long mMillis;
+
+        CalcularAlcance(double lat, double lon, String router) {
+            mLat = lat;
+            mLon = lon;
+            mNombreRouter = router;
+        }
+
+        @Override
+        protected void onPreExecute() {
+            mProgreso.setVisibility(View.VISIBLE);
+        }
+
+        @Override
+        protected ArrayList<String> doInBackground(Void... nada) {
+            final Time t = new Time();
+            t.setToNow();
+            final String fecha = String.format("%04d%02d%02d", t.year, t.month + 1, t.monthDay);
+            publishProgress(getString(R.string.planea_cargando));
+            final Timetable tt = cargar(fecha, mNombreRouter);
+            if (tt == null) {
+                mError = getString(R.string.planea_sin_feed);
+                return null;
+            }
+            if (isCancelled()) {
+                return null;
+            }
+            publishProgress(getString(R.string.planea_calculando));
+
+            final int[] franjas = new int[ALCANCE_MINUTOS.length];
+            for (int b = 0; b < franjas.length; b++) {
+                franjas[b] = ALCANCE_MINUTOS[b] * 60;
+            }
+            final int ahora = t.hour * 3600 + t.minute * 60 + t.second;
+            final long inicio = System.currentTimeMillis();
+            final Isochrones.Result alcance = mPlanner.reach(Isochrones.pool(), mLat, mLon, ahora, ALCANCE_SALIDAS,
+                    franjas, MAX_TRANSBORDOS);
+            mMillis = System.currentTimeMillis() - inicio;
+            if (alcance == null) {
+                mError = getString(R.string.planea_lejos);
+                return null;
+            }
+
+            final ArrayList<String> filas = new ArrayList<String>();
+            int total = 0;
+            for (int b = 0; b < franjas.length; b++) {
+                total += alcance.counts[b];
+                final String ejemplos = ejemplos(tt, alcance, b);
+                filas.add(ejemplos.length() == 0
+                        ? getString(R.string.planea_alcance_franja, ALCANCE_MINUTOS[b], total)
+                        : getString(R.string.planea_alcance_ejemplos, ALCANCE_MINUTOS[b], total, ejemplos));
+            }
+            return filas;
+        }
+
+        @Override
+        protected void onProgressUpdate(String... estado) {
+            mEstado.setText(estado[0]);
+        }
+
+        @Override
+        protected void onPostExecute(ArrayList<String> filas) {
+            mProgreso.setVisibility(View.INVISIBLE);
+            mRutas.clear();
+            if (filas == null) {
+                mEstado.setText(mError);
+            } else {
+                mRutas.addAll(filas);
+                mEstado.setText(getString(R.string.planea_alcance_resultado, ALCANCE_SALIDAS, (int) mMillis));
+            }
+            mAdapter.notifyDataSetChanged();
+        }
+    }
+
+    /* Los nombres de las primeras paradas a las que se llega en la franja b, sin repetir. */
+    private static String ejemplos(Timetable tt, final Isochrones.Result alcance, int b) {
+        final ArrayList<Integer> paradas = new ArrayList<Integer>();
+        for (int s = 0; s < alcance.band.length; s++) {
+            if (alcance.band[s] == b) {
+                paradas.add(s);
+            }
+        }
+        Collections.sort(paradas, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer c) {
+                return alcance.travel[a] - alcance.travel[c];
+            }
+        });
+        final ArrayList<String> nombres = new ArrayList<String>();
+        for (int i = 0; i < paradas.size() && nombres.size() < ALCANCE_EJEMPLOS; i++) {
+            final String nombre = tt.getStopName(paradas.get(i));
+            if (!nombres.contains(nombre)) {
+                nombres.add(nombre);
+            }
+        }
+        final StringBuilder sb = new StringBuilder();
+        for (String nombre : nombres) {
+            sb.append(sb.length() == 0 ? "" : ", ").append(nombre);
+        }
+        return sb.toString();
+    }
+
+    /* "lat,lon", un stop_id o parte del nombre de una parada. */
+    private static double[] ubicar(Timetable tt, String texto) {
+        final String[] partes = texto.split(",");
+        if (partes.length == 2) {
+            try {
+                return new double[] { Double.parseDouble(partes[0].trim()), Double.parseDouble(partes[1].trim()) };
+            } catch (NumberFormatException e) {
+                // no son coordenadas, será un nombre
+            }
+        }
+        final int parada = parada(tt, texto);
+        if (parada < 0) {
+            return null;
+        }
+        return new double[] { tt.getStopLat(parada), tt.getStopLon(parada) };
+    }
+
+    /* La parada de un stop_id o parte de su nombre, -1 si no hay (o son coordenadas). */
+    private static int parada(Timetable tt, String texto) {
+        final int parada = tt.findStop(texto.trim());
+        return (parada >= 0) ? parada : tt.findStopByName(texto);
+    }
+
+    private String describir(Timetable tt, FareTable.Pricer tarifas, Journey j) {
+        final StringBuilder sb = new StringBuilder(getString(R.string.planea_resumen,
+                Journey.formatTime(j.getDeparture()), Journey.formatTime(j.getArrival()),
+                j.getDuration() / 60, j.getTransfers(), (int) (j.getWalkSeconds() * JourneyPlanner.WALK_SPEED)));
+        final long precio = (tarifas == null) ? FareTable.UNKNOWN : tarifas.price(j);
+        if (precio > 0) {
+            // en pesos no hay centavos
+            sb.append(getString(R.string.planea_pasaje, precio / 100));
+        }
+        for (Journey.Leg l : j.legs) {
+            sb.append('\n');
+            if (l.walk) {
+                final String hasta = (l.toStop == Journey.NO_STOP)
+                        ? getString(R.string.planea_destino_final) : tt.getStopName(l.toStop);
+                sb.append(getString(R.string.planea_caminar, (l.arrival - l.departure + 59) / 60, hasta));
+            } else {
+                sb.append(getString(R.string.planea_tomar, tt.getTripRoute(l.trip), tt.getTripHeadsign(l.trip),
+                        Journey.formatTime(l.departure), tt.getStopName(l.fromStop),
+                        Journey.formatTime(l.arrival), tt.getStopName(l.toStop)));
+            }
+        }
+        return sb.toString();
     }
 }
@@ -1,13 +1,377 @@
 package com.example.jaime.mioapp;
 
+import android.content.SharedPreferences;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.preference.PreferenceManager;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
+import android.text.format.Time;
+import android.view.View;
+import android.widget.ArrayAdapter;
+import android.widget.Button;
+import android.widget.EditText;
+import android.widget.ListView;
+import android.widget.TextView;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import modeloPrueba.DatabaseHelper;
+import modeloPrueba.MinuteTicker;
+import modeloPrueba.RealtimePoller;
+import modeloPrueba.RouteShapes;
+import modeloPrueba.ServiceCalendar;
+import modeloPrueba.Timetable;
+import modeloPrueba.TimetableLoader;
+import modeloPrueba.TripDelays;
+import modeloPrueba.VehicleTracker;
+
+/* Las próximas salidas de una parada con la hora prevista por el feed GTFS-realtime,
+ * que se vuelve a pedir cada RealtimePoller.DEFAULT_INTERVAL mientras se ve la pantalla
+ * (y menos a menudo si está tapada, hasta que deja de estar a la vista), y los buses que
+ * vienen hacia ella, movidos por su recorrido una vez por segundo. */
 public class RutaVivoActivity extends AppCompatActivity {
 
+    private static final int SALIDAS = 10;
+    private static final int HORAS = 2;
+    private static final int DELAY = 6;     // campo de ServiceCalendar con el retraso
+    private static final int BUSES = 3;
+    private static final long CUADRO = 1000;    // ms
+
+    private EditText mParadaTexto, mDireccion;
+    private TextView mEstado, mBuses;
+    private SharedPreferences mPrefs;
+    private ArrayAdapter<String> mAdapter;
+    private final ArrayList<String> mSalidas = new ArrayList<String>();
+
+    private DatabaseHelper mDatabaseHelper;
+    private String mFeed;
+    private String mParada;                 // stop_id que se está siguiendo
+    private RealtimePoller mPoller;
+    private MinuteTicker mTicker;
+    private AsyncTask<Void, Void, ArrayList<String>> mTarea;
+
+    // Los buses en ruta, sólo desde el hilo principal
+    private Timetable mHorario;
+    private VehicleTracker mRecorridos;
+    private int mParadaNum;
+    private long mMedianoche;               // ms
+    private final int[] mCercanos = new int[BUSES];
+    private final double[] mMetros = new double[BUSES];
+    private final Handler mHandler = new Handler();
+    private boolean mAnimando = false;
+
+    private final Runnable mCuadro = new Runnable() {
+        @Override
+        public void run() {
+            if (!mAnimando) {
+                return;
+            }
+            cuadro();
+            mHandler.postDelayed(this, CUADRO - System.currentTimeMillis() % CUADRO);
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_ruta_vivo);
+
+        mParadaTexto = (EditText) findViewById(R.id.etParada);
+        mDireccion = (EditText) findViewById(R.id.etTiempoReal);
+        mEstado = (TextView) findViewById(R.id.tvVivoEstado);
+        mBuses = (TextView) findViewById(R.id.tvVivoBuses);
+        mAdapter = new ArrayAdapter<String>(this, android.R.layout.simple_list_item_1, mSalidas);
+        ((ListView) findViewById(R.id.lvSalidas)).setAdapter(mAdapter);
+
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(this);
+        mDireccion.setText(mPrefs.getString(getString(R.string.pref_tiempo_real_key), ""));
+
+        mDatabaseHelper = new DatabaseHelper(this);
+        mDatabaseHelper.gatherFiles();
+        final Iterator<String> feeds = mDatabaseHelper.GetListofDB().iterator();
+        mFeed = feeds.hasNext() ? feeds.next() : null;
+
+        // Cada minuto, para que las salidas que ya pasaron se vayan
+        mTicker = new MinuteTicker(new Runnable() {
+            @Override
+            public void run() {
+                refrescar();
+            }
+        });
+
+        final Button seguir = (Button) findViewById(R.id.btnSeguir);
+        seguir.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                seguir();
+            }
+        });
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        if (mParada != null) {
+            empezar();
+        }
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        pausar();
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        parar();
+    }
+
+    private void seguir() {
+        if (mFeed == null) {
+            mEstado.setText(R.string.planea_sin_feed);
+            return;
+        }
+        parar();
+        final String direccion = mDireccion.getText().toString().trim();
+        mPrefs.edit().putString(getString(R.string.pref_tiempo_real_key), direccion).apply();
+        mEstado.setText(R.string.planea_cargando);
+        new BuscarParada(mParadaTexto.getText().toString()).execute();
+    }
+
+    /* Empieza a pedir el tiempo real, si hay dónde, y a refrescar cada minuto. */
+    private void empezar() {
+        final String direccion = mDireccion.getText().toString().trim();
+        if (mPoller != null) {
+            mPoller.setVisible(true);
+        } else if (direccion.length() > 0) {
+            mPoller = new RealtimePoller(mFeed, direccion, RealtimePoller.DEFAULT_INTERVAL,
+                    new RealtimePoller.Listener() {
+                        @Override
+                        public void onDelays(TripDelays delays) {
+                            runOnUiThread(new Runnable() {
+                                @Override
+                                public void run() {
+                                    refrescar();
+                                }
+                            });
+                        }
+
+                        @Override
+                        public void onError(final IOException e) {
+                            runOnUiThread(new Runnable() {
+                                @Override
+                                public void run() {
+                                    mEstado.setText(getString(R.string.vivo_error, e.getMessage()));
+                                }
+                            });
+                        }
+                    });
+            mPoller.start();
+        }
+        mTicker.start();
+        if (mRecorridos != null && !mAnimando) {
+            mAnimando = true;
+            mHandler.post(mCuadro);
+        }
+    }
+
+    /* Deja de refrescar la pantalla; el tiempo real se sigue pidiendo, más despacio. */
+    private void pausar() {
+        if (mPoller != null) {
+            mPoller.setVisible(false);
+        }
+        mTicker.stop();
+        mAnimando = false;
+        mHandler.removeCallbacks(mCuadro);
+        if (mTarea != null) {
+            mTarea.cancel(false);
+            mTarea = null;
+        }
+    }
+
+    private void parar() {
+        pausar();
+        if (mPoller != null) {
+            mPoller.stop();
+            mPoller = null;
+        }
+    }
+
+    private void refrescar() {
+        if (mParada == null) {
+            return;
+        }
+        if (mTarea != null) {
+            mTarea.cancel(false);
+        }
+        mTarea = new CargarSalidas(mParada);
+        mTarea.execute();
+        if (mRecorridos != null) {
+            final Calendar hoy = Calendar.getInstance();
+            hoy.set(Calendar.HOUR_OF_DAY, 0);
+            hoy.set(Calendar.MINUTE, 0);
+            hoy.set(Calendar.SECOND, 0);
+            hoy.set(Calendar.MILLISECOND, 0);
+            mMedianoche = hoy.getTimeInMillis();
+            final int ahora = (int) ((System.currentTimeMillis() - mMedianoche) / 1000);
+            mRecorridos.refresh(ahora, mHorario.getRealtime(), TripDelays.get(mFeed), mMedianoche / 1000);
+        }
+    }
+
+    /* Mueve los buses a donde están ahora y muestra los que vienen a la parada. */
+    private void cuadro() {
+        mRecorridos.frame((System.currentTimeMillis() - mMedianoche) / 1000.0);
+        final int n = mRecorridos.approaching(mParadaNum, BUSES, mCercanos, mMetros);
+        if (n == 0) {
+            mBuses.setText(R.string.vivo_sin_buses);
+            return;
+        }
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            final int v = mCercanos[i], viaje = mRecorridos.getTrip(v);
+            String bus = getString(R.string.vivo_bus, mHorario.getTripRoute(viaje), mHorario.getTripHeadsign(viaje),
+                    Math.round(mMetros[i]), mRecorridos.getLat(v), mRecorridos.getLon(v));
+            if (mRecorridos.isReported(v)) {
+                bus = getString(R.string.vivo_bus_gps, bus);
+            }
+            if (i > 0) {
+                sb.append('\n');
+            }
+            sb.append(bus);
+        }
+        mBuses.setText(sb.toString());
+    }
+
+    /* Carga los horarios del día, con los que ServiceCalendar responde más rápido, y
+     * busca en ellos la parada, y los recorridos de las rutas para ver dónde van los buses. */
+    private class BuscarParada extends AsyncTask<Void, Void, String> {
+        private final String mTexto;
+        private Timetable mTT;
+        private VehicleTracker mTracker;
+        private int mStop;
+
+        BuscarParada(String texto) {
+            mTexto = texto;
+        }
+
+        @Override
+        protected String doInBackground(Void... nada) {
+            final Time t = new Time();
+            t.setToNow();
+            final Timetable tt = TimetableLoader.get(mDatabaseHelper, mFeed,
+                    String.format("%04d%02d%02d", t.year, t.month + 1, t.monthDay));
+            if (tt == null) {
+                return null;
+            }
+            int parada = tt.findStop(mTexto.trim());
+            if (parada < 0) {
+                parada = tt.findStopByName(mTexto);
+            }
+            if (parada < 0) {
+                return null;
+            }
+            final RouteShapes recorridos = TimetableLoader.shapes(mDatabaseHelper, mFeed, tt);
+            if (recorridos != null) {
+                mTT = tt;
+                mTracker = new VehicleTracker(recorridos);
+                mStop = parada;
+            }
+            return tt.getStopId(parada);
+        }
+
+        @Override
+        protected void onPostExecute(String parada) {
+            if (parada == null) {
+                mEstado.setText(getString(R.string.planea_no_encontrado, mTexto));
+                return;
+            }
+            mParada = parada;
+            mHorario = mTT;
+            mRecorridos = mTracker;
+            mParadaNum = mStop;
+            mBuses.setText("");
+            empezar();
+        }
+    }
+
+    /* Las próximas salidas de la parada, con el retraso si lo hay. */
+    private class CargarSalidas extends AsyncTask<Void, Void, ArrayList<String>> {
+        private final String mStopId;
+        private int mEnVivo = 0;
+
+        CargarSalidas(String stopId) {
+            mStopId = stopId;
+        }
+
+        @Override
+        protected ArrayList<String> doInBackground(Void... nada) {
+            final Time t = new Time();
+            t.setToNow();
+            final SQLiteDatabase db = mDatabaseHelper.ReadableDB(mFeed, null);
+            if (db == null) {
+                return null;
+            }
+            final HashMap<String, ArrayList<String[]>> todas;
+            try {
+                final ServiceCalendar calendario = new ServiceCalendar(mFeed, db, false);
+                calendario.setDB(mDatabaseHelper);
+                todas = calendario.getNextDepartureTimesBatch(t, new String[] { mStopId }, SALIDAS, HORAS);
+            } finally {
+                mDatabaseHelper.CloseDB(db);
+            }
+            final ArrayList<String> salidas = new ArrayList<String>();
+            final ArrayList<String[]> filas = todas.get(mStopId);
+            if (filas == null) {
+                return salidas;
+            }
+            // departuretime	runstoday	trip_id		route_short_name	trip_headsign		stop_id	delay	[ESTIMATED]
+            for (String[] fila : filas) {
+                final String hora = ServiceCalendar.formattedTime(fila[0], false);
+                final String salida = getString(R.string.vivo_salida, fila[3], fila[4], hora);
+                if (fila.length <= DELAY || fila[DELAY].equals("")) {
+                    salidas.add(salida);
+                    continue;
+                }
+                final int minutos = Math.round(Integer.parseInt(fila[DELAY]) / 60f);
+                if (fila.length > DELAY + 1 && ServiceCalendar.ESTIMATED.equals(fila[DELAY + 1])) {
+                    // sin tiempo real para este bus: lo que suele tardar
+                    salidas.add(getString(R.string.vivo_habitual, salida, minutos));
+                    continue;
+                }
+                mEnVivo++;
+                salidas.add((minutos == 0) ? getString(R.string.vivo_a_tiempo, salida)
+                        : getString(R.string.vivo_retraso, salida, minutos));
+            }
+            return salidas;
+        }
+
+        @Override
+        protected void onPostExecute(ArrayList<String> salidas) {
+            mSalidas.clear();
+            if (salidas == null) {
+                mEstado.setText(R.string.planea_sin_feed);
+            } else if (salidas.isEmpty()) {
+                mEstado.setText(R.string.vivo_sin_salidas);
+            } else {
+                mSalidas.addAll(salidas);
+                final TripDelays delays = TripDelays.get(mFeed);
+                if (delays == null) {
+                    mEstado.setText(R.string.vivo_programadas);
+                } else {
+                    final Time recibido = new Time();
+                    recibido.set(delays.getReceived());
+                    mEstado.setText(getString(R.string.vivo_actualizado, mEnVivo, recibido.format("%H:%M:%S")));
+                }
+            }
+            mAdapter.notifyDataSetChanged();
+        }
     }
 }
@@ -1,13 +1,248 @@
 package com.example.jaime.mioapp;
 
+import android.os.AsyncTask;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
+import android.text.format.DateFormat;
+import android.view.View;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
+import android.widget.Button;
+import android.widget.EditText;
+import android.widget.ListView;
+import android.widget.TextView;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import modeloPrueba.CardLedger;
+import modeloPrueba.DatabaseHelper;
+import modeloPrueba.FareTable;
+import modeloPrueba.LocalCardBackend;
+import modeloPrueba.TimetableLoader;
+
+/* Las tarjetas MIO registradas en el teléfono, con su saldo, para cuántos pasajes les
+ * alcanza según las tarifas del feed, y sus últimos movimientos. Funciona sin conexión:
+ * todo se anota en el CardLedger y se manda al servidor (por ahora LocalCardBackend) al
+ * sincronizar, sólo lo que aún no tiene. */
 public class TarjetasActivity extends AppCompatActivity {
 
+    private static final String CARPETA = "tarjetas";
+    private static final int ABRIR = 0, ANOTAR = 1, SINCRONIZAR = 2;
+
+    private EditText mNumero, mValor;
+    private TextView mEstado;
+    private ListView mLista;
+    private ArrayAdapter<String> mTarjetasAdapter, mMovimientosAdapter;
+    private final ArrayList<String> mTarjetas = new ArrayList<String>();
+    private final ArrayList<String> mMovimientos = new ArrayList<String>();
+    private String[] mTipos;
+
+    private CardLedger mLedger;
+    private long mPasaje = FareTable.UNKNOWN;   // el más barato, en centésimos
+    private final ArrayList<String> mNumeros = new ArrayList<String>();    // de cada fila de mTarjetas
+    private String mElegida;                // número de la tarjeta elegida
+    private Tarea mTarea;
+    private boolean mCerrada = false;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_tarjetas);
+
+        mNumero = (EditText) findViewById(R.id.etTarjeta);
+        mValor = (EditText) findViewById(R.id.etValor);
+        mEstado = (TextView) findViewById(R.id.tvTarjetasEstado);
+        mTipos = getResources().getStringArray(R.array.tarjetas_tipos);
+        mTarjetasAdapter = new ArrayAdapter<String>(this, android.R.layout.simple_list_item_single_choice, mTarjetas);
+        mMovimientosAdapter = new ArrayAdapter<String>(this, android.R.layout.simple_list_item_1, mMovimientos);
+        mLista = (ListView) findViewById(R.id.lvTarjetas);
+        mLista.setAdapter(mTarjetasAdapter);
+        ((ListView) findViewById(R.id.lvMovimientos)).setAdapter(mMovimientosAdapter);
+        mLista.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+            @Override
+            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+                mElegida = mNumeros.get(position);
+                mostrar();
+            }
+        });
+
+        ((Button) findViewById(R.id.btnRegistrar)).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                final String numero = mNumero.getText().toString().trim();
+                if (!numero.equals("")) {
+                    mElegida = numero;
+                    empezar(new Tarea(ANOTAR, CardLedger.REGISTER, numero, 0));
+                }
+            }
+        });
+        ((Button) findViewById(R.id.btnRecargar)).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                final long valor = valor();
+                if (mElegida == null) {
+                    mEstado.setText(R.string.tarjetas_elige);
+                } else if (valor > 0) {
+                    empezar(new Tarea(ANOTAR, CardLedger.RECHARGE, mElegida, valor));
+                }
+            }
+        });
+        ((Button) findViewById(R.id.btnSincronizar)).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                empezar(new Tarea(SINCRONIZAR, 0, null, 0));
+            }
+        });
+
+        mEstado.setText(R.string.tarjetas_cargando);
+        empezar(new Tarea(ABRIR, 0, null, 0));
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // Lo anotado ya está en el disco; si hay una tarea en curso, cierra ella al terminar
+        mCerrada = true;
+        if (mTarea == null) {
+            cerrar();
+        }
+    }
+
+    private void cerrar() {
+        if (mLedger != null) {
+            try {
+                mLedger.close();
+            } catch (IOException e) {
+                // nada que perder
+            }
+        }
+    }
+
+    /* Una cosa a la vez, para que los movimientos queden en el orden en que se pidieron. */
+    private void empezar(Tarea tarea) {
+        if (mTarea != null || (mLedger == null && tarea != null && tarea.mOperacion != ABRIR)) {
+            return;
+        }
+        mTarea = tarea;
+        tarea.execute();
+    }
+
+    private long valor() {
+        try {
+            return Long.parseLong(mValor.getText().toString().trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /* Las tarjetas con su saldo y los movimientos de la elegida, desde memoria. */
+    private void mostrar() {
+        mTarjetas.clear();
+        mNumeros.clear();
+        mMovimientos.clear();
+        final List<CardLedger.Card> tarjetas = mLedger.getCards();
+        int elegida = -1;
+        for (CardLedger.Card tarjeta : tarjetas) {
+            if (tarjeta.number.equals(mElegida)) {
+                elegida = mNumeros.size();
+                for (CardLedger.Entry e : tarjeta.getRecent()) {
+                    final long valor = (e.kind == CardLedger.FARE) ? -e.amount : e.amount;
+                    mMovimientos.add(getString(R.string.tarjetas_movimiento,
+                            DateFormat.format("dd/MM kk:mm", e.time), mTipos[e.kind], valor));
+                }
+            }
+            mNumeros.add(tarjeta.number);
+            // el saldo va en pesos y las tarifas en centésimos
+            mTarjetas.add((mPasaje > 0)
+                    ? getString(R.string.tarjetas_tarjeta_pasajes, tarjeta.number, tarjeta.getBalance(),
+                            Math.max(0, tarjeta.getBalance()) * 100 / mPasaje)
+                    : getString(R.string.tarjetas_tarjeta, tarjeta.number, tarjeta.getBalance()));
+        }
+        if (elegida < 0) {
+            mElegida = null;
+            mLista.clearChoices();
+        } else {
+            mLista.setItemChecked(elegida, true);
+        }
+        mTarjetasAdapter.notifyDataSetChanged();
+        mMovimientosAdapter.notifyDataSetChanged();
+    }
+
+    /* Abre el registro, anota un movimiento o sincroniza, fuera del hilo principal:
+     * cada movimiento se escribe al disco antes de darlo por hecho. */
+    private class Tarea extends AsyncTask<Void, Void, String> {
+        private final int mOperacion, mTipo;
+        private final String mTarjeta;
+        private final long mMonto;
+
+        Tarea(int operacion, int tipo, String tarjeta, long valor) {
+            mOperacion = operacion;
+            mTipo = tipo;
+            mTarjeta = tarjeta;
+            mMonto = valor;
+        }
+
+        @Override
+        protected void onPreExecute() {
+            if (mOperacion == SINCRONIZAR) {
+                mEstado.setText(R.string.tarjetas_sincronizando);
+            }
+        }
+
+        @Override
+        protected String doInBackground(Void... nada) {
+            try {
+                switch (mOperacion) {
+                case ABRIR:
+                    // Una foto y la cola de movimientos que la siguen, no todo el historial
+                    mLedger = CardLedger.open(new File(getFilesDir(), CARPETA));
+                    final DatabaseHelper ayudante = new DatabaseHelper(TarjetasActivity.this);
+                    ayudante.gatherFiles();
+                    final Iterator<String> feeds = ayudante.GetListofDB().iterator();
+                    final FareTable tarifas = feeds.hasNext() ? TimetableLoader.fares(ayudante, feeds.next()) : null;
+                    if (tarifas != null) {
+                        mPasaje = tarifas.getCheapest();
+                    }
+                    return null;
+                case ANOTAR:
+                    return (mLedger.append(mTipo, mTarjeta, mMonto, System.currentTimeMillis()) == null)
+                            ? getString(R.string.tarjetas_no_aplica) : null;
+                default:
+                    final int[] cuantos = mLedger.sync(LocalCardBackend.get());
+                    return getString(R.string.tarjetas_sincronizado, cuantos[0], cuantos[1]);
+                }
+            } catch (IOException e) {
+                return getString(R.string.tarjetas_error, e.getMessage());
+            }
+        }
+
+        @Override
+        protected void onPostExecute(String mensaje) {
+            mTarea = null;
+            if (mCerrada) {
+                cerrar();
+                return;
+            }
+            if (mLedger == null) {
+                mEstado.setText(mensaje);
+                return;
+            }
+            if (mOperacion == ANOTAR && mensaje == null) {
+                mNumero.setText("");
+                mValor.setText("");
+            }
+            mostrar();
+            if (mensaje != null) {
+                mEstado.setText(mensaje);
+            } else if (mTarjetas.isEmpty()) {
+                mEstado.setText(R.string.tarjetas_vacio);
+            } else {
+                mEstado.setText(getString(R.string.tarjetas_pendientes, mTarjetas.size(), mLedger.getPending()));
+            }
+        }
     }
 }
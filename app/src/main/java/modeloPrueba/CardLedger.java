@@ -0,0 +1,445 @@
+/*
+ * This file is part of GTFSOffline.
+ *
+ * GTFSOffline is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GTFSOffline is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GTFSOffline.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package modeloPrueba;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import android.util.Log;
+
+/* The MIO cards registered on the phone, with their balances and what was paid and
+ * recharged with them, kept without a connection and sent to the backend when there
+ * is one.
+ *
+ * Every change is an entry appended to a log, each with the next sequence number and
+ * a checksum, so a write cut short by the phone dying is found and dropped when the
+ * log is next opened. Every SNAPSHOT_EVERY entries the balances and the last RECENT
+ * entries of each card are written to a snapshot along with how far into the log they
+ * go, so opening the ledger reads the snapshot and the few entries after it, not the
+ * whole log.
+ *
+ * sync() sends the backend only the entries after the last one it acknowledged, which
+ * is kept in the snapshot with where it is in the log, and appends what the backend
+ * has that we don't (fares charged on the bus, recharges at a kiosk) as remote entries,
+ * which are never sent back. */
+public final class CardLedger {
+	private static final String TAG = "CardLedger";
+
+	public static final int REGISTER = 0, RECHARGE = 1, FARE = 2, REMOVE = 3;
+
+	static final int SNAPSHOT_EVERY = 64;	// entries
+	static final int RECENT = 20;			// entries kept for each card
+	private static final String LOG = "tarjetas.log", SNAPSHOT = "tarjetas.snap";
+	private static final int MAGIC = 0x4d494f43;		// "MIOC"
+	private static final int VERSION = 1;
+	private static final int MAX_RECORD = 4096;		// bytes, anything longer is garbage
+
+	public static final class Entry {
+		public final long seq;			// ours, from 1
+		public final long time;			// ms
+		public final int kind;
+		public final String card;
+		public final long amount;		// pesos, never negative; a FARE takes it off
+		public final long origin;		// the backend's number for a remote entry, or 0
+
+		Entry(long aSeq, long aTime, int aKind, String aCard, long anAmount, long anOrigin) {
+			seq = aSeq;
+			time = aTime;
+			kind = aKind;
+			card = aCard;
+			amount = anAmount;
+			origin = anOrigin;
+		}
+
+		/* A change for the backend to send, numbered by it. */
+		public static Entry remote(long origin, long time, int kind, String card, long amount) {
+			return new Entry(0, time, kind, card, amount, origin);
+		}
+
+		public boolean isRemote() {
+			return origin != 0;
+		}
+	}
+
+	public static final class Card {
+		public final String number;
+		private long mBalance = 0;
+		// oldest first, no more than RECENT
+		private final ArrayList<Entry> mRecent = new ArrayList<Entry>(RECENT);
+
+		Card(String aNumber) {
+			number = aNumber;
+		}
+
+		public long getBalance() {
+			return mBalance;
+		}
+
+		/* The card's last entries, newest first. */
+		public List<Entry> getRecent() {
+			final ArrayList<Entry> recent = new ArrayList<Entry>(mRecent);
+			Collections.reverse(recent);
+			return recent;
+		}
+
+		void remember(Entry e) {
+			if (mRecent.size() == RECENT) {
+				mRecent.remove(0);
+			}
+			mRecent.add(e);
+		}
+	}
+
+	/* Where the entries go when there's a connection. */
+	public interface Backend {
+		/* Store entries, in order of seq; returns the highest seq now stored. */
+		long push(List<Entry> entries) throws IOException;
+
+		/* The remote entries after origin since, in order. */
+		List<Entry> pull(long since) throws IOException;
+	}
+
+	private final File mDir;
+	private final RandomAccessFile mLog;
+	private final LinkedHashMap<String, Card> mCards = new LinkedHashMap<String, Card>();
+	private long mNextSeq = 1;
+	private long mAcked = 0, mAckedOffset = 0;	// last seq the backend has, and where the next is
+	private long mRemoteSeq = 0;				// last origin we have
+	private int mPending = 0;					// local entries the backend hasn't got
+	private int mTail = 0;						// entries after the snapshot
+
+	private CardLedger(File dir) throws IOException {
+		mDir = dir;
+		mLog = new RandomAccessFile(new File(dir, LOG), "rw");
+	}
+
+	/* The ledger kept in dir, made if it isn't there. */
+	public static CardLedger open(File dir) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Couldn't make " + dir);
+		}
+		final CardLedger ledger = new CardLedger(dir);
+		boolean opened = false;
+		try {
+			final long offset = ledger.readSnapshot();
+			ledger.replay(offset);
+			opened = true;
+		} finally {
+			if (!opened) {
+				ledger.mLog.close();
+			}
+		}
+		return ledger;
+	}
+
+	public synchronized void close() throws IOException {
+		mLog.close();
+	}
+
+	public synchronized List<Card> getCards() {
+		return new ArrayList<Card>(mCards.values());
+	}
+
+	public synchronized Card getCard(String number) {
+		return mCards.get(number);
+	}
+
+	/* Local entries the backend hasn't acknowledged. */
+	public synchronized int getPending() {
+		return mPending;
+	}
+
+	/* Entries read after the snapshot when opening, or appended since. */
+	synchronized int getTail() {
+		return mTail;
+	}
+
+	/* Add an entry made on the phone; returns it, or null if it doesn't apply: a card
+	 * registered twice, a card we don't have, or a fare the balance doesn't cover. */
+	public synchronized Entry append(int kind, String card, long amount, long time) throws IOException {
+		return append(kind, card, amount, time, 0);
+	}
+
+	private Entry append(int kind, String card, long amount, long time, long origin) throws IOException {
+		if (amount < 0 || !applies(kind, card, amount, origin != 0)) {
+			return null;
+		}
+		final Entry e = new Entry(mNextSeq, time, kind, card, amount, origin);
+		final byte[] record = encode(e);
+		mLog.seek(mLog.length());
+		mLog.write(record);
+		mLog.getFD().sync();
+		apply(e);
+		if (++mTail >= SNAPSHOT_EVERY) {
+			writeSnapshot();
+		}
+		return e;
+	}
+
+	/* Send the backend what it hasn't got and take what we haven't. Returns how many
+	 * entries went each way. */
+	public synchronized int[] sync(Backend backend) throws IOException {
+		// the local entries after the acknowledged one, and where each ends in the log
+		final ArrayList<Entry> out = new ArrayList<Entry>(mPending);
+		final ArrayList<Long> ends = new ArrayList<Long>(mPending);
+		long offset = mAckedOffset;
+		mLog.seek(offset);
+		Entry e;
+		while ((e = readRecord()) != null) {
+			offset = mLog.getFilePointer();
+			if (!e.isRemote()) {
+				out.add(e);
+				ends.add(offset);
+			}
+		}
+		int sent = 0;
+		if (!out.isEmpty()) {
+			final long acked = backend.push(out);
+			for (int i = 0; i < out.size() && out.get(i).seq <= acked; i++) {
+				mAcked = out.get(i).seq;
+				mAckedOffset = ends.get(i);
+				sent++;
+			}
+			mPending -= sent;
+		}
+		int taken = 0;
+		for (Entry r : backend.pull(mRemoteSeq)) {
+			if (r.origin > mRemoteSeq) {
+				// even if it doesn't apply here, we've seen it
+				mRemoteSeq = r.origin;
+				if (append(r.kind, r.card, r.amount, r.time, r.origin) != null) {
+					taken++;
+				}
+			}
+		}
+		if (mPending == 0) {
+			// nothing of ours left to send: skip the remote entries next time too
+			mAckedOffset = mLog.length();
+		}
+		writeSnapshot();
+		return new int[] { sent, taken };
+	}
+
+	private boolean applies(int kind, String card, long amount, boolean remote) {
+		final Card c = mCards.get(card);
+		switch (kind) {
+		case REGISTER:
+			return c == null;
+		case RECHARGE:
+			return c != null;
+		case FARE:
+			// the validator on the bus has the last word
+			return c != null && (remote || c.mBalance >= amount);
+		case REMOVE:
+			return c != null;
+		default:
+			return false;
+		}
+	}
+
+	private void apply(Entry e) {
+		mNextSeq = e.seq + 1;
+		if (e.isRemote()) {
+			mRemoteSeq = Math.max(mRemoteSeq, e.origin);
+		} else if (e.seq > mAcked) {
+			mPending++;
+		}
+		Card c = mCards.get(e.card);
+		switch (e.kind) {
+		case REGISTER:
+			c = new Card(e.card);
+			mCards.put(e.card, c);
+			break;
+		case RECHARGE:
+			c.mBalance += e.amount;
+			break;
+		case FARE:
+			c.mBalance -= e.amount;
+			break;
+		case REMOVE:
+			mCards.remove(e.card);
+			return;
+		}
+		c.remember(e);
+	}
+
+	/* Apply the log from offset on, cutting off a record left half written. */
+	private void replay(long offset) throws IOException {
+		mLog.seek(offset);
+		long good = offset;
+		Entry e;
+		while ((e = readRecord()) != null) {
+			if (e.seq != mNextSeq || !applies(e.kind, e.card, e.amount, true)) {
+				Log.w(TAG, "Entry " + e.seq + " out of place in the log, ignoring the rest");
+				break;
+			}
+			apply(e);
+			mTail++;
+			good = mLog.getFilePointer();
+		}
+		if (good < mLog.length()) {
+			Log.w(TAG, "Cutting " + (mLog.length() - good) + " bytes off the log");
+			mLog.setLength(good);
+		}
+	}
+
+	/* length, entry, CRC-32 of the entry */
+	private static byte[] encode(Entry e) throws IOException {
+		final ByteArrayOutputStream body = new ByteArrayOutputStream(64);
+		final DataOutputStream out = new DataOutputStream(body);
+		writeEntry(out, e);
+		final byte[] bytes = body.toByteArray();
+		final CRC32 crc = new CRC32();
+		crc.update(bytes);
+		final ByteArrayOutputStream record = new ByteArrayOutputStream(bytes.length + 8);
+		final DataOutputStream r = new DataOutputStream(record);
+		r.writeInt(bytes.length);
+		r.write(bytes);
+		r.writeInt((int) crc.getValue());
+		return record.toByteArray();
+	}
+
+	/* The record at the log's file pointer, or null at the end of the log or at one
+	 * that isn't whole. */
+	private Entry readRecord() throws IOException {
+		try {
+			final int length = mLog.readInt();
+			if (length <= 0 || length > MAX_RECORD) {
+				return null;
+			}
+			final byte[] bytes = new byte[length];
+			mLog.readFully(bytes);
+			final CRC32 crc = new CRC32();
+			crc.update(bytes);
+			if (mLog.readInt() != (int) crc.getValue()) {
+				return null;
+			}
+			return readEntry(new DataInputStream(new ByteArrayInputStream(bytes)));
+		} catch (EOFException e) {
+			return null;
+		}
+	}
+
+	private static void writeEntry(DataOutputStream out, Entry e) throws IOException {
+		out.writeLong(e.seq);
+		out.writeLong(e.time);
+		out.writeByte(e.kind);
+		out.writeUTF(e.card);
+		out.writeLong(e.amount);
+		out.writeLong(e.origin);
+	}
+
+	private static Entry readEntry(DataInputStream in) throws IOException {
+		return new Entry(in.readLong(), in.readLong(), in.readByte(), in.readUTF(), in.readLong(), in.readLong());
+	}
+
+	/* Write the cards and where we are in the log, by way of a temporary file so a
+	 * reader never sees half of one. */
+	private void writeSnapshot() throws IOException {
+		final File file = new File(mDir, SNAPSHOT), tmp = new File(mDir, SNAPSHOT + ".new");
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+		final DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(mLog.length());
+		out.writeLong(mNextSeq);
+		out.writeLong(mAcked);
+		out.writeLong(mAckedOffset);
+		out.writeLong(mRemoteSeq);
+		out.writeInt(mPending);
+		out.writeInt(mCards.size());
+		for (Card c : mCards.values()) {
+			out.writeUTF(c.number);
+			out.writeLong(c.mBalance);
+			out.writeInt(c.mRecent.size());
+			for (Entry e : c.mRecent) {
+				writeEntry(out, e);
+			}
+		}
+		final RandomAccessFile f = new RandomAccessFile(tmp, "rw");
+		try {
+			f.setLength(0);
+			f.write(bytes.toByteArray());
+			f.getFD().sync();
+		} finally {
+			f.close();
+		}
+		if (!tmp.renameTo(file)) {
+			tmp.delete();
+			throw new IOException("Couldn't rename " + tmp);
+		}
+		mTail = 0;
+	}
+
+	/* Read the snapshot if there's a good one; returns the log offset it goes to. */
+	private long readSnapshot() throws IOException {
+		final File file = new File(mDir, SNAPSHOT);
+		if (!file.exists()) {
+			return 0;
+		}
+		final RandomAccessFile f = new RandomAccessFile(file, "r");
+		try {
+			final byte[] bytes = new byte[(int) f.length()];
+			f.readFully(bytes);
+			final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Not a card snapshot");
+			}
+			final long offset = in.readLong();
+			if (offset > mLog.length()) {
+				throw new IOException("Snapshot is ahead of the log");
+			}
+			mNextSeq = in.readLong();
+			mAcked = in.readLong();
+			mAckedOffset = in.readLong();
+			mRemoteSeq = in.readLong();
+			mPending = in.readInt();
+			for (int n = in.readInt(); n > 0; n--) {
+				final Card c = new Card(in.readUTF());
+				c.mBalance = in.readLong();
+				for (int r = in.readInt(); r > 0; r--) {
+					c.mRecent.add(readEntry(in));
+				}
+				mCards.put(c.number, c);
+			}
+			return offset;
+		} catch (IOException e) {
+			// the log has everything: start from its beginning
+			Log.w(TAG, "Reading the whole log: " + e.getMessage());
+			mCards.clear();
+			mNextSeq = 1;
+			mAcked = mAckedOffset = mRemoteSeq = 0;
+			mPending = 0;
+			return 0;
+		} finally {
+			f.close();
+		}
+	}
+}
@@ -0,0 +1,417 @@
+/*
+ * This file is part of GTFSOffline.
+ *
+ * GTFSOffline is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GTFSOffline is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GTFSOffline.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package modeloPrueba;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+/* Earliest arrival journeys over a Timetable by scanning every hop between two stops
+ * in order of departure (Connection Scan: Dibbelt, Pajor, Strasser and Wagner,
+ * "Intriguingly Simple and Fast Transit Routing", 2013).
+ *
+ * The hops of the day's trips are laid out once, sorted by departure, in parallel
+ * arrays, so a query is a single pass from the first hop after the departure time
+ * until no hop can still improve the destination. Arrivals are kept for each number
+ * of trips taken, to give the same choice between faster and simpler as RaptorRouter.
+ * A stop reached by a hop is walked on from along the Timetable's transfers.
+ *
+ * Hops that leave before midnight, the ends of yesterday's trips, are left out: no
+ * query starts that early. A router must not be used by two threads at once. */
+public class ConnectionScanRouter implements JourneyRouter {
+
+	private static final int INFINITY = RaptorRouter.INFINITY;
+	private static final int LEGS = MAX_TRANSFERS + 1;
+
+	private final Timetable mTT;
+	private final TransferGraph mWalks;
+	private final int mStops;
+	private int mChangeSeconds = 60;
+
+	// The connections, in order of departure then arrival
+	final int numConnections;
+	final int[] connDeparture, connArrival;
+	final int[] connFrom, connTo;
+	final int[] connTrip, connPos;	// connPos is the pattern position of connFrom
+
+	// Per number of trips taken and stop, at [legs * mStops + stop]; legs 0 is walking
+	// from the origin. Arrivals with fewer legs are copied up, so each is "at most".
+	private final int[] mArrival;
+	private final int[] mInConn;		// connection ridden to the stop, or ACCESS or WALKED
+	private final int[] mBoardConn;		// connection its trip was boarded at, or stop walked from
+	private final int[] mWalkSeconds;
+	private final int[] mTripLegs;		// fewest legs on board each trip, or 0 if not boarded
+	private final int[] mTripBoard;
+	private final int[] mEgress;
+	private final int[] mTarget = new int[LEGS + 1];
+
+	private static final int ACCESS = -1;
+	private static final int WALKED = -2;
+
+	// Profile scratch: per stop, (departure, arrival) pairs in decreasing departure
+	private int[][] mProfDep, mProfArr;
+	private int[] mProfCount;
+	private int[] mTripTarget;
+
+	public ConnectionScanRouter(Timetable tt) {
+		mTT = tt;
+		mWalks = tt.transfers;
+		mStops = tt.numStops;
+
+		// One key per hop: departure, arrival and the hop's index in the time blocks
+		int count = 0;
+		for (int p = 0; p < tt.numPatterns; p++) {
+			count += (tt.patternTrips[p + 1] - tt.patternTrips[p]) * (tt.getPatternLength(p) - 1);
+		}
+		long[] keys = new long[count];
+		count = 0;
+		for (int p = 0; p < tt.numPatterns; p++) {
+			final int len = tt.getPatternLength(p);
+			for (int t = tt.patternTrips[p]; t < tt.patternTrips[p + 1]; t++) {
+				final int base = tt.timeIndex(t, 0);
+				for (int pos = 0; pos + 1 < len; pos++) {
+					final int dep = tt.departures[base + pos];
+					if (dep >= 0) {
+						keys[count++] = ((long) dep << 45) | ((long) tt.arrivals[base + pos + 1] << 27) | (base + pos);
+					}
+				}
+			}
+		}
+		keys = Arrays.copyOf(keys, count);
+		Arrays.sort(keys);
+
+		numConnections = count;
+		connDeparture = new int[count];
+		connArrival = new int[count];
+		connFrom = new int[count];
+		connTo = new int[count];
+		connTrip = new int[count];
+		connPos = new int[count];
+		final int[] timeTrip = timeIndexTrips(tt);
+		for (int c = 0; c < count; c++) {
+			final int idx = (int) (keys[c] & ((1 << 27) - 1));
+			final int t = timeTrip[idx];
+			final int p = tt.tripPattern[t];
+			final int pos = idx - tt.timeIndex(t, 0);
+			connDeparture[c] = tt.departures[idx];
+			connArrival[c] = tt.arrivals[idx + 1];
+			connFrom[c] = tt.patternStops[tt.patternStopStart[p] + pos];
+			connTo[c] = tt.patternStops[tt.patternStopStart[p] + pos + 1];
+			connTrip[c] = t;
+			connPos[c] = pos;
+		}
+
+		mArrival = new int[(LEGS + 1) * mStops];
+		mInConn = new int[(LEGS + 1) * mStops];
+		mBoardConn = new int[(LEGS + 1) * mStops];
+		mWalkSeconds = new int[(LEGS + 1) * mStops];
+		mTripLegs = new int[tt.numTrips];
+		mTripBoard = new int[tt.numTrips];
+		mEgress = new int[mStops];
+		Arrays.fill(mEgress, -1);
+	}
+
+	/* The trip of each entry of the time blocks. */
+	private static int[] timeIndexTrips(Timetable tt) {
+		final int[] trips = new int[tt.departures.length];
+		for (int t = 0; t < tt.numTrips; t++) {
+			final int base = tt.timeIndex(t, 0);
+			Arrays.fill(trips, base, base + tt.getPatternLength(tt.tripPattern[t]), t);
+		}
+		return trips;
+	}
+
+	@Override
+	public Timetable getTimetable() {
+		return mTT;
+	}
+
+	@Override
+	public void setChangeSeconds(int seconds) {
+		mChangeSeconds = seconds;
+	}
+
+	@Override
+	public ArrayList<Journey> route(int[] fromStops, int[] fromWalk, int[] toStops, int[] toWalk,
+			int departure, int maxTransfers) {
+		final int legs = Math.min(maxTransfers, MAX_TRANSFERS) + 1;
+		final int n = mStops;
+		Arrays.fill(mArrival, 0, (legs + 1) * n, INFINITY);
+		Arrays.fill(mTripLegs, 0);
+		for (int i = 0; i < toStops.length; i++) {
+			final int s = toStops[i];
+			mEgress[s] = (mEgress[s] < 0) ? toWalk[i] : Math.min(mEgress[s], toWalk[i]);
+		}
+		for (int i = 0; i < fromStops.length; i++) {
+			final int s = fromStops[i];
+			final int a = departure + fromWalk[i];
+			if (a < mArrival[s]) {
+				for (int k = 0; k <= legs; k++) {
+					mArrival[k * n + s] = a;
+					mInConn[k * n + s] = ACCESS;
+				}
+			}
+		}
+		for (int s : fromStops) {
+			walk(s, 0, legs, null);
+		}
+
+		// Best arrival at the destination with at most so many legs. Once a hop leaves
+		// after the best with j legs, it can't help any journey with j or more.
+		final int[] target = mTarget;
+		Arrays.fill(target, 0, legs + 1, INFINITY);
+		int useful = legs;
+		for (int c = firstConnection(departure); c < numConnections; c++) {
+			final int dep = connDeparture[c];
+			while (useful > 0 && target[useful] <= dep) {
+				useful--;
+			}
+			if (useful == 0) {
+				break;
+			}
+			final int trip = connTrip[c];
+			final int from = connFrom[c];
+
+			// Fewest legs we can be on board with: already on the trip, or change here
+			int k = mTripLegs[trip];
+			final int upto = (k == 0) ? useful : Math.min(k - 1, useful);
+			for (int j = 1; j <= upto; j++) {
+				final int at = (j - 1) * n + from;
+				final int ready = mArrival[at];
+				if (ready < INFINITY && ready + ((j > 1) ? mChangeSeconds : 0) <= dep) {
+					k = j;
+					mTripBoard[trip] = c;
+					break;
+				}
+			}
+			if (k == 0 || k > useful) {
+				continue;
+			}
+			mTripLegs[trip] = k;
+
+			final int to = connTo[c];
+			final int arr = connArrival[c];
+			if (arr < mArrival[k * n + to]) {
+				for (int j = k; j <= useful && arr < mArrival[j * n + to]; j++) {
+					mArrival[j * n + to] = arr;
+					mInConn[j * n + to] = c;
+					mBoardConn[j * n + to] = mTripBoard[trip];
+				}
+				reached(to, k, legs, target);
+				walk(to, k, useful, target);
+			}
+		}
+
+		// The best journey for each number of legs that beats those with fewer
+		final ArrayList<Journey> journeys = new ArrayList<Journey>();
+		int best = INFINITY;
+		for (int k = 1; k <= legs; k++) {
+			int stop = -1;
+			for (int i = 0; i < toStops.length; i++) {
+				final int s = toStops[i];
+				final int a = mArrival[k * n + s];
+				if (a < INFINITY && mInConn[k * n + s] != ACCESS && a + mEgress[s] < best) {
+					best = a + mEgress[s];
+					stop = s;
+				}
+			}
+			if (stop >= 0) {
+				journeys.add(reconstruct(k, stop, departure));
+			}
+		}
+
+		for (int s : toStops) {
+			mEgress[s] = -1;
+		}
+		return journeys;
+	}
+
+	/* Walk on from stop s, reached with k legs, to the stops near it. */
+	private void walk(int s, int k, int upto, int[] target) {
+		final TransferGraph g = mWalks;
+		final int n = mStops;
+		final int from = mArrival[k * n + s];
+		for (int e = g.start[s]; e < g.start[s + 1]; e++) {
+			final int t = g.targets[e];
+			final int a = from + g.seconds[e];
+			if (a >= mArrival[k * n + t]) {
+				continue;
+			}
+			for (int j = k; j <= upto && a < mArrival[j * n + t]; j++) {
+				mArrival[j * n + t] = a;
+				mInConn[j * n + t] = WALKED;
+				mBoardConn[j * n + t] = s;
+				mWalkSeconds[j * n + t] = g.seconds[e];
+			}
+			if (target != null) {
+				reached(t, k, upto, target);
+			}
+		}
+	}
+
+	/* Lower the best arrivals at the destination if stop s is one of its stops. */
+	private void reached(int s, int k, int legs, int[] target) {
+		if (mEgress[s] >= 0) {
+			final int a = mArrival[k * mStops + s] + mEgress[s];
+			for (int j = k; j <= legs && a < target[j]; j++) {
+				target[j] = a;
+			}
+		}
+	}
+
+	/* The first connection leaving at or after time. */
+	int firstConnection(int time) {
+		int lo = 0, hi = numConnections;
+		while (lo < hi) {
+			final int mid = (lo + hi) >>> 1;
+			if (connDeparture[mid] < time) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	private Journey reconstruct(int k, int stop, int departure) {
+		final int n = mStops;
+		final Journey j = new Journey();
+		final int arrival = mArrival[k * n + stop];
+		if (mEgress[stop] > 0) {
+			j.legs.add(Journey.Leg.walk(stop, Journey.NO_STOP, arrival, arrival + mEgress[stop]));
+		}
+		int s = stop;
+		while (true) {
+			final int c = mInConn[k * n + s];
+			if (c == ACCESS) {
+				if (mArrival[k * n + s] > departure) {
+					j.legs.add(Journey.Leg.walk(Journey.NO_STOP, s, departure, mArrival[k * n + s]));
+				}
+				break;
+			}
+			if (c == WALKED) {
+				final int a = mArrival[k * n + s];
+				j.legs.add(Journey.Leg.walk(mBoardConn[k * n + s], s, a - mWalkSeconds[k * n + s], a));
+				s = mBoardConn[k * n + s];
+				continue;
+			}
+			final int b = mBoardConn[k * n + s];
+			j.legs.add(Journey.Leg.ride(connTrip[c], connFrom[b], connPos[b], s, connPos[c] + 1,
+					connDeparture[b], connArrival[c]));
+			s = connFrom[b];
+			k--;
+		}
+		Collections.reverse(j.legs);
+		return j;
+	}
+
+	/* Every journey from any of fromStops to toStop leaving between earliest and latest,
+	 * that nothing leaving later gets in earlier: {departures, arrivals}, latest first.
+	 * Departures are from the origin, before the walk to the first stop. The number of
+	 * transfers is not limited. */
+	public int[][] profile(int[] fromStops, int[] fromWalk, int toStop, int earliest, int latest) {
+		final int n = mStops;
+		if (mProfCount == null) {
+			mProfDep = new int[n][];
+			mProfArr = new int[n][];
+			mProfCount = new int[n];
+			mTripTarget = new int[mTT.numTrips];
+		}
+		Arrays.fill(mProfCount, 0);
+		Arrays.fill(mTripTarget, INFINITY);
+
+		final int first = firstConnection(earliest);
+		for (int c = numConnections - 1; c >= first; c--) {
+			final int to = connTo[c], arr = connArrival[c];
+			int best = (to == toStop) ? arr : INFINITY;
+			best = Math.min(best, mTripTarget[connTrip[c]]);
+			best = Math.min(best, evaluate(to, arr + mChangeSeconds));
+			for (int e = mWalks.start[to]; e < mWalks.start[to + 1]; e++) {
+				final int w = mWalks.targets[e], a = arr + mWalks.seconds[e];
+				best = Math.min(best, (w == toStop) ? a : evaluate(w, a + mChangeSeconds));
+			}
+			if (best == INFINITY) {
+				continue;
+			}
+			mTripTarget[connTrip[c]] = best;
+			final int from = connFrom[c];
+			final int last = mProfCount[from] - 1;
+			if (last < 0 || best < mProfArr[from][last]) {
+				add(from, connDeparture[c], best);
+			}
+		}
+
+		// Leave each first stop in time to walk to it
+		final ArrayList<int[]> all = new ArrayList<int[]>();
+		for (int i = 0; i < fromStops.length; i++) {
+			final int s = fromStops[i];
+			for (int e = 0; e < mProfCount[s]; e++) {
+				final int leave = mProfDep[s][e] - fromWalk[i];
+				if (leave >= earliest && leave <= latest) {
+					all.add(new int[] { leave, mProfArr[s][e] });
+				}
+			}
+		}
+		Collections.sort(all, new java.util.Comparator<int[]>() {
+			@Override
+			public int compare(int[] a, int[] b) {
+				return (a[0] != b[0]) ? b[0] - a[0] : a[1] - b[1];
+			}
+		});
+		final int[] deps = new int[all.size()], arrs = new int[all.size()];
+		int m = 0;
+		for (int[] e : all) {
+			if (m == 0 || e[1] < arrs[m - 1]) {
+				deps[m] = e[0];
+				arrs[m] = e[1];
+				m++;
+			}
+		}
+		return new int[][] { Arrays.copyOf(deps, m), Arrays.copyOf(arrs, m) };
+	}
+
+	/* Earliest arrival from stop s leaving at or after time, from the profile so far. */
+	private int evaluate(int s, int time) {
+		// Departures decrease along the list, so the last one at or after time is best
+		final int[] deps = mProfDep[s];
+		int lo = 0, hi = mProfCount[s];
+		while (lo < hi) {
+			final int mid = (lo + hi) >>> 1;
+			if (deps[mid] >= time) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return (lo == 0) ? INFINITY : mProfArr[s][lo - 1];
+	}
+
+	private void add(int s, int dep, int arr) {
+		int c = mProfCount[s];
+		if (mProfDep[s] == null) {
+			mProfDep[s] = new int[8];
+			mProfArr[s] = new int[8];
+		} else if (c == mProfDep[s].length) {
+			mProfDep[s] = Arrays.copyOf(mProfDep[s], c * 2);
+			mProfArr[s] = Arrays.copyOf(mProfArr[s], c * 2);
+		}
+		mProfDep[s][c] = dep;
+		mProfArr[s][c] = arr;
+		mProfCount[s] = c + 1;
+	}
+}
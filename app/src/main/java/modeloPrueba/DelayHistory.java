@@ -0,0 +1,355 @@
+/*
+ * This file is part of GTFSOffline.
+ *
+ * GTFSOffline is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GTFSOffline is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GTFSOffline.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package modeloPrueba;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+
+import android.util.Log;
+
+/* How late the buses of a feed usually are, learnt from its realtime delays, for the
+ * times when there's no live prediction: schedules for the feeders are often
+ * optimistic, and a typical delay is a better guess than none.
+ *
+ * Delays are kept by route and headsign (which stand for the pattern, as that's what
+ * the departure lists know a trip by), stop, and bucket: an hour of the day on a
+ * weekday, Saturday or Sunday. Each key has a ring of its last RING delays, and the
+ * prediction is their median. The keys live in a fixed table of SLOTS, WAYS to a
+ * set, so memory is bounded whatever the feed, and adding a delay or reading a
+ * prediction is a hash, a look at WAYS slots and a ring of RING: O(1). When a set is
+ * full the key updated longest ago makes way. Keys are 64 bit hashes; a collision,
+ * rare as it is, just mixes two keys' delays.
+ *
+ * Each feed's history is read from a file next to its database when first asked for,
+ * fed from RealtimePoller as its delays are laid over the timetable, and written back
+ * every SAVE_INTERVAL while it's being fed. */
+public final class DelayHistory {
+	private static final String TAG = "DelayHistory";
+
+	public static final String SUFFIX = ".hist";		// added to the feed's file name
+	public static final int NONE = TripDelays.NONE;
+
+	static final int RING = 16;
+	static final int MIN_SAMPLES = 3;					// for a prediction
+	private static final int SLOTS = 8192, WAYS = 4;
+	private static final int DAY = 24 * 60 * 60;		// s
+	// Delays are kept to this range: anything outside is a broken feed, not a late bus
+	private static final int MIN_DELAY = -30 * 60, MAX_DELAY = 3 * 60 * 60;	// s
+	// A departure predicted up to this long before the first poll we see counts
+	private static final int MAX_GAP = 2 * 60;			// s
+	private static final long SAVE_INTERVAL = 5 * 60 * 1000;	// ms
+
+	private static final int MAGIC = 0x44485354;		// "DHST"
+	private static final int VERSION = 1;
+
+	private static final HashMap<String, DelayHistory> sOpen = new HashMap<String, DelayHistory>();
+
+	private final int mSets;
+	private final long[] mKeys;			// by slot, 0 if empty
+	private final int[] mUsed;			// by slot, minute last updated
+	private final byte[] mCount, mNext;	// by slot: samples held, where the next goes
+	private final short[] mSamples;		// by slot, RING each, s
+	private final int[] mScratch = new int[RING];
+
+	private File mFile = null;
+	private boolean mDirty = false;
+	private long mSaved = 0;			// ms
+	private String mLastDate = null;	// of the last observation, and its time of day
+	private int mLastSecond = 0;
+
+	public DelayHistory() {
+		this(SLOTS);
+	}
+
+	/* A history of slots keys, a power of two and a multiple of WAYS. */
+	DelayHistory(int slots) {
+		mSets = slots / WAYS;
+		mKeys = new long[slots];
+		mUsed = new int[slots];
+		mCount = new byte[slots];
+		mNext = new byte[slots];
+		mSamples = new short[slots * RING];
+	}
+
+	/* A feed's history, read from beside its database the first time. */
+	public static DelayHistory open(DatabaseHelper aHelper, String aDBName) {
+		synchronized (sOpen) {
+			DelayHistory h = sOpen.get(aDBName);
+			if (h != null) {
+				return h;
+			}
+			final File file = new File(aHelper.GetDBPath(), aDBName + SUFFIX);
+			h = null;
+			if (file.exists()) {
+				try {
+					h = read(file);
+				} catch (IOException e) {
+					Log.w(TAG, "Starting " + file + " again: " + e.getMessage());
+				}
+			}
+			if (h == null) {
+				h = new DelayHistory();
+			}
+			h.mFile = file;
+			sOpen.put(aDBName, h);
+			return h;
+		}
+	}
+
+	/* A feed's history if it's been opened, or null. */
+	public static DelayHistory peek(String aDBName) {
+		synchronized (sOpen) {
+			return sOpen.get(aDBName);
+		}
+	}
+
+	/* Learn from the delays just laid over a feed's timetable for today, if its
+	 * history is open. Called by RealtimePoller after each feed it publishes. */
+	public static void observe(String aDBName) {
+		final DelayHistory h = peek(aDBName);
+		if (h == null) {
+			return;
+		}
+		final Calendar cal = Calendar.getInstance();
+		final String date = String.format("%04d%02d%02d", cal.get(Calendar.YEAR), cal.get(Calendar.MONTH) + 1,
+				cal.get(Calendar.DAY_OF_MONTH));
+		final Timetable tt = TimetableLoader.peek(aDBName, date);
+		final RealtimeOverlay rt = (tt == null) ? null : tt.getRealtime();
+		if (rt == null) {
+			return;
+		}
+		final int now = cal.get(Calendar.HOUR_OF_DAY) * 3600 + cal.get(Calendar.MINUTE) * 60 + cal.get(Calendar.SECOND);
+		h.observe(rt, date, cal.get(Calendar.DAY_OF_WEEK) - Calendar.SUNDAY, now, System.currentTimeMillis());
+	}
+
+	/* Record the departures rt predicts since the last observation, which they'll have
+	 * made by now (s after midnight of date, whose day of the week is weekDay, 0 for
+	 * Sunday), and save now and again. */
+	synchronized void observe(RealtimeOverlay rt, String date, int weekDay, int now, long nowMillis) {
+		final int from = (date.equals(mLastDate) && now - mLastSecond <= MAX_GAP && now >= mLastSecond)
+				? mLastSecond : now - MAX_GAP;
+		record(rt, weekDay, from, now, nowMillis);
+		mLastDate = date;
+		mLastSecond = now;
+		if (mFile != null && mDirty && nowMillis - mSaved >= SAVE_INTERVAL) {
+			try {
+				write(mFile);
+			} catch (IOException e) {
+				Log.w(TAG, "Couldn't save " + mFile + ": " + e.getMessage());
+			}
+			mSaved = nowMillis;
+		}
+	}
+
+	/* Add the delay of every departure rt predicts after from and no later than to,
+	 * s after midnight of a day whose day of the week is weekDay. Returns how many. */
+	public synchronized int record(RealtimeOverlay rt, int weekDay, int from, int to, long now) {
+		final Timetable tt = rt.getTimetable();
+		int added = 0;
+		for (int t = 0; t < tt.numTrips; t++) {
+			if (!rt.has(t)) {
+				continue;
+			}
+			final int p = tt.tripPattern[t], stops = tt.patternStopStart[p];
+			final String route = tt.getTripRoute(t), headsign = tt.getTripHeadsign(t);
+			for (int pos = 0; pos < tt.getPatternLength(p); pos++) {
+				final int delay = rt.delay(t, pos);
+				if (delay == TripDelays.NONE || delay == TripDelays.SKIPPED) {
+					continue;
+				}
+				final int scheduled = tt.getDeparture(t, pos);
+				if (scheduled + delay > from && scheduled + delay <= to) {
+					add(route, headsign.equals("") ? route : headsign, tt.getStopId(tt.patternStops[stops + pos]),
+							bucket(weekDay, scheduled), delay, now);
+					added++;
+				}
+			}
+		}
+		return added;
+	}
+
+	/* The bucket of a departure scheduled at seconds after midnight (past 24 hours for
+	 * the small hours of the next day) of a day whose day of the week is weekDay, 0 for
+	 * Sunday to 6 for Saturday. */
+	public static int bucket(int weekDay, int seconds) {
+		final int day = (weekDay + seconds / DAY) % 7;
+		final int type = (day == 0) ? 2 : (day == 6) ? 1 : 0;
+		return type * 24 + (seconds % DAY) / 3600;
+	}
+
+	/* Add a delay seen at a stop, at now (ms). */
+	public synchronized void add(String route, String headsign, String stopId, int bucket, int delay, long now) {
+		final long key = key(route, headsign, stopId, bucket);
+		final int base = set(key);
+		int slot = -1;
+		for (int s = base; s < base + WAYS; s++) {
+			if (mKeys[s] == key) {
+				slot = s;
+				break;
+			}
+		}
+		if (slot < 0) {
+			// an empty slot, or the one left alone longest
+			slot = base;
+			for (int s = base; s < base + WAYS && mKeys[slot] != 0; s++) {
+				if (mKeys[s] == 0 || mUsed[s] < mUsed[slot]) {
+					slot = s;
+				}
+			}
+			mKeys[slot] = key;
+			mCount[slot] = 0;
+			mNext[slot] = 0;
+		}
+		mSamples[slot * RING + mNext[slot]] = (short) Math.max(MIN_DELAY, Math.min(MAX_DELAY, delay));
+		mNext[slot] = (byte) ((mNext[slot] + 1) % RING);
+		mCount[slot] = (byte) Math.min(mCount[slot] + 1, RING);
+		mUsed[slot] = (int) (now / 60000);
+		mDirty = true;
+	}
+
+	/* The median of the last delays seen at a stop in a bucket, or NONE if there
+	 * aren't MIN_SAMPLES of them. */
+	public synchronized int typicalDelay(String route, String headsign, String stopId, int bucket) {
+		final long key = key(route, headsign, stopId, bucket);
+		final int base = set(key);
+		for (int s = base; s < base + WAYS; s++) {
+			if (mKeys[s] == key) {
+				final int n = mCount[s];
+				if (n < MIN_SAMPLES) {
+					return NONE;
+				}
+				for (int i = 0; i < n; i++) {
+					mScratch[i] = mSamples[s * RING + i];
+				}
+				Arrays.sort(mScratch, 0, n);
+				return (n % 2 == 1) ? mScratch[n / 2] : (mScratch[n / 2 - 1] + mScratch[n / 2]) / 2;
+			}
+		}
+		return NONE;
+	}
+
+	/* How many keys have delays. */
+	public synchronized int size() {
+		int n = 0;
+		for (long k : mKeys) {
+			if (k != 0) {
+				n++;
+			}
+		}
+		return n;
+	}
+
+	private int set(long key) {
+		return ((int) (key ^ (key >>> 32)) & (mSets - 1)) * WAYS;
+	}
+
+	/* FNV-1a of the fields, never 0. */
+	private static long key(String route, String headsign, String stopId, int bucket) {
+		long h = 0xcbf29ce484222325L;
+		h = hash(h, route);
+		h = hash(h, headsign);
+		h = hash(h, stopId);
+		h = (h ^ bucket) * 0x100000001b3L;
+		return (h == 0) ? 1 : h;
+	}
+
+	private static long hash(long h, String s) {
+		for (int i = 0; i < s.length(); i++) {
+			h = (h ^ s.charAt(i)) * 0x100000001b3L;
+		}
+		return (h ^ 0xff) * 0x100000001b3L;		// so "ab","c" isn't "a","bc"
+	}
+
+	/* Write the keys in use to file, by way of a temporary file so a reader never
+	 * sees half of one. */
+	public synchronized void write(File file) throws IOException {
+		final File tmp = new File(file.getPath() + ".new");
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(mKeys.length);
+			out.writeInt(size());
+			for (int s = 0; s < mKeys.length; s++) {
+				if (mKeys[s] == 0) {
+					continue;
+				}
+				out.writeInt(s);
+				out.writeLong(mKeys[s]);
+				out.writeInt(mUsed[s]);
+				out.writeByte(mCount[s]);
+				out.writeByte(mNext[s]);
+				for (int i = 0; i < mCount[s]; i++) {
+					out.writeShort(mSamples[s * RING + i]);
+				}
+			}
+		} finally {
+			out.close();
+		}
+		if (!tmp.renameTo(file)) {
+			tmp.delete();
+			throw new IOException("Couldn't rename " + tmp);
+		}
+		mDirty = false;
+	}
+
+	/* A history written by write(). */
+	public static DelayHistory read(File file) throws IOException {
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Not a delay history file: " + file);
+			}
+			final int slots = in.readInt();
+			if (slots <= 0 || slots % WAYS != 0 || Integer.bitCount(slots / WAYS) != 1) {
+				throw new IOException("Bad size " + slots + " in " + file);
+			}
+			final DelayHistory h = new DelayHistory(slots);
+			final int used = in.readInt();
+			for (int u = 0; u < used; u++) {
+				final int s = in.readInt();
+				if (s < 0 || s >= slots) {
+					throw new IOException("Bad slot " + s + " in " + file);
+				}
+				h.mKeys[s] = in.readLong();
+				h.mUsed[s] = in.readInt();
+				h.mCount[s] = in.readByte();
+				h.mNext[s] = in.readByte();
+				if (h.mCount[s] < 0 || h.mCount[s] > RING || h.mNext[s] < 0 || h.mNext[s] >= RING) {
+					throw new IOException("Bad ring in " + file);
+				}
+				for (int i = 0; i < h.mCount[s]; i++) {
+					h.mSamples[s * RING + i] = in.readShort();
+				}
+			}
+			return h;
+		} finally {
+			in.close();
+		}
+	}
+}
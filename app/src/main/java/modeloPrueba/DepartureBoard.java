@@ -0,0 +1,170 @@
+/*
+ * This file is part of GTFSOffline.
+ *
+ * GTFSOffline is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GTFSOffline is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GTFSOffline.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package modeloPrueba;
+
+import java.util.HashMap;
+import java.util.List;
+
+/* The rows of a departures list, kept current as the clock moves on.
+ *
+ * Each row's departure time is pinned to an absolute instant when the board is built,
+ * so every minute tick() can drop the buses that have gone and rewrite the "Departs in"
+ * text of the rest without going near the database. isLow() says when a stop is
+ * running out of departures and it's worth fetching more. A board that came back
+ * empty, say for stops with no more service tonight, only asks again every
+ * EMPTY_RECHECK, as the window looked ahead moves on.
+ *
+ * Rows are in the list format (dist, stop_id, stop_name, headsign, departsIn, trip_id,
+ * dbName, routeNo) with the departure time, hhmmss, in DEPARTURE. Only use a board
+ * from one thread at a time; the rows are updated in place. */
+public class DepartureBoard {
+
+	public static final int DEPARTURE = 8;	// row field holding the departure time
+
+	static final long MINUTE = 60 * 1000;	// ms
+	private static final int DAY = 24 * 60 * 60;	// s
+	// Departures are only ever fetched ahead of now, so one that seems more than this
+	// far ahead was actually a moment ago (just before midnight, seen just after).
+	private static final int MAX_AHEAD = 23 * 60 * 60;	// s
+	static final long EMPTY_RECHECK = 15 * MINUTE;	// ms
+
+	private final String[][] mRows;
+	private final long[] mDepartAt;		// ms
+	private final int[] mStopOf;
+	private final int[] mLeft, mLow;	// per stop: departures left, and when that's too few
+	private int mCount;
+	private final long mBuiltAt;	// ms
+
+	/* Build a board from rows fetched at builtAt (ms), when the local time of day was
+	 * builtSecond seconds past midnight. A stop is low once it's down to minPerStop
+	 * departures, or has none left if it started with no more than that. */
+	public DepartureBoard(List<String[]> rows, long builtAt, int builtSecond, int minPerStop) {
+		mCount = rows.size();
+		mBuiltAt = builtAt;
+		mRows = rows.toArray(new String[mCount][]);
+		mDepartAt = new long[mCount];
+		mStopOf = new int[mCount];
+
+		final HashMap<String, Integer> stops = new HashMap<String, Integer>();
+		final long midnight = builtAt - builtAt % 1000 - builtSecond * 1000L;
+		for (int i = 0; i < mCount; i++) {
+			final String[] row = mRows[i];
+			int ahead = (parseSeconds(row[DEPARTURE]) - builtSecond) % DAY;
+			if (ahead < 0) {
+				ahead += DAY;
+			}
+			if (ahead > MAX_AHEAD) {
+				ahead -= DAY;
+			}
+			mDepartAt[i] = midnight + (builtSecond + ahead) * 1000L;
+
+			final String key = row[6] + "\n" + row[1];
+			Integer stop = stops.get(key);
+			if (stop == null) {
+				stop = stops.size();
+				stops.put(key, stop);
+			}
+			mStopOf[i] = stop;
+		}
+		mLeft = new int[stops.size()];
+		mLow = new int[stops.size()];
+		for (int i = 0; i < mCount; i++) {
+			mLeft[mStopOf[i]]++;
+		}
+		for (int s = 0; s < mLeft.length; s++) {
+			mLow[s] = Math.min(Math.max(0, minPerStop), mLeft[s] - 1);
+		}
+	}
+
+	/* Drop the departures that have gone by now (ms) and bring the others' countdown up
+	 * to date. Returns the number of rows left. */
+	public int tick(long now) {
+		final long nowMinute = floorMinute(now);
+		int kept = 0;
+		for (int i = 0; i < mCount; i++) {
+			final int minutes = (int) (floorMinute(mDepartAt[i]) - nowMinute);
+			if (minutes < 0) {
+				mLeft[mStopOf[i]]--;
+				continue;
+			}
+			mRows[i][4] = departsIn(minutes);
+			mRows[kept] = mRows[i];
+			mDepartAt[kept] = mDepartAt[i];
+			mStopOf[kept] = mStopOf[i];
+			kept++;
+		}
+		for (int i = kept; i < mCount; i++) {
+			mRows[i] = null;
+		}
+		mCount = kept;
+		return mCount;
+	}
+
+	/* True at now (ms) if some stop is down to its last few departures, or the board was
+	 * built empty and that was EMPTY_RECHECK ago. */
+	public boolean isLow(long now) {
+		if (mLeft.length == 0) {
+			return now - mBuiltAt >= EMPTY_RECHECK;
+		}
+		for (int s = 0; s < mLeft.length; s++) {
+			if (mLeft[s] <= mLow[s]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public int size() {
+		return mCount;
+	}
+
+	/* Replace the contents of out with the current rows, in order. */
+	public void copyRows(List<String[]> out) {
+		out.clear();
+		for (int i = 0; i < mCount; i++) {
+			out.add(mRows[i]);
+		}
+	}
+
+	/* The "Departs in ..." text for a departure the given number of minutes away. */
+	public static String departsIn(int minutes) {
+		final int hours = minutes / 60, mins = minutes % 60;
+		final String m = mins + (mins == 1 ? " minute" : " minutes");
+		if (hours == 0) {
+			return "Departs in " + m;
+		}
+		return "Departs in " + hours + (hours == 1 ? " hour " : " hours ") + (mins == 1 ? "and " : "") + m;
+	}
+
+	/* Seconds past midnight of a departure time, hhmmss or GTFS hh:mm:ss; hours can run past 24. */
+	static int parseSeconds(String time) {
+		final int c1 = time.indexOf(':');
+		if (c1 < 0) {
+			final int n = time.length();
+			return Integer.parseInt(time.substring(0, n - 4)) * 3600
+					+ Integer.parseInt(time.substring(n - 4, n - 2)) * 60 + Integer.parseInt(time.substring(n - 2));
+		}
+		final int c2 = time.indexOf(':', c1 + 1);
+		return Integer.parseInt(time.substring(0, c1).trim()) * 3600
+				+ Integer.parseInt(time.substring(c1 + 1, c2)) * 60 + Integer.parseInt(time.substring(c2 + 1).trim());
+	}
+
+	private static long floorMinute(long ms) {
+		return (ms >= 0) ? ms / MINUTE : (ms - MINUTE + 1) / MINUTE;
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * This file is part of GTFSOffline.
+ *
+ * GTFSOffline is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GTFSOffline is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GTFSOffline.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package modeloPrueba;
+
+/* Distance and bearing from one point to many stops, over parallel arrays.
+ *
+ * The stop coordinates are kept in radians along with the cosine of their latitude
+ * (see toRadians()), so the loops below are plain arithmetic over arrays with no calls
+ * or branches in the body, which the JIT (and ART's compiler) can unroll. The cheap
+ * equirectangular approximation is used to throw away stops that can't be close
+ * enough, and the exact haversine distance is only worked out for the rest. */
+public final class DistanceKernel {
+
+	static final double EARTH_RADIUS = StopGridIndex.EARTH_RADIUS;
+
+	// The equirectangular approximation is within a fraction of a percent of the
+	// haversine distance over a city; pad the cut off so it never drops a real match.
+	private static final double PREFILTER_SLACK = 1.01;
+
+	private DistanceKernel() {
+	}
+
+	/* Fill rad with deg converted to radians, and cos with the cosine of lat (for latitudes). */
+	public static void toRadians(double[] deg, double[] rad, int from, int to) {
+		for (int i = from; i < to; i++) {
+			rad[i] = deg[i] * (Math.PI / 180.0);
+		}
+	}
+
+	public static void cosines(double[] latRad, double[] cos, int from, int to) {
+		for (int i = from; i < to; i++) {
+			cos[i] = Math.cos(latRad[i]);
+		}
+	}
+
+	/* Approximate squared distance, in radians squared, from (lat0, lon0) to stops [from, to),
+	 * written to out[0 .. to-from). Coordinates in radians. */
+	public static void approxSquared(double lat0, double lon0, double[] lat, double[] lon,
+			int from, int to, double[] out) {
+		final double k = Math.cos(lat0);
+		for (int i = from; i < to; i++) {
+			final double x = (lon[i] - lon0) * k;
+			final double y = lat[i] - lat0;
+			out[i - from] = x * x + y * y;
+		}
+	}
+
+	/* Indices of the stops in [from, to) within about maxMetres of (lat0, lon0), using
+	 * the equirectangular approximation. Scratch must hold to-from doubles. Returns the
+	 * number of indices written to out. */
+	public static int prefilter(double lat0, double lon0, double[] lat, double[] lon,
+			int from, int to, double maxMetres, double[] scratch, int[] out) {
+		approxSquared(lat0, lon0, lat, lon, from, to, scratch);
+		final double r = maxMetres * PREFILTER_SLACK / EARTH_RADIUS;
+		final double r2 = r * r;
+		int n = 0;
+		for (int i = from; i < to; i++) {
+			// branch free compaction: always write, only advance on a hit
+			out[n] = i;
+			n += (scratch[i - from] <= r2) ? 1 : 0;
+		}
+		return n;
+	}
+
+	/* Exact haversine distance in metres from (lat0, lon0) to the n stops listed in idx.
+	 * Coordinates in radians, cosLat the cosine of each stop's latitude. */
+	public static void haversine(double lat0, double lon0, double[] lat, double[] lon, double[] cosLat,
+			int[] idx, int n, float[] outDist) {
+		final double c0 = Math.cos(lat0);
+		for (int j = 0; j < n; j++) {
+			final int i = idx[j];
+			final double sdp = Math.sin((lat[i] - lat0) * 0.5);
+			final double sdl = Math.sin((lon[i] - lon0) * 0.5);
+			final double h = sdp * sdp + c0 * cosLat[i] * sdl * sdl;
+			outDist[j] = (float) (2.0 * EARTH_RADIUS * Math.asin(Math.min(1.0, Math.sqrt(h))));
+		}
+	}
+
+	/* As above, for the stops [from, to) in order. */
+	public static void haversine(double lat0, double lon0, double[] lat, double[] lon, double[] cosLat,
+			int from, int to, float[] outDist) {
+		final double c0 = Math.cos(lat0);
+		for (int i = from; i < to; i++) {
+			final double sdp = Math.sin((lat[i] - lat0) * 0.5);
+			final double sdl = Math.sin((lon[i] - lon0) * 0.5);
+			final double h = sdp * sdp + c0 * cosLat[i] * sdl * sdl;
+			outDist[i - from] = (float) (2.0 * EARTH_RADIUS * Math.asin(Math.min(1.0, Math.sqrt(h))));
+		}
+	}
+
+	/* Initial bearing in degrees (-180 to +180) from (lat0, lon0) to the n stops listed in idx. */
+	public static void bearing(double lat0, double lon0, double[] lat, double[] lon, double[] cosLat,
+			int[] idx, int n, float[] outBearing) {
+		final double s0 = Math.sin(lat0), c0 = Math.cos(lat0);
+		for (int j = 0; j < n; j++) {
+			final int i = idx[j];
+			final double dl = lon[i] - lon0;
+			final double y = Math.sin(dl) * cosLat[i];
+			final double x = c0 * Math.sin(lat[i]) - s0 * cosLat[i] * Math.cos(dl);
+			outBearing[j] = (float) Math.toDegrees(Math.atan2(y, x));
+		}
+	}
+}
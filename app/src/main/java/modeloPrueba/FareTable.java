@@ -0,0 +1,379 @@
+/*
+ * This file is part of GTFSOffline.
+ *
+ * GTFSOffline is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GTFSOffline is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GTFSOffline.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package modeloPrueba;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/* What a journey costs, from a feed's fare_attributes and fare_rules.
+ *
+ * The rules are compiled into bit sets of the fares that allow each route, each pair
+ * of origin and destination zones, and each zone passed through, so the fares that
+ * could cover a run of rides are the AND of a few rows. Each rule holds on its own: a
+ * rule without a route_id is good on any route, one without an origin or destination
+ * between any zones there, and a rule with none of the three makes its fare good for
+ * anything. Where a fare has rules naming routes and rules naming zones, the sets only
+ * say it might do, as a route of one rule and the zones of another don't make a fare;
+ * its rules are kept and checked one by one for the rides the sets let through.
+ *
+ * contains_id is taken for the fare as a whole rather than rule by rule: a fare with
+ * contains rules is good through the zones they name, whatever routes or origin and
+ * destination the rules that name them have. Feeds that tie contains_ids to particular
+ * routes are priced as if any of the fare's routes could pass through any of them.
+ *
+ * A journey's rides are split into runs, each paid with one fare whose transfers cover
+ * the changes in it and whose transfer_duration covers the time from the first
+ * boarding to the last, and the cheapest split is found by going through the ways of
+ * ending each run. Walks are free and don't count as rides.
+ *
+ * Prices are kept in hundredths of the currency, as feeds give cents even where there
+ * aren't any. A Pricer ties the table to a timetable's trips and stops; it keeps its
+ * scratch space and doesn't allocate while pricing. */
+public final class FareTable {
+
+	public static final long UNKNOWN = -1;		// no fare covers the journey
+	private static final int UNLIMITED = Integer.MAX_VALUE;
+
+	private final String[] mFareIds;
+	private final long[] mPrices;				// by fare, hundredths
+	private final String[] mCurrencies;
+	private final int[] mTransfers;				// by fare, UNLIMITED if not given
+	private final int[] mDurations;				// by fare, s, UNLIMITED if not given
+	private final int mWords;					// longs in a set of fares
+	// Index 0 of each is a route or zone no rule names, or no zone at all
+	private final HashMap<String, Integer> mRoutes = new HashMap<String, Integer>();
+	private final HashMap<String, Integer> mZones = new HashMap<String, Integer>();
+	private final long[] mByRoute;				// fares allowing route r: r * mWords
+	private final long[] mByPair;				// fares between zones o, d: (o * zones + d) * mWords
+	private final long[] mByZone;				// fares allowed through zone z: z * mWords
+	private final int mZoneCount;
+	// The rules of fares naming both routes and zones, fare f's from mRuleStart[f] to
+	// mRuleStart[f + 1]: a route and origin and destination zones, -1 for any
+	private final int[] mRuleStart, mRuleRoute, mRuleOrigin, mRuleDest;
+
+	/* attributes rows are fare_id, price, currency_type, payment_method, transfers,
+	 * transfer_duration; rules rows fare_id, route_id, origin_id, destination_id,
+	 * contains_id, with "" or null for what's not given. Rules for fares without
+	 * attributes are left out. */
+	public FareTable(ArrayList<String[]> attributes, ArrayList<String[]> rules) {
+		final HashMap<String, Integer> fares = new HashMap<String, Integer>();
+		final int most = attributes.size();
+		final String[] ids = new String[most], currencies = new String[most];
+		final long[] prices = new long[most];
+		final int[] transfers = new int[most], durations = new int[most];
+		int n = 0;
+		for (String[] a : attributes) {
+			if (empty(a[0]) || empty(a[1]) || fares.containsKey(a[0])) {
+				continue;
+			}
+			try {
+				prices[n] = Math.round(Double.parseDouble(a[1].trim()) * 100);
+				transfers[n] = empty(a[4]) ? UNLIMITED : Integer.parseInt(a[4].trim());
+				durations[n] = (a.length < 6 || empty(a[5])) ? UNLIMITED : Integer.parseInt(a[5].trim());
+			} catch (NumberFormatException e) {
+				continue;	// a fare we can't read can't be charged
+			}
+			ids[n] = a[0];
+			currencies[n] = a[2];
+			fares.put(a[0], n++);
+		}
+		mFareIds = Arrays.copyOf(ids, n);
+		mPrices = Arrays.copyOf(prices, n);
+		mCurrencies = Arrays.copyOf(currencies, n);
+		mTransfers = Arrays.copyOf(transfers, n);
+		mDurations = Arrays.copyOf(durations, n);
+		mWords = Math.max(1, (n + 63) / 64);
+
+		// What each fare's rules say, and the routes and zones they name
+		final boolean[] anyRoute = new boolean[n], anyPair = new boolean[n], anyZone = new boolean[n];
+		final boolean[] hasRoute = new boolean[n], hasPair = new boolean[n], hasZone = new boolean[n];
+		final boolean[] open = new boolean[n];	// a rule on no route, between any zones
+		for (String[] r : rules) {
+			final Integer f = fares.get(r[0]);
+			if (f == null) {
+				continue;
+			}
+			if (empty(r[1]) && empty(r[2]) && empty(r[3]) && empty(r[4])) {
+				anyZone[f] = true;
+			}
+			if (empty(r[1])) {
+				anyRoute[f] = true;
+			} else {
+				hasRoute[f] = true;
+				index(mRoutes, r[1]);
+			}
+			if (empty(r[2]) && empty(r[3])) {
+				anyPair[f] = true;
+			} else {
+				hasPair[f] = true;
+			}
+			open[f] |= empty(r[1]) && empty(r[2]) && empty(r[3]);
+			if (!empty(r[4])) {
+				hasZone[f] = true;
+			}
+			for (int z = 2; z <= 4; z++) {
+				if (!empty(r[z])) {
+					index(mZones, r[z]);
+				}
+			}
+		}
+		final int routes = mRoutes.size() + 1;
+		mZoneCount = mZones.size() + 1;
+		mByRoute = new long[routes * mWords];
+		mByPair = new long[mZoneCount * mZoneCount * mWords];
+		mByZone = new long[mZoneCount * mWords];
+
+		// Fares with a rule not naming one kind, or no rules at all, allow everything of
+		// that kind
+		for (int f = 0; f < n; f++) {
+			if (anyRoute[f] || !hasRoute[f]) {
+				for (int r = 0; r < routes; r++) {
+					set(mByRoute, r, f);
+				}
+			}
+			if (anyPair[f] || !hasPair[f]) {
+				for (int p = 0; p < mZoneCount * mZoneCount; p++) {
+					set(mByPair, p, f);
+				}
+			}
+			if (anyZone[f] || !hasZone[f]) {
+				for (int z = 0; z < mZoneCount; z++) {
+					set(mByZone, z, f);
+				}
+			}
+		}
+		for (String[] r : rules) {
+			final Integer f = fares.get(r[0]);
+			if (f == null) {
+				continue;
+			}
+			if (!empty(r[1])) {
+				set(mByRoute, mRoutes.get(r[1]), f);
+			}
+			if (!empty(r[2]) || !empty(r[3])) {
+				// an empty end matches any zone there
+				for (int o = 0; o < mZoneCount; o++) {
+					if (!empty(r[2]) && o != mZones.get(r[2])) {
+						continue;
+					}
+					for (int d = 0; d < mZoneCount; d++) {
+						if (empty(r[3]) || d == mZones.get(r[3])) {
+							set(mByPair, o * mZoneCount + d, f);
+						}
+					}
+				}
+			}
+			if (!empty(r[4])) {
+				set(mByZone, mZones.get(r[4]), f);
+			}
+		}
+		// a stop with no zone, or one no rule names, doesn't hold any fare back
+		Arrays.fill(mByZone, 0, mWords, -1L);
+
+		// The rules to check one by one
+		final ArrayList<int[]> mixed = new ArrayList<int[]>();
+		mRuleStart = new int[n + 1];
+		for (int f = 0; f < n; f++) {
+			mRuleStart[f] = mixed.size();
+			if (open[f] || !hasRoute[f] || !hasPair[f]) {
+				continue;
+			}
+			for (String[] r : rules) {
+				if (r[0].equals(mFareIds[f])) {
+					mixed.add(new int[] { empty(r[1]) ? -1 : mRoutes.get(r[1]),
+							empty(r[2]) ? -1 : mZones.get(r[2]), empty(r[3]) ? -1 : mZones.get(r[3]) });
+				}
+			}
+		}
+		mRuleStart[n] = mixed.size();
+		mRuleRoute = new int[mixed.size()];
+		mRuleOrigin = new int[mixed.size()];
+		mRuleDest = new int[mixed.size()];
+		for (int i = 0; i < mixed.size(); i++) {
+			mRuleRoute[i] = mixed.get(i)[0];
+			mRuleOrigin[i] = mixed.get(i)[1];
+			mRuleDest[i] = mixed.get(i)[2];
+		}
+	}
+
+	public int getFareCount() {
+		return mFareIds.length;
+	}
+
+	/* The currency of the fares, or null if there are none. */
+	public String getCurrency() {
+		return (mCurrencies.length == 0) ? null : mCurrencies[0];
+	}
+
+	/* The cheapest fare there is, what a single ride costs at least, or UNKNOWN. */
+	public long getCheapest() {
+		long cheapest = UNKNOWN;
+		for (long p : mPrices) {
+			if (cheapest == UNKNOWN || p < cheapest) {
+				cheapest = p;
+			}
+		}
+		return cheapest;
+	}
+
+	/* Ties the fares to tt: tripRoutes maps its trip_ids to route_ids, stopZones its
+	 * stop_ids to zone_ids, either missing what it doesn't know. */
+	public Pricer pricer(Timetable tt, HashMap<String, String> tripRoutes, HashMap<String, String> stopZones) {
+		final int[] routes = new int[tt.getTripCount()];
+		for (int t = 0; t < routes.length; t++) {
+			routes[t] = lookup(mRoutes, tripRoutes.get(tt.getTripId(t)));
+		}
+		final int[] zones = new int[tt.getStopCount()];
+		for (int s = 0; s < zones.length; s++) {
+			zones[s] = lookup(mZones, stopZones.get(tt.getStopId(s)));
+		}
+		return new Pricer(tt, routes, zones);
+	}
+
+	public final class Pricer {
+		private final Timetable mTT;
+		private final int[] mTripRoute, mStopZone;
+		// scratch, grown as needed
+		private Journey.Leg[] mRides = new Journey.Leg[8];
+		private long[] mBest = new long[9];
+		private final long[] mCandidates = new long[mWords];
+
+		Pricer(Timetable tt, int[] tripRoute, int[] stopZone) {
+			mTT = tt;
+			mTripRoute = tripRoute;
+			mStopZone = stopZone;
+		}
+
+		public Timetable getTimetable() {
+			return mTT;
+		}
+
+		public FareTable getTable() {
+			return FareTable.this;
+		}
+
+		/* The least the journey can cost, in hundredths, 0 if it's all walking, or
+		 * UNKNOWN if no fare covers one of its rides. */
+		public synchronized long price(Journey j) {
+			int n = 0;
+			for (Journey.Leg l : j.legs) {
+				if (!l.walk) {
+					if (n == mRides.length) {
+						mRides = Arrays.copyOf(mRides, n * 2);
+						mBest = new long[n * 2 + 1];
+					}
+					mRides[n++] = l;
+				}
+			}
+			// mBest[k]: the cheapest way to pay for the first k rides
+			mBest[0] = 0;
+			for (int k = 1; k <= n; k++) {
+				mBest[k] = UNKNOWN;
+				for (int i = k - 1; i >= 0; i--) {
+					if (mBest[i] == UNKNOWN) {
+						continue;
+					}
+					final long run = cheapest(i, k - 1);
+					if (run != UNKNOWN && (mBest[k] == UNKNOWN || mBest[i] + run < mBest[k])) {
+						mBest[k] = mBest[i] + run;
+					}
+				}
+			}
+			Arrays.fill(mRides, 0, n, null);
+			return mBest[n];
+		}
+
+		/* The cheapest single fare for rides first to last. */
+		private long cheapest(int first, int last) {
+			Arrays.fill(mCandidates, -1L);
+			for (int i = first; i <= last; i++) {
+				final Journey.Leg l = mRides[i];
+				and(mByRoute, mTripRoute[l.trip]);
+				final int p = mTT.tripPattern[l.trip], stops = mTT.patternStopStart[p];
+				for (int pos = l.fromPos; pos <= l.toPos; pos++) {
+					and(mByZone, mStopZone[mTT.patternStops[stops + pos]]);
+				}
+			}
+			final int origin = mStopZone[mRides[first].fromStop], dest = mStopZone[mRides[last].toStop];
+			and(mByPair, origin * mZoneCount + dest);
+			final int changes = last - first;
+			final int span = mRides[last].departure - mRides[first].departure;
+			long best = UNKNOWN;
+			for (int w = 0; w < mWords; w++) {
+				long bits = mCandidates[w];
+				while (bits != 0) {
+					final int f = w * 64 + Long.numberOfTrailingZeros(bits);
+					bits &= bits - 1;
+					if (f < mPrices.length && changes <= mTransfers[f]
+							&& (changes == 0 || span <= mDurations[f])
+							&& (best == UNKNOWN || mPrices[f] < best)
+							&& rulesAllow(f, first, last, origin, dest)) {
+						best = mPrices[f];
+					}
+				}
+			}
+			return best;
+		}
+
+		/* True if every ride first to last has a rule of fare f for its route between
+		 * zones origin and dest; always, for fares whose sets say all there is to say. */
+		private boolean rulesAllow(int f, int first, int last, int origin, int dest) {
+			for (int i = first; i <= last; i++) {
+				final int route = mTripRoute[mRides[i].trip];
+				boolean found = mRuleStart[f] == mRuleStart[f + 1];
+				for (int r = mRuleStart[f]; r < mRuleStart[f + 1] && !found; r++) {
+					found = (mRuleRoute[r] < 0 || mRuleRoute[r] == route)
+							&& (mRuleOrigin[r] < 0 || mRuleOrigin[r] == origin)
+							&& (mRuleDest[r] < 0 || mRuleDest[r] == dest);
+				}
+				if (!found) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private void and(long[] sets, int row) {
+			final int base = row * mWords;
+			for (int w = 0; w < mWords; w++) {
+				mCandidates[w] &= sets[base + w];
+			}
+		}
+	}
+
+	private void set(long[] sets, int row, int f) {
+		sets[row * mWords + f / 64] |= 1L << (f % 64);
+	}
+
+	private static boolean empty(String s) {
+		return s == null || s.trim().equals("");
+	}
+
+	private static void index(HashMap<String, Integer> map, String key) {
+		if (!map.containsKey(key)) {
+			map.put(key, map.size() + 1);
+		}
+	}
+
+	private static int lookup(HashMap<String, Integer> map, String key) {
+		final Integer i = (key == null) ? null : map.get(key);
+		return (i == null) ? 0 : i;
+	}
+}
@@ -21,7 +21,7 @@
 package modeloPrueba;
 
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Map;
 
 import android.app.AlertDialog;
 import android.content.Context;
@@ -30,7 +30,6 @@ import android.content.SharedPreferences;
 import android.database.sqlite.SQLiteDatabase;
 import android.os.AsyncTask;
 import android.preference.PreferenceManager;
-import android.text.TextUtils;
 import android.text.format.Time;
 import android.util.Log;
 import android.view.View;
@@ -41,7 +40,6 @@ import android.widget.Toast;
 public class FavFragmentHelper {
 	
 	private static final String TAG = "FavFragmentHelper";
-	private static String FAVSTOPS_KEY;
 
 	private static int NUM_CLOSEST_STOPS;
 	private static int NUM_BUSES;	//the number of next buses per stop to be shown.
@@ -53,17 +51,24 @@ public class FavFragmentHelper {
 
 	private Context mContext;
 	private DatabaseHelper mDatabaseHelper;
-	private SQLiteDatabase myDB;
-	private String curDB;
-
-	// Need to store some stuff in an array, so we can sort by distance
-	class StopLocn {
-		public float dist, bearing;
-		public double lat, lon;
-		public String stop_id, stop_name;
-	}
-	private StopLocn[] mStops;
+
+	// Only the latest refresh of the favourites matters
+	private final RefreshScheduler mRefresh = new RefreshScheduler(TAG, new RefreshScheduler.TaskFactory() {
+		@Override
+		public AsyncTask<Void, ?, ?> newTask() {
+			return new ProcessBusStops();
+		}
+	});
+
 	private SharedPreferences mPrefs;
+	private DepartureBoard mBoard;
+	private final MinuteTicker mTicker = new MinuteTicker(new Runnable() {
+		@Override
+		public void run() {
+			showBoard(true);
+		}
+	});
+	private FavouritesStore mFavourites;
 	private boolean ampmflag;
 	private String[] mActiveDB;
 	private int hoursLookAhead;
@@ -83,17 +88,21 @@ public class FavFragmentHelper {
 		mListDetails = new ArrayList<String[]>(NUM_CLOSEST_STOPS*NUM_BUSES);
 
 		//mTitle.setText(R.string.loading_stops);
-		mStops = null;
 		//mLocation = null;
 		
 		//set up prefs
-		FAVSTOPS_KEY = new String(mContext.getString(R.string.pref_favstops_key));
+		mFavourites = FavouritesStore.get(mContext);
 		mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
 		reloadPreferences();
 	}
 
 	public void runProcess() {
-		new ProcessBusStops().execute();
+		mRefresh.request();
+	}
+
+	/* Stop any refresh in progress, e.g. because the list is going away. */
+	public void cancelProcess() {
+		mRefresh.cancel();
 	}
 
 	public void reloadPreferences() {
@@ -116,7 +125,7 @@ public class FavFragmentHelper {
 	}
 
 	/* Do the processing to load the ArrayAdapter for display. */
-	public class ProcessBusStops extends AsyncTask<Void, Integer, Void> {
+	public class ProcessBusStops extends AsyncTask<Void, Integer, DepartureBoard> {
 		// static final String TAG = "ProcessBusStops";
 
 		
@@ -134,80 +143,49 @@ public class FavFragmentHelper {
 		}
 
 		@Override
-		protected Void doInBackground(Void... foo) {
+		protected DepartureBoard doInBackground(Void... foo) {
 			// Log.v(TAG, "doInBackground()");
 
 			//really inefficient...at the moment we just search all databases
-			mListDetails.clear();
-			// Load the stops from preferences
-			
-			ArrayList<String[]> tmpStops = GetBusstopFavourites();
-			mStops = new StopLocn[tmpStops.size()];
-			
-			//for (final StopLocn s : mStops) {
-			if (tmpStops.size() == 0) {
+			final ArrayList<String[]> details = new ArrayList<String[]>();
+			final Time t = new Time();
+			t.setToNow();
+			if (mFavourites.size() == 0) {
 				Log.v(TAG, "Empty favourites");
-				return null;
+				return newBoard(details, t);
 			}
-			final TextUtils.SimpleStringSplitter splitter = new TextUtils.SimpleStringSplitter('#');
-			
-			Time t = new Time();
-			t.setToNow();
 			if(mActiveDB == null)
 			{
-				return null;
+				return newBoard(details, t);
 			}
+			int feedcounter = 0;
 			for (String myDBName : mActiveDB) {
 				//Log.e(TAG, "Running on database: " + myDBName);
-
-				int stopsCounter = 0;
-				for (int i = 0; i<tmpStops.size(); i++) {
-					//Log.e(TAG, "Stops are: " + Arrays.toString(tmpStops.get(i)));
-
-					splitter.setString(tmpStops.get(i)[1]);
-					if(splitter.hasNext())
-					{
-						String tmpSplitterString = splitter.next();
-						if(splitter.hasNext())
-						{
-							//if DB string doesn't match, leave!
-							String tmpDbNameSplitter = splitter.next();
-							if(!tmpDbNameSplitter.equals(myDBName))
-							{
-								continue;
-							}
-						}
-						//if there is no DB string leave in for compatibility
-						mStops[stopsCounter] = new StopLocn();
-						mStops[stopsCounter].stop_id = tmpStops.get(i)[0];
-						mStops[stopsCounter].stop_name = tmpSplitterString;
-						stopsCounter++;
-					}
-					//mStops[i].stop_name = tmpStops.get(i)[1];
+				if (isCancelled()) {
+					return null;
 				}
-				if(stopsCounter == 0)
+
+				// This feed's favourites by stop_id, plus any saved before favourites had a feed
+				final Map<String, FavouritesStore.Favourite> favs = mFavourites.getForFeed(myDBName);
+				if(favs.isEmpty())
 				{
 					continue;
 				}
 				
-				myDB = mDatabaseHelper.ReadableDB(myDBName, null);
-				curDB = myDBName;
-				//String[] mStopIdArray = new String[mStops.length];
-				String[] mStopIdArray = new String[stopsCounter];
-				
-				for (int i = 0; i < stopsCounter; i++) {
-					mStopIdArray[i] = mStops[i].stop_id;
-					//Log.w(TAG, "Running on stop: " + s.stop_id);
+				final SQLiteDatabase myDB = mDatabaseHelper.ReadableDB(myDBName, null);
+				if (myDB == null) {
+					continue;
 				}
+				final String[] mStopIdArray = favs.keySet().toArray(new String[favs.size()]);
 				
 				//Now, we need to query to find the next NUM_BUSES.
-				ServiceCalendar myBusService = new ServiceCalendar(myDBName, myDB, ampmflag);
+				final ServiceCalendar myBusService = new ServiceCalendar(myDBName, myDB, ampmflag);
 				myBusService.setDB(mDatabaseHelper);
 				final ArrayList<String[]> fullResultsA = myBusService.getNextDepartureTimesGen(
 							t, mStopIdArray, NUM_BUSES, hoursLookAhead, true);
 				//the format of this:
-				// departuretime	runstoday	trip_id		route_short_name	trip_headsign
-				//	140300				1		34867		13					Route 13 Laurelwood
+				// departuretime	runstoday	trip_id		route_short_name	trip_headsign	stop_id
+				//	140300				1		34867		13					Route 13 Laurelwood	2345
 				
 				ArrayList<String[]> fullResults = myBusService.getNextDepartureTimesGen(
 						t, mStopIdArray, NUM_BUSES, hoursLookAhead, false);
@@ -215,6 +193,7 @@ public class FavFragmentHelper {
 
 				if ((fullResults == null) && (fullResultsA == null))
 				{
+					mDatabaseHelper.CloseDB(myDB);
 					continue;
 				} else if (fullResultsA == null) {
 					//do nothing
@@ -225,58 +204,75 @@ public class FavFragmentHelper {
 
 				}
 				
-				final int favcounter = fullResults.size();
-				int loopcounter = 0;
-				
-				for (String[] str: fullResults) {
-					//process str[0] to get the right departure time
-					final String hours = str[0].substring(0,2);
-					final String minutes = str[0].substring(2,4);
-					//String departsIn;
-                    final String routeNo;
-
-					//Log.e(TAG, "Adding to list: " + s.stop_name);
-					int myIndex = Arrays.asList(mStopIdArray).indexOf(str[5]);
-
-                    if (str[3].equals("") || (!USE_ROUTE_NO)) {
-                        routeNo = mStops[myIndex].stop_id;
-                    }
-                    else {
-                        routeNo = str[3];
-                    }
-
-					mListDetails.add(new String[] { "", 
-							str[5], 
-							mStops[myIndex].stop_name, str[4], 
-							myBusService.formattedDepartureTime(t, hours, minutes), 
-							str[2], myDBName, routeNo });
-					publishProgress(((int) ((++loopcounter / (float) favcounter) * 100)));
-				}
+				FavouriteRows.assemble(myDBName, favs, fullResults, USE_ROUTE_NO,
+						new FavouriteRows.DepartureLabel() {
+							@Override
+							public String departsIn(String hours, String minutes) {
+								return myBusService.formattedDepartureTime(t, hours, minutes);
+							}
+						}, details);
+				publishProgress((int) ((++feedcounter / (float) mActiveDB.length) * 100));
 				
 				//close the database
 				mDatabaseHelper.CloseDB(myDB);
 			}
-			return null;
+			return newBoard(details, t);
 		}
 
 		@Override
 		protected void onCancelled() {
-			mDatabaseHelper.CloseDB(mDatabaseHelper.ReadableDB(curDB, myDB));
+			// Superseded or stopped: the progress bar is the newer refresh's, if there is one
+			if (!mRefresh.isBusy()) {
+				mProgress.setVisibility(View.INVISIBLE);
+			}
 		}
-		
+
 		@Override
-		protected void onPostExecute(Void foo) {
+		protected void onPostExecute(DepartureBoard board) {
 			// Log.v(TAG, "onPostExecute()");
 
 			mProgress.setVisibility(View.INVISIBLE);
 			//mListDetail.startAnimation(mSlideOut);
 
 			//mTitle.setText(R.string.title_activity_closest_stops);
-			if(mAdapter != null) {
-				mAdapter.notifyDataSetChanged();
+			if (board == null) {
+				return;
 			}
+			mBoard = board;
+			showBoard(false);
 		}
 	}
+
+	private DepartureBoard newBoard(ArrayList<String[]> details, Time t) {
+		return new DepartureBoard(details, t.toMillis(false), t.hour * 3600 + t.minute * 60 + t.second,
+				Math.max(1, NUM_BUSES / 2));
+	}
+
+	/* Bring the list up to date with the clock, and if asked, fetch more departures
+	 * when the board is running out. */
+	private void showBoard(boolean topUp) {
+		if (mBoard == null) {
+			return;
+		}
+		final long now = System.currentTimeMillis();
+		mBoard.tick(now);
+		mBoard.copyRows(mListDetails);
+		if(mAdapter != null) {
+			mAdapter.notifyDataSetChanged();
+		}
+		if (topUp && mBoard.isLow(now)) {
+			mRefresh.request();
+		}
+	}
+
+	/* Keep the countdowns current while the list is on screen. */
+	public void startTicking() {
+		mTicker.start();
+	}
+
+	public void stopTicking() {
+		mTicker.stop();
+	}
 	
 	// Called for a long click
 	public void onListItemLongClick(AdapterView<?> parent, View v, int position, long id) {
@@ -288,13 +284,14 @@ public class FavFragmentHelper {
 		}
 		final String stop_id = strs[1];
 		final String stop_name = strs[2];
+		final String dbName = strs[6];
 
 		final DialogInterface.OnClickListener listener = new DialogInterface.OnClickListener() {
 			@Override
 			public void onClick(DialogInterface dialog, int id) {
 				switch (id) {
 				case DialogInterface.BUTTON_POSITIVE:
-					RemoveBusstopFavourite(stop_id);
+					RemoveBusstopFavourite(stop_id, dbName);
 					break;
 				}
 				dialog.cancel();
@@ -307,40 +304,10 @@ public class FavFragmentHelper {
 		.setNegativeButton(R.string.no, listener).create().show();
 	}
 	
-	public ArrayList<String[]> GetBusstopFavourites() {
-		final String favs = mPrefs.getString(FAVSTOPS_KEY, "");
-
-		// Load the array for the list
-		final ArrayList<String[]> details = new ArrayList<String[]>();
-
-		// favs is a semi-colon separated string of stops, with a trailing semi-colon.
-		// Then each stop has a description stored as KEY-stop.
-		if (!favs.equals("")) {
-			final TextUtils.StringSplitter splitter = new TextUtils.SimpleStringSplitter(';');
-			splitter.setString(favs);
-			for (final String s : splitter) {
-				final String[] strs = { s, mPrefs.getString(FAVSTOPS_KEY + "-" + s, "") };
-				details.add(strs);
-			}
-		}
-		return details;
-	}
-
-	public void RemoveBusstopFavourite(String busstop) {
-		final String favs = mPrefs.getString(FAVSTOPS_KEY, "");
-		String newfavs = "";
-
-		final TextUtils.StringSplitter splitter = new TextUtils.SimpleStringSplitter(';');
-		splitter.setString(favs);
-
-		for (final String s : splitter) {
-			if (!s.equals(busstop)) {
-				newfavs += s + ";";
-			}
-		}
-		mPrefs.edit().putString(FAVSTOPS_KEY, newfavs).remove(FAVSTOPS_KEY + "-" + busstop).commit();
+	public void RemoveBusstopFavourite(String busstop, String dbName) {
+		mFavourites.remove(dbName, busstop);
 		Toast.makeText(mContext, "Stop " + busstop + " was removed from your favourites.", Toast.LENGTH_LONG).show();
-
+		runProcess();
 	}
 	
 }
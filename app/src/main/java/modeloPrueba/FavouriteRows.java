@@ -0,0 +1,57 @@
+/*
+ * This file is part of GTFSOffline.
+ *
+ * GTFSOffline is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GTFSOffline is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GTFSOffline.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package modeloPrueba;
+
+import java.util.List;
+import java.util.Map;
+
+/* Builds the favourites list rows for one feed from the departures found for its
+ * favourite stops, in a single pass: each departure finds its favourite through the
+ * feed's stop_id map instead of a search through the stops. */
+public final class FavouriteRows {
+
+	/* Turns a departure time (hhmmss) into the "Departs in ..." text. */
+	public interface DepartureLabel {
+		String departsIn(String hours, String minutes);
+	}
+
+	private FavouriteRows() {
+	}
+
+	/* Append a row to out for every departure at one of the favourites, and return the
+	 * number added. Departures are in ServiceCalendar.getNextDepartureTimesGen() format
+	 * (departure, days, trip_id, route_short_name, headsign, stop_id); rows are
+	 * ("", stop_id, stop_name, headsign, departsIn, trip_id, dbName, routeNo, departure)
+	 * as a DepartureBoard takes them. */
+	public static int assemble(String dbName, Map<String, FavouritesStore.Favourite> favs,
+			List<String[]> departures, boolean useRouteNo, DepartureLabel label, List<String[]> out) {
+		int added = 0;
+		for (final String[] str : departures) {
+			final FavouritesStore.Favourite fav = favs.get(str[5]);
+			if (fav == null) {
+				continue;
+			}
+			final String routeNo = (str[3].equals("") || !useRouteNo) ? fav.stop_id : str[3];
+			out.add(new String[] { "", str[5], fav.stop_name, str[4],
+					label.departsIn(str[0].substring(0, 2), str[0].substring(2, 4)),
+					str[2], dbName, routeNo, str[0] });
+			added++;
+		}
+		return added;
+	}
+}
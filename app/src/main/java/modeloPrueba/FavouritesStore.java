@@ -0,0 +1,292 @@
+/*
+ * This file is part of GTFSOffline.
+ *
+ * GTFSOffline is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GTFSOffline is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GTFSOffline.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package modeloPrueba;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.preference.PreferenceManager;
+import android.text.TextUtils;
+
+/* The favourite stops, shared by the favourites and nearby lists.
+ *
+ * They are read from preferences once and then kept in memory, indexed by feed and
+ * stop, in the order they were added, each with an id that never changes. Changes are
+ * written back in the background, with a burst of changes written just once.
+ *
+ * Favourites used to be a ';' separated list of stops, with a "name#database" entry
+ * for each; those are moved over the first time the store is loaded. A favourite
+ * saved without a database name belongs to no feed in particular and shows up
+ * in all of them. */
+public class FavouritesStore {
+
+	private static final long WRITE_DELAY = 500;	// ms
+	private static final String ANY_FEED = "";
+
+	public static class Favourite {
+		public final long id;
+		public final String feed, stop_id, stop_name;
+
+		Favourite(long anId, String aFeed, String aStopId, String aStopName) {
+			id = anId;
+			feed = aFeed;
+			stop_id = aStopId;
+			stop_name = aStopName;
+		}
+	}
+
+	private static FavouritesStore sInstance = null;
+
+	private final SharedPreferences mPrefs;
+	private final String mLegacyKey, mKey;
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+	// feed -> stop_id -> favourite, each in the order added
+	private final LinkedHashMap<String, LinkedHashMap<String, Favourite>> mByFeed =
+			new LinkedHashMap<String, LinkedHashMap<String, Favourite>>();
+	// merged per-feed views handed out by getForFeed(), dropped on any change
+	private final HashMap<String, Map<String, Favourite>> mFeedViews = new HashMap<String, Map<String, Favourite>>();
+	private long mNextId = 1;
+	private int mVersion = 0;
+	private boolean mWritePending = false;
+
+	private final Runnable mWrite = new Runnable() {
+		@Override
+		public void run() {
+			final String data;
+			synchronized (FavouritesStore.this) {
+				mWritePending = false;
+				data = serialise();
+			}
+			mPrefs.edit().putString(mKey, data).apply();
+		}
+	};
+
+	public static synchronized FavouritesStore get(Context context) {
+		if (sInstance == null) {
+			sInstance = new FavouritesStore(context.getApplicationContext());
+		}
+		return sInstance;
+	}
+
+	private FavouritesStore(Context context) {
+		mPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+		mLegacyKey = context.getString(R.string.pref_favstops_key);
+		mKey = mLegacyKey + "-store";
+		if (mPrefs.contains(mKey)) {
+			load(mPrefs.getString(mKey, ""));
+		} else {
+			migrateLegacy();
+		}
+	}
+
+	public synchronized boolean contains(String feed, String stop_id) {
+		final LinkedHashMap<String, Favourite> stops = mByFeed.get(feed);
+		return stops != null && stops.containsKey(stop_id);
+	}
+
+	/* Add a favourite; returns it, or null if that stop is already one for this feed
+	 * (or an old favourite saved without a feed). */
+	public synchronized Favourite add(String feed, String stop_id, String stop_name) {
+		if (feed == null) {
+			feed = ANY_FEED;
+		}
+		if (contains(feed, stop_id) || contains(ANY_FEED, stop_id)) {
+			return null;
+		}
+		final Favourite fav = new Favourite(mNextId++, feed, stop_id, stop_name);
+		put(fav);
+		changed();
+		return fav;
+	}
+
+	/* Remove a stop from a feed's favourites. Old favourites saved without a feed
+	 * are matched too. */
+	public synchronized boolean remove(String feed, String stop_id) {
+		boolean removed = false;
+		for (String f : new String[] { feed, ANY_FEED }) {
+			final LinkedHashMap<String, Favourite> stops = mByFeed.get(f);
+			if (stops != null && stops.remove(stop_id) != null) {
+				removed = true;
+				if (stops.isEmpty()) {
+					mByFeed.remove(f);
+				}
+			}
+		}
+		if (removed) {
+			changed();
+		}
+		return removed;
+	}
+
+	/* All the favourites, in the order added. */
+	public synchronized ArrayList<Favourite> getAll() {
+		final ArrayList<Favourite> all = new ArrayList<Favourite>();
+		for (LinkedHashMap<String, Favourite> stops : mByFeed.values()) {
+			all.addAll(stops.values());
+		}
+		sortById(all);
+		return all;
+	}
+
+	/* A feed's favourites by stop_id, in the order added, including the ones saved
+	 * without a feed. The map is built once per feed and reused until the favourites
+	 * change; it can't be modified, and can be used from any thread. */
+	public synchronized Map<String, Favourite> getForFeed(String feed) {
+		Map<String, Favourite> view = mFeedViews.get(feed);
+		if (view != null) {
+			return view;
+		}
+		final LinkedHashMap<String, Favourite> result = new LinkedHashMap<String, Favourite>();
+		final LinkedHashMap<String, Favourite> stops = mByFeed.get(feed);
+		if (stops != null) {
+			result.putAll(stops);
+		}
+		final LinkedHashMap<String, Favourite> any = mByFeed.get(ANY_FEED);
+		if (any != null && !ANY_FEED.equals(feed)) {
+			for (Map.Entry<String, Favourite> e : any.entrySet()) {
+				if (!result.containsKey(e.getKey())) {
+					result.put(e.getKey(), e.getValue());
+				}
+			}
+		}
+		view = Collections.unmodifiableMap(result);
+		mFeedViews.put(feed, view);
+		return view;
+	}
+
+	public synchronized int size() {
+		int n = 0;
+		for (LinkedHashMap<String, Favourite> stops : mByFeed.values()) {
+			n += stops.size();
+		}
+		return n;
+	}
+
+	/* Bumped on every change, so lists can tell if what they built is out of date. */
+	public synchronized int getVersion() {
+		return mVersion;
+	}
+
+	private void put(Favourite fav) {
+		LinkedHashMap<String, Favourite> stops = mByFeed.get(fav.feed);
+		if (stops == null) {
+			stops = new LinkedHashMap<String, Favourite>();
+			mByFeed.put(fav.feed, stops);
+		}
+		stops.put(fav.stop_id, fav);
+	}
+
+	/* Schedule a write; everything changed before it runs goes out in one go. */
+	private void changed() {
+		mVersion++;
+		mFeedViews.clear();
+		if (!mWritePending) {
+			mWritePending = true;
+			mHandler.postDelayed(mWrite, WRITE_DELAY);
+		}
+	}
+
+	private static void sortById(ArrayList<Favourite> favs) {
+		Collections.sort(favs, new Comparator<Favourite>() {
+			@Override
+			public int compare(Favourite a, Favourite b) {
+				return a.id < b.id ? -1 : (a.id == b.id ? 0 : 1);
+			}
+		});
+	}
+
+	// One favourite per line: id, feed, stop_id, stop_name separated by tabs.
+	private String serialise() {
+		final StringBuilder sb = new StringBuilder();
+		for (Favourite fav : getAll()) {
+			sb.append(fav.id).append('\t').append(escape(fav.feed)).append('\t')
+				.append(escape(fav.stop_id)).append('\t').append(escape(fav.stop_name)).append('\n');
+		}
+		return sb.toString();
+	}
+
+	private void load(String data) {
+		final TextUtils.StringSplitter lines = new TextUtils.SimpleStringSplitter('\n');
+		lines.setString(data);
+		for (final String line : lines) {
+			final String[] f = line.split("\t", -1);
+			if (f.length != 4) {
+				continue;
+			}
+			final long id;
+			try {
+				id = Long.parseLong(f[0]);
+			} catch (final NumberFormatException e) {
+				continue;
+			}
+			put(new Favourite(id, unescape(f[1]), unescape(f[2]), unescape(f[3])));
+			mNextId = Math.max(mNextId, id + 1);
+		}
+	}
+
+	/* Move the old ';' separated favourites over, and drop the old keys. */
+	private void migrateLegacy() {
+		final String favs = mPrefs.getString(mLegacyKey, "");
+		final SharedPreferences.Editor editor = mPrefs.edit();
+		if (!favs.equals("")) {
+			final TextUtils.StringSplitter splitter = new TextUtils.SimpleStringSplitter(';');
+			splitter.setString(favs);
+			for (final String s : splitter) {
+				final String desc = mPrefs.getString(mLegacyKey + "-" + s, "");
+				final int hash = desc.lastIndexOf('#');
+				final String name = (hash < 0) ? desc : desc.substring(0, hash);
+				final String feed = (hash < 0) ? ANY_FEED : desc.substring(hash + 1);
+				if (!contains(feed, s)) {
+					put(new Favourite(mNextId++, feed, s, name));
+				}
+				editor.remove(mLegacyKey + "-" + s);
+			}
+		}
+		editor.remove(mLegacyKey).putString(mKey, serialise()).apply();
+	}
+
+	private static String escape(String s) {
+		return s.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n");
+	}
+
+	private static String unescape(String s) {
+		if (s.indexOf('\\') < 0) {
+			return s;
+		}
+		final StringBuilder sb = new StringBuilder(s.length());
+		for (int i = 0; i < s.length(); i++) {
+			final char c = s.charAt(i);
+			if (c == '\\' && i + 1 < s.length()) {
+				final char n = s.charAt(++i);
+				sb.append(n == 't' ? '\t' : n == 'n' ? '\n' : n);
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+}
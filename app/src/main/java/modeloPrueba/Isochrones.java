@@ -0,0 +1,142 @@
+/*
+ * This file is part of GTFSOffline.
+ *
+ * GTFSOffline is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GTFSOffline is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GTFSOffline.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package modeloPrueba;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/* How far you can get from a place in so many minutes: the stops reached within each of
+ * a few time bands, over several departures a minute or so apart so that one lucky or
+ * unlucky connection doesn't decide it.
+ *
+ * Each departure is a one-to-all RAPTOR search. They don't depend on each other, so they
+ * are split up on a fork/join pool, each task with a router of its own, since a router
+ * can't be shared between threads. A stop's travel time is the median over the
+ * departures, and it goes in the first band that takes it. */
+public class Isochrones {
+
+	public static final int UNREACHED = -1;
+
+	private static final int LEAF = 2;		// departures a task does itself rather than split
+
+	public static class Result {
+		public final int[] bands;	// seconds, as asked for
+		public final int[] travel;	// median seconds to each stop, or UNREACHED
+		public final int[] band;	// the band each stop is in, or UNREACHED
+		public final int[] counts;	// stops in each band
+
+		Result(int[] aBands, int numStops) {
+			bands = aBands;
+			travel = new int[numStops];
+			band = new int[numStops];
+			counts = new int[aBands.length];
+		}
+	}
+
+	private static ForkJoinPool sPool = null;
+
+	private final Timetable mTT;
+	private final int mMaxTransfers;
+
+	/* The pool shared by the app, a thread per core. */
+	public static synchronized ForkJoinPool pool() {
+		if (sPool == null) {
+			sPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		}
+		return sPool;
+	}
+
+	public Isochrones(Timetable tt, int maxTransfers) {
+		mTT = tt;
+		mMaxTransfers = maxTransfers;
+	}
+
+	/* The stops reached within each of bands (seconds, shortest first) from fromStops,
+	 * walked to in fromWalk seconds, over the given number of departures, the first at
+	 * firstDeparture and the rest every step seconds after it. */
+	public Result compute(ForkJoinPool pool, int[] fromStops, int[] fromWalk, int firstDeparture, int departures,
+			int step, int[] bands) {
+		final int[][] travel = new int[departures][];
+		pool.invoke(new Search(fromStops, fromWalk, firstDeparture, step, travel, 0, departures));
+
+		final int n = mTT.numStops;
+		final Result r = new Result(bands.clone(), n);
+		final int[] times = new int[departures];
+		for (int s = 0; s < n; s++) {
+			for (int d = 0; d < departures; d++) {
+				times[d] = travel[d][s];
+			}
+			Arrays.sort(times);
+			// The lower median, so half the departures get there at least this fast
+			final int median = times[(departures - 1) / 2];
+			r.travel[s] = (median >= RaptorRouter.INFINITY) ? UNREACHED : median;
+			r.band[s] = UNREACHED;
+			for (int b = 0; b < bands.length && r.travel[s] != UNREACHED; b++) {
+				if (median <= bands[b]) {
+					r.band[s] = b;
+					r.counts[b]++;
+					break;
+				}
+			}
+		}
+		return r;
+	}
+
+	/* One-to-all searches for departures lo .. hi-1, into travel[i] as seconds from
+	 * leaving (RaptorRouter.INFINITY where not reached). Never serialized. */
+	@SuppressWarnings("serial")
+	private class Search extends RecursiveAction {
+		private final int[] mFromStops, mFromWalk;
+		private final int mFirst, mStep;
+		private final int[][] mTravel;
+		private final int mLo, mHi;
+
+		Search(int[] fromStops, int[] fromWalk, int first, int step, int[][] travel, int lo, int hi) {
+			mFromStops = fromStops;
+			mFromWalk = fromWalk;
+			mFirst = first;
+			mStep = step;
+			mTravel = travel;
+			mLo = lo;
+			mHi = hi;
+		}
+
+		@Override
+		protected void compute() {
+			if (mHi - mLo > LEAF) {
+				final int mid = (mLo + mHi) >>> 1;
+				invokeAll(new Search(mFromStops, mFromWalk, mFirst, mStep, mTravel, mLo, mid),
+						new Search(mFromStops, mFromWalk, mFirst, mStep, mTravel, mid, mHi));
+				return;
+			}
+			final RaptorRouter router = new RaptorRouter(mTT);
+			for (int i = mLo; i < mHi; i++) {
+				final int departure = mFirst + i * mStep;
+				final int[] arrivals = new int[mTT.numStops];
+				router.reachAll(mFromStops, mFromWalk, departure, mMaxTransfers, arrivals);
+				for (int s = 0; s < arrivals.length; s++) {
+					if (arrivals[s] < RaptorRouter.INFINITY) {
+						arrivals[s] -= departure;
+					}
+				}
+				mTravel[i] = arrivals;
+			}
+		}
+	}
+}
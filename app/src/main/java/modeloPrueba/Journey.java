@@ -0,0 +1,96 @@
+/*
+ * This file is part of GTFSOffline.
+ *
+ * GTFSOffline is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GTFSOffline is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GTFSOffline.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package modeloPrueba;
+
+import java.util.ArrayList;
+
+/* A journey found by the planner: legs on board trips, with walks between them and at
+ * either end. Times are seconds after midnight of the timetable's service day. */
+public class Journey {
+
+	public static final int NO_STOP = -1;	// a walk to or from a coordinate, not a stop
+
+	public static class Leg {
+		public final boolean walk;
+		public final int fromStop, toStop;		// Timetable stop numbers, or NO_STOP
+		public final int departure, arrival;
+		public final int trip;					// Timetable trip number, -1 for a walk
+		public final int fromPos, toPos;		// positions in the trip's pattern
+
+		Leg(boolean aWalk, int aFromStop, int aToStop, int aDeparture, int anArrival, int aTrip,
+				int aFromPos, int aToPos) {
+			walk = aWalk;
+			fromStop = aFromStop;
+			toStop = aToStop;
+			departure = aDeparture;
+			arrival = anArrival;
+			trip = aTrip;
+			fromPos = aFromPos;
+			toPos = aToPos;
+		}
+
+		static Leg walk(int fromStop, int toStop, int departure, int arrival) {
+			return new Leg(true, fromStop, toStop, departure, arrival, -1, -1, -1);
+		}
+
+		static Leg ride(int trip, int fromStop, int fromPos, int toStop, int toPos, int departure, int arrival) {
+			return new Leg(false, fromStop, toStop, departure, arrival, trip, fromPos, toPos);
+		}
+	}
+
+	public final ArrayList<Leg> legs = new ArrayList<Leg>();
+
+	public int getDeparture() {
+		return legs.isEmpty() ? 0 : legs.get(0).departure;
+	}
+
+	public int getArrival() {
+		return legs.isEmpty() ? 0 : legs.get(legs.size() - 1).arrival;
+	}
+
+	public int getDuration() {
+		return getArrival() - getDeparture();
+	}
+
+	/* Number of changes between vehicles. */
+	public int getTransfers() {
+		int rides = 0;
+		for (Leg l : legs) {
+			if (!l.walk) {
+				rides++;
+			}
+		}
+		return Math.max(0, rides - 1);
+	}
+
+	public int getWalkSeconds() {
+		int secs = 0;
+		for (Leg l : legs) {
+			if (l.walk) {
+				secs += l.arrival - l.departure;
+			}
+		}
+		return secs;
+	}
+
+	/* "hh:mm" of a time in seconds after midnight, wrapping past 24h. */
+	public static String formatTime(int seconds) {
+		final int mins = ((seconds / 60) % (24 * 60) + 24 * 60) % (24 * 60);
+		return String.format("%02d:%02d", mins / 60, mins % 60);
+	}
+}
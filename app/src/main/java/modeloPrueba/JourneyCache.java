@@ -0,0 +1,185 @@
+/*
+ * This file is part of GTFSOffline.
+ *
+ * GTFSOffline is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GTFSOffline is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GTFSOffline.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package modeloPrueba;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/* Journeys planned recently, so asking again for much the same trip is answered from
+ * memory.
+ *
+ * A plan is filed under the feed, service day, router and number of transfers, with
+ * its two ends rounded to cells of CELL_DEGREES and its departure to BUCKET_SECONDS:
+ * anyone asking from the same block around Universidades for the same block around
+ * Chiminangos within the same few minutes gets the same journeys. They are only handed
+ * back if they are still right for the later question, i.e. no earlier than the plan
+ * was made for, and, for a single plan, nothing in it has left yet; a range just loses
+ * what has gone. The least recently used plans are dropped once the journeys kept come
+ * to more than the byte budget, and a feed's are all dropped when a new one is installed. */
+public class JourneyCache {
+
+	public static final double CELL_DEGREES = 0.002;	// about 220m at Cali
+	public static final int BUCKET_SECONDS = 5 * 60;
+	private static final long DEFAULT_BYTES = 512 * 1024;
+
+	// Rough sizes for the byte budget
+	private static final int ENTRY_BYTES = 96, JOURNEY_BYTES = 32, LEG_BYTES = 48;
+
+	private static class Entry {
+		String feed;
+		int departure;		// the plan was made for
+		boolean range;
+		ArrayList<Journey> journeys;
+		int bytes;
+	}
+
+	private static JourneyCache sInstance = null;
+
+	private final long mMaxBytes;
+	private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<String, Entry>(64, 0.75f, true);
+	private long mBytes = 0;
+	private int mHits = 0, mMisses = 0;
+
+	/* The cache shared by the whole app. */
+	public static synchronized JourneyCache get() {
+		if (sInstance == null) {
+			sInstance = new JourneyCache(DEFAULT_BYTES);
+		}
+		return sInstance;
+	}
+
+	public JourneyCache(long maxBytes) {
+		mMaxBytes = maxBytes;
+	}
+
+	/* The key a plan is filed under. A range of 0 is a single plan. */
+	public static String key(String feed, String date, String router, int maxTransfers, int range,
+			double fromLat, double fromLon, double toLat, double toLon, int departure) {
+		return String.format(Locale.US, "%s\n%s\n%s\n%d\n%d\n%d,%d\n%d,%d\n%d", feed, date, router,
+				maxTransfers, range, cell(fromLat), cell(fromLon), cell(toLat), cell(toLon),
+				(long) Math.floor(departure / (double) BUCKET_SECONDS));
+	}
+
+	/* The journeys filed under key, as they stand for leaving at departure, or null if
+	 * there aren't any or they aren't good enough any more. */
+	public synchronized ArrayList<Journey> lookup(String key, int departure) {
+		final Entry e = mEntries.get(key);
+		if (e == null || departure < e.departure) {
+			mMisses++;
+			return null;
+		}
+		final ArrayList<Journey> still = new ArrayList<Journey>(e.journeys.size());
+		for (Journey j : e.journeys) {
+			if (leaves(j) >= departure) {
+				still.add(j);
+			}
+		}
+		// A single plan that has lost a journey might have had a better one instead
+		if (!e.range && still.size() < e.journeys.size()) {
+			remove(key);
+			mMisses++;
+			return null;
+		}
+		mHits++;
+		return still;
+	}
+
+	/* File the journeys planned from departure under key. */
+	public synchronized void put(String key, String feed, int departure, boolean range, ArrayList<Journey> journeys) {
+		remove(key);
+		final Entry e = new Entry();
+		e.feed = feed;
+		e.departure = departure;
+		e.range = range;
+		e.journeys = new ArrayList<Journey>(journeys);
+		e.bytes = ENTRY_BYTES + 2 * key.length();
+		for (Journey j : journeys) {
+			e.bytes += JOURNEY_BYTES + LEG_BYTES * j.legs.size();
+		}
+		if (e.bytes > mMaxBytes) {
+			return;
+		}
+		mEntries.put(key, e);
+		mBytes += e.bytes;
+		final Iterator<Entry> it = mEntries.values().iterator();
+		while (mBytes > mMaxBytes && it.hasNext()) {
+			mBytes -= it.next().bytes;
+			it.remove();
+		}
+	}
+
+	/* Forget every plan on a feed, e.g. because a new version was installed. */
+	public synchronized void invalidate(String feed) {
+		final Iterator<Map.Entry<String, Entry>> it = mEntries.entrySet().iterator();
+		while (it.hasNext()) {
+			final Entry e = it.next().getValue();
+			if (e.feed.equals(feed)) {
+				mBytes -= e.bytes;
+				it.remove();
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		mEntries.clear();
+		mBytes = 0;
+	}
+
+	public synchronized int size() {
+		return mEntries.size();
+	}
+
+	/* Roughly how much memory the journeys kept take. */
+	public synchronized long getBytes() {
+		return mBytes;
+	}
+
+	public synchronized int getHits() {
+		return mHits;
+	}
+
+	public synchronized int getMisses() {
+		return mMisses;
+	}
+
+	private void remove(String key) {
+		final Entry old = mEntries.remove(key);
+		if (old != null) {
+			mBytes -= old.bytes;
+		}
+	}
+
+	private static long cell(double degrees) {
+		return (long) Math.floor(degrees / CELL_DEGREES);
+	}
+
+	/* The latest a journey can leave and still make its first ride. */
+	static int leaves(Journey j) {
+		int walk = 0;
+		for (Journey.Leg l : j.legs) {
+			if (!l.walk) {
+				return l.departure - walk;
+			}
+			walk += l.arrival - l.departure;
+		}
+		return j.getDeparture();
+	}
+}
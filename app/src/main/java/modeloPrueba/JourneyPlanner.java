@@ -0,0 +1,167 @@
+/*
+ * This file is part of GTFSOffline.
+ *
+ * GTFSOffline is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GTFSOffline is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GTFSOffline.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package modeloPrueba;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+
+/* Plans journeys on one Timetable between stops or coordinates. A coordinate is
+ * joined to the network by walking to the stops around it. Not thread safe; use
+ * one planner per thread. */
+public class JourneyPlanner {
+
+	// Routing algorithms, by the names kept in the preferences
+	public static final String ROUTER_RAPTOR = "raptor";
+	public static final String ROUTER_CSA = "csa";
+	public static final String ROUTER_MC = "mcraptor";	// also weighs walking
+
+	public static final double WALK_SPEED = 1.25;	// m/s
+	private static final double STOP_GRID_CELL = 250.0;	// m
+	private static final int ACCESS_STOPS = 12;		// most stops to try walking to or from
+
+	private final Timetable mTT;
+	private final StopGridIndex mIndex;
+	private final JourneyRouter mRouter;
+	private RaptorRouter mRangeRouter;	// for plan ranges, made when first needed
+	private TransferPatterns mPatterns;	// for stops they cover, or null
+	private double mMaxWalk = 600;	// m, to or from a coordinate
+
+	// scratch for the nearest stops to a coordinate
+	private final int[] mNear = new int[ACCESS_STOPS];
+	private final float[] mNearDist = new float[ACCESS_STOPS], mNearBearing = new float[ACCESS_STOPS];
+
+	public JourneyPlanner(Timetable tt) {
+		this(tt, ROUTER_RAPTOR);
+	}
+
+	public JourneyPlanner(Timetable tt, String router) {
+		mTT = tt;
+		mIndex = new StopGridIndex(tt.stopLat, tt.stopLon, tt.numStops, STOP_GRID_CELL);
+		mRouter = newRouter(tt, router);
+	}
+
+	/* A router by name, RAPTOR if the name isn't known. */
+	public static JourneyRouter newRouter(Timetable tt, String router) {
+		if (ROUTER_CSA.equals(router)) {
+			return new ConnectionScanRouter(tt);
+		}
+		if (ROUTER_MC.equals(router)) {
+			return new McRaptorRouter(tt);
+		}
+		return new RaptorRouter(tt);
+	}
+
+	public JourneyRouter getRouter() {
+		return mRouter;
+	}
+
+	public Timetable getTimetable() {
+		return mTT;
+	}
+
+	public StopGridIndex getStopIndex() {
+		return mIndex;
+	}
+
+	public void setMaxWalk(double metres) {
+		mMaxWalk = metres;
+	}
+
+	/* Transfer patterns to answer stop to stop plans with, where they cover both stops. */
+	public void setTransferPatterns(TransferPatterns patterns) {
+		mPatterns = patterns;
+	}
+
+	/* True if a plan between the stops will come from the transfer patterns. */
+	public boolean hasPatterns(int fromStop, int toStop) {
+		return mPatterns != null && mPatterns.covers(fromStop, toStop);
+	}
+
+	/* Journeys from one stop to another, leaving at departure (seconds after midnight).
+	 * From the transfer patterns if they cover the stops and find something, otherwise
+	 * from the router. */
+	public ArrayList<Journey> plan(int fromStop, int toStop, int departure, int maxTransfers) {
+		if (hasPatterns(fromStop, toStop)) {
+			final ArrayList<Journey> journeys = mPatterns.route(fromStop, toStop, departure, maxTransfers);
+			if (!journeys.isEmpty()) {
+				return journeys;
+			}
+		}
+		return mRouter.route(new int[] { fromStop }, new int[] { 0 }, new int[] { toStop }, new int[] { 0 },
+				departure, maxTransfers);
+	}
+
+	/* Journeys between two coordinates, walking at each end to any stop within the
+	 * walking limit. Returns an empty list if either end is too far from a stop. */
+	public ArrayList<Journey> plan(double fromLat, double fromLon, double toLat, double toLon,
+			int departure, int maxTransfers) {
+		final int[][] from = walkableStops(fromLat, fromLon);
+		final int[][] to = walkableStops(toLat, toLon);
+		if (from[0].length == 0 || to[0].length == 0) {
+			return new ArrayList<Journey>();
+		}
+		return mRouter.route(from[0], from[1], to[0], to[1], departure, maxTransfers);
+	}
+
+	/* Every journey between two coordinates leaving between departure and latest, in
+	 * order of departure, keeping only those nothing leaving later beats on arrival and
+	 * transfers. Always answered by RAPTOR, which can reuse its work between departures. */
+	public ArrayList<Journey> planRange(double fromLat, double fromLon, double toLat, double toLon,
+			int departure, int latest, int maxTransfers) {
+		final int[][] from = walkableStops(fromLat, fromLon);
+		final int[][] to = walkableStops(toLat, toLon);
+		if (from[0].length == 0 || to[0].length == 0) {
+			return new ArrayList<Journey>();
+		}
+		if (mRangeRouter == null) {
+			mRangeRouter = (mRouter instanceof RaptorRouter) ? (RaptorRouter) mRouter : new RaptorRouter(mTT);
+		}
+		return mRangeRouter.profile(from[0], from[1], to[0], to[1], departure, latest, maxTransfers);
+	}
+
+	/* How far you can get from a coordinate: the stops within each of bands (seconds,
+	 * shortest first), over a departure each minute from departure on, searched on the
+	 * pool. Null if there's no stop within walking distance. */
+	public Isochrones.Result reach(ForkJoinPool pool, double lat, double lon, int departure, int minutes,
+			int[] bands, int maxTransfers) {
+		final int[][] from = walkableStops(lat, lon);
+		if (from[0].length == 0) {
+			return null;
+		}
+		return new Isochrones(mTT, maxTransfers).compute(pool, from[0], from[1], departure, minutes, 60, bands);
+	}
+
+	/* The stops within walking distance of a coordinate, {stops, walk seconds}. */
+	int[][] walkableStops(double lat, double lon) {
+		final int found = mIndex.nearest(lat, lon, ACCESS_STOPS, mNear, mNearDist, mNearBearing);
+		int n = 0;
+		while (n < found && mNearDist[n] <= mMaxWalk) {
+			n++;
+		}
+		// Always offer the nearest stop if it's not much further than the limit
+		if (n == 0 && found > 0 && mNearDist[0] <= 2 * mMaxWalk) {
+			n = 1;
+		}
+		final int[] stops = new int[n], secs = new int[n];
+		for (int i = 0; i < n; i++) {
+			stops[i] = mNear[i];
+			secs[i] = (int) Math.ceil(mNearDist[i] / WALK_SPEED);
+		}
+		return new int[][] { stops, secs };
+	}
+}
@@ -0,0 +1,40 @@
+/*
+ * This file is part of GTFSOffline.
+ *
+ * GTFSOffline is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GTFSOffline is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GTFSOffline.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package modeloPrueba;
+
+import java.util.ArrayList;
+
+/* Something that finds journeys over a Timetable, so the planner can be run on
+ * either algorithm and the two compared on the same feed. */
+public interface JourneyRouter {
+
+	int MAX_TRANSFERS = 6;
+
+	Timetable getTimetable();
+
+	/* Time allowed to change vehicles at a stop. */
+	void setChangeSeconds(int seconds);
+
+	/* Journeys leaving at departure (seconds after midnight) from any of fromStops, reached
+	 * after walking fromWalk seconds, to any of toStops, which are toWalk seconds from the
+	 * destination. Returns the journeys for each number of transfers up to maxTransfers
+	 * that arrive earlier than all those with fewer, fewest transfers first. A router
+	 * that weighs other things as well may return more than one for a number of transfers. */
+	ArrayList<Journey> route(int[] fromStops, int[] fromWalk, int[] toStops, int[] toWalk,
+			int departure, int maxTransfers);
+}
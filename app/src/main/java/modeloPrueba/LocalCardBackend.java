@@ -0,0 +1,86 @@
+/*
+ * This file is part of GTFSOffline.
+ *
+ * GTFSOffline is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GTFSOffline is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GTFSOffline.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package modeloPrueba;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/* A CardLedger.Backend that keeps what it's sent in memory, until there's a real one
+ * to talk to. Entries it already has are taken again without being stored twice, as a
+ * real one would after a phone lost its snapshot, and it counts what crosses over so
+ * the screen can show how little a sync sends. Remote entries can be put in it to
+ * stand for fares charged on the bus. */
+public final class LocalCardBackend implements CardLedger.Backend {
+
+	private static LocalCardBackend sInstance = null;
+
+	private final ArrayList<CardLedger.Entry> mStored = new ArrayList<CardLedger.Entry>();
+	private final ArrayList<CardLedger.Entry> mRemote = new ArrayList<CardLedger.Entry>();
+	private long mLast = 0;
+	private int mReceived = 0, mSent = 0;
+
+	public static synchronized LocalCardBackend get() {
+		if (sInstance == null) {
+			sInstance = new LocalCardBackend();
+		}
+		return sInstance;
+	}
+
+	@Override
+	public synchronized long push(List<CardLedger.Entry> entries) {
+		for (CardLedger.Entry e : entries) {
+			mReceived++;
+			if (e.seq > mLast) {
+				mStored.add(e);
+				mLast = e.seq;
+			}
+		}
+		return mLast;
+	}
+
+	@Override
+	public synchronized List<CardLedger.Entry> pull(long since) {
+		final ArrayList<CardLedger.Entry> newer = new ArrayList<CardLedger.Entry>();
+		for (CardLedger.Entry e : mRemote) {
+			if (e.origin > since) {
+				newer.add(e);
+			}
+		}
+		mSent += newer.size();
+		return newer;
+	}
+
+	/* Something that happened to a card away from the phone. */
+	public synchronized void addRemote(int kind, String card, long amount, long time) {
+		mRemote.add(CardLedger.Entry.remote(mRemote.size() + 1, time, kind, card, amount));
+	}
+
+	public synchronized int getStored() {
+		return mStored.size();
+	}
+
+	/* Entries pushed to us, and pulled from us, since we started. */
+	public synchronized int getReceived() {
+		return mReceived;
+	}
+
+	public synchronized int getSent() {
+		return mSent;
+	}
+}
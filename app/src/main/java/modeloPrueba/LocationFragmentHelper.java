@@ -22,18 +22,18 @@ package modeloPrueba;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 
 import android.app.AlertDialog;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.SharedPreferences;
-import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.location.Location;
 import android.os.AsyncTask;
 import android.preference.PreferenceManager;
-import android.text.TextUtils;
 import android.text.format.Time;
 import android.util.Log;
 import android.view.View;
@@ -44,31 +44,71 @@ import android.widget.Toast;
 public class LocationFragmentHelper {
 	
 	private static final String TAG = "LocationFragmentHelper";
-	private static String FAVSTOPS_KEY;
 
 	private static int grid_size;
 	private static int NUM_CLOSEST_STOPS;
 	private static int NUM_BUSES;	//the number of next buses per stop to be shown.
     private boolean USE_ROUTE_NO;
 
-	private Location mLocation;
+	private volatile Location mLocation;
 	private timestopdescArrayAdapter mAdapter;
 	private ArrayList<String[]> mListDetails;
 
 	private Context mContext;
 	
 	private String myDBName;
-	private SQLiteDatabase myDB;
 	private DatabaseHelper mDatabaseHelper;
 
-	// Need to store some stuff in an array, so we can sort by distance
-	class StopLocn {
-		public float dist, bearing;
-		public double lat, lon;
-		public String stop_id, stop_name;
+	// Location updates can come thick and fast; only the latest refresh matters
+	private final RefreshScheduler mRefresh = new RefreshScheduler(TAG, new RefreshScheduler.TaskFactory() {
+		@Override
+		public AsyncTask<Void, ?, ?> newTask() {
+			return new ProcessBusStops();
+		}
+	});
+
+	// Stops around us, loaded a tile at a time as we move, with a grid over
+	// them so we only measure the distance to stops near us.
+	private static final int MAX_STOP_TILES = 64;
+	private final StopTileCache mStopTiles = new StopTileCache(MAX_STOP_TILES);
+
+	// The last ranking. While we haven't moved more than RERANK_DISTANCE from where it
+	// was done, the same candidates are just re-measured and re-sorted, and departures
+	// are only looked up for stops we don't already have them for.
+	private static int RERANK_DISTANCE;	// m
+	private static final long DEPARTURES_MAX_AGE = 5 * 60 * 1000;	// ms
+	private int[] mCandIdx;
+	private float[] mCandDist, mCandBearing;
+	private int mCandCount;
+	private float mCandRadius;		// distance of the furthest candidate when ranked
+	private double mRankLat, mRankLon;
+
+	class StopDepartures {
+		public ArrayList<String[]> rows;	// null if nothing runs from this stop soon
+		public long fetched;
+	}
+	private final HashMap<String, StopDepartures> mDepartures = new HashMap<String, StopDepartures>();
+
+	// What else is a short walk from each of the stops around us. Worked out in the
+	// background when the stops change, and only read from the UI thread, which must
+	// not go near mStopTiles.
+	private static final double WALK_RADIUS = TimetableLoader.FOOTPATH_RADIUS;	// m
+	class StopWalks {
+		public HashMap<String, String> near;	// stop_id -> "name (n min), ..."
+		public int version;
 	}
-	private StopLocn[] mStops;
+	private volatile StopWalks mWalks;
+	private ArrayList<String[]> mTransferRows;	// the feed's transfers table, read once
+
 	private SharedPreferences mPrefs;
+	private DepartureBoard mBoard;
+	private final MinuteTicker mTicker = new MinuteTicker(new Runnable() {
+		@Override
+		public void run() {
+			showBoard(true);
+		}
+	});
+	private FavouritesStore mFavourites;
 	private static boolean ampmflag;
 	private static int hoursLookAhead;
 	
@@ -76,11 +116,9 @@ public class LocationFragmentHelper {
 	
 
 
-	public LocationFragmentHelper(Context context, String aDBName, 
-				SQLiteDatabase aDB, ProgressBar aProgress) {
+	public LocationFragmentHelper(Context context, String aDBName, ProgressBar aProgress) {
 		mContext = context;
 		myDBName = aDBName;
-		myDB = aDB;
 	
 		mDatabaseHelper = new DatabaseHelper(mContext);
 		
@@ -90,17 +128,21 @@ public class LocationFragmentHelper {
 		mListDetails = new ArrayList<String[]>(NUM_CLOSEST_STOPS*NUM_BUSES);
 
 		//mTitle.setText(R.string.loading_stops);
-		mStops = null;
 		
 		//set up prefs
-		FAVSTOPS_KEY = new String(mContext.getString(R.string.pref_favstops_key));
+		mFavourites = FavouritesStore.get(mContext);
 		mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
 		reloadPreferences();
 	}
 	
 	public void runProcessOnLocation(Location aLocation) {
 		mLocation = aLocation;
-		new ProcessBusStops().execute();
+		mRefresh.request();
+	}
+
+	/* Stop any refresh in progress, e.g. because the list is going away. */
+	public void cancelProcess() {
+		mRefresh.cancel();
 	}
 
 	private void reloadPreferences() {
@@ -113,6 +155,7 @@ public class LocationFragmentHelper {
 					mContext.getString(R.string.pref_hours_look_ahead), "1"));
 		grid_size = Integer.parseInt(mPrefs.getString(
 				mContext.getString(R.string.pref_grid_size_key), "1"));
+		RERANK_DISTANCE = Integer.parseInt(mPrefs.getString("rerank_distance", "100"));
         USE_ROUTE_NO = mPrefs.getBoolean("useroutenos", false);
 	}
 
@@ -125,7 +168,7 @@ public class LocationFragmentHelper {
 	}
 
 	/* Do the processing to load the ArrayAdapter for display. */
-	public class ProcessBusStops extends AsyncTask<Void, Integer, Void> {
+	public class ProcessBusStops extends AsyncTask<Void, Integer, DepartureBoard> {
 		// static final String TAG = "ProcessBusStops";
 
 		
@@ -142,144 +185,93 @@ public class LocationFragmentHelper {
 		}
 
 		@Override
-		protected Void doInBackground(Void... foo) {
+		protected DepartureBoard doInBackground(Void... foo) {
 			// Log.v(TAG, "doInBackground()");
 
-			if( myDB == null ) {
-				myDB = mDatabaseHelper.ReadableDB(myDBName, myDB);
-			}
-			if (myDB == null) {
-				//we tried!
-				return null;
-			}
-			if (mLocation == null) {
+			final Location location = mLocation;
+			if (location == null) {
 				//uh oh, no location yet!
 				//we'll trust the TOAST in LocationHelper to keep people aware of this.
 				return null;
 			}
-			double myLongitude = mLocation.getLongitude();
-			double myLatitude = mLocation.getLatitude();
-			double myTop = myLatitude + (180.0/Math.PI)*(grid_size/6378.1370);
-			double myBottom = myLatitude - (180.0/Math.PI)*(grid_size/6378.1370);
-			double myLeft = myLongitude - (180.0/Math.PI)*(grid_size/6378.1370)/Math.cos(Math.PI/180.0*myLatitude);
-			double myRight = myLongitude + (180.0/Math.PI)*(grid_size/6378.1370)/Math.cos(Math.PI/180.0*myLatitude);
-
-			final String qry;
-			final String[] selectargs;
-			if ( grid_size == 0 ) {
-				//we want to look as far as possible away.
-				qry = "select stop_id as _id, stop_lat, stop_lon, stop_name from stops";
-				selectargs = new String[] { };
-			} else {
-				qry = "select stop_id as _id, stop_lat, stop_lon, stop_name from stops " +
-						"where stop_lat < ? and stop_lat > ? and stop_lon < ? and stop_lon > ?";
-				selectargs = new String[] { Double.toString(myTop), Double.toString(myBottom), 
-					Double.toString(myLeft), Double.toString(myRight) };
+			// Each refresh has its own handle, so one that is cancelled can't close
+			// the database under the one that replaced it.
+			final SQLiteDatabase db = mDatabaseHelper.ReadableDB(myDBName, null);
+			if (db == null) {
+				//we tried!
+				return null;
+			}
+			try {
+				return buildList(db, location);
+			} finally {
+				mDatabaseHelper.CloseDB(db);
 			}
-			int maxcount;
+		}
 
-			
-			// Load the stops from the database the first time through
-			if (mStops == null) {
-				final Cursor csr = mDatabaseHelper.ReadableDB(myDBName, myDB).rawQuery(qry, selectargs);
-				maxcount = csr.getCount();
-				mStops = new StopLocn[maxcount];
-				boolean more = csr.moveToPosition(0);
-				int locidx = 0;
-
-				while (more) {
-					// stash in array
-					mStops[locidx] = new StopLocn();
-					mStops[locidx].stop_id = csr.getString(0);
-					mStops[locidx].lat = csr.getDouble(1);
-					mStops[locidx].lon = csr.getDouble(2);
-					mStops[locidx].stop_name = csr.getString(3);
-
-					more = csr.moveToNext();
-					++locidx;
-					//publishProgress(((int) ((locidx / (float) maxcount) * 100)));
-				}
-				csr.close();
+		/* Bail out between stages if a newer refresh has replaced us. */
+		private DepartureBoard buildList(SQLiteDatabase aDB, Location location) {
+			double myLongitude = location.getLongitude();
+			double myLatitude = location.getLatitude();
+
+			// Load any stops around us we don't have yet. If the stops changed, the
+			// last ranking refers to the old ones, so start again.
+			if (mStopTiles.update(myDBName, aDB, myLatitude, myLongitude, grid_size)) {
+				mCandCount = 0;
 			}
-			
-			// Calculate the distance to each point in the array
-			final float[] results = new float[2];
-			
-			if(mLocation == null) {
+			if (isCancelled()) {
 				return null;
 			}
-			for (final StopLocn s : mStops) {
-
-				Location.distanceBetween(mLocation.getLatitude(), mLocation.getLongitude(), s.lat, s.lon, results);
-				s.dist = results[0];
-				s.bearing = results[1];
+			if (mWalks == null || mWalks.version != mStopTiles.getVersion()) {
+				mWalks = buildWalks(aDB);
 			}
-
-			// Sort by distance from our current location
-			Arrays.sort(mStops, new Comparator<StopLocn>() {
-				@Override
-				public int compare(StopLocn entry1, StopLocn entry2) {
-					return entry1.dist < entry2.dist ? -1 : entry1.dist == entry2.dist ? 0 : 1;
-				}
-			});
+			rankStops(myLatitude, myLongitude, Math.max(1, 2 * NUM_CLOSEST_STOPS));
 
 			// Transfer everything to an array list to load in display
 			// Bearing is from -180 to +180, so use as index into here
-			mListDetails.clear();
+			final ArrayList<String[]> details = new ArrayList<String[]>(NUM_CLOSEST_STOPS*NUM_BUSES);
 			final String[] DIRS = { "S", "SW", "W", "NW", "N", "NE", "E", "SE", };
-			Integer stop_limit;
-			if (mStops.length < NUM_CLOSEST_STOPS) {
-				stop_limit = mStops.length;
-			} else {
-				stop_limit = NUM_CLOSEST_STOPS;
-			}
 			
 			final Time t = new Time();
 			t.setToNow();
+			final ServiceCalendar myBusService = new ServiceCalendar(myDBName, aDB, ampmflag);
+			myBusService.setDB(mDatabaseHelper);
+			refreshDepartures(myBusService, t);
+			if (isCancelled()) {
+				return null;
+			}
 			
-			for (int i = 0; i < stop_limit; i++) {
-				final StopLocn s = mStops[i];
+			int shown = 0;
+			for (int i = 0; shown < NUM_CLOSEST_STOPS && i < mStopTiles.getIndex().size(); i++) {
+				if (i >= mCandCount) {
+					// Too many stops without service: rank a bigger set from here and
+					// start over. Departures we already have are kept.
+					rankStops(myLatitude, myLongitude, -2 * mCandCount);
+					refreshDepartures(myBusService, t);
+					if (isCancelled()) {
+						return null;
+					}
+					details.clear();
+					shown = 0;
+					i = -1;
+					continue;
+				}
+				final int stop = mCandIdx[i];
+				final String stop_id = mStopTiles.getStopId(stop);
+				final String stop_name = mStopTiles.getStopName(stop);
+				final float stop_dist = mCandDist[i];
 
-				final String dir = DIRS[(int) (s.bearing + 180 + 22.5) % 360 / 45];
+				final String dir = DIRS[(int) (mCandBearing[i] + 180 + 22.5) % 360 / 45];
 				String dist;
-				if (s.dist < 1000) {
-					dist = String.format("%3.0fm %s", s.dist, dir);
+				if (stop_dist < 1000) {
+					dist = String.format("%3.0fm %s", stop_dist, dir);
 				} else {
-					dist = String.format("%3.1fkm %s", s.dist / 1000.0, dir);
+					dist = String.format("%3.1fkm %s", stop_dist / 1000.0, dir);
 				}
-				//So, we have the heading of the nearest stop. Now, we need to query to find
-				//the next NUM_BUSES.
-				ServiceCalendar myBusService = new ServiceCalendar(myDBName, myDB, ampmflag);
-				myBusService.setDB(mDatabaseHelper);
-				final ArrayList<String[]> fullResultsA = myBusService.getNextDepartureTimes(t, s.stop_id, 
-						NUM_BUSES, hoursLookAhead, true);
-				//the format of this:
-				// departuretime	runstoday	trip_id		route_short_name	trip_headsign
-				//	140300				1		34867		13					Route 13 Laurelwood
-				
-				ArrayList<String[]> fullResults = myBusService.getNextDepartureTimes(t, s.stop_id, 
-						NUM_BUSES, hoursLookAhead, false);
 
-				if ((fullResults == null) && (fullResultsA == null))
-				{
-					if (stop_limit < mStops.length - 1) {
-						stop_limit++;
-					}
+				// Stops with nothing running soon are skipped
+				final ArrayList<String[]> fullResults = mDepartures.get(stop_id).rows;
+				if (fullResults == null) {
 					continue;
-				} else if (fullResultsA == null) {
-					//do nothing
-				} else if (fullResults == null) {
-					fullResults = fullResultsA;
-				}
-				else {
-                    if (t.hour <= hoursLookAhead) {
-                        fullResults.addAll(fullResultsA);
-                    }
-                    else {
-                        ArrayList<String[]> tmpResults = fullResultsA;
-                        tmpResults.addAll(fullResults);
-                        fullResults = tmpResults;
-                    }
 				}
 				
 				for (String[] str: fullResults) {
@@ -289,45 +281,247 @@ public class LocationFragmentHelper {
 					//String departsIn;
                     final String routeNo;
                     if (str[3].equals("") || (!USE_ROUTE_NO)) {
-                        routeNo = s.stop_id;
+                        routeNo = stop_id;
                     }
                     else {
                         routeNo = str[3];
                     }
 
-					mListDetails.add(new String[] { dist, s.stop_id, s.stop_name, 
+					details.add(new String[] { dist, stop_id, stop_name, 
 							str[4], myBusService.formattedDepartureTime(t, hours, minutes),
-							str[2], myDBName, routeNo});
+							str[2], myDBName, routeNo, str[0]});
 					
 				}
-				publishProgress(((int) ((i / (float) stop_limit) * 100)));
+				publishProgress(((int) ((++shown / (float) NUM_CLOSEST_STOPS) * 100)));
 			}
 			
-			return null;
+			return new DepartureBoard(details, t.toMillis(false), t.hour * 3600 + t.minute * 60 + t.second,
+					Math.max(1, NUM_BUSES / 2));
 		}
 
 		@Override
 		protected void onCancelled() {
-			mDatabaseHelper.CloseDB(mDatabaseHelper.ReadableDB(myDBName, myDB));
+			// Superseded or stopped: the progress bar is the newer refresh's, if there is one
+			if (!mRefresh.isBusy()) {
+				mProgress.setVisibility(View.INVISIBLE);
+			}
 		}
-		
+
 		@Override
-		protected void onPostExecute(Void foo) {
+		protected void onPostExecute(DepartureBoard board) {
 			 //Log.v(TAG, "onPostExecute(), closing " + myDBName );
 
 			mProgress.setVisibility(View.INVISIBLE);
 			//mListDetail.startAnimation(mSlideOut);
 
 			//mTitle.setText(R.string.title_activity_closest_stops);
-			if(mAdapter != null) {
-				mAdapter.notifyDataSetChanged();
+			if (board == null) {
+				return;
+			}
+			mBoard = board;
+			showBoard(false);
+		}
+	}
+
+	/* Join the stops around us that are a short walk apart, along with any transfers
+	 * the feed lists between them, and write down for each one "name (n min)" of
+	 * the stops it leads to, nearest first. */
+	private StopWalks buildWalks(SQLiteDatabase aDB) {
+		if (mTransferRows == null) {
+			mTransferRows = TimetableLoader.readTransfers(aDB);
+		}
+		final StopGridIndex index = mStopTiles.getIndex();
+		final HashMap<String, Integer> stops = new HashMap<String, Integer>(2 * index.size());
+		for (int s = 0; s < index.size(); s++) {
+			stops.put(mStopTiles.getStopId(s), s);
+		}
+		final int[] from = new int[mTransferRows.size()], to = new int[from.length], secs = new int[from.length];
+		int n = 0;
+		for (String[] t : mTransferRows) {
+			final Integer a = stops.get(t[0]), b = stops.get(t[1]);
+			if (a != null && b != null) {
+				from[n] = a;
+				to[n] = b;
+				secs[n] = TransferGraph.transferSeconds(TimetableLoader.parseInt(t[2], 0),
+						TimetableLoader.parseInt(t[3], -1));
+				n++;
+			}
+		}
+		final TransferGraph g = TransferGraph.build(index, WALK_RADIUS, JourneyPlanner.WALK_SPEED,
+				Arrays.copyOf(from, n), Arrays.copyOf(to, n), Arrays.copyOf(secs, n));
+
+		final StopWalks walks = new StopWalks();
+		walks.version = mStopTiles.getVersion();
+		walks.near = new HashMap<String, String>();
+		final StringBuilder sb = new StringBuilder();
+		for (int s = 0; s < index.size(); s++) {
+			if (g.getFirst(s) == g.getEnd(s)) {
+				continue;
+			}
+			sb.setLength(0);
+			for (int e = g.getFirst(s); e < g.getEnd(s); e++) {
+				sb.append(sb.length() == 0 ? "" : ", ").append(mStopTiles.getStopName(g.getTarget(e)))
+						.append(" (").append((g.getSeconds(e) + 59) / 60).append(" min)");
 			}
-			//close the database
-			mDatabaseHelper.CloseDB(myDB);
-			myDB = null;
+			walks.near.put(mStopTiles.getStopId(s), sb.toString());
 		}
+		return walks;
+	}
+
+	/* "name (n min)" for each stop a short walk from stop_id, nearest first. */
+	private String walkableFrom(String stop_id) {
+		final StopWalks walks = mWalks;
+		final String near = (walks == null) ? null : walks.near.get(stop_id);
+		return (near == null) ? "" : near;
+	}
+
+	/* Bring the list up to date with the clock, and if asked, fetch more departures
+	 * when the board is running out. A top up reuses the ranking and any departures
+	 * still good, so it's mostly the stops that ran out that hit the database. */
+	private void showBoard(boolean topUp) {
+		if (mBoard == null) {
+			return;
+		}
+		final long now = System.currentTimeMillis();
+		mBoard.tick(now);
+		mBoard.copyRows(mListDetails);
+		if(mAdapter != null) {
+			mAdapter.notifyDataSetChanged();
+		}
+		if (topUp && mBoard.isLow(now)) {
+			mRefresh.request();
+		}
+	}
+
+	/* Keep the countdowns current while the list is on screen. */
+	public void startTicking() {
+		mTicker.start();
+	}
+
+	public void stopTicking() {
+		mTicker.stop();
 	}
 	
+	/* Rank the candidate stops around (lat, lon). If we're still close to where the
+	 * last ranking was done, and no stop outside the candidates can have overtaken any
+	 * we may show, down to the deepest one past the stops without service, just
+	 * re-measure and re-sort the candidates. Otherwise ask the grid
+	 * for the nearest count stops; a negative count forces a fresh ranking. */
+	private void rankStops(double lat, double lon, int count) {
+		final StopGridIndex index = mStopTiles.getIndex();
+		final int numStops = index.size();
+		if (count > 0 && mCandCount > 0
+				&& StopGridIndex.distance(mRankLat, mRankLon, lat, lon) < RERANK_DISTANCE) {
+			final float moved = (float) StopGridIndex.distance(mRankLat, mRankLon, lat, lon);
+			index.measure(lat, lon, mCandIdx, mCandCount, mCandDist, mCandBearing);
+			for (int i = 1; i < mCandCount; i++) {
+				final int s = mCandIdx[i];
+				final float d = mCandDist[i];
+				final float b = mCandBearing[i];
+				// insertion sort, the order barely changes between fixes
+				int pos = i;
+				while (pos > 0 && mCandDist[pos - 1] > d) {
+					mCandDist[pos] = mCandDist[pos - 1];
+					mCandBearing[pos] = mCandBearing[pos - 1];
+					mCandIdx[pos] = mCandIdx[pos - 1];
+					pos--;
+				}
+				mCandDist[pos] = d;
+				mCandBearing[pos] = b;
+				mCandIdx[pos] = s;
+			}
+			// The deepest candidate the list can show. Stops with nothing running are
+			// skipped, so count only those known to have service; one we know nothing
+			// current of may turn out to have none, so it doesn't count.
+			final long now = System.currentTimeMillis();
+			int last = -1, shown = 0;
+			for (int i = 0; i < mCandCount && shown < NUM_CLOSEST_STOPS; i++) {
+				final StopDepartures deps = mDepartures.get(mStopTiles.getStopId(mCandIdx[i]));
+				if (deps != null && deps.rows != null && now - deps.fetched < DEPARTURES_MAX_AGE) {
+					shown++;
+				}
+				last = i;
+			}
+			if (mCandCount == numStops || (last >= 0 && mCandDist[last] <= mCandRadius - moved)) {
+				return;
+			}
+		}
+
+		final int k = Math.min(numStops, Math.max(Math.abs(count), mCandCount));
+		mCandIdx = new int[k];
+		mCandDist = new float[k];
+		mCandBearing = new float[k];
+		mCandCount = index.nearest(lat, lon, k, mCandIdx, mCandDist, mCandBearing);
+		mCandRadius = (mCandCount > 0) ? mCandDist[mCandCount - 1] : 0;
+		mRankLat = lat;
+		mRankLon = lon;
+
+		// Forget departures for stops that dropped out of the candidates
+		final HashSet<String> keep = new HashSet<String>(2 * mCandCount);
+		for (int i = 0; i < mCandCount; i++) {
+			keep.add(mStopTiles.getStopId(mCandIdx[i]));
+		}
+		final Iterator<String> it = mDepartures.keySet().iterator();
+		while (it.hasNext()) {
+			if (!keep.contains(it.next())) {
+				it.remove();
+			}
+		}
+	}
+
+	/* Bring the departures for all the candidate stops up to date, with a single batched
+	 * lookup for the ones we have nothing current for: new stops, stops where one of the
+	 * buses we had has left since, or where the last lookup is getting old. */
+	private void refreshDepartures(ServiceCalendar aBusService, Time t) {
+		final long now = System.currentTimeMillis();
+		final ArrayList<String> stale = new ArrayList<String>(mCandCount);
+		for (int i = 0; i < mCandCount; i++) {
+			final String stop_id = mStopTiles.getStopId(mCandIdx[i]);
+			final StopDepartures deps = mDepartures.get(stop_id);
+			if (deps == null || now - deps.fetched >= DEPARTURES_MAX_AGE) {
+				stale.add(stop_id);
+			} else if (deps.rows != null) {
+				for (String[] str : deps.rows) {
+					if (minutesUntil(t, str[0]) < 0) {
+						stale.add(stop_id);
+						break;
+					}
+				}
+			}
+		}
+		if (stale.isEmpty()) {
+			return;
+		}
+
+		//the format of this:
+		// departuretime	runstoday	trip_id		route_short_name	trip_headsign	stop_id
+		//	140300				1		34867		13					Route 13 Laurelwood	2514
+		final HashMap<String, ArrayList<String[]>> fullResults = aBusService.getNextDepartureTimesBatch(
+				t, stale.toArray(new String[stale.size()]), NUM_BUSES, hoursLookAhead);
+		for (String stop_id : stale) {
+			final StopDepartures deps = new StopDepartures();
+			deps.rows = fullResults.get(stop_id);
+			deps.fetched = now;
+			mDepartures.put(stop_id, deps);
+		}
+	}
+
+	/* Minutes from t until a hhmmss departure time, negative once it has left. Times
+	 * past midnight (24h and later, or tomorrow's) are all within the look ahead. */
+	private static int minutesUntil(Time t, String departure) {
+		final int dep = Integer.parseInt(departure.substring(0,2)) * 60 
+				+ Integer.parseInt(departure.substring(2,4));
+		int diff = (dep - (t.hour * 60 + t.minute)) % (24 * 60);
+		if (diff < 0) {
+			diff += 24 * 60;
+		}
+		// departures are never more than half a day away, so this one has gone
+		if (diff > 12 * 60) {
+			diff -= 24 * 60;
+		}
+		return diff;
+	}
+
 	// Called for a long click
 	public void onListItemLongClick(AdapterView<?> parent, View v, int position, long id) {
 		Log.v(TAG, "long clicked position " + position);
@@ -344,7 +538,7 @@ public class LocationFragmentHelper {
 			public void onClick(DialogInterface dialog, int id) {
 				switch (id) {
 				case DialogInterface.BUTTON_POSITIVE:
-					AddBusstopFavourite(stop_id, stop_name + "#" + myDBName);
+					AddBusstopFavourite(stop_id, stop_name);
 					break;
 				}
 				dialog.cancel();
@@ -353,48 +547,20 @@ public class LocationFragmentHelper {
 
 		final AlertDialog.Builder builder = new AlertDialog.Builder(mContext);
 		builder.setTitle("Stop " + stop_id + ", " + stop_name);
-		builder.setMessage(R.string.favs_add_to_list).setPositiveButton(R.string.yes, listener)
-		.setNegativeButton(R.string.no, listener).create().show();
-	}
-	
-	public ArrayList<String[]> GetBusstopFavourites() {
-		final String favs = mPrefs.getString(FAVSTOPS_KEY, "");
-
-		// Load the array for the list
-		final ArrayList<String[]> details = new ArrayList<String[]>();
-
-		// favs is a semi-colon separated string of stops, with a trailing semi-colon.
-		// Then each stop has a description stored as KEY-stop.
-		if (!favs.equals("")) {
-			final TextUtils.StringSplitter splitter = new TextUtils.SimpleStringSplitter(';');
-			splitter.setString(favs);
-			for (final String s : splitter) {
-				final String[] strs = { s, mPrefs.getString(FAVSTOPS_KEY + "-" + s, "") };
-				details.add(strs);
-			}
+		final String walks = walkableFrom(stop_id);
+		if (walks.equals("")) {
+			builder.setMessage(R.string.favs_add_to_list);
+		} else {
+			builder.setMessage(mContext.getString(R.string.favs_add_to_list_walks,
+					mContext.getString(R.string.favs_add_to_list), walks));
 		}
-		return details;
+		builder.setPositiveButton(R.string.yes, listener).setNegativeButton(R.string.no, listener).create().show();
 	}
-
-
+	
 	public void AddBusstopFavourite(String busstop, String stopname) {
-		String favs = mPrefs.getString(FAVSTOPS_KEY, "");
-
-		final TextUtils.StringSplitter splitter = new TextUtils.SimpleStringSplitter(';');
-		splitter.setString(favs);
-		boolean already = false;
-		for (final String s : splitter) {
-			if (s.equals(busstop)) {
-				already = true;
-				break;
-			}
-		}
-
-		if (already) {
+		if (mFavourites.add(myDBName, busstop, stopname) == null) {
 			Toast.makeText(mContext, "Stop " + busstop + " is already a favourite!", Toast.LENGTH_LONG).show();
 		} else {
-			favs += busstop + ";";
-			mPrefs.edit().putString(FAVSTOPS_KEY, favs).putString(FAVSTOPS_KEY + "-" + busstop, stopname).commit();
 			Toast.makeText(mContext, "Stop " + busstop + " was added to your favourites.", Toast.LENGTH_LONG).show();
 		}
 	}
@@ -369,6 +369,15 @@ public class MainActivity extends FragmentActivity implements
 		// When the given tab is selected, switch to the corresponding page in
 		// the ViewPager.
 		mViewPager.setCurrentItem(tab.getPosition());
+
+		// and bring its list up to date; flicking through tabs only costs one refresh
+		final Fragment aFragment = getSupportFragmentManager().
+				findFragmentByTag("android:switcher:"+R.id.pager+":"+Integer.toString(tab.getPosition()));
+		if (aFragment instanceof FavSectionFragment) {
+			((FavSectionFragment) aFragment).updatePositions();
+		} else if (aFragment instanceof DBListFragment) {
+			((DBListFragment) aFragment).updatePositions();
+		}
 	}
 
 	@Override
@@ -533,9 +542,36 @@ public class MainActivity extends FragmentActivity implements
 		}
 		
 		public void updatePositions() {
+			if (mFavFragHelper == null) {
+				return;
+			}
 			mFavFragHelper.reloadPreferences();
 			mFavFragHelper.runProcess();
 		}
+
+		@Override
+		public void onResume() {
+			super.onResume();
+			if (mFavFragHelper != null) {
+				mFavFragHelper.startTicking();
+			}
+		}
+
+		@Override
+		public void onPause() {
+			super.onPause();
+			if (mFavFragHelper != null) {
+				mFavFragHelper.stopTicking();
+			}
+		}
+
+		@Override
+		public void onDestroy() {
+			super.onDestroy();
+			if (mFavFragHelper != null) {
+				mFavFragHelper.cancelProcess();
+			}
+		}
 		
 	}
 
@@ -571,8 +607,12 @@ public class MainActivity extends FragmentActivity implements
 		public void onActivityCreated(Bundle savedInstanceState) {
 			super.onActivityCreated(savedInstanceState);
 			
-			mLocationFragHelper = new LocationFragmentHelper(this.getActivity(), 
-					myDatabase, null, mProgress);
+			// We're retained, so keep the helper (and the stops it has ranked) when
+			// the pager re-attaches us after a location update.
+			if (mLocationFragHelper == null) {
+				mLocationFragHelper = new LocationFragmentHelper(this.getActivity(), 
+						myDatabase, mProgress);
+			}
 			//setup the list adapter
 			mLocationFragHelper.runProcessOnLocation(mLocation);
 			mListAdapter = new timestopdescArrayAdapter(this.getActivity(), R.layout.timestopdesc, 
@@ -616,8 +656,35 @@ public class MainActivity extends FragmentActivity implements
 		}
 		
 		public void updatePositions() {
+			if (mLocationFragHelper == null) {
+				return;
+			}
 			mLocationFragHelper.runProcessOnLocation(mLocation);
 		}
+
+		@Override
+		public void onResume() {
+			super.onResume();
+			if (mLocationFragHelper != null) {
+				mLocationFragHelper.startTicking();
+			}
+		}
+
+		@Override
+		public void onPause() {
+			super.onPause();
+			if (mLocationFragHelper != null) {
+				mLocationFragHelper.stopTicking();
+			}
+		}
+
+		@Override
+		public void onDestroy() {
+			super.onDestroy();
+			if (mLocationFragHelper != null) {
+				mLocationFragHelper.cancelProcess();
+			}
+		}
 		
 	}
 	
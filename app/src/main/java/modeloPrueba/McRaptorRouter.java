@@ -0,0 +1,448 @@
+/*
+ * This file is part of GTFSOffline.
+ *
+ * GTFSOffline is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GTFSOffline is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GTFSOffline.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package modeloPrueba;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+
+/* Journeys over a Timetable weighing arrival time, number of transfers and time spent
+ * walking (McRAPTOR, from the same paper as RaptorRouter).
+ *
+ * Instead of one arrival per stop and round, each stop keeps a bag of labels, none of
+ * which arrives later and walks more than another of the same or an earlier round.
+ * Trips are scanned round by round as in RaptorRouter, carrying a small bag of labels
+ * along each pattern. The result is every journey that no other beats on all three.
+ *
+ * Labels live in preallocated parallel arrays and the bags are linked lists through
+ * them, so a query allocates only its results. The work a query may do is bounded:
+ * by the number of labels, the size of each stop's bag, and a time limit. A query
+ * that hits a limit returns what it has found, and isTruncated() says so. A router
+ * must not be used by two threads at once. */
+public class McRaptorRouter implements JourneyRouter {
+
+	private static final int INFINITY = RaptorRouter.INFINITY;
+	private static final int ROUNDS = MAX_TRANSFERS + 2;
+	private static final int NONE = -1;
+	private static final int ROUTE_BAG = 32;		// labels carried along a pattern
+	private static final int TARGET_BAG = 64;		// journeys to the destination
+
+	// How a label got to its stop
+	private static final int ACCESS = 0;	// walked from the origin
+	private static final int RIDE = 1;		// rode lTrip from lFromStop
+	private static final int FOOT = 2;		// walked from its parent's stop
+
+	private final Timetable mTT;
+	private final TransferGraph mWalks;
+	private final int mStops;
+	private int mChangeSeconds = 60;
+
+	// Budgets
+	private int mMaxLabels, mMaxBag = 12;
+	private long mMaxNanos = 150 * 1000 * 1000L;
+	private boolean mTruncated;
+	private long mDeadline;
+
+	// The labels
+	private int[] lArr, lWalk, lRound, lKind, lParent, lStop;
+	private int[] lTrip, lFromStop, lFromPos, lToPos;
+	private int[] lNextBest, lNextRound;
+	private boolean[] lDead;
+	private int mLabels;
+
+	private final int[] mBestHead, mBestSize;	// each stop's bag, all rounds
+	private final int[] mRoundHead;				// labels added to a stop in a round, [round * mStops + stop]
+
+	private final boolean[] mMarked;
+	private final int[] mMarkedList;
+	private int mMarkedCount;
+	private final int[] mPatternFrom;
+	private final int[] mPatternQueue;
+	private int mQueued;
+
+	// The bag carried along a pattern
+	private final int[] rbTrip = new int[ROUTE_BAG], rbWalk = new int[ROUTE_BAG], rbParent = new int[ROUTE_BAG];
+	private final int[] rbBoardStop = new int[ROUTE_BAG], rbBoardPos = new int[ROUTE_BAG];
+	private int rbSize;
+
+	// Journeys found so far: label, arrival and walking at the destination
+	private final int[] tLabel = new int[TARGET_BAG], tArr = new int[TARGET_BAG], tWalk = new int[TARGET_BAG];
+	private final int[] tEgress = new int[TARGET_BAG];
+	private int tSize;
+
+	private final int[] mEgress;
+
+	public McRaptorRouter(Timetable tt) {
+		mTT = tt;
+		mWalks = tt.transfers;
+		mStops = tt.numStops;
+		mBestHead = new int[mStops];
+		mBestSize = new int[mStops];
+		mRoundHead = new int[ROUNDS * mStops];
+		mMarked = new boolean[mStops];
+		mMarkedList = new int[mStops];
+		mPatternFrom = new int[tt.numPatterns];
+		mPatternQueue = new int[tt.numPatterns];
+		mEgress = new int[mStops];
+		Arrays.fill(mPatternFrom, INFINITY);
+		Arrays.fill(mEgress, -1);
+		allocate(64 * 1024);
+	}
+
+	private void allocate(int labels) {
+		mMaxLabels = labels;
+		lArr = new int[labels];
+		lWalk = new int[labels];
+		lRound = new int[labels];
+		lKind = new int[labels];
+		lParent = new int[labels];
+		lStop = new int[labels];
+		lTrip = new int[labels];
+		lFromStop = new int[labels];
+		lFromPos = new int[labels];
+		lToPos = new int[labels];
+		lNextBest = new int[labels];
+		lNextRound = new int[labels];
+		lDead = new boolean[labels];
+	}
+
+	@Override
+	public Timetable getTimetable() {
+		return mTT;
+	}
+
+	@Override
+	public void setChangeSeconds(int seconds) {
+		mChangeSeconds = seconds;
+	}
+
+	/* Most labels a query may create, most labels kept at a stop, and how long a query
+	 * may run. The label arrays are reallocated only if maxLabels changes. */
+	public void setBudget(int maxLabels, int maxBag, long maxMillis) {
+		if (maxLabels != mMaxLabels) {
+			allocate(maxLabels);
+		}
+		mMaxBag = Math.max(1, maxBag);
+		mMaxNanos = maxMillis * 1000 * 1000L;
+	}
+
+	/* Whether the last query stopped at one of its limits, so may have missed journeys. */
+	public boolean isTruncated() {
+		return mTruncated;
+	}
+
+	/* The journeys that no other arrives earlier than, with as few transfers and as little
+	 * walking, fewest transfers first, then earliest arrival. */
+	@Override
+	public ArrayList<Journey> route(int[] fromStops, int[] fromWalk, int[] toStops, int[] toWalk,
+			int departure, int maxTransfers) {
+		final int rounds = Math.min(maxTransfers, MAX_TRANSFERS) + 2;
+		final int n = mStops;
+		mDeadline = System.nanoTime() + mMaxNanos;
+		mTruncated = false;
+		mLabels = 0;
+		tSize = 0;
+		Arrays.fill(mBestHead, NONE);
+		Arrays.fill(mBestSize, 0);
+		Arrays.fill(mRoundHead, 0, rounds * n, NONE);
+		for (int i = 0; i < toStops.length; i++) {
+			final int s = toStops[i];
+			mEgress[s] = (mEgress[s] < 0) ? toWalk[i] : Math.min(mEgress[s], toWalk[i]);
+		}
+
+		mMarkedCount = 0;
+		for (int i = 0; i < fromStops.length; i++) {
+			add(fromStops[i], 0, departure + fromWalk[i], fromWalk[i], ACCESS, NONE, NONE, NONE, NONE, NONE);
+		}
+		walk(0);
+		collect(0);
+
+		for (int k = 1; k < rounds && mMarkedCount > 0 && !mTruncated; k++) {
+			queuePatterns();
+			for (int q = 0; q < mQueued; q++) {
+				final int p = mPatternQueue[q];
+				if (!mTruncated) {
+					scanPattern(p, mPatternFrom[p], k);
+					if ((q & 63) == 0 && System.nanoTime() > mDeadline) {
+						mTruncated = true;
+					}
+				}
+				mPatternFrom[p] = INFINITY;
+			}
+			walk(k);
+			collect(k);
+		}
+
+		final ArrayList<Journey> journeys = new ArrayList<Journey>(tSize);
+		final Integer[] order = new Integer[tSize];
+		for (int i = 0; i < tSize; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				final int ra = lRound[tLabel[a]], rb = lRound[tLabel[b]];
+				return (ra != rb) ? ra - rb : tArr[a] - tArr[b];
+			}
+		});
+		for (Integer i : order) {
+			journeys.add(reconstruct(tLabel[i], tEgress[i], departure));
+		}
+
+		for (int s : toStops) {
+			mEgress[s] = -1;
+		}
+		for (int i = 0; i < mMarkedCount; i++) {
+			mMarked[mMarkedList[i]] = false;
+		}
+		mMarkedCount = 0;
+		return journeys;
+	}
+
+	/* Add a label at stop s in round k, unless something already there, or a journey
+	 * already found, arrives as early with as little walking. Returns the label or NONE. */
+	private int add(int s, int k, int arr, int walk, int kind, int parent, int trip, int fromStop,
+			int fromPos, int toPos) {
+		for (int i = 0; i < tSize; i++) {
+			if (tArr[i] <= arr && tWalk[i] <= walk) {
+				return NONE;
+			}
+		}
+		for (int l = mBestHead[s]; l != NONE; l = lNextBest[l]) {
+			if (lArr[l] <= arr && lWalk[l] <= walk) {
+				return NONE;
+			}
+		}
+		// Drop what the new label beats from this round; earlier rounds have fewer transfers
+		int prev = NONE;
+		for (int l = mBestHead[s]; l != NONE; l = lNextBest[l]) {
+			if (lRound[l] == k && arr <= lArr[l] && walk <= lWalk[l]) {
+				lDead[l] = true;
+				mBestSize[s]--;
+				if (prev == NONE) {
+					mBestHead[s] = lNextBest[l];
+				} else {
+					lNextBest[prev] = lNextBest[l];
+				}
+			} else {
+				prev = l;
+			}
+		}
+		if (mBestSize[s] >= mMaxBag || mLabels == mMaxLabels) {
+			mTruncated = true;
+			return NONE;
+		}
+
+		final int l = mLabels++;
+		lArr[l] = arr;
+		lWalk[l] = walk;
+		lRound[l] = k;
+		lKind[l] = kind;
+		lParent[l] = parent;
+		lStop[l] = s;
+		lTrip[l] = trip;
+		lFromStop[l] = fromStop;
+		lFromPos[l] = fromPos;
+		lToPos[l] = toPos;
+		lDead[l] = false;
+		lNextBest[l] = mBestHead[s];
+		mBestHead[s] = l;
+		mBestSize[s]++;
+		lNextRound[l] = mRoundHead[k * mStops + s];
+		mRoundHead[k * mStops + s] = l;
+		if (!mMarked[s]) {
+			mMarked[s] = true;
+			mMarkedList[mMarkedCount++] = s;
+		}
+		return l;
+	}
+
+	/* Walk on from the stops given labels in round k by trips (or from the origin). */
+	private void walk(int k) {
+		final TransferGraph g = mWalks;
+		final int marked = mMarkedCount;
+		for (int i = 0; i < marked; i++) {
+			final int s = mMarkedList[i];
+			for (int l = mRoundHead[k * mStops + s]; l != NONE; l = lNextRound[l]) {
+				if (lDead[l] || lKind[l] == FOOT) {
+					continue;
+				}
+				for (int e = g.start[s]; e < g.start[s + 1]; e++) {
+					add(g.targets[e], k, lArr[l] + g.seconds[e], lWalk[l] + g.seconds[e], FOOT, l,
+							NONE, s, NONE, NONE);
+				}
+			}
+		}
+	}
+
+	/* Take the labels that reached the destination's stops in round k as journeys. */
+	private void collect(int k) {
+		for (int i = 0; i < mMarkedCount; i++) {
+			final int s = mMarkedList[i];
+			if (mEgress[s] < 0) {
+				continue;
+			}
+			for (int l = mRoundHead[k * mStops + s]; l != NONE; l = lNextRound[l]) {
+				if (lDead[l] || lKind[l] == ACCESS) {
+					continue;
+				}
+				final int arr = lArr[l] + mEgress[s], walk = lWalk[l] + mEgress[s];
+				boolean beaten = false;
+				for (int t = 0; t < tSize && !beaten; t++) {
+					beaten = tArr[t] <= arr && tWalk[t] <= walk;
+				}
+				if (beaten) {
+					continue;
+				}
+				// Same round journeys it beats go
+				int kept = 0;
+				for (int t = 0; t < tSize; t++) {
+					if (!(lRound[tLabel[t]] == k && arr <= tArr[t] && walk <= tWalk[t])) {
+						tLabel[kept] = tLabel[t];
+						tArr[kept] = tArr[t];
+						tWalk[kept] = tWalk[t];
+						tEgress[kept] = tEgress[t];
+						kept++;
+					}
+				}
+				tSize = kept;
+				if (tSize == TARGET_BAG) {
+					mTruncated = true;
+					continue;
+				}
+				tLabel[tSize] = l;
+				tArr[tSize] = arr;
+				tWalk[tSize] = walk;
+				tEgress[tSize] = mEgress[s];
+				tSize++;
+			}
+		}
+	}
+
+	/* Queue each pattern through a stop with new labels, and clear the marks. */
+	private void queuePatterns() {
+		final Timetable tt = mTT;
+		mQueued = 0;
+		for (int i = 0; i < mMarkedCount; i++) {
+			final int s = mMarkedList[i];
+			mMarked[s] = false;
+			for (int j = tt.stopPatternStart[s]; j < tt.stopPatternStart[s + 1]; j++) {
+				final int p = tt.stopPatterns[j];
+				final int pos = tt.stopPatternPos[j];
+				if (mPatternFrom[p] == INFINITY) {
+					mPatternQueue[mQueued++] = p;
+					mPatternFrom[p] = pos;
+				} else if (pos < mPatternFrom[p]) {
+					mPatternFrom[p] = pos;
+				}
+			}
+		}
+		mMarkedCount = 0;
+	}
+
+	/* Ride pattern p from position from, carrying the labels that boarded on the way. */
+	private void scanPattern(int p, int from, int k) {
+		final Timetable tt = mTT;
+		final int stops = tt.patternStopStart[p];
+		final int len = tt.patternStopStart[p + 1] - stops;
+		final int slack = (k > 1) ? mChangeSeconds : 0;
+		rbSize = 0;
+		for (int pos = from; pos < len; pos++) {
+			final int s = tt.patternStops[stops + pos];
+			// Get off here
+			for (int r = 0; r < rbSize; r++) {
+				final int trip = rbTrip[r];
+				add(s, k, tt.arrivals[tt.timeIndex(trip, pos)], rbWalk[r], RIDE, rbParent[r], trip,
+						rbBoardStop[r], rbBoardPos[r], pos);
+			}
+			// Get on here, from the labels of the round before
+			for (int l = mRoundHead[(k - 1) * mStops + s]; l != NONE; l = lNextRound[l]) {
+				if (lDead[l]) {
+					continue;
+				}
+				final int trip = tt.earliestTrip(p, pos, lArr[l] + slack);
+				if (trip >= 0) {
+					board(trip, lWalk[l], l, s, pos);
+				}
+			}
+		}
+	}
+
+	/* Put a label on the pattern's bag, unless one on a trip leaving no later here has
+	 * walked no more. */
+	private void board(int trip, int walk, int parent, int s, int pos) {
+		final Timetable tt = mTT;
+		final int dep = tt.departures[tt.timeIndex(trip, pos)];
+		int kept = 0;
+		for (int r = 0; r < rbSize; r++) {
+			final int d = tt.departures[tt.timeIndex(rbTrip[r], pos)];
+			if (d <= dep && rbWalk[r] <= walk) {
+				return;
+			}
+		}
+		for (int r = 0; r < rbSize; r++) {
+			final int d = tt.departures[tt.timeIndex(rbTrip[r], pos)];
+			if (!(dep <= d && walk <= rbWalk[r])) {
+				rbTrip[kept] = rbTrip[r];
+				rbWalk[kept] = rbWalk[r];
+				rbParent[kept] = rbParent[r];
+				rbBoardStop[kept] = rbBoardStop[r];
+				rbBoardPos[kept] = rbBoardPos[r];
+				kept++;
+			}
+		}
+		rbSize = kept;
+		if (rbSize == ROUTE_BAG) {
+			mTruncated = true;
+			return;
+		}
+		rbTrip[rbSize] = trip;
+		rbWalk[rbSize] = walk;
+		rbParent[rbSize] = parent;
+		rbBoardStop[rbSize] = s;
+		rbBoardPos[rbSize] = pos;
+		rbSize++;
+	}
+
+	private Journey reconstruct(int label, int egress, int departure) {
+		final Timetable tt = mTT;
+		final Journey j = new Journey();
+		if (egress > 0) {
+			j.legs.add(Journey.Leg.walk(lStop[label], Journey.NO_STOP, lArr[label], lArr[label] + egress));
+		}
+		for (int l = label; l != NONE; l = lParent[l]) {
+			switch (lKind[l]) {
+			case ACCESS:
+				if (lArr[l] > departure) {
+					j.legs.add(Journey.Leg.walk(Journey.NO_STOP, lStop[l], departure, lArr[l]));
+				}
+				break;
+			case FOOT:
+				j.legs.add(Journey.Leg.walk(lFromStop[l], lStop[l], lArr[lParent[l]], lArr[l]));
+				break;
+			default:
+				j.legs.add(Journey.Leg.ride(lTrip[l], lFromStop[l], lFromPos[l], lStop[l], lToPos[l],
+						tt.getDeparture(lTrip[l], lFromPos[l]), lArr[l]));
+				break;
+			}
+		}
+		Collections.reverse(j.legs);
+		return j;
+	}
+}
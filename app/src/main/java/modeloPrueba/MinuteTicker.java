@@ -0,0 +1,66 @@
+/*
+ * This file is part of GTFSOffline.
+ *
+ * GTFSOffline is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GTFSOffline is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GTFSOffline.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package modeloPrueba;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/* Runs a task on the main thread just after each minute of the clock turns over,
+ * between start() and stop(). */
+public class MinuteTicker {
+
+	private static final long SLACK = 200;	// ms past the minute, so the clock has surely moved on
+
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+	private final Runnable mTask;
+	private boolean mRunning = false;
+
+	private final Runnable mTick = new Runnable() {
+		@Override
+		public void run() {
+			if (!mRunning) {
+				return;
+			}
+			mTask.run();
+			schedule();
+		}
+	};
+
+	public MinuteTicker(Runnable aTask) {
+		mTask = aTask;
+	}
+
+	/* Start ticking; the task is run straight away too, in case a minute went by while we were stopped. */
+	public void start() {
+		if (mRunning) {
+			return;
+		}
+		mRunning = true;
+		mHandler.post(mTick);
+	}
+
+	public void stop() {
+		mRunning = false;
+		mHandler.removeCallbacks(mTick);
+	}
+
+	private void schedule() {
+		final long now = System.currentTimeMillis();
+		mHandler.postDelayed(mTick, DepartureBoard.MINUTE - now % DepartureBoard.MINUTE + SLACK);
+	}
+}
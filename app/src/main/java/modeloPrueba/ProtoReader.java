@@ -0,0 +1,191 @@
+/*
+ * This file is part of GTFSOffline.
+ *
+ * GTFSOffline is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GTFSOffline is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GTFSOffline.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package modeloPrueba;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/* Just enough of the protocol buffer wire format to read a GTFS-realtime feed as it
+ * comes in, without the protobuf library or holding the whole message.
+ *
+ * Fields are read one at a time with next(), which gives the tag of the next field of
+ * the current message, or -1 at its end. An embedded message is entered with push(),
+ * which limits reading to it, and left with pop(), skipping whatever wasn't read. */
+final class ProtoReader {
+	static final int VARINT = 0, FIXED64 = 1, LENGTH = 2, FIXED32 = 5;
+
+	private static final int MAX_DEPTH = 16;
+
+	private final InputStream mIn;
+	private long mPos = 0;
+	private final long[] mLimits = new long[MAX_DEPTH];
+	private int mDepth = 0;
+	private int mTag;
+
+	ProtoReader(InputStream in) {
+		mIn = in;
+		mLimits[0] = Long.MAX_VALUE;
+	}
+
+	/* Tag (field number << 3 | wire type) of the next field, -1 at the end of the message. */
+	int next() throws IOException {
+		if (mPos >= mLimits[mDepth]) {
+			return -1;
+		}
+		if (mDepth == 0) {
+			// the top level message just ends with the stream
+			final int b = mIn.read();
+			if (b < 0) {
+				return -1;
+			}
+			mPos++;
+			mTag = (int) readVarint(b);
+		} else {
+			mTag = (int) readVarint();
+		}
+		return mTag;
+	}
+
+	static int field(int tag) {
+		return tag >>> 3;
+	}
+
+	long readVarint() throws IOException {
+		return readVarint(readByte());
+	}
+
+	private long readVarint(int first) throws IOException {
+		long value = first & 0x7f;
+		int b = first, shift = 7;
+		while ((b & 0x80) != 0) {
+			if (shift > 63) {
+				throw new IOException("Malformed varint");
+			}
+			b = readByte();
+			value |= (long) (b & 0x7f) << shift;
+			shift += 7;
+		}
+		return value;
+	}
+
+	/* An int32 (negative ones take ten bytes) or enum. */
+	int readInt() throws IOException {
+		return (int) readVarint();
+	}
+
+	boolean readBool() throws IOException {
+		return readVarint() != 0;
+	}
+
+	/* A float, sent as four bytes, least significant first. */
+	float readFloat() throws IOException {
+		int bits = 0;
+		for (int i = 0; i < 32; i += 8) {
+			bits |= readByte() << i;
+		}
+		return Float.intBitsToFloat(bits);
+	}
+
+	String readString() throws IOException {
+		final int len = readLength();
+		final byte[] bytes = new byte[len];
+		int got = 0;
+		while (got < len) {
+			final int n = mIn.read(bytes, got, len - got);
+			if (n < 0) {
+				throw new EOFException();
+			}
+			got += n;
+		}
+		mPos += len;
+		return new String(bytes, "UTF-8");
+	}
+
+	/* Read into the embedded message the current field holds. */
+	void push() throws IOException {
+		if (mDepth + 1 == MAX_DEPTH) {
+			throw new IOException("Messages nested too deep");
+		}
+		final int len = readLength();
+		mLimits[mDepth + 1] = mPos + len;
+		mDepth++;
+	}
+
+	/* Back out of the embedded message, skipping what's left of it. */
+	void pop() throws IOException {
+		skipBytes(mLimits[mDepth] - mPos);
+		mDepth--;
+	}
+
+	/* Skip the value of the current field. */
+	void skip() throws IOException {
+		switch (mTag & 7) {
+		case VARINT:
+			readVarint();
+			break;
+		case FIXED64:
+			skipBytes(8);
+			break;
+		case LENGTH:
+			skipBytes(readLength());
+			break;
+		case FIXED32:
+			skipBytes(4);
+			break;
+		default:
+			throw new IOException("Unknown wire type " + (mTag & 7));
+		}
+	}
+
+	private int readLength() throws IOException {
+		final long len = readVarint();
+		if (len < 0 || mPos + len > mLimits[mDepth]) {
+			throw new IOException("Field runs past the end of its message");
+		}
+		return (int) len;
+	}
+
+	private int readByte() throws IOException {
+		if (mPos >= mLimits[mDepth]) {
+			throw new EOFException();
+		}
+		final int b = mIn.read();
+		if (b < 0) {
+			throw new EOFException();
+		}
+		mPos++;
+		return b;
+	}
+
+	private void skipBytes(long n) throws IOException {
+		while (n > 0) {
+			final long skipped = mIn.skip(n);
+			if (skipped <= 0) {
+				if (mIn.read() < 0) {
+					throw new EOFException();
+				}
+				mPos++;
+				n--;
+			} else {
+				mPos += skipped;
+				n -= skipped;
+			}
+		}
+	}
+}
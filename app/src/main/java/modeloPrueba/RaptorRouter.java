@@ -0,0 +1,486 @@
+/*
+ * This file is part of GTFSOffline.
+ *
+ * GTFSOffline is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GTFSOffline is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GTFSOffline.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package modeloPrueba;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+
+/* Earliest arrival journeys over a Timetable, round by round (RAPTOR: Delling, Pajor
+ * and Werneck, "Round-Based Public Transit Routing", 2012).
+ *
+ * Round k finds the best arrival at every stop using at most k trips, by scanning
+ * once along each pattern through a stop improved in round k-1, then walking on
+ * from the stops it improved along the Timetable's transfers. The result is the
+ * earliest arrival for each number of transfers that beats every journey with
+ * fewer, so a query gives a small choice between faster and simpler.
+ *
+ * Where the Timetable has realtime delays, the patterns they touch are ridden at the
+ * predicted times, taking the overlay there at the start of the query.
+ *
+ * All the working arrays are allocated with the router, so a query allocates only
+ * its results. A router must not be used by two threads at once. */
+public class RaptorRouter implements JourneyRouter {
+
+	static final int INFINITY = Integer.MAX_VALUE / 2;
+
+	private static final int ROUNDS = MAX_TRANSFERS + 2;	// round 0 is walking to the first stop
+
+	// How a stop was reached in a round
+	private static final int NOT_REACHED = -1;
+	private static final int ACCESS = -2;		// walked from the origin
+	private static final int EARLIER = -3;		// no better than the round before
+	private static final int FOOT = -4;			// walked from mBoardStop, taking mBoardPos seconds
+
+	private final Timetable mTT;
+	private final TransferGraph mWalks;
+	private final int mStops;
+
+	private int mChangeSeconds = 60;	// time allowed to change vehicles at a stop
+	private RealtimeOverlay mRealtime;	// the delays this query sees, or null
+
+	// Per round and stop, at [round * mStops + stop]
+	private final int[] mArrival;
+	private final int[] mParentTrip;	// trip ridden to the stop, or one of the above
+	private final int[] mBoardStop, mBoardPos, mAlightPos;
+
+	private final int[] mBest;			// best arrival at each stop so far, any round
+	private final boolean[] mMarked;
+	private final int[] mMarkedList;
+	private int mMarkedCount;
+	private final int[] mPatternFrom;	// first marked position of each queued pattern
+	private final int[] mPatternQueue;
+	private int mQueued;
+
+	private final int[] mEgress;		// walk from each stop to the destination, or -1
+
+	public RaptorRouter(Timetable tt) {
+		mTT = tt;
+		mWalks = tt.transfers;
+		mStops = tt.numStops;
+		mArrival = new int[ROUNDS * mStops];
+		mParentTrip = new int[ROUNDS * mStops];
+		mBoardStop = new int[ROUNDS * mStops];
+		mBoardPos = new int[ROUNDS * mStops];
+		mAlightPos = new int[ROUNDS * mStops];
+		mBest = new int[mStops];
+		mMarked = new boolean[mStops];
+		mMarkedList = new int[mStops];
+		mPatternFrom = new int[tt.numPatterns];
+		mPatternQueue = new int[tt.numPatterns];
+		mEgress = new int[mStops];
+		Arrays.fill(mPatternFrom, INFINITY);
+		Arrays.fill(mEgress, -1);
+	}
+
+	@Override
+	public Timetable getTimetable() {
+		return mTT;
+	}
+
+	@Override
+	public void setChangeSeconds(int seconds) {
+		mChangeSeconds = seconds;
+	}
+
+	@Override
+	public ArrayList<Journey> route(int[] fromStops, int[] fromWalk, int[] toStops, int[] toWalk,
+			int departure, int maxTransfers) {
+		final int rounds = Math.min(maxTransfers, MAX_TRANSFERS) + 2;
+		final ArrayList<Journey> journeys = new ArrayList<Journey>();
+		start(toStops, toWalk, rounds);
+		run(fromStops, fromWalk, departure, rounds, null, journeys);
+		finish(toStops);
+		return journeys;
+	}
+
+	/* The earliest arrival at every stop, leaving at departure with at most maxTransfers,
+	 * into arrivals; INFINITY where it can't be reached. There is no destination to stop
+	 * the search early, so this costs about as much as the slowest query. */
+	public void reachAll(int[] fromStops, int[] fromWalk, int departure, int maxTransfers, int[] arrivals) {
+		final int rounds = Math.min(maxTransfers, MAX_TRANSFERS) + 2;
+		final int[] none = new int[0];
+		start(none, none, rounds);
+		run(fromStops, fromWalk, departure, rounds, null, new ArrayList<Journey>(0));
+		finish(none);
+		System.arraycopy(mBest, 0, arrivals, 0, mStops);
+	}
+
+	/* After reachAll(), the journeys to stop: one for each round that got there earlier
+	 * than the rounds before it, fewest transfers first. */
+	ArrayList<Journey> journeysTo(int stop, int departure, int maxTransfers) {
+		final int rounds = Math.min(maxTransfers, MAX_TRANSFERS) + 2;
+		final ArrayList<Journey> journeys = new ArrayList<Journey>();
+		int best = INFINITY;
+		for (int k = 0; k < rounds; k++) {
+			final int a = mArrival[k * mStops + stop];
+			if (a < best) {
+				best = a;
+				journeys.add(reconstruct(k, stop, departure));
+			}
+		}
+		return journeys;
+	}
+
+	/* Every journey leaving between earliest and latest (rRAPTOR): those that nothing
+	 * leaving later gets in as early with as few transfers, in order of departure.
+	 *
+	 * The departures are tried latest first, without clearing the arrivals in between,
+	 * so each run only has to do what's new: anything it can't improve on is already
+	 * there from a later departure. */
+	public ArrayList<Journey> profile(int[] fromStops, int[] fromWalk, int[] toStops, int[] toWalk,
+			int earliest, int latest, int maxTransfers) {
+		final int rounds = Math.min(maxTransfers, MAX_TRANSFERS) + 2;
+		final int[] departures = departuresFrom(fromStops, fromWalk, earliest, latest);
+		final int[] best = new int[rounds];
+		Arrays.fill(best, INFINITY);
+		final ArrayList<Journey> journeys = new ArrayList<Journey>();
+		start(toStops, toWalk, rounds);
+		for (int i = departures.length - 1; i >= 0; i--) {
+			run(fromStops, fromWalk, departures[i], rounds, best, journeys);
+		}
+		finish(toStops);
+		// A run may have waited at the first stop: leave as late as the first ride allows,
+		// which can make a journey the same as, or beaten by, one found from a later run
+		final ArrayList<Journey> kept = new ArrayList<Journey>();
+		for (int i = journeys.size() - 1; i >= 0; i--) {
+			final Journey j = leaveLatest(journeys.get(i));
+			boolean beaten = false;
+			for (Journey k : kept) {
+				beaten |= k.getDeparture() >= j.getDeparture() && k.getArrival() <= j.getArrival()
+						&& k.getTransfers() <= j.getTransfers();
+			}
+			if (!beaten) {
+				kept.add(j);
+			}
+		}
+		Collections.sort(kept, new Comparator<Journey>() {
+			@Override
+			public int compare(Journey a, Journey b) {
+				return a.getDeparture() - b.getDeparture();
+			}
+		});
+		return kept;
+	}
+
+	/* The same journey with its walks before the first ride moved to end as it leaves. */
+	private static Journey leaveLatest(Journey j) {
+		int first = 0;
+		while (first < j.legs.size() && j.legs.get(first).walk) {
+			first++;
+		}
+		if (first == 0 || first == j.legs.size()) {
+			return j;
+		}
+		final int shift = j.legs.get(first).departure - j.legs.get(first - 1).arrival;
+		if (shift == 0) {
+			return j;
+		}
+		final Journey moved = new Journey();
+		for (int i = 0; i < j.legs.size(); i++) {
+			final Journey.Leg l = j.legs.get(i);
+			moved.legs.add((i < first) ? Journey.Leg.walk(l.fromStop, l.toStop, l.departure + shift,
+					l.arrival + shift) : l);
+		}
+		return moved;
+	}
+
+	/* The times to leave the origin that catch a trip from one of its stops, or from a
+	 * stop a walk from one of those, between earliest and latest, in order. */
+	private int[] departuresFrom(int[] fromStops, int[] fromWalk, int earliest, int latest) {
+		final Timetable tt = mTT;
+		final TransferGraph g = mWalks;
+		int[] times = new int[64];
+		int count = 0;
+		for (int i = 0; i < fromStops.length; i++) {
+			final int s0 = fromStops[i];
+			for (int e = g.start[s0] - 1; e < g.start[s0 + 1]; e++) {
+				// e == g.start[s0] - 1 stands for the stop itself
+				final int s = (e < g.start[s0]) ? s0 : g.targets[e];
+				final int walk = fromWalk[i] + ((e < g.start[s0]) ? 0 : g.seconds[e]);
+				for (int j = tt.stopPatternStart[s]; j < tt.stopPatternStart[s + 1]; j++) {
+					final int p = tt.stopPatterns[j], pos = tt.stopPatternPos[j];
+					if (pos == tt.getPatternLength(p) - 1) {
+						continue;
+					}
+					final int first = tt.earliestTrip(p, pos, earliest + walk);
+					for (int t = first; t >= 0 && t < tt.patternTrips[p + 1]; t++) {
+						final int leave = tt.departures[tt.timeIndex(t, pos)] - walk;
+						if (leave > latest) {
+							break;
+						}
+						if (count == times.length) {
+							times = Arrays.copyOf(times, count * 2);
+						}
+						times[count++] = leave;
+					}
+				}
+			}
+		}
+		Arrays.sort(times, 0, count);
+		int distinct = 0;
+		for (int i = 0; i < count; i++) {
+			if (distinct == 0 || times[i] != times[distinct - 1]) {
+				times[distinct++] = times[i];
+			}
+		}
+		return Arrays.copyOf(times, distinct);
+	}
+
+	private void start(int[] toStops, int[] toWalk, int rounds) {
+		final int n = mStops;
+		mRealtime = mTT.getRealtime();
+		Arrays.fill(mArrival, 0, rounds * n, INFINITY);
+		Arrays.fill(mParentTrip, 0, rounds * n, NOT_REACHED);
+		for (int i = 0; i < toStops.length; i++) {
+			final int s = toStops[i];
+			mEgress[s] = (mEgress[s] < 0) ? toWalk[i] : Math.min(mEgress[s], toWalk[i]);
+		}
+	}
+
+	private void finish(int[] toStops) {
+		for (int s : toStops) {
+			mEgress[s] = -1;
+		}
+		for (int i = 0; i < mMarkedCount; i++) {
+			mMarked[mMarkedList[i]] = false;
+		}
+		mMarkedCount = 0;
+	}
+
+	/* The rounds for one departure, over whatever arrivals earlier runs left. A journey
+	 * is added for a round if it gets in earlier than the ones before it in this run
+	 * and, when best is given, than those of earlier runs with as few transfers. */
+	private void run(int[] fromStops, int[] fromWalk, int departure, int rounds, int[] best,
+			ArrayList<Journey> journeys) {
+		final int n = mStops;
+		Arrays.fill(mBest, INFINITY);
+		// The last round of the run before may have marked stops it never got to scan
+		for (int i = 0; i < mMarkedCount; i++) {
+			mMarked[mMarkedList[i]] = false;
+		}
+		mMarkedCount = 0;
+		for (int i = 0; i < fromStops.length; i++) {
+			final int s = fromStops[i];
+			final int a = departure + fromWalk[i];
+			if (a < mArrival[s]) {
+				mArrival[s] = a;
+				mBest[s] = a;
+				mParentTrip[s] = ACCESS;
+				mark(s);
+			}
+		}
+		walk(0, INFINITY);
+
+		int target = INFINITY;
+		for (int k = 1; k < rounds && mMarkedCount > 0; k++) {
+			final int prev = (k - 1) * n, cur = k * n;
+			for (int s = 0; s < n; s++) {
+				if (mArrival[prev + s] < mArrival[cur + s]) {
+					mArrival[cur + s] = mArrival[prev + s];
+					mParentTrip[cur + s] = EARLIER;
+				}
+			}
+
+			queuePatterns();
+			for (int q = 0; q < mQueued; q++) {
+				final int p = mPatternQueue[q];
+				scanPattern(p, mPatternFrom[p], k, target);
+				mPatternFrom[p] = INFINITY;
+			}
+			walk(k, target);
+
+			final int stop = bestTarget(k, target);
+			if (stop >= 0) {
+				target = mArrival[cur + stop] + mEgress[stop];
+				if (best == null || target < best[k]) {
+					journeys.add(reconstruct(k, stop, departure));
+				}
+			}
+		}
+		if (best != null) {
+			// Each round's best so far, counting the rounds before it
+			for (int k = 1; k < rounds; k++) {
+				for (int s = 0; s < n; s++) {
+					if (mEgress[s] >= 0 && mArrival[k * n + s] < INFINITY) {
+						best[k] = Math.min(best[k], mArrival[k * n + s] + mEgress[s]);
+					}
+				}
+				best[k] = Math.min(best[k], best[k - 1]);
+			}
+		}
+	}
+
+	private void mark(int s) {
+		if (!mMarked[s]) {
+			mMarked[s] = true;
+			mMarkedList[mMarkedCount++] = s;
+		}
+	}
+
+	/* Walk on from each stop reached in round k to the stops near it. Stops reached on
+	 * foot aren't walked on from again. */
+	private void walk(int k, int target) {
+		final TransferGraph g = mWalks;
+		final int cur = k * mStops;
+		final int marked = mMarkedCount;
+		for (int i = 0; i < marked; i++) {
+			final int s = mMarkedList[i];
+			final int from = mArrival[cur + s];
+			for (int e = g.start[s]; e < g.start[s + 1]; e++) {
+				final int t = g.targets[e];
+				final int a = from + g.seconds[e];
+				if (a < mBest[t] && a < target && a < mArrival[cur + t]) {
+					mArrival[cur + t] = a;
+					mBest[t] = a;
+					mParentTrip[cur + t] = FOOT;
+					mBoardStop[cur + t] = s;
+					mBoardPos[cur + t] = g.seconds[e];
+					mark(t);
+				}
+			}
+		}
+	}
+
+	/* Queue each pattern through a marked stop, from the earliest marked position, and
+	 * clear the marks for this round. */
+	private void queuePatterns() {
+		final Timetable tt = mTT;
+		mQueued = 0;
+		for (int i = 0; i < mMarkedCount; i++) {
+			final int s = mMarkedList[i];
+			mMarked[s] = false;
+			for (int j = tt.stopPatternStart[s]; j < tt.stopPatternStart[s + 1]; j++) {
+				final int p = tt.stopPatterns[j];
+				final int pos = tt.stopPatternPos[j];
+				if (mPatternFrom[p] == INFINITY) {
+					mPatternQueue[mQueued++] = p;
+					mPatternFrom[p] = pos;
+				} else if (pos < mPatternFrom[p]) {
+					mPatternFrom[p] = pos;
+				}
+			}
+		}
+		mMarkedCount = 0;
+	}
+
+	/* Ride pattern p from position from, hopping on the earliest trip we can catch. */
+	private void scanPattern(int p, int from, int k, int target) {
+		final Timetable tt = mTT;
+		final int n = mStops;
+		final int prev = (k - 1) * n, cur = k * n;
+		final int stops = tt.patternStopStart[p];
+		final int len = tt.patternStopStart[p + 1] - stops;
+		final int slack = (k > 1) ? mChangeSeconds : 0;
+		final RealtimeOverlay rt = (mRealtime != null && mRealtime.touches(p)) ? mRealtime : null;
+
+		int trip = -1, base = 0, boardStop = -1, boardPos = -1;
+		for (int pos = from; pos < len; pos++) {
+			final int s = tt.patternStops[stops + pos];
+			if (trip >= 0) {
+				final int a = (rt == null) ? tt.arrivals[base + pos] : rt.arrival(trip, pos);
+				if (a < mBest[s] && a < target && a < mArrival[cur + s]) {
+					mArrival[cur + s] = a;
+					mBest[s] = a;
+					mParentTrip[cur + s] = trip;
+					mBoardStop[cur + s] = boardStop;
+					mBoardPos[cur + s] = boardPos;
+					mAlightPos[cur + s] = pos;
+					mark(s);
+				}
+			}
+			// Can we catch an earlier trip here?
+			final int ready = mArrival[prev + s];
+			if (rt != null) {
+				if (ready < INFINITY && (trip < 0 || ready + slack <= rt.departure(trip, pos))) {
+					final int t = rt.earliestTrip(p, pos, ready + slack);
+					if (t >= 0 && (trip < 0 || t != trip && rt.departure(t, pos) < rt.departure(trip, pos))) {
+						trip = t;
+						boardStop = s;
+						boardPos = pos;
+					}
+				}
+			} else if (ready < INFINITY && (trip < 0 || ready + slack <= tt.departures[base + pos])) {
+				final int t = tt.earliestTrip(p, pos, ready + slack);
+				if (t >= 0 && (trip < 0 || t != trip && tt.departures[tt.timeIndex(t, pos)] < tt.departures[base + pos])) {
+					trip = t;
+					base = tt.timeIndex(t, 0);
+					boardStop = s;
+					boardPos = pos;
+				}
+			}
+		}
+	}
+
+	/* The destination stop reached in round k that gets there before target, or -1. */
+	private int bestTarget(int k, int target) {
+		int best = -1;
+		for (int s = 0; s < mStops; s++) {
+			if (mEgress[s] < 0) {
+				continue;
+			}
+			final int a = mArrival[k * mStops + s];
+			if (a < INFINITY && a + mEgress[s] < target) {
+				target = a + mEgress[s];
+				best = s;
+			}
+		}
+		return best;
+	}
+
+	private Journey reconstruct(int k, int stop, int departure) {
+		final Timetable tt = mTT;
+		final Journey j = new Journey();
+		final int arrival = mArrival[k * mStops + stop];
+		if (mEgress[stop] > 0) {
+			j.legs.add(Journey.Leg.walk(stop, Journey.NO_STOP, arrival, arrival + mEgress[stop]));
+		}
+		int s = stop;
+		while (k >= 0) {
+			final int at = k * mStops + s;
+			final int parent = mParentTrip[at];
+			if (parent == EARLIER) {
+				k--;
+				continue;
+			}
+			if (parent == ACCESS) {
+				final int walk = mArrival[at] - departure;
+				if (walk > 0) {
+					j.legs.add(Journey.Leg.walk(Journey.NO_STOP, s, departure, mArrival[at]));
+				}
+				break;
+			}
+			if (parent == FOOT) {
+				final int from = mBoardStop[at];
+				j.legs.add(Journey.Leg.walk(from, s, mArrival[at] - mBoardPos[at], mArrival[at]));
+				s = from;
+				continue;
+			}
+			final int board = mBoardStop[at];
+			final RealtimeOverlay rt = mRealtime;
+			j.legs.add(Journey.Leg.ride(parent, board, mBoardPos[at], s, mAlightPos[at],
+					(rt == null) ? tt.getDeparture(parent, mBoardPos[at]) : rt.departure(parent, mBoardPos[at]),
+					(rt == null) ? tt.getArrival(parent, mAlightPos[at]) : rt.arrival(parent, mAlightPos[at])));
+			s = board;
+			k--;
+		}
+		Collections.reverse(j.legs);
+		return j;
+	}
+}
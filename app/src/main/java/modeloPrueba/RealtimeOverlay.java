@@ -0,0 +1,181 @@
+/*
+ * This file is part of GTFSOffline.
+ *
+ * GTFSOffline is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GTFSOffline is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GTFSOffline.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package modeloPrueba;
+
+import java.util.Calendar;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/* Realtime delays laid over a Timetable without touching its arrays: for each trip the
+ * feed has something on, a delay for each position of its pattern, added to the static
+ * time whenever one is read.
+ *
+ * An overlay is built whole from a TripDelays snapshot and never changed after. The
+ * Timetable holds the current one, which update() swaps for the next in one step, so a
+ * query that takes getRealtime() once at the start sees one snapshot throughout and
+ * nobody waits for anybody. Each overlay has a generation, one more than the last
+ * built, for anything that keeps results worked out on one. */
+public final class RealtimeOverlay {
+
+	public static final int INFINITY = RaptorRouter.INFINITY;	// the time of a stop not served
+
+	private static final AtomicInteger sGenerations = new AtomicInteger();
+
+	private final Timetable mTT;
+	private final int mGeneration;
+	private final int mUpdated;
+	// By trip: null if there's nothing on it, else by position a delay, TripDelays.NONE
+	// or TripDelays.SKIPPED
+	private final int[][] mDelays;
+	// By pattern: the most any trip is late and early at any stop, and if any trip is
+	// delayed at all (else reads can go straight to the static arrays)
+	private final int[] mLate, mEarly;
+	private final boolean[] mTouched;
+
+	private RealtimeOverlay(Timetable tt, int[][] delays, int[] late, int[] early, boolean[] touched, int updated) {
+		mTT = tt;
+		mGeneration = sGenerations.incrementAndGet();
+		mDelays = delays;
+		mLate = late;
+		mEarly = early;
+		mTouched = touched;
+		mUpdated = updated;
+	}
+
+	/* An overlay of delays on tt, for the service day starting at midnight (seconds
+	 * since the epoch). */
+	public static RealtimeOverlay build(Timetable tt, TripDelays delays, long midnight) {
+		final int[][] byTrip = new int[tt.numTrips][];
+		final int[] late = new int[tt.numPatterns], early = new int[tt.numPatterns];
+		final boolean[] touched = new boolean[tt.numPatterns];
+		int updated = 0;
+		for (int t = 0; t < tt.numTrips; t++) {
+			if (!delays.has(tt, t, midnight)) {
+				continue;
+			}
+			final int p = tt.tripPattern[t];
+			final int[] d = new int[tt.getPatternLength(p)];
+			delays.fillDelays(tt, t, midnight, d);
+			for (int v : d) {
+				if (v == TripDelays.SKIPPED) {
+					touched[p] = true;
+				} else if (v != TripDelays.NONE && v != 0) {
+					touched[p] = true;
+					late[p] = Math.max(late[p], v);
+					early[p] = Math.max(early[p], -v);
+				}
+			}
+			byTrip[t] = d;
+			updated++;
+		}
+		return new RealtimeOverlay(tt, byTrip, late, early, touched, updated);
+	}
+
+	/* Lay a feed's latest delays over its timetable for today, if one is loaded.
+	 * Called whenever either changes. */
+	public static void update(String aDBName) {
+		final Calendar cal = Calendar.getInstance();
+		final String date = String.format("%04d%02d%02d", cal.get(Calendar.YEAR), cal.get(Calendar.MONTH) + 1,
+				cal.get(Calendar.DAY_OF_MONTH));
+		final Timetable tt = TimetableLoader.peek(aDBName, date);
+		if (tt == null) {
+			return;
+		}
+		final TripDelays delays = TripDelays.get(aDBName);
+		if (delays == null) {
+			tt.setRealtime(null);
+			return;
+		}
+		cal.set(Calendar.HOUR_OF_DAY, 0);
+		cal.set(Calendar.MINUTE, 0);
+		cal.set(Calendar.SECOND, 0);
+		cal.set(Calendar.MILLISECOND, 0);
+		tt.setRealtime(build(tt, delays, cal.getTimeInMillis() / 1000));
+	}
+
+	public Timetable getTimetable() {
+		return mTT;
+	}
+
+	public int getGeneration() {
+		return mGeneration;
+	}
+
+	/* How many of the timetable's trips the feed had something on. */
+	public int getUpdatedTrips() {
+		return mUpdated;
+	}
+
+	/* True if some trip of pattern p isn't running to the timetable. */
+	public boolean touches(int p) {
+		return mTouched[p];
+	}
+
+	/* True if the feed has a prediction for some stop of the trip. */
+	boolean has(int trip) {
+		return mDelays[trip] != null;
+	}
+
+	/* The delay of a trip at the pos'th stop of its pattern: TripDelays.NONE if there's
+	 * no prediction, TripDelays.SKIPPED if it won't stop there. */
+	public int delay(int trip, int pos) {
+		final int[] d = mDelays[trip];
+		return (d == null) ? TripDelays.NONE : d[pos];
+	}
+
+	/* Predicted times, INFINITY where the trip won't stop. */
+	public int departure(int trip, int pos) {
+		return apply(mTT.departures[mTT.timeIndex(trip, pos)], delay(trip, pos));
+	}
+
+	public int arrival(int trip, int pos) {
+		return apply(mTT.arrivals[mTT.timeIndex(trip, pos)], delay(trip, pos));
+	}
+
+	private static int apply(int time, int delay) {
+		return (delay == TripDelays.NONE) ? time : (delay == TripDelays.SKIPPED) ? INFINITY : time + delay;
+	}
+
+	/* The trip of pattern p predicted to leave its pos'th stop first at or after time, or
+	 * -1. With delays the trips needn't be in order any more, so this looks at those due
+	 * between time less the latest any is running and the best found plus the earliest. */
+	public int earliestTrip(int p, int pos, int time) {
+		final Timetable tt = mTT;
+		if (!mTouched[p]) {
+			return tt.earliestTrip(p, pos, time);
+		}
+		final int first = tt.earliestTrip(p, pos, time - mLate[p]);
+		if (first < 0) {
+			return -1;
+		}
+		final int len = tt.getPatternLength(p);
+		final int base = tt.patternTimes[p] + pos;
+		int best = -1, bestTime = INFINITY;
+		for (int t = first; t < tt.patternTrips[p + 1]; t++) {
+			final int scheduled = tt.departures[base + (t - tt.patternTrips[p]) * len];
+			if (scheduled - mEarly[p] >= bestTime) {
+				break;
+			}
+			final int d = apply(scheduled, delay(t, pos));
+			if (d >= time && d < bestTime) {
+				best = t;
+				bestTime = d;
+			}
+		}
+		return best;
+	}
+}
@@ -0,0 +1,347 @@
+/*
+ * This file is part of GTFSOffline.
+ *
+ * GTFSOffline is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GTFSOffline is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GTFSOffline.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package modeloPrueba;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/* Fetches a feed's GTFS-realtime TripUpdates every so often, between start() and
+ * stop(), and publishes each one to TripDelays as soon as it's read. The address can
+ * be http(s)://, file:// or just a path, so a local file can stand in for the server,
+ * or several separated by spaces where the agency serves TripUpdates and
+ * VehiclePositions apart; they're fetched one after the other and merged.
+ * The delays are laid over today's timetable too, if it's loaded.
+ *
+ * Polling is kept as light as it can be. Requests are conditional (If-None-Match and
+ * If-Modified-Since, or the file's modification time), and a feed whose header
+ * timestamp hasn't moved is dropped after its header rather than decoded again;
+ * either way nothing is published, so the overlay isn't rebuilt for nothing. The
+ * interval stretches while the feed doesn't change and while nobody is looking
+ * (setVisible(false)), and doubles after each error in a row, or more if the server
+ * says when to come back, up to MAX_INTERVAL.
+ *
+ * The listener is called on the poller's own thread, only when something changed. */
+public class RealtimePoller {
+
+	public static final long DEFAULT_INTERVAL = 30 * 1000;	// ms
+	public static final long MAX_INTERVAL = 5 * 60 * 1000;	// ms
+	private static final int TIMEOUT = 10 * 1000;			// ms, to connect and to read
+	// The interval is this many times longer while hidden, and one more time longer
+	// for each poll that found nothing new, up to MAX_STALE times
+	private static final int HIDDEN = 4, MAX_STALE = 4;
+
+	public interface Listener {
+		void onDelays(TripDelays delays);
+
+		void onError(IOException e);
+	}
+
+	private final String mDBName;
+	private final String[] mAddresses;
+	private final long mInterval;
+	private final Listener mListener;
+	private ScheduledExecutorService mExecutor = null;
+	private ScheduledFuture<?> mNext = null;
+
+	// Only touched on the poller's thread: by address, the last read and what the
+	// server said about it
+	private final TripDelays[] mLast;
+	private final String[] mETags;
+	private final long[] mModified;
+	private TripDelays mCurrent = null;
+
+	private volatile boolean mVisible = true;
+	private volatile int mFailures = 0, mUnchanged = 0;	// in a row
+	private volatile long mRetryAfter = 0;				// ms, from the last error
+	private volatile long mLastPoll = 0;				// ms
+	private volatile int mPolls = 0, mErrors = 0, mNotModified = 0, mSkipped = 0;
+	private volatile long mBytes = 0, mDecodeNanos = 0;
+
+	private final Runnable mPoll = new Runnable() {
+		@Override
+		public void run() {
+			try {
+				final TripDelays before = mCurrent;
+				final TripDelays d = poll();
+				if (mListener != null && d != before) {
+					mListener.onDelays(d);
+				}
+			} catch (IOException e) {
+				if (mListener != null) {
+					mListener.onError(e);
+				}
+			}
+			schedule(getNextDelay());
+		}
+	};
+
+	public RealtimePoller(String aDBName, String anAddress, long interval, Listener aListener) {
+		mDBName = aDBName;
+		mAddresses = anAddress.trim().split("\\s+");
+		mLast = new TripDelays[mAddresses.length];
+		mETags = new String[mAddresses.length];
+		mModified = new long[mAddresses.length];
+		mInterval = interval;
+		mListener = aListener;
+	}
+
+	/* Start polling, the first time straight away. */
+	public synchronized void start() {
+		if (mExecutor != null) {
+			return;
+		}
+		mExecutor = Executors.newSingleThreadScheduledExecutor();
+		mNext = mExecutor.schedule(mPoll, 0, TimeUnit.MILLISECONDS);
+	}
+
+	/* Stop polling. A fetch under way is interrupted, and its delays not published. */
+	public synchronized void stop() {
+		if (mExecutor != null) {
+			mExecutor.shutdownNow();
+			mExecutor = null;
+			mNext = null;
+		}
+	}
+
+	private synchronized void schedule(long delay) {
+		// not if stop() interrupted this poll: the executor is gone, or a new one's
+		if (mExecutor != null && !Thread.currentThread().isInterrupted()) {
+			mNext = mExecutor.schedule(mPoll, delay, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/* Whether anyone is looking at what we fetch: if not we poll less often. Coming
+	 * back into view polls straight away if the last poll is older than it would now
+	 * wait. */
+	public synchronized void setVisible(boolean visible) {
+		if (mVisible == visible) {
+			return;
+		}
+		mVisible = visible;
+		if (visible && mNext != null && mNext.cancel(false)) {
+			final long since = System.currentTimeMillis() - mLastPoll;
+			mNext = mExecutor.schedule(mPoll, Math.max(0, getNextDelay() - since), TimeUnit.MILLISECONDS);
+		}
+	}
+
+	public boolean isVisible() {
+		return mVisible;
+	}
+
+	/* How long after the last poll the next one will be, ms. */
+	public long getNextDelay() {
+		if (mFailures > 0) {
+			final long backoff = mInterval << Math.min(mFailures, 16);
+			return Math.min(MAX_INTERVAL, Math.max(backoff, mRetryAfter));
+		}
+		long delay = mInterval * Math.min(mUnchanged + 1, MAX_STALE);
+		if (!mVisible) {
+			delay *= HIDDEN;
+		}
+		return Math.min(MAX_INTERVAL, delay);
+	}
+
+	public int getPolls() {
+		return mPolls;
+	}
+
+	public int getErrors() {
+		return mErrors;
+	}
+
+	/* Polls the server answered 304 Not Modified (or the file was as it was). */
+	public int getNotModified() {
+		return mNotModified;
+	}
+
+	/* Polls that got a feed with the header timestamp of the last one, and stopped there. */
+	public int getSkipped() {
+		return mSkipped;
+	}
+
+	/* Bytes read from the feeds. */
+	public long getBytes() {
+		return mBytes;
+	}
+
+	/* Time spent decoding, ns. As a feed is decoded while it comes in, this includes
+	 * waiting for the network to deliver the body. */
+	public long getDecodeNanos() {
+		return mDecodeNanos;
+	}
+
+	/* Fetch the feed once, on the calling thread, and publish it if it changed.
+	 * Returns the latest delays, changed or not. */
+	public TripDelays poll() throws IOException {
+		final TripDelays[] parts = new TripDelays[mAddresses.length];
+		boolean changed = mCurrent == null;
+		try {
+			for (int a = 0; a < mAddresses.length; a++) {
+				parts[a] = fetch(a);
+				if (Thread.currentThread().isInterrupted()) {
+					throw new IOException("Stopped");
+				}
+				changed |= parts[a] != mLast[a];
+			}
+		} catch (IOException e) {
+			mErrors++;
+			mFailures++;
+			throw e;
+		} finally {
+			mLastPoll = System.currentTimeMillis();
+		}
+		mFailures = 0;
+		mRetryAfter = 0;
+		mPolls++;
+		if (!changed) {
+			mUnchanged++;
+			// the buses it has still went by
+			DelayHistory.observe(mDBName);
+			return mCurrent;
+		}
+		mUnchanged = 0;
+		System.arraycopy(parts, 0, mLast, 0, parts.length);
+		final TripDelays d = (parts.length == 1) ? parts[0] : TripDelays.merge(parts);
+		mCurrent = d;
+		TripDelays.publish(mDBName, d);
+		RealtimeOverlay.update(mDBName);
+		DelayHistory.observe(mDBName);
+		return d;
+	}
+
+	/* Read the a'th address, or give back what we had if it hasn't changed. */
+	private TripDelays fetch(int a) throws IOException {
+		final String address = mAddresses[a];
+		final TripDelays last = mLast[a];
+		InputStream in;
+		String eTag = null;
+		long modified = 0;
+		if (!address.contains("://") || address.startsWith("file:")) {
+			final File file = new File(address.contains("://") ? new URL(address).getPath() : address);
+			modified = file.lastModified();
+			if (last != null && modified != 0 && modified == mModified[a]) {
+				mNotModified++;
+				return last;
+			}
+			in = new FileInputStream(file);
+		} else {
+			final URL url = new URL(address);
+			if (!url.getProtocol().startsWith("http")) {
+				in = url.openStream();
+			} else {
+				final HttpURLConnection c = (HttpURLConnection) url.openConnection();
+				c.setConnectTimeout(TIMEOUT);
+				c.setReadTimeout(TIMEOUT);
+				if (last != null) {
+					if (mETags[a] != null) {
+						c.setRequestProperty("If-None-Match", mETags[a]);
+					}
+					if (mModified[a] != 0) {
+						c.setIfModifiedSince(mModified[a]);
+					}
+				}
+				final int code = c.getResponseCode();
+				if (code == HttpURLConnection.HTTP_NOT_MODIFIED && last != null) {
+					c.disconnect();
+					mNotModified++;
+					return last;
+				}
+				if (code != HttpURLConnection.HTTP_OK) {
+					mRetryAfter = retryAfter(c.getHeaderField("Retry-After"));
+					c.disconnect();
+					throw new IOException("HTTP " + code + " from " + address);
+				}
+				eTag = c.getHeaderField("ETag");
+				modified = c.getLastModified();
+				in = c.getInputStream();
+			}
+		}
+		final CountingInputStream counted = new CountingInputStream(in);
+		final long start = System.nanoTime();
+		final TripDelays d;
+		try {
+			d = TripDelays.decode(new BufferedInputStream(counted), last, true);
+		} finally {
+			counted.close();
+			mBytes += counted.mCount;
+			mDecodeNanos += System.nanoTime() - start;
+		}
+		// only once it's been read, so a feed that broke off is asked for whole again
+		mETags[a] = eTag;
+		mModified[a] = modified;
+		if (d == last) {
+			mSkipped++;
+		}
+		return d;
+	}
+
+	/* A Retry-After in seconds, ms; 0 if there's none or it's a date. */
+	private static long retryAfter(String value) {
+		if (value == null) {
+			return 0;
+		}
+		try {
+			return Math.max(0, Long.parseLong(value.trim()) * 1000);
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	private static final class CountingInputStream extends FilterInputStream {
+		long mCount = 0;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			final int b = super.read();
+			if (b >= 0) {
+				mCount++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			final int n = super.read(b, off, len);
+			if (n > 0) {
+				mCount += n;
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			final long skipped = super.skip(n);
+			mCount += skipped;
+			return skipped;
+		}
+	}
+}
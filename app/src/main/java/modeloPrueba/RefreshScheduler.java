@@ -0,0 +1,104 @@
+/*
+ * This file is part of GTFSOffline.
+ *
+ * GTFSOffline is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GTFSOffline is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GTFSOffline.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package modeloPrueba;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/* Runs the refresh task of one list, latest request wins.
+ *
+ * Requests (a location fix, the clock, a tab change) that arrive within COALESCE_DELAY
+ * of each other are folded into one refresh. Starting a refresh cancels the one still
+ * running, which notices between stages of its pipeline and gives up, and since
+ * AsyncTask never calls onPostExecute() on a cancelled task only the newest result
+ * gets to the adapter; the tasks get onCancelled() instead, and should tidy up there
+ * whatever onPreExecute() started unless isBusy() says a newer refresh has taken it
+ * over. Must be used from the main thread. */
+public class RefreshScheduler {
+	private static final String TAG = "RefreshScheduler";
+
+	private static final long COALESCE_DELAY = 250;	// ms
+
+	// All the list refreshes run one at a time here, rather than on AsyncTask's default
+	// executor, so they don't queue up behind TimesActivity and UpdateActivity work.
+	private static final Executor REFRESH_EXECUTOR = Executors.newSingleThreadExecutor();
+
+	public interface TaskFactory {
+		AsyncTask<Void, ?, ?> newTask();
+	}
+
+	private final String mName;
+	private final TaskFactory mFactory;
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+	private AsyncTask<Void, ?, ?> mRunning = null;
+	private boolean mPending = false;
+	private int mDropped = 0;
+
+	private final Runnable mLaunch = new Runnable() {
+		@Override
+		public void run() {
+			mPending = false;
+			if (mRunning != null && mRunning.getStatus() != AsyncTask.Status.FINISHED
+					&& !mRunning.isCancelled()) {
+				mRunning.cancel(false);
+				mDropped++;
+				Log.v(TAG, mName + ": superseded a running refresh (" + mDropped + " dropped)");
+			}
+			mRunning = mFactory.newTask();
+			mRunning.executeOnExecutor(REFRESH_EXECUTOR);
+		}
+	};
+
+	public RefreshScheduler(String aName, TaskFactory aFactory) {
+		mName = aName;
+		mFactory = aFactory;
+	}
+
+	/* Ask for a refresh. */
+	public void request() {
+		if (mPending) {
+			mHandler.removeCallbacks(mLaunch);
+		}
+		mPending = true;
+		mHandler.postDelayed(mLaunch, COALESCE_DELAY);
+	}
+
+	/* Drop any waiting request and cancel the running refresh, e.g. when the list goes away. */
+	public void cancel() {
+		if (mPending) {
+			mHandler.removeCallbacks(mLaunch);
+			mPending = false;
+		}
+		if (mRunning != null) {
+			mRunning.cancel(false);
+			mRunning = null;
+		}
+	}
+
+	/* A refresh is waiting to start, or running and not cancelled. */
+	public boolean isBusy() {
+		return mPending || (mRunning != null && mRunning.getStatus() != AsyncTask.Status.FINISHED
+				&& !mRunning.isCancelled());
+	}
+}
@@ -0,0 +1,236 @@
+/*
+ * This file is part of GTFSOffline.
+ *
+ * GTFSOffline is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GTFSOffline is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GTFSOffline.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package modeloPrueba;
+
+import java.util.HashMap;
+
+/* The line each pattern of a Timetable runs along, as a polyline with the distance
+ * travelled at each point and at each of the pattern's stops, so a point some way
+ * along the line is a binary search and a step of interpolation away.
+ *
+ * The line is the GTFS shape of the pattern's first trip where the feed has one, and
+ * otherwise straight lines from stop to stop. Patterns with the same shape share its
+ * points. Distances are in metres, measured flat, which is plenty over a city. */
+public final class RouteShapes {
+
+	private static final double RADIANS = Math.PI / 180.0;
+	private static final double METRES_PER_RADIAN = StopGridIndex.EARTH_RADIUS;
+	// A stop this close to the line is taken to be on the first pass that gets there,
+	// so a route that comes back along the same road doesn't skip half of its stops
+	private static final double SNAP = 100;		// m
+
+	private final Timetable mTT;
+	private final int[] mShape;					// by pattern
+	private final int[] mPointStart;			// by shape, +1
+	private final double[] mLat, mLon, mDist;	// by point
+	private final double[] mStopDist;			// by entry of tt.patternStops
+	private final int mFromFeed;				// shapes that came from the feed
+
+	private RouteShapes(Timetable tt, int[] shape, int[] pointStart, double[] lat, double[] lon, double[] dist,
+			double[] stopDist, int fromFeed) {
+		mTT = tt;
+		mShape = shape;
+		mPointStart = pointStart;
+		mLat = lat;
+		mLon = lon;
+		mDist = dist;
+		mStopDist = stopDist;
+		mFromFeed = fromFeed;
+	}
+
+	/* The lines of tt's patterns: shapes maps shape_id to its points {lat0, lon0, lat1,
+	 * ...} in order, and tripShapes trip_id to shape_id. Either may be empty. */
+	public static RouteShapes build(Timetable tt, HashMap<String, String> tripShapes, HashMap<String, double[]> shapes) {
+		final int[] byPattern = new int[tt.numPatterns];
+		final HashMap<String, Integer> used = new HashMap<String, Integer>();
+		int points = 0, count = 0;
+		for (int p = 0; p < tt.numPatterns; p++) {
+			final String id = tripShapes.get(tt.tripIds[tt.patternTrips[p]]);
+			final double[] pts = (id == null) ? null : shapes.get(id);
+			if (pts != null && pts.length >= 4) {
+				final Integer s = used.get(id);
+				if (s != null) {
+					byPattern[p] = s;
+					continue;
+				}
+				used.put(id, count);
+				points += pts.length / 2;
+			} else {
+				points += tt.getPatternLength(p);
+			}
+			byPattern[p] = count++;
+		}
+		final int fromFeed = used.size();
+
+		final int[] pointStart = new int[count + 1];
+		final double[] lat = new double[points], lon = new double[points], dist = new double[points];
+		final double[] stopDist = new double[tt.patternStops.length];
+		final boolean[] done = new boolean[count];
+		for (int p = 0; p < tt.numPatterns; p++) {
+			final int s = byPattern[p];
+			if (!done[s]) {
+				// shapes are laid out in the order their first pattern comes
+				final int start = pointStart[s];
+				final String id = tripShapes.get(tt.tripIds[tt.patternTrips[p]]);
+				final double[] pts = (id == null) ? null : shapes.get(id);
+				int n = 0;
+				if (pts != null && pts.length >= 4) {
+					for (int i = 0; i + 1 < pts.length; i += 2, n++) {
+						lat[start + n] = pts[i];
+						lon[start + n] = pts[i + 1];
+					}
+				} else {
+					final int first = tt.patternStopStart[p], len = tt.getPatternLength(p);
+					for (; n < len; n++) {
+						lat[start + n] = tt.stopLat[tt.patternStops[first + n]];
+						lon[start + n] = tt.stopLon[tt.patternStops[first + n]];
+					}
+				}
+				for (int i = start + 1; i < start + n; i++) {
+					dist[i] = dist[i - 1] + metres(lat[i - 1], lon[i - 1], lat[i], lon[i]);
+				}
+				pointStart[s + 1] = start + n;
+				done[s] = true;
+			}
+			snapStops(tt, p, pointStart[s], pointStart[s + 1], lat, lon, dist, stopDist);
+		}
+		return new RouteShapes(tt, byPattern, pointStart, lat, lon, dist, stopDist, fromFeed);
+	}
+
+	/* Where each stop of pattern p is along the line from..to: the nearest point on the
+	 * first pass within SNAP of it, else the nearest at all, never behind the stop before. */
+	private static void snapStops(Timetable tt, int p, int from, int to, double[] lat, double[] lon,
+			double[] dist, double[] stopDist) {
+		final int first = tt.patternStopStart[p], len = tt.getPatternLength(p);
+		int segment = from;
+		double along = dist[from];
+		for (int pos = 0; pos < len; pos++) {
+			final int stop = tt.patternStops[first + pos];
+			final double sLat = tt.stopLat[stop], sLon = tt.stopLon[stop];
+			int best = segment;
+			double bestOff = Double.MAX_VALUE, bestAlong = along;
+			for (int i = segment; i + 1 < to; i++) {
+				final double t = Math.max(project(lat[i], lon[i], lat[i + 1], lon[i + 1], sLat, sLon),
+						(i == segment) ? fraction(dist, i, along) : 0);
+				final double off = metres(lat[i] + t * (lat[i + 1] - lat[i]), lon[i] + t * (lon[i + 1] - lon[i]),
+						sLat, sLon);
+				if (off < bestOff) {
+					best = i;
+					bestOff = off;
+					bestAlong = dist[i] + t * (dist[i + 1] - dist[i]);
+				} else if (bestOff < SNAP && off > bestOff + SNAP) {
+					break;
+				}
+			}
+			segment = best;
+			along = Math.max(along, bestAlong);
+			stopDist[first + pos] = along - dist[from];
+		}
+	}
+
+	private static double fraction(double[] dist, int i, double along) {
+		final double d = dist[i + 1] - dist[i];
+		return (d <= 0) ? 0 : Math.min(1, Math.max(0, (along - dist[i]) / d));
+	}
+
+	/* How far along segment a-b, from 0 to 1, the point nearest to c is. */
+	private static double project(double aLat, double aLon, double bLat, double bLon, double cLat, double cLon) {
+		final double k = Math.cos(aLat * RADIANS);
+		final double bx = (bLon - aLon) * k, by = bLat - aLat;
+		final double cx = (cLon - aLon) * k, cy = cLat - aLat;
+		final double d = bx * bx + by * by;
+		return (d <= 0) ? 0 : Math.min(1, Math.max(0, (bx * cx + by * cy) / d));
+	}
+
+	static double metres(double lat0, double lon0, double lat1, double lon1) {
+		final double x = (lon1 - lon0) * Math.cos((lat0 + lat1) * 0.5 * RADIANS);
+		final double y = lat1 - lat0;
+		return Math.sqrt(x * x + y * y) * RADIANS * METRES_PER_RADIAN;
+	}
+
+	public Timetable getTimetable() {
+		return mTT;
+	}
+
+	/* How many of the lines are the feed's shapes rather than stop to stop. */
+	public int getShapeCount() {
+		return mFromFeed;
+	}
+
+	/* Length of pattern p's line, m. */
+	public double length(int p) {
+		final int s = mShape[p];
+		return mDist[mPointStart[s + 1] - 1] - mDist[mPointStart[s]];
+	}
+
+	/* How far along its line pattern p's pos'th stop is, m. */
+	public double stopDistance(int p, int pos) {
+		return mStopDist[mTT.patternStopStart[p] + pos];
+	}
+
+	/* The point distance metres along pattern p's line, into out at offset as {lat,
+	 * lon, bearing in degrees clockwise from north}. Clamped to the ends of the line. */
+	public void locate(int p, double distance, double[] out, int offset) {
+		final int s = mShape[p];
+		final int from = mPointStart[s], to = mPointStart[s + 1] - 1;
+		final double d = mDist[from] + distance;
+		// the last point at or before d
+		int lo = from, hi = to;
+		while (lo < hi) {
+			final int mid = (lo + hi + 1) >>> 1;
+			if (mDist[mid] <= d) {
+				lo = mid;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		final int i = Math.min(lo, to - 1);
+		final double t = fraction(mDist, i, d);
+		out[offset] = mLat[i] + t * (mLat[i + 1] - mLat[i]);
+		out[offset + 1] = mLon[i] + t * (mLon[i + 1] - mLon[i]);
+		out[offset + 2] = bearing(mLat[i], mLon[i], mLat[i + 1], mLon[i + 1]);
+	}
+
+	private static double bearing(double lat0, double lon0, double lat1, double lon1) {
+		final double x = (lon1 - lon0) * Math.cos((lat0 + lat1) * 0.5 * RADIANS);
+		final double b = Math.atan2(x, lat1 - lat0) / RADIANS;
+		return (b < 0) ? b + 360 : b;
+	}
+
+	/* How far along pattern p's line the point nearest to lat/lon is, preferring the
+	 * pass nearest to near metres along where the line goes by more than once. */
+	public double project(int p, double lat, double lon, double near) {
+		final int s = mShape[p];
+		final int from = mPointStart[s], to = mPointStart[s + 1];
+		double best = 0, bestCost = Double.MAX_VALUE;
+		for (int i = from; i + 1 < to; i++) {
+			final double t = project(mLat[i], mLon[i], mLat[i + 1], mLon[i + 1], lat, lon);
+			final double off = metres(mLat[i] + t * (mLat[i + 1] - mLat[i]), mLon[i] + t * (mLon[i + 1] - mLon[i]),
+					lat, lon);
+			final double along = mDist[i] + t * (mDist[i + 1] - mDist[i]) - mDist[from];
+			// ten metres off the road weighs as much as a hundred along it
+			final double cost = off + 0.1 * Math.abs(along - near);
+			if (cost < bestCost) {
+				best = along;
+				bestCost = cost;
+			}
+		}
+		return best;
+	}
+}
@@ -39,6 +39,13 @@ public class ServiceCalendar {
 	private static final String TAG = "ServiceCalendar";
 	private static final String mDBQuery = "select * from calendar where service_id = ?";
 	private static final String mDBQueryDate = "select * from calendar_dates where date = ? and service_id = ?";
+	// SQLite allows 999 arguments per statement; leave room for the others
+	private static final int MAX_SQL_ARGS = 500;
+	// With realtime delays, how far back to look for late buses, and how many more
+	private static final int LATE_WINDOW = 30 * 60;	// s
+	private static final int LATE_EXTRA = 8;
+	// Marks a departure time put back by the typical delay, not a live one
+	public static final String ESTIMATED = "~";
 
 	// Cache some results, to save db lookups
 	private final HashMap<String, String> truemap;
@@ -236,6 +243,363 @@ public class ServiceCalendar {
 	}
 
 
+	/* Return the next departures from each of a set of stops, in the same format as
+	 * getNextDepartureTimes() plus the stop_id, with today's and the overnight buses already
+	 * merged the way the nearby list shows them. Everything comes from one query on
+	 * stop_times and one on trips/routes, however many stops there are. Stops with
+	 * nothing running in the look ahead are left out of the map.
+	 *
+	 * If there are realtime delays for the feed the departure time is the predicted one,
+	 * and a last field has the delay in seconds ("" for a scheduled time). Cancelled
+	 * trips and skipped stops are left out. A departure with no live prediction that is
+	 * usually late is put back by its typical delay, in which case the delay is followed
+	 * by an ESTIMATED field. With delays or a history, buses due a while ago are looked at
+	 * too, as they may not have come yet. */
+	public HashMap<String, ArrayList<String[]>> getNextDepartureTimesBatch(Time t, String[] stops,
+			int maxResultsPerStop, int hoursLookAhead) {
+
+		final HashMap<String, ArrayList<String[]>> results = new HashMap<String, ArrayList<String[]>>(stops.length * 2);
+		if (stops.length == 0) {
+			return results;
+		}
+
+		// Same two windows as getNextDepartureTimes() with earlyMorning true (today)
+		// and false (last night's buses after midnight, or tomorrow's).
+		final String todayFrom = String.format("%02d%02d%02d", t.hour, t.minute+1, t.second);
+		final String todayTo = String.format("%02d%02d%02d", t.hour+hoursLookAhead,t.minute,t.second);
+		final String todayDate = String.format("%04d%02d%02d", t.year, t.month+1, t.monthDay);
+
+		// Once the planner has loaded today's timetable it has last night's late buses
+		// too, so use it instead of the database unless we're looking into tomorrow
+		final Timetable tt = TimetableLoader.peek(mDBName, todayDate);
+		final TripDelays delays = TripDelays.get(mDBName);
+		final DelayHistory history = history();
+		if (tt != null && t.hour + hoursLookAhead < 24) {
+			return getNextDepartureTimesBatch(tt, history, t, stops, maxResultsPerStop, hoursLookAhead);
+		}
+
+		// Buses due a while ago that may be late, and how many more to keep for them
+		final boolean late = delays != null || history != null;
+		final int look = late ? maxResultsPerStop + LATE_EXTRA : maxResultsPerStop;
+		final int nowSecs = t.hour * 3600 + (t.minute + 1) * 60 + t.second;
+		final String todayLow = late ? hhmmss(Math.max(0, nowSecs - LATE_WINDOW)) : todayFrom;
+
+		final String otherFrom, otherLow, otherTo;
+		final int otherDay, otherNow;
+		final Calendar cal = Calendar.getInstance();
+		cal.set(t.year, t.month, t.monthDay);
+		if (t.hour <= hoursLookAhead) {
+			otherFrom = String.format("%02d%02d%02d", t.hour+24, t.minute+1, t.second);
+			otherLow = late ? hhmmss(nowSecs + 24 * 3600 - LATE_WINDOW) : otherFrom;
+			otherTo = String.format("%02d%02d%02d", t.hour+hoursLookAhead+24,t.minute,t.second);
+			otherNow = nowSecs + 24 * 3600;
+			cal.add(Calendar.DAY_OF_MONTH, -1);
+			otherDay = (t.weekDay + 6) % 7;
+		} else {
+			otherFrom = String.format("%02d%02d%02d", 00, 00, 00);
+			otherLow = otherFrom;
+			otherTo = String.format("%02d%02d%02d", t.hour+hoursLookAhead-24,t.minute,t.second);
+			otherNow = 0;
+			cal.add(Calendar.DAY_OF_MONTH, 1);
+			otherDay = (t.weekDay + 1) % 7;
+		}
+		final String otherDate = String.format("%04d%02d%02d", cal.get(Calendar.YEAR), 
+				cal.get(Calendar.MONTH)+1, cal.get(Calendar.DAY_OF_MONTH));
+		final long todayMidnight = midnight(t.year, t.month, t.monthDay);
+		final long otherMidnight = midnight(cal.get(Calendar.YEAR), cal.get(Calendar.MONTH), cal.get(Calendar.DAY_OF_MONTH));
+
+		mDB = mDatabaseHelper.ReadableDB(mDBName, mDB);
+		if( mDB == null )
+		{
+			Log.e(TAG,"Couldn't access database!");
+			return results;
+		}
+
+		// stop index -> departures running on their day, one list per window
+		final HashMap<String, Integer> stopIndex = new HashMap<String, Integer>(stops.length * 2);
+		for (int i = 0; i < stops.length; i++) {
+			stopIndex.put(stops[i], i);
+		}
+		final ArrayList<ArrayList<String[]>> today = new ArrayList<ArrayList<String[]>>(stops.length);
+		final ArrayList<ArrayList<String[]>> other = new ArrayList<ArrayList<String[]>>(stops.length);
+		for (int i = 0; i < stops.length; i++) {
+			today.add(new ArrayList<String[]>(maxResultsPerStop));
+			other.add(new ArrayList<String[]>(maxResultsPerStop));
+		}
+
+		for (int from = 0; from < stops.length; from += MAX_SQL_ARGS) {
+			final int to = Math.min(stops.length, from + MAX_SQL_ARGS);
+			final String[] selectargs = new String[to - from + 4];
+			System.arraycopy(stops, from, selectargs, 0, to - from);
+			selectargs[to - from] = todayLow;
+			selectargs[to - from + 1] = todayTo;
+			selectargs[to - from + 2] = otherLow;
+			selectargs[to - from + 3] = otherTo;
+			final String q = "select distinct trip_id,departure_time,stop_id,stop_sequence from stop_times where stop_id in "
+					+ placeholders(to - from)
+					+ " and ((departure_time >= ? and departure_time <= ?)"
+					+ " or (departure_time >= ? and departure_time <= ?))";
+			final Cursor csr = mDB.rawQuery(q, selectargs);
+			boolean more = csr.moveToFirst();
+			while (more) {
+				final String trip_id = csr.getString(0);
+				final String departure = csr.getString(1);
+				final Integer stop = stopIndex.get(csr.getString(2));
+				if (stop != null) {
+					final boolean isToday = departure.compareTo(todayLow) >= 0 && departure.compareTo(todayTo) <= 0;
+					final String daysstr = this.getTripDaysofWeek(trip_id, isToday ? todayDate : otherDate, true);
+					// departure_time	daystorun	trip_id		delay
+					final String[] row = (daysstr == null) ? null : predicted(delays, trip_id, csr.getInt(3),
+							csr.getString(2), departure, isToday ? todayFrom : otherFrom,
+							isToday ? todayMidnight : otherMidnight);
+					if (row != null) {
+						row[1] = daysstr;
+						(isToday ? today : other).get(stop).add(row);
+					}
+				}
+				more = csr.moveToNext();
+			}
+			csr.close();
+		}
+
+		// Keep the first few from each window, and note the trips we need names for
+		final Comparator<String[]> byTime = new Comparator<String[]>() {
+			public int compare(String[] a, String[] b) {
+				return a[0].compareTo(b[0]);
+			}
+		};
+		final HashMap<String, String[]> tripNames = new HashMap<String, String[]>();
+		for (int i = 0; i < stops.length; i++) {
+			keepFirst(today.get(i), look, byTime, tripNames);
+			keepFirst(other.get(i), look, byTime, tripNames);
+		}
+		loadTripNames(tripNames);
+
+		// departuretime	runstoday	trip_id		route_short_name	trip_headsign		stop_id
+		final boolean lastNight = t.hour <= hoursLookAhead;
+		for (int i = 0; i < stops.length; i++) {
+			final ArrayList<String[]> first, second;
+			if (lastNight) {
+				first = other.get(i);
+				second = today.get(i);
+			} else {
+				first = today.get(i);
+				second = other.get(i);
+			}
+			if (first.isEmpty() && second.isEmpty()) {
+				continue;
+			}
+			final ArrayList<String[]> merged = new ArrayList<String[]>(first.size() + second.size());
+			addNamed(merged, first, tripNames, stops[i], history, lastNight ? otherDay : t.weekDay,
+					lastNight ? otherNow : nowSecs, maxResultsPerStop, byTime);
+			addNamed(merged, second, tripNames, stops[i], history, lastNight ? t.weekDay : otherDay,
+					lastNight ? nowSecs : otherNow, maxResultsPerStop, byTime);
+			if (!merged.isEmpty()) {
+				results.put(stops[i], merged);
+			}
+		}
+		return results;
+	}
+
+	/* A departure_time, daystorun, trip_id, delay row for a departure, with the predicted
+	 * time if there is one, or null if the bus won't come or has already left. */
+	private static String[] predicted(TripDelays delays, String trip_id, int stop_sequence, String stop_id,
+			String departure, String from, long midnight) {
+		if (delays == null) {
+			return new String[] { departure, "", trip_id, "" };
+		}
+		final int scheduled = DepartureBoard.parseSeconds(departure);
+		final int delay = delays.departureDelay(trip_id, stop_sequence, stop_id, scheduled, midnight);
+		if (delay == TripDelays.SKIPPED || (delay != TripDelays.NONE
+				&& scheduled + delay < DepartureBoard.parseSeconds(from))) {
+			return null;
+		}
+		if (delay == TripDelays.NONE) {
+			return new String[] { departure, "", trip_id, "" };
+		}
+		return new String[] { hhmmss(scheduled + delay), "", trip_id, Integer.toString(delay) };
+	}
+
+	/* The feed's delay history, or null if there's no database helper to find it with. */
+	private DelayHistory history() {
+		return (mDatabaseHelper == null) ? null : DelayHistory.open(mDatabaseHelper, mDBName);
+	}
+
+	/* A row of departuretime, runstoday, trip_id, route_short_name, trip_headsign, stop_id
+	 * and maybe delay, put back by the typical delay of its route at its stop if it has no
+	 * live one and is usually late, with the delay and ESTIMATED after the first six
+	 * fields. Buses that are usually early are left alone, as a bus won't wait for
+	 * someone who believed us. weekDay is that of the departure's service day. */
+	static String[] estimated(DelayHistory history, int weekDay, String[] row) {
+		if (history == null || (row.length > 6 && !row[6].equals(""))) {
+			return row;
+		}
+		final int scheduled = DepartureBoard.parseSeconds(row[0]);
+		final int delay = history.typicalDelay(row[3], row[4], row[5], DelayHistory.bucket(weekDay, scheduled));
+		if (delay == DelayHistory.NONE || delay <= 0) {
+			return row;
+		}
+		final String[] out = Arrays.copyOf(row, 8);
+		out[0] = hhmmss(scheduled + delay);
+		out[6] = Integer.toString(delay);
+		out[7] = ESTIMATED;
+		return out;
+	}
+
+	/* getNextDepartureTimesBatch() from a loaded timetable. The days the bus runs aren't
+	 * worked out, as everything in it runs today. With realtime delays on it or a delay
+	 * history, buses due a while ago are looked at too, as they may not have come yet. */
+	private static HashMap<String, ArrayList<String[]>> getNextDepartureTimesBatch(Timetable tt,
+			DelayHistory history, Time t, String[] stops, int maxResultsPerStop, int hoursLookAhead) {
+		final RealtimeOverlay realtime = tt.getRealtime();
+		final HashMap<String, ArrayList<String[]>> results = new HashMap<String, ArrayList<String[]>>(stops.length * 2);
+		final int from = t.hour * 3600 + (t.minute + 1) * 60 + t.second;
+		final int to = (t.hour + hoursLookAhead) * 3600 + t.minute * 60 + t.second;
+		final boolean late = realtime != null || history != null;
+		final int look = late ? maxResultsPerStop + LATE_EXTRA : maxResultsPerStop;
+		final int[] trips = new int[look], times = new int[look];
+		final Comparator<String[]> byTime = new Comparator<String[]>() {
+			public int compare(String[] a, String[] b) {
+				return a[0].compareTo(b[0]);
+			}
+		};
+		for (String stop_id : stops) {
+			final int stop = tt.findStop(stop_id);
+			final int n = (stop < 0) ? 0 : tt.nextDepartures(stop, late ? Math.max(0, from - LATE_WINDOW) : from, to,
+					look, trips, times);
+			// departuretime	runstoday	trip_id		route_short_name	trip_headsign		stop_id	delay
+			final ArrayList<String[]> rows = new ArrayList<String[]>(n);
+			for (int i = 0; i < n; i++) {
+				int time = times[i];
+				String live = "";
+				if (realtime != null) {
+					final int delay = realtime.delay(trips[i], position(tt, trips[i], stop, time));
+					if (delay == TripDelays.SKIPPED) {
+						continue;
+					}
+					if (delay != TripDelays.NONE) {
+						time += delay;
+						live = Integer.toString(delay);
+					}
+				}
+				final String route = tt.getTripRoute(trips[i]), headsign = tt.getTripHeadsign(trips[i]);
+				final String[] row = estimated(history, t.weekDay, new String[] { hhmmss(time), "",
+						tt.getTripId(trips[i]), route, headsign.equals("") ? route : headsign, stop_id, live });
+				if (DepartureBoard.parseSeconds(row[0]) >= from) {
+					rows.add(row);
+				}
+			}
+			if (rows.isEmpty()) {
+				continue;
+			}
+			Collections.sort(rows, byTime);
+			while (rows.size() > maxResultsPerStop) {
+				rows.remove(rows.size() - 1);
+			}
+			results.put(stop_id, rows);
+		}
+		return results;
+	}
+
+	/* Position in a trip's pattern where it leaves stop at time. */
+	private static int position(Timetable tt, int trip, int stop, int time) {
+		final int p = tt.tripPattern[trip], stops = tt.patternStopStart[p];
+		for (int pos = 0; pos < tt.getPatternLength(p); pos++) {
+			if (tt.patternStops[stops + pos] == stop && tt.getDeparture(trip, pos) == time) {
+				return pos;
+			}
+		}
+		return 0;
+	}
+
+	private static String hhmmss(int seconds) {
+		return String.format("%02d%02d%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+	}
+
+	/* The start of a day, in seconds since the epoch; month from 0 as in Time and Calendar. */
+	private static long midnight(int year, int month, int day) {
+		final Calendar cal = Calendar.getInstance();
+		cal.clear();
+		cal.set(year, month, day);
+		return cal.getTimeInMillis() / 1000;
+	}
+
+	private static void keepFirst(ArrayList<String[]> list, int max, Comparator<String[]> byTime,
+			HashMap<String, String[]> tripNames) {
+		Collections.sort(list, byTime);
+		while (list.size() > max) {
+			list.remove(list.size() - 1);
+		}
+		for (String[] row : list) {
+			tripNames.put(row[2], null);
+		}
+	}
+
+	/* Add the first max of a window's departures at a stop to merged with their names
+	 * and, with a history, the typical delays of those with no live one, in order of
+	 * time. Those still due before now, in seconds of the window's day, have left. */
+	private static void addNamed(ArrayList<String[]> merged, ArrayList<String[]> list,
+			HashMap<String, String[]> tripNames, String stop_id, DelayHistory history, int weekDay,
+			int now, int max, Comparator<String[]> byTime) {
+		final int start = merged.size();
+		for (String[] row : list) {
+			final String[] names = tripNames.get(row[2]);
+			if (names != null) {
+				final String[] named = estimated(history, weekDay,
+						new String[] { row[0], row[1], row[2], names[0], names[1], stop_id, row[3] });
+				if (DepartureBoard.parseSeconds(named[0]) >= now) {
+					merged.add(named);
+				}
+			}
+		}
+		if (history != null) {
+			Collections.sort(merged.subList(start, merged.size()), byTime);
+		}
+		while (merged.size() > start + max) {
+			merged.remove(merged.size() - 1);
+		}
+	}
+
+	/* Fill in route_short_name and headsign (or route_long_name if there isn't one) for
+	 * each trip_id key in the map, a chunk of trips per query. */
+	private void loadTripNames(HashMap<String, String[]> tripNames) {
+		final String[] trips = tripNames.keySet().toArray(new String[tripNames.size()]);
+		for (int from = 0; from < trips.length; from += MAX_SQL_ARGS) {
+			final int to = Math.min(trips.length, from + MAX_SQL_ARGS);
+			final String[] selectargs = new String[to - from];
+			System.arraycopy(trips, from, selectargs, 0, to - from);
+			final String q = "select trips.trip_id, route_long_name, route_short_name, trip_headsign from routes " +
+					"join trips on routes.route_id = trips.route_id where trips.trip_id in " + placeholders(to - from);
+			final Cursor csr = mDB.rawQuery(q, selectargs);
+			boolean more = csr.moveToFirst();
+			while (more) {
+				//Some routes use only long_name, some use short_name. Also trip_headsign doesn't always exist.
+				final String headsign = csr.getString(3);
+				if (headsign == null || headsign.equals("")) {
+					tripNames.put(csr.getString(0), new String[] { csr.getString(2), csr.getString(1) });
+				} else {
+					tripNames.put(csr.getString(0), new String[] { csr.getString(2), headsign });
+				}
+				more = csr.moveToNext();
+			}
+			csr.close();
+		}
+	}
+
+	/* "(?, ?, ...)" with n placeholders */
+	private static String placeholders(int n) {
+		final StringBuilder sb = new StringBuilder(3 * n + 2);
+		sb.append('(');
+		for (int i = 0; i < n; i++) {
+			sb.append(i == 0 ? "?" : ", ?");
+		}
+		return sb.append(')').toString();
+	}
+
+	/* The next departures from any of stops, for the favourites. As in
+	 * getNextDepartureTimesBatch(), with realtime delays for the feed the time is the
+	 * predicted one and a last field has the delay ("" for a scheduled time), and
+	 * cancelled trips and skipped stops are left out. */
 	public ArrayList<String[]> getNextDepartureTimesGen(Time t, String[] stops, 
 			int maxResultsPerStop, int hoursLookAhead, boolean earlyMorning) {
 
@@ -243,6 +607,8 @@ public class ServiceCalendar {
 		final String timelimit;
 		String q;
 		String date;
+		final int weekDay;
+		final long dayMidnight;
 
 		//process stops to be an array for sqlite, minimizing queries:
 		//String stopsString = Arrays.toString(stops);
@@ -263,7 +629,7 @@ public class ServiceCalendar {
 		if ( (t.hour <= hoursLookAhead) && (!earlyMorning) ) {
 			timenow = String.format("%02d%02d%02d", t.hour+24, t.minute+1, t.second);
 			timelimit = String.format("%02d%02d%02d", t.hour+hoursLookAhead+24,t.minute,t.second);
-			q = "select distinct trip_id,departure_time,stop_id from stop_times where stop_id in " 
+			q = "select distinct trip_id,departure_time,stop_id,stop_sequence from stop_times where stop_id in " 
 					+ stopsString
 					+ " and (departure_time >= ? and departure_time <= ?)";
 			Calendar cal = Calendar.getInstance();
@@ -271,11 +637,13 @@ public class ServiceCalendar {
 			cal.add(Calendar.DAY_OF_MONTH, -1);
 			date = String.format("%04d%02d%02d", cal.get(Calendar.YEAR), 
 					cal.get(Calendar.MONTH)+1, cal.get(Calendar.DAY_OF_MONTH));
+			weekDay = (t.weekDay + 6) % 7;
+			dayMidnight = midnight(cal.get(Calendar.YEAR), cal.get(Calendar.MONTH), cal.get(Calendar.DAY_OF_MONTH));
 		} else if ( !earlyMorning ) {
 			//look for tomorrow's routes
 			timenow = String.format("%02d%02d%02d", 00, 00, 00);
 			timelimit = String.format("%02d%02d%02d", t.hour+hoursLookAhead-24,t.minute,t.second);
-			q = "select distinct trip_id,departure_time,stop_id from stop_times where stop_id in " 
+			q = "select distinct trip_id,departure_time,stop_id,stop_sequence from stop_times where stop_id in " 
 					+ stopsString
 					+ " and (departure_time >= ? and departure_time <= ?)";
 			Calendar cal = Calendar.getInstance();
@@ -283,16 +651,20 @@ public class ServiceCalendar {
 			cal.add(Calendar.DAY_OF_MONTH, 1);
 			date = String.format("%04d%02d%02d", cal.get(Calendar.YEAR), 
 					cal.get(Calendar.MONTH)+1, cal.get(Calendar.DAY_OF_MONTH));
+			weekDay = (t.weekDay + 1) % 7;
+			dayMidnight = midnight(cal.get(Calendar.YEAR), cal.get(Calendar.MONTH), cal.get(Calendar.DAY_OF_MONTH));
 		}
 		else {
 			//here we have earlyMorning toggled - search for today's routes.
 			timenow = String.format("%02d%02d%02d", t.hour, t.minute+1, t.second);
 
 			timelimit = String.format("%02d%02d%02d", t.hour+hoursLookAhead,t.minute,t.second);
-			q = "select distinct trip_id,departure_time,stop_id from stop_times where stop_id in " 
+			q = "select distinct trip_id,departure_time,stop_id,stop_sequence from stop_times where stop_id in " 
 					+ stopsString +
 					"and departure_time >= ? and departure_time <= ?";
 			date = String.format("%04d%02d%02d", t.year, t.month+1, t.monthDay);
+			weekDay = t.weekDay;
+			dayMidnight = midnight(t.year, t.month, t.monthDay);
 		}
 		final String[] selectargs = new String[] { timenow, timelimit };
 		mDB = mDatabaseHelper.ReadableDB(mDBName, mDB);
@@ -301,6 +673,7 @@ public class ServiceCalendar {
 			Log.e(TAG,"Couldn't access database!");
 			return null;
 		}
+		final TripDelays delays = TripDelays.get(mDBName);
 		final Cursor csr = mDB.rawQuery(q, selectargs);
 		final ArrayList<String[]> listdetails = new ArrayList<String[]>(0);
 		final ArrayList<String[]> results = new ArrayList<String[]>(0);
@@ -320,10 +693,13 @@ public class ServiceCalendar {
 				continue;
 			}
 			final String daysstr = this.getTripDaysofWeek(trip_id, date, true);
+			// With the predicted time, unless the bus won't come or has already left
+			final String[] live = (daysstr == null) ? null : predicted(delays, trip_id, csr.getInt(3),
+					stop_id, csr.getString(1), timenow, dayMidnight);
 
-			// departure_time	daystorun	trip_id		stop_id
-			if (daysstr != null) {
-				listdetails.add(new String[] { csr.getString(1), daysstr, trip_id, stop_id });
+			// departure_time	daystorun	trip_id		stop_id		delay
+			if (live != null) {
+				listdetails.add(new String[] { live[0], daysstr, trip_id, stop_id, live[3] });
 				
 				//now we keep track of the fav stops we've satisfied.
 				if (stopCounter[indexOfStop] == 0) {
@@ -366,17 +742,31 @@ public class ServiceCalendar {
 				final Cursor csr2 = mDatabaseHelper.ReadableDB(mDBName, mDB).rawQuery(q2, selectargs2);
 				
 				csr2.moveToFirst();
-	// departuretime	runstoday	trip_id		route_short_name	trip_headsign		stop_id	
-	//	140300		1		34867		13			Route 13 Laurelwood	xxxx
+	// departuretime	runstoday	trip_id		route_short_name	trip_headsign		stop_id	delay
+	//	140300		1		34867		13			Route 13 Laurelwood	xxxx	120
 				if (csr2.getString(2).equals(""))
 				{
-					results.add(new String[] { listdetails.get(i)[0], listdetails.get(i)[1], listdetails.get(i)[2], csr2.getString(1), csr2.getString(0), listdetails.get(i)[3] });
+					results.add(new String[] { listdetails.get(i)[0], listdetails.get(i)[1], listdetails.get(i)[2], csr2.getString(1), csr2.getString(0), listdetails.get(i)[3], listdetails.get(i)[4] });
 				} else {
-					results.add(new String[] { listdetails.get(i)[0], listdetails.get(i)[1], listdetails.get(i)[2], csr2.getString(1), csr2.getString(2), listdetails.get(i)[3] });
+					results.add(new String[] { listdetails.get(i)[0], listdetails.get(i)[1], listdetails.get(i)[2], csr2.getString(1), csr2.getString(2), listdetails.get(i)[3], listdetails.get(i)[4] });
 				}
 				csr2.close();
 				
 			}
+			// Put back the buses that are usually late, where there's no live delay for them
+			final DelayHistory history = history();
+			if (history != null) {
+				for (int i = 0; i < results.size(); i++) {
+					if (results.get(i)[6].equals("")) {
+						results.set(i, estimated(history, weekDay, results.get(i)));
+					}
+				}
+				Collections.sort(results, new Comparator<String[]>() {
+					public int compare(String[] a, String[] b) {
+						return a[0].compareTo(b[0]);
+					}
+				});
+			}
 			//mDatabaseHelper.CloseDB(mDB);
 			return results;
 		}
@@ -759,7 +1149,6 @@ public class ServiceCalendar {
 	
 	public String formattedDepartureTime(Time t, String hours, String minutes)
 	{
-		String departsIn;
 		int hourdiff = Integer.parseInt(hours)-t.hour;
 
 		while (hourdiff >= 24) {
@@ -772,95 +1161,6 @@ public class ServiceCalendar {
 		
 		int minutesdiff = Integer.parseInt(minutes)-t.minute;
 		
-		int totaldiff = hourdiff*60 + minutesdiff;
-		
-		if (totaldiff == minutesdiff) {	
-			if (minutesdiff == 1) {
-				departsIn = "Departs in "
-							+ minutesdiff 
-							+ " minute";
-			}
-			else {
-				departsIn = "Departs in "
-							+ minutesdiff
-							+ " minutes";
-			}
-		}
-		else if (totaldiff-hourdiff*60 <= 0) {
-			//we have negative minutes
-			if (minutesdiff == 1) {
-				if (totaldiff/60 == 1) {
-					departsIn = "Departs in " + totaldiff/60 + " hour and " +
-							+ totaldiff%60
-							+ " minute";
-				}
-				else if (totaldiff/60 == 0) {
-					departsIn = "Departs in "
-							+ totaldiff%60
-							+ " minute";
-				}
-				else {
-					departsIn = "Departs in " + totaldiff/60 + " hours and " +
-							+ totaldiff%60
-							+ " minute";
-				}
-			}
-			else {
-				if (totaldiff/60 == 1) {
-					departsIn = "Departs in " + totaldiff/60 + " hour " +
-							+ totaldiff%60
-							+ " minutes";
-				}
-				else if (totaldiff/60 == 0) {
-					departsIn = "Departs in "
-							+ totaldiff%60
-							+ " minutes";
-				}
-				else {
-					departsIn = "Departs in " + totaldiff/60 + " hours " +
-							+ totaldiff%60
-							+ " minutes";
-				}
-			}
-		}
-		else {
-			if ( hourdiff == 1) {
-				if (minutesdiff == 1) {
-					departsIn = "Departs in " + hourdiff + " hour and " +
-								+ minutesdiff 
-								+ " minute";
-				}
-				else {
-					departsIn = "Departs in " + hourdiff + " hour " +
-								+ minutesdiff
-								+ " minutes";
-				}
-			}
-			else if ( hourdiff == 0) {
-				if (minutesdiff == 1) {
-					departsIn = "Departs in " 
-								+ minutesdiff 
-								+ " minute";
-				}
-				else {
-					departsIn = "Departs in "
-								+ minutesdiff
-								+ " minutes";
-				}
-			}
-			else {
-				if (minutesdiff == 1) {
-					departsIn = "Departs in " + hourdiff + " hours and " +
-								+ minutesdiff 
-								+ " minute";
-				}
-				else {
-					departsIn = "Departs in " + hourdiff + " hours " +
-								+ minutesdiff
-								+ " minutes";
-				}
-			}
-		}
-		return departsIn;
+		return DepartureBoard.departsIn(hourdiff*60 + minutesdiff);
 	}
 }
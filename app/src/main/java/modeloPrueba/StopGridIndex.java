@@ -0,0 +1,307 @@
+/*
+ * This file is part of GTFSOffline.
+ *
+ * GTFSOffline is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GTFSOffline is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GTFSOffline.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package modeloPrueba;
+
+/* A uniform lat/lon grid over the stops of one feed, used to find the k nearest
+ * stops to a location without measuring the distance to every stop.
+ *
+ * Stops are held as primitive arrays, and the grid is a bucket sort of the stop
+ * indices by cell (mCellStart/mCellStops), so building it is O(n) and a query only
+ * looks at the rings of cells around the location until the k-th best distance
+ * is closer than anything left unvisited. The coordinates are also kept in cell
+ * order, in radians, so each cell is a contiguous run for DistanceKernel. */
+public class StopGridIndex {
+
+	static final double EARTH_RADIUS = 6371008.8;	// mean radius, m
+	private static final double METRES_PER_DEGREE = Math.PI * EARTH_RADIUS / 180.0;
+	private static final int MAX_CELLS_PER_STOP = 4;
+
+	private final double[] mLat, mLon;
+	private final int mCount;
+
+	private final double mMinLat, mMinLon;
+	private final double mCellLat, mCellLon;	// cell size, degrees
+	private final double mMinCellMetres;		// smallest cell side anywhere on the grid
+	private final int mRows, mCols;
+	private final int[] mCellStart;				// rows*cols+1 offsets into mCellStops
+	private final int[] mCellStops;
+
+	// Stops in cell order: radians, cos(lat), and where each stop ended up
+	private final double[] mSortedLat, mSortedLon, mSortedCos;
+	private final int[] mSortedPos;
+
+	// Query scratch space; queries on one index must not run concurrently
+	private final double[] mScratch;
+	private final int[] mCand;
+	private final float[] mCandDist;
+
+	/* Build the grid over the first count entries of lat/lon. The arrays are kept,
+	 * not copied, so don't modify them while the index is in use. */
+	public StopGridIndex(double[] lat, double[] lon, int count, double cellMetres) {
+		mLat = lat;
+		mLon = lon;
+		mCount = count;
+
+		double minLat = 90, maxLat = -90, minLon = 180, maxLon = -180;
+		for (int i = 0; i < count; i++) {
+			minLat = Math.min(minLat, lat[i]);
+			maxLat = Math.max(maxLat, lat[i]);
+			minLon = Math.min(minLon, lon[i]);
+			maxLon = Math.max(maxLon, lon[i]);
+		}
+		if (count == 0) {
+			minLat = maxLat = minLon = maxLon = 0;
+		}
+
+		// Longitude degrees shrink away from the equator, so size the cells at the
+		// widest latitude of the feed to keep them roughly square.
+		final double maxAbsLat = Math.min(89.0, Math.max(Math.abs(minLat), Math.abs(maxLat)));
+		final double cosLat = Math.cos(Math.toRadians(maxAbsLat));
+		double cellLat = cellMetres / METRES_PER_DEGREE;
+		double cellLon = cellLat / cosLat;
+
+		// Don't let a sparse, wide feed blow up into millions of empty cells.
+		int rows = 1 + (int) ((maxLat - minLat) / cellLat);
+		int cols = 1 + (int) ((maxLon - minLon) / cellLon);
+		final long maxCells = Math.max(1, (long) count * MAX_CELLS_PER_STOP);
+		while ((long) rows * cols > maxCells) {
+			cellLat *= 2;
+			cellLon *= 2;
+			rows = 1 + (int) ((maxLat - minLat) / cellLat);
+			cols = 1 + (int) ((maxLon - minLon) / cellLon);
+		}
+
+		mMinLat = minLat;
+		mMinLon = minLon;
+		mCellLat = cellLat;
+		mCellLon = cellLon;
+		mRows = rows;
+		mCols = cols;
+		mMinCellMetres = Math.min(cellLat * METRES_PER_DEGREE, cellLon * METRES_PER_DEGREE * cosLat);
+
+		// Counting sort of the stops into their cells
+		mCellStart = new int[rows * cols + 1];
+		mCellStops = new int[count];
+		final int[] cellOf = new int[count];
+		for (int i = 0; i < count; i++) {
+			cellOf[i] = cell(row(lat[i]), col(lon[i]));
+			mCellStart[cellOf[i] + 1]++;
+		}
+		for (int c = 0; c < rows * cols; c++) {
+			mCellStart[c + 1] += mCellStart[c];
+		}
+		final int[] fill = new int[rows * cols];
+		for (int i = 0; i < count; i++) {
+			final int c = cellOf[i];
+			mCellStops[mCellStart[c] + fill[c]++] = i;
+		}
+		int maxCell = 0;
+		for (int c = 0; c < rows * cols; c++) {
+			maxCell = Math.max(maxCell, mCellStart[c + 1] - mCellStart[c]);
+		}
+
+		final double[] sortedLatDeg = new double[count], sortedLonDeg = new double[count];
+		mSortedPos = new int[count];
+		for (int j = 0; j < count; j++) {
+			sortedLatDeg[j] = lat[mCellStops[j]];
+			sortedLonDeg[j] = lon[mCellStops[j]];
+			mSortedPos[mCellStops[j]] = j;
+		}
+		mSortedLat = new double[count];
+		mSortedLon = new double[count];
+		mSortedCos = new double[count];
+		DistanceKernel.toRadians(sortedLatDeg, mSortedLat, 0, count);
+		DistanceKernel.toRadians(sortedLonDeg, mSortedLon, 0, count);
+		DistanceKernel.cosines(mSortedLat, mSortedCos, 0, count);
+
+		mScratch = new double[maxCell];
+		mCand = new int[maxCell];
+		mCandDist = new float[maxCell];
+	}
+
+	public int size() {
+		return mCount;
+	}
+
+	public double getLatitude(int stop) {
+		return mLat[stop];
+	}
+
+	public double getLongitude(int stop) {
+		return mLon[stop];
+	}
+
+	/* Find the k stops nearest to (lat, lon). Their indices go into outIdx, nearest
+	 * first, with the distance in metres and the initial bearing in degrees (-180 to +180,
+	 * same convention as Location.distanceBetween) in outDist/outBearing. The out arrays
+	 * must hold at least k entries. Returns the number of stops found, which is less
+	 * than k only if the index holds fewer than k stops. */
+	public int nearest(double lat, double lon, int k, int[] outIdx, float[] outDist, float[] outBearing) {
+		k = Math.min(k, mCount);
+		if (k <= 0) {
+			return 0;
+		}
+		final double lat0 = Math.toRadians(lat), lon0 = Math.toRadians(lon);
+		final int r0 = row(lat), c0 = col(lon);
+		final int maxRing = Math.max(Math.max(r0, mRows - 1 - r0), Math.max(c0, mCols - 1 - c0));
+		int found = 0;
+
+		for (int ring = 0; ring <= maxRing; ring++) {
+			// Cells in this ring and beyond are at least ring-1 whole cells away
+			if (found == k && outDist[k - 1] <= (ring - 1) * mMinCellMetres) {
+				break;
+			}
+			final int top = r0 - ring, bottom = r0 + ring;
+			final int left = c0 - ring, right = c0 + ring;
+			for (int r = Math.max(0, top); r <= Math.min(mRows - 1, bottom); r++) {
+				final boolean edgeRow = (r == top || r == bottom);
+				// Inside rows only contribute their two edge columns
+				final int step = edgeRow ? 1 : Math.max(1, right - left);
+				for (int c = left; c <= right; c += step) {
+					if (c < 0 || c >= mCols) {
+						continue;
+					}
+					final int cell = cell(r, c);
+					final int start = mCellStart[cell], end = mCellStart[cell + 1];
+					if (start == end) {
+						continue;
+					}
+					// Once we have k, only stops that might beat the k-th need the exact distance
+					int n;
+					if (found == k) {
+						n = DistanceKernel.prefilter(lat0, lon0, mSortedLat, mSortedLon, start, end,
+								outDist[k - 1], mScratch, mCand);
+					} else {
+						n = end - start;
+						for (int j = 0; j < n; j++) {
+							mCand[j] = start + j;
+						}
+					}
+					DistanceKernel.haversine(lat0, lon0, mSortedLat, mSortedLon, mSortedCos, mCand, n, mCandDist);
+					for (int j = 0; j < n; j++) {
+						final float d = mCandDist[j];
+						if (found == k && d >= outDist[k - 1]) {
+							continue;
+						}
+						// Insertion into the sorted top-k; k is small (a screenful of stops)
+						int pos = (found < k) ? found++ : k - 1;
+						while (pos > 0 && outDist[pos - 1] > d) {
+							outDist[pos] = outDist[pos - 1];
+							outIdx[pos] = outIdx[pos - 1];
+							pos--;
+						}
+						outDist[pos] = d;
+						outIdx[pos] = mCellStops[mCand[j]];
+					}
+				}
+			}
+		}
+
+		bearings(lat0, lon0, outIdx, found, outBearing);
+		return found;
+	}
+
+	/* Every stop within radius metres of (lat, lon), in no particular order. Up to
+	 * outIdx.length of them go into outIdx, with their distances in outDist. Returns how
+	 * many there are, which may be more than were stored. */
+	public int withinRadius(double lat, double lon, double radius, int[] outIdx, float[] outDist) {
+		if (mCount == 0) {
+			return 0;
+		}
+		final double lat0 = Math.toRadians(lat), lon0 = Math.toRadians(lon);
+		final double dLat = radius / METRES_PER_DEGREE;
+		final double dLon = dLat / Math.max(0.01, Math.cos(Math.min(89.0, Math.abs(lat) + dLat) * Math.PI / 180.0));
+		final int top = row(lat + dLat), bottom = row(lat - dLat);
+		final int left = col(lon - dLon), right = col(lon + dLon);
+		int found = 0;
+		for (int r = bottom; r <= top; r++) {
+			for (int c = left; c <= right; c++) {
+				final int cell = cell(r, c);
+				final int start = mCellStart[cell], end = mCellStart[cell + 1];
+				if (start == end) {
+					continue;
+				}
+				final int n = DistanceKernel.prefilter(lat0, lon0, mSortedLat, mSortedLon, start, end,
+						radius, mScratch, mCand);
+				DistanceKernel.haversine(lat0, lon0, mSortedLat, mSortedLon, mSortedCos, mCand, n, mCandDist);
+				for (int j = 0; j < n; j++) {
+					if (mCandDist[j] <= radius) {
+						if (found < outIdx.length) {
+							outIdx[found] = mCellStops[mCand[j]];
+							outDist[found] = mCandDist[j];
+						}
+						found++;
+					}
+				}
+			}
+		}
+		return found;
+	}
+
+	/* Distance and bearing from (lat, lon) to each of the n stops listed, for when the
+	 * candidates are already known. */
+	public void measure(double lat, double lon, int[] stops, int n, float[] outDist, float[] outBearing) {
+		final double lat0 = Math.toRadians(lat), lon0 = Math.toRadians(lon);
+		final int[] pos = new int[n];
+		for (int j = 0; j < n; j++) {
+			pos[j] = mSortedPos[stops[j]];
+		}
+		DistanceKernel.haversine(lat0, lon0, mSortedLat, mSortedLon, mSortedCos, pos, n, outDist);
+		DistanceKernel.bearing(lat0, lon0, mSortedLat, mSortedLon, mSortedCos, pos, n, outBearing);
+	}
+
+	private void bearings(double lat0, double lon0, int[] stops, int n, float[] outBearing) {
+		final int[] pos = new int[n];
+		for (int j = 0; j < n; j++) {
+			pos[j] = mSortedPos[stops[j]];
+		}
+		DistanceKernel.bearing(lat0, lon0, mSortedLat, mSortedLon, mSortedCos, pos, n, outBearing);
+	}
+
+	private int row(double lat) {
+		final int r = (int) Math.floor((lat - mMinLat) / mCellLat);
+		return Math.max(0, Math.min(mRows - 1, r));
+	}
+
+	private int col(double lon) {
+		final int c = (int) Math.floor((lon - mMinLon) / mCellLon);
+		return Math.max(0, Math.min(mCols - 1, c));
+	}
+
+	private int cell(int row, int col) {
+		return row * mCols + col;
+	}
+
+	/* Great circle (haversine) distance in metres. */
+	static double distance(double lat1, double lon1, double lat2, double lon2) {
+		final double p1 = Math.toRadians(lat1), p2 = Math.toRadians(lat2);
+		final double sdp = Math.sin((p2 - p1) * 0.5);
+		final double sdl = Math.sin(Math.toRadians(lon2 - lon1) * 0.5);
+		final double h = sdp * sdp + Math.cos(p1) * Math.cos(p2) * sdl * sdl;
+		return 2.0 * EARTH_RADIUS * Math.asin(Math.min(1.0, Math.sqrt(h)));
+	}
+
+	/* Initial bearing from point 1 to point 2, degrees east of true north (-180 to +180). */
+	static double bearing(double lat1, double lon1, double lat2, double lon2) {
+		final double p1 = Math.toRadians(lat1), p2 = Math.toRadians(lat2);
+		final double dl = Math.toRadians(lon2 - lon1);
+		final double y = Math.sin(dl) * Math.cos(p2);
+		final double x = Math.cos(p1) * Math.sin(p2) - Math.sin(p1) * Math.cos(p2) * Math.cos(dl);
+		return Math.toDegrees(Math.atan2(y, x));
+	}
+}
@@ -0,0 +1,259 @@
+/*
+ * This file is part of GTFSOffline.
+ *
+ * GTFSOffline is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GTFSOffline is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GTFSOffline.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package modeloPrueba;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+/* Candidate stops for the nearby list, loaded from the database in fixed lat/lon tiles.
+ *
+ * Each update works out which tiles the search area around the user covers, loads any
+ * we don't have yet, and if that set of tiles changed, rebuilds the arrays and grid
+ * index the ranking works from. Tiles we have left behind stay cached, so walking back
+ * doesn't hit the database, until there are more than mMaxTiles of them, when the ones
+ * furthest away are dropped. Everything is forgotten if the database changes, or the
+ * feed in it is replaced. */
+public class StopTileCache {
+
+	private static final double TILE_DEGREES = 0.01;	// about 1.1km at Cali
+	private static final double STOP_GRID_CELL = 250.0;	// m
+	private static final long ALL_STOPS = Long.MIN_VALUE;	// key of the tile holding a whole feed
+
+	private static final String mTileQuery = "select stop_id as _id, stop_lat, stop_lon, stop_name from stops " +
+			"where stop_lat >= ? and stop_lat < ? and stop_lon >= ? and stop_lon < ?";
+	private static final String mAllQuery = "select stop_id as _id, stop_lat, stop_lon, stop_name from stops";
+
+	class Tile {
+		public int row, col;
+		public String[] ids, names;
+		public double[] lats, lons;
+	}
+
+	// How many times each feed has been replaced since we started
+	private static final HashMap<String, Integer> sReplaced = new HashMap<String, Integer>();
+
+	private final int mMaxTiles;
+	private String mDBName;
+	private int mReplaced;
+	private final HashMap<Long, Tile> mTiles = new HashMap<Long, Tile>();
+
+	// The tiles covering the area around the user, and the stops in them
+	private long[] mCovered = new long[0];
+	private String[] mStopIds = new String[0], mStopNames = new String[0];
+	private double[] mStopLats = new double[0], mStopLons = new double[0];
+	private StopGridIndex mIndex = new StopGridIndex(mStopLats, mStopLons, 0, STOP_GRID_CELL);
+	private int mVersion = 0;
+
+	public StopTileCache(int maxTiles) {
+		mMaxTiles = Math.max(1, maxTiles);
+	}
+
+	/* The feed in aDBName has been replaced: the tiles anyone has of it are out of date. */
+	public static void invalidate(String aDBName) {
+		synchronized (sReplaced) {
+			sReplaced.put(aDBName, replaced(aDBName) + 1);
+		}
+	}
+
+	private static int replaced(String aDBName) {
+		synchronized (sReplaced) {
+			final Integer n = sReplaced.get(aDBName);
+			return (n == null) ? 0 : n;
+		}
+	}
+
+	/* Make sure the stops within radiusKm of (lat, lon) of the feed aDBName, open as aDB,
+	 * are loaded and indexed; a radius of 0 means every stop in the feed. Returns true if
+	 * the indexed stops changed, in which case stop numbers handed out before mean nothing
+	 * any more. */
+	public boolean update(String aDBName, SQLiteDatabase aDB, double lat, double lon, double radiusKm) {
+		final int replaced = replaced(aDBName);
+		if (!aDBName.equals(mDBName) || replaced != mReplaced) {
+			clear();
+			mDBName = aDBName;
+			mReplaced = replaced;
+		}
+
+		final long[] wanted;
+		if (radiusKm <= 0) {
+			wanted = new long[] { ALL_STOPS };
+		} else {
+			final double dLat = (180.0/Math.PI)*(radiusKm/6378.1370);
+			final double dLon = dLat/Math.cos(Math.PI/180.0*lat);
+			final int top = tileOf(lat + dLat), bottom = tileOf(lat - dLat);
+			final int left = tileOf(lon - dLon), right = tileOf(lon + dLon);
+			wanted = new long[(top - bottom + 1) * (right - left + 1)];
+			int n = 0;
+			for (int r = bottom; r <= top; r++) {
+				for (int c = left; c <= right; c++) {
+					wanted[n++] = key(r, c);
+				}
+			}
+		}
+		if (sameTiles(wanted)) {
+			return false;
+		}
+
+		for (long k : wanted) {
+			if (!mTiles.containsKey(k)) {
+				mTiles.put(k, loadTile(aDB, k));
+			}
+		}
+		evictFarTiles(tileOf(lat), tileOf(lon), wanted);
+
+		// Concatenate the covered tiles for the index
+		int total = 0;
+		for (long k : wanted) {
+			total += mTiles.get(k).ids.length;
+		}
+		mStopIds = new String[total];
+		mStopNames = new String[total];
+		mStopLats = new double[total];
+		mStopLons = new double[total];
+		int pos = 0;
+		for (long k : wanted) {
+			final Tile t = mTiles.get(k);
+			final int len = t.ids.length;
+			System.arraycopy(t.ids, 0, mStopIds, pos, len);
+			System.arraycopy(t.names, 0, mStopNames, pos, len);
+			System.arraycopy(t.lats, 0, mStopLats, pos, len);
+			System.arraycopy(t.lons, 0, mStopLons, pos, len);
+			pos += len;
+		}
+		mIndex = new StopGridIndex(mStopLats, mStopLons, total, STOP_GRID_CELL);
+		mCovered = wanted;
+		mVersion++;
+		return true;
+	}
+
+	public StopGridIndex getIndex() {
+		return mIndex;
+	}
+
+	/* Bumped every time the indexed stops change. */
+	public int getVersion() {
+		return mVersion;
+	}
+
+	public String getStopId(int stop) {
+		return mStopIds[stop];
+	}
+
+	public String getStopName(int stop) {
+		return mStopNames[stop];
+	}
+
+	private boolean sameTiles(long[] wanted) {
+		if (wanted.length != mCovered.length) {
+			return false;
+		}
+		for (int i = 0; i < wanted.length; i++) {
+			if (wanted[i] != mCovered[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private Tile loadTile(SQLiteDatabase aDB, long k) {
+		final Tile tile = new Tile();
+		final Cursor csr;
+		if (k == ALL_STOPS) {
+			csr = aDB.rawQuery(mAllQuery, new String[] { });
+		} else {
+			tile.row = (int) (k >> 32);
+			tile.col = (int) k;
+			final String[] selectargs = new String[] {
+					Double.toString(tile.row * TILE_DEGREES), Double.toString((tile.row + 1) * TILE_DEGREES),
+					Double.toString(tile.col * TILE_DEGREES), Double.toString((tile.col + 1) * TILE_DEGREES) };
+			csr = aDB.rawQuery(mTileQuery, selectargs);
+		}
+		final int maxcount = csr.getCount();
+		tile.ids = new String[maxcount];
+		tile.names = new String[maxcount];
+		tile.lats = new double[maxcount];
+		tile.lons = new double[maxcount];
+		boolean more = csr.moveToFirst();
+		int locidx = 0;
+		while (more) {
+			tile.ids[locidx] = csr.getString(0);
+			tile.lats[locidx] = csr.getDouble(1);
+			tile.lons[locidx] = csr.getDouble(2);
+			tile.names[locidx] = csr.getString(3);
+			more = csr.moveToNext();
+			++locidx;
+		}
+		csr.close();
+		return tile;
+	}
+
+	/* Drop the cached tiles furthest from (row, col) until we're back under mMaxTiles.
+	 * The tiles we're about to index are never dropped. */
+	private void evictFarTiles(int row, int col, long[] wanted) {
+		if (mTiles.size() <= mMaxTiles) {
+			return;
+		}
+		final ArrayList<Long> far = new ArrayList<Long>();
+		outer:
+		for (Long k : mTiles.keySet()) {
+			for (long w : wanted) {
+				if (w == k) {
+					continue outer;
+				}
+			}
+			far.add(k);
+		}
+		while (mTiles.size() > mMaxTiles && !far.isEmpty()) {
+			int worst = 0;
+			long worstDist = -1;
+			for (int i = 0; i < far.size(); i++) {
+				final Tile t = mTiles.get(far.get(i));
+				final long dr = t.row - row, dc = t.col - col;
+				final long d = (far.get(i) == ALL_STOPS) ? Long.MAX_VALUE : dr * dr + dc * dc;
+				if (d > worstDist) {
+					worstDist = d;
+					worst = i;
+				}
+			}
+			mTiles.remove(far.remove(worst));
+		}
+	}
+
+	/* Forget everything, e.g. if the feed has been replaced. */
+	public void clear() {
+		mTiles.clear();
+		mCovered = new long[0];
+		mStopIds = new String[0];
+		mStopNames = new String[0];
+		mStopLats = new double[0];
+		mStopLons = new double[0];
+		mIndex = new StopGridIndex(mStopLats, mStopLons, 0, STOP_GRID_CELL);
+		mVersion++;
+	}
+
+	private static int tileOf(double degrees) {
+		return (int) Math.floor(degrees / TILE_DEGREES);
+	}
+
+	private static long key(int row, int col) {
+		return ((long) row << 32) | (col & 0xffffffffL);
+	}
+}
@@ -0,0 +1,296 @@
+/*
+ * This file is part of GTFSOffline.
+ *
+ * GTFSOffline is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GTFSOffline is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GTFSOffline.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package modeloPrueba;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
+
+/* One service day of a feed, laid out in flat arrays for the journey planner.
+ *
+ * Trips that call at the same stops in the same order, on the same route, make up a
+ * pattern. Each pattern keeps its stop list once, and its trips' times as a block of
+ * trips x stops, trips in order of first departure. No trip overtakes another of its
+ * pattern (TimetableBuilder splits them up where one would), so the trips are in the
+ * same order at every stop and the one to board is found by binary search.
+ *
+ * Times are seconds after midnight of the service day, and can run past 24h. Stops,
+ * patterns and trips are numbered from 0; a trip's number is global, the trips of p being
+ * patternTrips[p] .. patternTrips[p+1]-1.
+ *
+ * Built by TimetableBuilder, and never changed after, so it can be shared between
+ * threads. The arrays are package visible so the routers can walk them directly.
+ * Realtime delays go in a RealtimeOverlay on top, swapped whole as new ones come. */
+public class Timetable {
+
+	// Stops
+	final int numStops;
+	final String[] stopIds, stopNames;
+	final double[] stopLat, stopLon;
+	// Patterns through each stop: stopPatterns[stopPatternStart[s] .. stopPatternStart[s+1]-1],
+	// with the stop's position in that pattern (a stop can appear twice in a loop).
+	final int[] stopPatternStart, stopPatterns, stopPatternPos;
+
+	// Patterns
+	final int numPatterns;
+	final int[] patternStopStart, patternStops;	// stop list of p: patternStops[patternStopStart[p] ..]
+	final int[] patternSequences;				// and their stop_sequences, -1 if not known
+	final int[] patternTrips;					// numPatterns+1 offsets into the trip numbers
+	final int[] patternTimes;					// start of p's block in arrivals/departures
+	final String[] patternRoute, patternHeadsign;
+
+	// Trips
+	final int numTrips;
+	final String[] tripIds;
+	final int[] tripPattern;
+	final boolean[] tripYesterday;		// the end of a trip of the day before, times moved back a day
+	final int[] arrivals, departures;	// often the same array, when a feed only has one time
+
+	// Walks between nearby stops
+	final TransferGraph transfers;
+
+	private final String mDate;
+	private final HashMap<String, Integer> mStopIndex;
+	private final AtomicReference<RealtimeOverlay> mRealtime = new AtomicReference<RealtimeOverlay>();
+
+	Timetable(String date, String[] stopIds, String[] stopNames, double[] stopLat, double[] stopLon,
+			int[] patternStopStart, int[] patternStops, int[] patternSequences, int[] patternTrips, int[] patternTimes,
+			String[] patternRoute, String[] patternHeadsign,
+			String[] tripIds, boolean[] tripYesterday, int[] arrivals, int[] departures, TransferGraph transfers) {
+		mDate = date;
+		this.numStops = stopIds.length;
+		this.stopIds = stopIds;
+		this.stopNames = stopNames;
+		this.stopLat = stopLat;
+		this.stopLon = stopLon;
+		this.numPatterns = patternRoute.length;
+		this.patternStopStart = patternStopStart;
+		this.patternStops = patternStops;
+		this.patternSequences = patternSequences;
+		this.patternTrips = patternTrips;
+		this.patternTimes = patternTimes;
+		this.patternRoute = patternRoute;
+		this.patternHeadsign = patternHeadsign;
+		this.numTrips = tripIds.length;
+		this.tripIds = tripIds;
+		this.tripYesterday = tripYesterday;
+		this.arrivals = arrivals;
+		this.departures = departures;
+		this.transfers = transfers;
+
+		tripPattern = new int[numTrips];
+		for (int p = 0; p < numPatterns; p++) {
+			for (int t = patternTrips[p]; t < patternTrips[p + 1]; t++) {
+				tripPattern[t] = p;
+			}
+		}
+
+		// Invert the pattern stop lists
+		stopPatternStart = new int[numStops + 1];
+		for (int i = 0; i < patternStops.length; i++) {
+			stopPatternStart[patternStops[i] + 1]++;
+		}
+		for (int s = 0; s < numStops; s++) {
+			stopPatternStart[s + 1] += stopPatternStart[s];
+		}
+		stopPatterns = new int[patternStops.length];
+		stopPatternPos = new int[patternStops.length];
+		final int[] fill = new int[numStops];
+		for (int p = 0; p < numPatterns; p++) {
+			for (int i = patternStopStart[p]; i < patternStopStart[p + 1]; i++) {
+				final int s = patternStops[i];
+				final int at = stopPatternStart[s] + fill[s]++;
+				stopPatterns[at] = p;
+				stopPatternPos[at] = i - patternStopStart[p];
+			}
+		}
+
+		mStopIndex = new HashMap<String, Integer>(numStops * 2);
+		for (int s = 0; s < numStops; s++) {
+			mStopIndex.put(stopIds[s], s);
+		}
+	}
+
+	/* The realtime delays on this timetable, or null. Take it once for a whole query. */
+	public RealtimeOverlay getRealtime() {
+		return mRealtime.get();
+	}
+
+	/* Put realtime delays on this timetable, or take them off with null. An overlay
+	 * older than the one there already is ignored, as two updates can cross. */
+	public void setRealtime(RealtimeOverlay overlay) {
+		if (overlay != null && overlay.getTimetable() != this) {
+			throw new IllegalArgumentException("Overlay for another timetable");
+		}
+		RealtimeOverlay current;
+		do {
+			current = mRealtime.get();
+			if (overlay != null && current != null && current.getGeneration() > overlay.getGeneration()) {
+				return;
+			}
+		} while (!mRealtime.compareAndSet(current, overlay));
+	}
+
+	/* The service day, yyyymmdd. */
+	public String getDate() {
+		return mDate;
+	}
+
+	public int getStopCount() {
+		return numStops;
+	}
+
+	public int getPatternCount() {
+		return numPatterns;
+	}
+
+	public int getTripCount() {
+		return numTrips;
+	}
+
+	/* Stop number of a stop_id, or -1. */
+	public int findStop(String stop_id) {
+		final Integer s = mStopIndex.get(stop_id);
+		return (s == null) ? -1 : s;
+	}
+
+	/* First stop whose name contains text, ignoring case, or -1. */
+	public int findStopByName(String text) {
+		final String t = text.trim().toLowerCase(Locale.getDefault());
+		if (t.length() == 0) {
+			return -1;
+		}
+		for (int s = 0; s < numStops; s++) {
+			if (stopNames[s] != null && stopNames[s].toLowerCase(Locale.getDefault()).contains(t)) {
+				return s;
+			}
+		}
+		return -1;
+	}
+
+	public String getStopId(int stop) {
+		return stopIds[stop];
+	}
+
+	public String getStopName(int stop) {
+		return stopNames[stop];
+	}
+
+	public double getStopLat(int stop) {
+		return stopLat[stop];
+	}
+
+	public double getStopLon(int stop) {
+		return stopLon[stop];
+	}
+
+	public TransferGraph getTransfers() {
+		return transfers;
+	}
+
+	public int getPatternLength(int pattern) {
+		return patternStopStart[pattern + 1] - patternStopStart[pattern];
+	}
+
+	public String getTripId(int trip) {
+		return tripIds[trip];
+	}
+
+	public String getTripRoute(int trip) {
+		return patternRoute[tripPattern[trip]];
+	}
+
+	public String getTripHeadsign(int trip) {
+		return patternHeadsign[tripPattern[trip]];
+	}
+
+	/* True if the trip started the day before, and its times are those after midnight
+	 * moved back a day. */
+	public boolean isFromYesterday(int trip) {
+		return tripYesterday[trip];
+	}
+
+	/* The stop_sequence of a trip at the pos'th stop of its pattern, -1 if not known. */
+	public int getStopSequence(int trip, int pos) {
+		return patternSequences[patternStopStart[tripPattern[trip]] + pos];
+	}
+
+	/* Arrival and departure of a trip at the pos'th stop of its pattern. */
+	public int getArrival(int trip, int pos) {
+		return arrivals[timeIndex(trip, pos)];
+	}
+
+	public int getDeparture(int trip, int pos) {
+		return departures[timeIndex(trip, pos)];
+	}
+
+	/* The first trip of pattern p to leave its pos'th stop at or after time, or -1. */
+	public int earliestTrip(int p, int pos, int time) {
+		final int len = patternStopStart[p + 1] - patternStopStart[p];
+		final int base = patternTimes[p] + pos;
+		int lo = 0, hi = patternTrips[p + 1] - patternTrips[p];
+		while (lo < hi) {
+			final int mid = (lo + hi) >>> 1;
+			if (departures[base + mid * len] < time) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return (lo < patternTrips[p + 1] - patternTrips[p]) ? patternTrips[p] + lo : -1;
+	}
+
+	/* The first max calls at a stop between from (0 or later) and to, inclusive, in
+	 * order: the trip into trips[] and the time into times[]. Returns how many. */
+	public int nextDepartures(int stop, int from, int to, int max, int[] trips, int[] times) {
+		long[] calls = new long[16];
+		int count = 0;
+		for (int j = stopPatternStart[stop]; j < stopPatternStart[stop + 1]; j++) {
+			final int p = stopPatterns[j], pos = stopPatternPos[j];
+			final int first = earliestTrip(p, pos, from);
+			if (first < 0) {
+				continue;
+			}
+			final int len = getPatternLength(p);
+			for (int t = first, n = 0; t < patternTrips[p + 1] && n < max; t++, n++) {
+				final int d = departures[patternTimes[p] + (t - patternTrips[p]) * len + pos];
+				if (d > to) {
+					break;
+				}
+				if (count == calls.length) {
+					calls = Arrays.copyOf(calls, count * 2);
+				}
+				// time then trip, both non-negative here
+				calls[count++] = ((long) d << 32) | t;
+			}
+		}
+		Arrays.sort(calls, 0, count);
+		count = Math.min(count, max);
+		for (int i = 0; i < count; i++) {
+			times[i] = (int) (calls[i] >>> 32);
+			trips[i] = (int) calls[i];
+		}
+		return count;
+	}
+
+	final int timeIndex(int trip, int pos) {
+		final int p = tripPattern[trip];
+		return patternTimes[p] + (trip - patternTrips[p]) * getPatternLength(p) + pos;
+	}
+}
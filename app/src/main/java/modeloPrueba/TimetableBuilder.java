@@ -0,0 +1,272 @@
+/*
+ * This file is part of GTFSOffline.
+ *
+ * GTFSOffline is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GTFSOffline is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GTFSOffline.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package modeloPrueba;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/* Collects the stops and trips of a service day and groups the trips into patterns
+ * for a Timetable. Trips can be added in any order.
+ *
+ * Trips with the same stops are split into more than one pattern where one overtakes
+ * another, so that within a pattern the trips are in the same order at every stop. */
+public class TimetableBuilder {
+
+	private final String mDate;
+
+	private final ArrayList<String> mStopIds = new ArrayList<String>(), mStopNames = new ArrayList<String>();
+	private double[] mStopLat = new double[256], mStopLon = new double[256];
+	private final HashMap<String, Integer> mStopIndex = new HashMap<String, Integer>();
+
+	private static class Trip {
+		String id;
+		int[] arrivals, departures;
+		boolean yesterday;
+	}
+
+	private static class Pattern {
+		String route, headsign;
+		int[] stops;
+		int[] sequences;	// stop_sequence of each stop, or null if not known
+		final ArrayList<Trip> trips = new ArrayList<Trip>();
+	}
+
+	// route, headsign and stop list -> pattern, in the order first seen
+	private final HashMap<String, Pattern> mPatternIndex = new HashMap<String, Pattern>();
+	private final ArrayList<Pattern> mPatterns = new ArrayList<Pattern>();
+	private int mTripCount = 0, mTimeCount = 0;
+	private boolean mSameTimes = true;	// every trip's arrivals are its departures
+
+	// Walks between stops: the radius to look for them in, and the feed's own transfers
+	private double mFootpathRadius = 0, mWalkSpeed = 1.25;
+	private int[] mTransferFrom = new int[0], mTransferTo = new int[0], mTransferSeconds = new int[0];
+	private int mTransferCount = 0;
+
+	public TimetableBuilder(String date) {
+		mDate = date;
+	}
+
+	/* Add a stop, returning its number. Adding the same stop_id again just returns it. */
+	public int addStop(String stop_id, String name, double lat, double lon) {
+		final Integer known = mStopIndex.get(stop_id);
+		if (known != null) {
+			return known;
+		}
+		final int s = mStopIds.size();
+		if (s == mStopLat.length) {
+			mStopLat = Arrays.copyOf(mStopLat, s * 2);
+			mStopLon = Arrays.copyOf(mStopLon, s * 2);
+		}
+		mStopIds.add(stop_id);
+		mStopNames.add(name);
+		mStopLat[s] = lat;
+		mStopLon[s] = lon;
+		mStopIndex.put(stop_id, s);
+		return s;
+	}
+
+	/* Stop number of a stop_id added before, or -1. */
+	public int findStop(String stop_id) {
+		final Integer s = mStopIndex.get(stop_id);
+		return (s == null) ? -1 : s;
+	}
+
+	/* Join stops within radius metres of each other by walks at speed m/s. Off (0) by default. */
+	public void setFootpaths(double radius, double speed) {
+		mFootpathRadius = radius;
+		mWalkSpeed = speed;
+	}
+
+	/* Add a row of transfers.txt between two stops added before; rows for other stops
+	 * are ignored. */
+	public void addTransfer(String from_stop_id, String to_stop_id, int type, int minTime) {
+		final int a = findStop(from_stop_id), b = findStop(to_stop_id);
+		if (a < 0 || b < 0) {
+			return;
+		}
+		if (mTransferCount == mTransferFrom.length) {
+			final int size = mTransferCount * 2 + 16;
+			mTransferFrom = Arrays.copyOf(mTransferFrom, size);
+			mTransferTo = Arrays.copyOf(mTransferTo, size);
+			mTransferSeconds = Arrays.copyOf(mTransferSeconds, size);
+		}
+		mTransferFrom[mTransferCount] = a;
+		mTransferTo[mTransferCount] = b;
+		mTransferSeconds[mTransferCount] = TransferGraph.transferSeconds(type, minTime);
+		mTransferCount++;
+	}
+
+	/* Add a trip calling at stops (stop numbers) at the given times, seconds after
+	 * midnight of the service day. Trips of fewer than two stops are of no use for
+	 * getting anywhere and are left out. */
+	public void addTrip(String trip_id, String route, String headsign, int[] stops, int[] arrivals, int[] departures) {
+		addTrip(trip_id, route, headsign, stops, null, arrivals, departures, false);
+	}
+
+	/* As above, with the stop_sequence of each stop (or null), and whether this is the end
+	 * of a trip of the day before that runs past midnight, its times moved back a day. */
+	public void addTrip(String trip_id, String route, String headsign, int[] stops, int[] sequences,
+			int[] arrivals, int[] departures, boolean yesterday) {
+		if (stops.length < 2) {
+			return;
+		}
+		final StringBuilder key = new StringBuilder();
+		key.append(route).append('\n').append(headsign).append('\n');
+		for (int s : stops) {
+			key.append(s).append(',');
+		}
+		if (sequences != null) {
+			key.append('\n');
+			for (int s : sequences) {
+				key.append(s).append(',');
+			}
+		}
+		Pattern p = mPatternIndex.get(key.toString());
+		if (p == null) {
+			p = new Pattern();
+			p.route = route;
+			p.headsign = headsign;
+			p.stops = stops.clone();
+			p.sequences = (sequences == null) ? null : sequences.clone();
+			mPatternIndex.put(key.toString(), p);
+			mPatterns.add(p);
+		}
+		final Trip t = new Trip();
+		t.id = trip_id;
+		t.arrivals = arrivals.clone();
+		t.departures = departures.clone();
+		t.yesterday = yesterday;
+		p.trips.add(t);
+		mSameTimes &= Arrays.equals(arrivals, departures);
+		mTripCount++;
+		mTimeCount += stops.length;
+	}
+
+	public Timetable build() {
+		final ArrayList<Pattern> patterns = splitOvertaking();
+		final int numStops = mStopIds.size();
+		final int numPatterns = patterns.size();
+		final int[] patternStopStart = new int[numPatterns + 1];
+		final int[] patternTrips = new int[numPatterns + 1];
+		final int[] patternTimes = new int[numPatterns];
+		final String[] patternRoute = new String[numPatterns], patternHeadsign = new String[numPatterns];
+		int stopCount = 0;
+		for (Pattern p : patterns) {
+			stopCount += p.stops.length;
+		}
+		final int[] patternStops = new int[stopCount], patternSequences = new int[stopCount];
+		final String[] tripIds = new String[mTripCount];
+		final boolean[] tripYesterday = new boolean[mTripCount];
+		// The feeds we load only give departure_time, so usually one array does for both
+		final int[] arrivals = new int[mTimeCount], departures = mSameTimes ? arrivals : new int[mTimeCount];
+
+		int stopPos = 0, trip = 0, time = 0;
+		for (int p = 0; p < numPatterns; p++) {
+			final Pattern pat = patterns.get(p);
+			patternStopStart[p] = stopPos;
+			System.arraycopy(pat.stops, 0, patternStops, stopPos, pat.stops.length);
+			if (pat.sequences != null) {
+				System.arraycopy(pat.sequences, 0, patternSequences, stopPos, pat.stops.length);
+			} else {
+				Arrays.fill(patternSequences, stopPos, stopPos + pat.stops.length, -1);
+			}
+			stopPos += pat.stops.length;
+			patternRoute[p] = pat.route;
+			patternHeadsign[p] = pat.headsign;
+
+			patternTrips[p] = trip;
+			patternTimes[p] = time;
+			for (Trip t : pat.trips) {
+				tripYesterday[trip] = t.yesterday;
+				tripIds[trip++] = t.id;
+				System.arraycopy(t.arrivals, 0, arrivals, time, pat.stops.length);
+				if (!mSameTimes) {
+					System.arraycopy(t.departures, 0, departures, time, pat.stops.length);
+				}
+				time += pat.stops.length;
+			}
+		}
+		patternStopStart[numPatterns] = stopPos;
+		patternTrips[numPatterns] = trip;
+
+		final double[] stopLat = Arrays.copyOf(mStopLat, numStops), stopLon = Arrays.copyOf(mStopLon, numStops);
+		final TransferGraph transfers;
+		if (mFootpathRadius > 0 || mTransferCount > 0) {
+			transfers = TransferGraph.build(new StopGridIndex(stopLat, stopLon, numStops, Math.max(mFootpathRadius, 100)),
+					mFootpathRadius, mWalkSpeed, Arrays.copyOf(mTransferFrom, mTransferCount),
+					Arrays.copyOf(mTransferTo, mTransferCount), Arrays.copyOf(mTransferSeconds, mTransferCount));
+		} else {
+			transfers = TransferGraph.empty(numStops);
+		}
+
+		return new Timetable(mDate, mStopIds.toArray(new String[numStops]), mStopNames.toArray(new String[numStops]),
+				stopLat, stopLon, patternStopStart, patternStops, patternSequences, patternTrips, patternTimes,
+				patternRoute, patternHeadsign, tripIds, tripYesterday, arrivals, departures, transfers);
+	}
+
+	/* The patterns with their trips in order of first departure, each split into as
+	 * few patterns as it takes for no trip to arrive or leave anywhere before the one
+	 * ahead of it. */
+	private ArrayList<Pattern> splitOvertaking() {
+		final Comparator<Trip> byFirstDeparture = new Comparator<Trip>() {
+			@Override
+			public int compare(Trip a, Trip b) {
+				return a.departures[0] - b.departures[0];
+			}
+		};
+		final ArrayList<Pattern> split = new ArrayList<Pattern>(mPatterns.size());
+		final ArrayList<Pattern> lanes = new ArrayList<Pattern>();
+		for (Pattern pat : mPatterns) {
+			Collections.sort(pat.trips, byFirstDeparture);
+			lanes.clear();
+			for (Trip t : pat.trips) {
+				Pattern lane = null;
+				for (Pattern l : lanes) {
+					if (!overtakes(t, l.trips.get(l.trips.size() - 1))) {
+						lane = l;
+						break;
+					}
+				}
+				if (lane == null) {
+					lane = new Pattern();
+					lane.route = pat.route;
+					lane.headsign = pat.headsign;
+					lane.stops = pat.stops;
+					lane.sequences = pat.sequences;
+					lanes.add(lane);
+				}
+				lane.trips.add(t);
+			}
+			split.addAll(lanes);
+		}
+		return split;
+	}
+
+	/* True if trip a, which leaves the first stop no earlier than b, gets ahead of it. */
+	private static boolean overtakes(Trip a, Trip b) {
+		for (int i = 0; i < a.departures.length; i++) {
+			if (a.departures[i] < b.departures[i] || a.arrivals[i] < b.arrivals[i]) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
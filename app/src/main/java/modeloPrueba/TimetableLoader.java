@@ -0,0 +1,588 @@
+/*
+ * This file is part of GTFSOffline.
+ *
+ * GTFSOffline is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GTFSOffline is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GTFSOffline.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package modeloPrueba;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+/* Reads the trips running on one day from a feed database into a Timetable.
+ *
+ * The day's timetable includes the trips of the day before that are still running
+ * after midnight, with their times moved back a day. The last timetable loaded for
+ * each feed is kept, as loading a whole feed takes a while. */
+public class TimetableLoader {
+	private static final String TAG = "TimetableLoader";
+
+	private static final int DAY = 24 * 60 * 60;	// s
+	// Stops this close are joined by walks, so a change between a feeder stop and the
+	// trunk station across the road is found.
+	public static final double FOOTPATH_RADIUS = 250;	// m
+	private static final String[] mWeekDays = { "sunday", "monday", "tuesday", "wednesday", "thursday", "friday", "saturday" };
+
+	private static final String mStopsQuery = "select stop_id, stop_name, stop_lat, stop_lon from stops";
+	private static final String mCalendarQuery = "select * from calendar";
+	private static final String mCalendarDatesQuery = "select service_id, exception_type from calendar_dates where date = ?";
+	private static final String mTripsQuery = "select trips.trip_id, service_id, route_short_name, route_long_name, " +
+			"trip_headsign from trips join routes on routes.route_id = trips.route_id";
+	// The feeds only carry departure times, which we use for arrivals as well.
+	private static final String mStopTimesQuery = "select trip_id, stop_id, departure_time, stop_sequence from stop_times " +
+			"order by trip_id, stop_sequence";
+
+	private static final String mHasTransfersQuery = "select name from sqlite_master where type = 'table' " +
+			"and name = 'transfers'";
+	private static final String mTransfersQuery = "select from_stop_id, to_stop_id, transfer_type, " +
+			"min_transfer_time from transfers";
+
+	private static final String mHasShapesQuery = "select name from sqlite_master where type = 'table' " +
+			"and name = 'shapes'";
+	private static final String mTripShapesQuery = "select trip_id, shape_id from trips";
+	private static final String mShapesQuery = "select shape_id, shape_pt_lat, shape_pt_lon from shapes " +
+			"order by shape_id, shape_pt_sequence";
+
+	private static final String mHasFaresQuery = "select name from sqlite_master where type = 'table' " +
+			"and name in ('fare_attributes', 'fare_rules')";
+	// Columns looked up by name: transfer_duration and zone_id are often left out
+	private static final String mFareAttributesQuery = "select * from fare_attributes";
+	private static final String mFareRulesQuery = "select * from fare_rules";
+	private static final String mTripRoutesQuery = "select trip_id, route_id from trips";
+	private static final String mStopZonesQuery = "select * from stops";
+	private static final String[] mFareAttributeColumns = { "fare_id", "price", "currency_type", "payment_method",
+			"transfers", "transfer_duration" };
+	private static final String[] mFareRuleColumns = { "fare_id", "route_id", "origin_id", "destination_id",
+			"contains_id" };
+
+	private static final HashMap<String, Timetable> sCache = new HashMap<String, Timetable>();
+	private static final HashMap<String, RouteShapes> sShapes = new HashMap<String, RouteShapes>();
+	private static final HashMap<String, FareTable> sFares = new HashMap<String, FareTable>();
+	private static final HashMap<String, FareTable.Pricer> sPricers = new HashMap<String, FareTable.Pricer>();
+	// What a feed we couldn't read fares from has
+	private static final FareTable NO_FARES = new FareTable(new ArrayList<String[]>(), new ArrayList<String[]>());
+
+	private TimetableLoader() {
+	}
+
+	/* The timetable of a feed for a day (yyyymmdd), loaded if it isn't the one we have. */
+	public static Timetable get(DatabaseHelper aHelper, String aDBName, String date) {
+		synchronized (sCache) {
+			final Timetable tt = sCache.get(aDBName);
+			if (tt != null && tt.getDate().equals(date)) {
+				return tt;
+			}
+		}
+		final SQLiteDatabase db = aHelper.ReadableDB(aDBName, null);
+		if (db == null) {
+			return null;
+		}
+		final Timetable tt;
+		try {
+			tt = load(db, date);
+		} finally {
+			aHelper.CloseDB(db);
+		}
+		synchronized (sCache) {
+			sCache.put(aDBName, tt);
+		}
+		// with any realtime delays we have for it
+		RealtimeOverlay.update(aDBName);
+		return tt;
+	}
+
+	/* The timetable of a feed for a day if it's already loaded, or null. Never loads it. */
+	public static Timetable peek(String aDBName, String date) {
+		synchronized (sCache) {
+			final Timetable tt = sCache.get(aDBName);
+			return (tt != null && tt.getDate().equals(date)) ? tt : null;
+		}
+	}
+
+	/* Forget what we have of a feed, e.g. because a new version was installed. */
+	public static void invalidate(String aDBName) {
+		synchronized (sCache) {
+			sCache.remove(aDBName);
+			sShapes.remove(aDBName);
+			sFares.remove(aDBName);
+			sPricers.remove(aDBName);
+		}
+	}
+
+	/* The lines the patterns of a feed's timetable tt run along, read if they aren't
+	 * the ones we have. */
+	public static RouteShapes shapes(DatabaseHelper aHelper, String aDBName, Timetable tt) {
+		synchronized (sCache) {
+			final RouteShapes shapes = sShapes.get(aDBName);
+			if (shapes != null && shapes.getTimetable() == tt) {
+				return shapes;
+			}
+		}
+		final SQLiteDatabase db = aHelper.ReadableDB(aDBName, null);
+		if (db == null) {
+			return null;
+		}
+		final RouteShapes shapes;
+		try {
+			shapes = loadShapes(db, tt);
+		} finally {
+			aHelper.CloseDB(db);
+		}
+		synchronized (sCache) {
+			sShapes.put(aDBName, shapes);
+		}
+		return shapes;
+	}
+
+	/* The fares of a feed, read the first time; none if it has no fare tables, or its
+	 * database can't be opened, which is remembered too until invalidate(). */
+	public static FareTable fares(DatabaseHelper aHelper, String aDBName) {
+		synchronized (sCache) {
+			final FareTable fares = sFares.get(aDBName);
+			if (fares != null) {
+				return fares;
+			}
+		}
+		final SQLiteDatabase db = aHelper.ReadableDB(aDBName, null);
+		FareTable fares = NO_FARES;
+		if (db != null) {
+			try {
+				fares = loadFares(db);
+			} finally {
+				aHelper.CloseDB(db);
+			}
+		}
+		synchronized (sCache) {
+			sFares.put(aDBName, fares);
+		}
+		return fares;
+	}
+
+	/* The fares of a feed tied to its timetable tt, read if they aren't the ones we have. */
+	public static FareTable.Pricer pricer(DatabaseHelper aHelper, String aDBName, Timetable tt) {
+		synchronized (sCache) {
+			final FareTable.Pricer pricer = sPricers.get(aDBName);
+			if (pricer != null && pricer.getTimetable() == tt) {
+				return pricer;
+			}
+		}
+		// Without fares there's nothing to read: every journey's price is unknown
+		final FareTable fares = fares(aHelper, aDBName);
+		final FareTable.Pricer pricer;
+		if (fares.getFareCount() == 0) {
+			pricer = fares.pricer(tt, new HashMap<String, String>(), new HashMap<String, String>());
+		} else {
+			final SQLiteDatabase db = aHelper.ReadableDB(aDBName, null);
+			if (db == null) {
+				return null;
+			}
+			try {
+				pricer = loadPricer(db, fares, tt);
+			} finally {
+				aHelper.CloseDB(db);
+			}
+		}
+		synchronized (sCache) {
+			sPricers.put(aDBName, pricer);
+		}
+		return pricer;
+	}
+
+	public static FareTable loadFares(final SQLiteDatabase aDB) {
+		final FareTable fares = loadFares(new Rows() {
+			@Override
+			public void read(String query, String[] columns, ArrayList<String[]> rows) {
+				readColumns(aDB, query, columns, rows);
+			}
+		});
+		Log.v(TAG, "Loaded " + fares.getFareCount() + " fares");
+		return fares;
+	}
+
+	/* The fares in fare_attributes, with the rules in fare_rules if the feed has them:
+	 * without rules a fare is good for any ride. */
+	static FareTable loadFares(Rows aRows) {
+		final ArrayList<String[]> attributes = new ArrayList<String[]>();
+		final ArrayList<String[]> rules = new ArrayList<String[]>();
+		final ArrayList<String[]> tables = new ArrayList<String[]>();
+		aRows.read(mHasFaresQuery, new String[] { "name" }, tables);
+		boolean hasAttributes = false, hasRules = false;
+		for (String[] t : tables) {
+			hasAttributes |= "fare_attributes".equals(t[0]);
+			hasRules |= "fare_rules".equals(t[0]);
+		}
+		if (hasAttributes) {
+			aRows.read(mFareAttributesQuery, mFareAttributeColumns, attributes);
+			if (hasRules) {
+				aRows.read(mFareRulesQuery, mFareRuleColumns, rules);
+			}
+		}
+		return new FareTable(attributes, rules);
+	}
+
+	public static FareTable.Pricer loadPricer(SQLiteDatabase aDB, FareTable fares, Timetable tt) {
+		final HashMap<String, String> tripRoutes = new HashMap<String, String>();
+		final HashMap<String, String> stopZones = new HashMap<String, String>();
+		if (fares.getFareCount() > 0) {
+			final ArrayList<String[]> rows = new ArrayList<String[]>();
+			readColumns(aDB, mTripRoutesQuery, new String[] { "trip_id", "route_id" }, rows);
+			for (String[] r : rows) {
+				tripRoutes.put(r[0], r[1]);
+			}
+			rows.clear();
+			readColumns(aDB, mStopZonesQuery, new String[] { "stop_id", "zone_id" }, rows);
+			for (String[] r : rows) {
+				if (r[1] != null) {
+					stopZones.put(r[0], r[1]);
+				}
+			}
+		}
+		return fares.pricer(tt, tripRoutes, stopZones);
+	}
+
+	/* Where the loading reads the named columns of each row of a query from, null where
+	 * a column isn't there: the database, or rows made up in a test. */
+	interface Rows {
+		void read(String query, String[] columns, ArrayList<String[]> rows);
+	}
+
+	/* The named columns of each row of a query, null where a column isn't there. */
+	private static void readColumns(SQLiteDatabase aDB, String query, String[] columns, ArrayList<String[]> rows) {
+		final Cursor csr = aDB.rawQuery(query, new String[] { });
+		final int[] index = new int[columns.length];
+		for (int c = 0; c < columns.length; c++) {
+			index[c] = csr.getColumnIndex(columns[c]);
+		}
+		boolean more = csr.moveToFirst();
+		while (more) {
+			final String[] row = new String[columns.length];
+			for (int c = 0; c < columns.length; c++) {
+				row[c] = (index[c] < 0 || csr.isNull(index[c])) ? null : csr.getString(index[c]);
+			}
+			rows.add(row);
+			more = csr.moveToNext();
+		}
+		csr.close();
+	}
+
+	/* The shapes of the first trip of each pattern of tt, where the feed has a shapes
+	 * table; the other patterns go straight from stop to stop. */
+	public static RouteShapes loadShapes(SQLiteDatabase aDB, Timetable tt) {
+		final long start = System.currentTimeMillis();
+		final HashMap<String, String> tripShapes = new HashMap<String, String>();
+		final HashMap<String, double[]> shapes = new HashMap<String, double[]>();
+		Cursor csr = aDB.rawQuery(mHasShapesQuery, new String[] { });
+		final boolean present = csr.moveToFirst();
+		csr.close();
+		if (present) {
+			final HashSet<String> first = new HashSet<String>();
+			for (int p = 0; p < tt.getPatternCount(); p++) {
+				first.add(tt.getTripId(tt.patternTrips[p]));
+			}
+			final HashSet<String> wanted = new HashSet<String>();
+			csr = aDB.rawQuery(mTripShapesQuery, new String[] { });
+			boolean more = csr.moveToFirst();
+			while (more) {
+				final String shape = csr.getString(1);
+				if (shape != null && !shape.equals("") && first.contains(csr.getString(0))) {
+					tripShapes.put(csr.getString(0), shape);
+					wanted.add(shape);
+				}
+				more = csr.moveToNext();
+			}
+			csr.close();
+
+			double[] points = new double[256];
+			int count = 0;
+			String current = null;
+			csr = aDB.rawQuery(mShapesQuery, new String[] { });
+			more = csr.moveToFirst();
+			while (true) {
+				final String shape = more ? csr.getString(0) : null;
+				if (current != null && !current.equals(shape)) {
+					shapes.put(current, Arrays.copyOf(points, count));
+					current = null;
+				}
+				if (!more) {
+					break;
+				}
+				if (wanted.contains(shape)) {
+					if (current == null) {
+						current = shape;
+						count = 0;
+					}
+					if (count == points.length) {
+						points = Arrays.copyOf(points, count * 2);
+					}
+					points[count++] = csr.getDouble(1);
+					points[count++] = csr.getDouble(2);
+				}
+				more = csr.moveToNext();
+			}
+			csr.close();
+		}
+		final RouteShapes routes = RouteShapes.build(tt, tripShapes, shapes);
+		Log.v(TAG, "Loaded " + routes.getShapeCount() + " shapes for " + tt.getPatternCount() + " patterns in "
+				+ (System.currentTimeMillis() - start) + "ms");
+		return routes;
+	}
+
+	/* Work out the transfer patterns of a feed over the week from date and write them to
+	 * file. Days running the same services as one already done are skipped. Takes a
+	 * while: call it from a background thread, once for each feed installed. */
+	public static void writeTransferPatterns(DatabaseHelper aHelper, String aDBName, String date, File file)
+			throws IOException {
+		final SQLiteDatabase db = aHelper.ReadableDB(aDBName, null);
+		if (db == null) {
+			throw new IOException("Can't open " + aDBName);
+		}
+		final long start = System.currentTimeMillis();
+		final TransferPatterns.Builder patterns;
+		try {
+			final ArrayList<HashSet<String>> seen = new ArrayList<HashSet<String>>();
+			TransferPatterns.Builder builder = null;
+			for (int d = 0; d < 7; d++) {
+				final String day = addDays(date, d);
+				final HashSet<String> services = activeServices(db, day);
+				if (services.isEmpty() || seen.contains(services)) {
+					continue;
+				}
+				seen.add(services);
+				final Timetable tt = load(db, day);
+				if (builder == null) {
+					final int[] hubs = TransferPatterns.busiestStops(tt, TransferPatterns.DEFAULT_HUBS);
+					final String[] ids = new String[hubs.length];
+					for (int h = 0; h < hubs.length; h++) {
+						ids[h] = tt.getStopId(hubs[h]);
+					}
+					builder = new TransferPatterns.Builder(ids, JourneyRouter.MAX_TRANSFERS);
+				}
+				builder.addDay(tt);
+			}
+			patterns = builder;
+		} finally {
+			aHelper.CloseDB(db);
+		}
+		if (patterns == null) {
+			file.delete();
+			return;
+		}
+		patterns.write(file);
+		Log.v(TAG, "Wrote " + patterns.getNodeCount() + " transfer pattern nodes in "
+				+ (System.currentTimeMillis() - start) + "ms");
+	}
+
+	public static Timetable load(SQLiteDatabase aDB, String date) {
+		final long start = System.currentTimeMillis();
+		final TimetableBuilder builder = new TimetableBuilder(date);
+
+		Cursor csr = aDB.rawQuery(mStopsQuery, new String[] { });
+		boolean more = csr.moveToFirst();
+		while (more) {
+			builder.addStop(csr.getString(0), csr.getString(1), csr.getDouble(2), csr.getDouble(3));
+			more = csr.moveToNext();
+		}
+		csr.close();
+
+		final HashSet<String> today = activeServices(aDB, date);
+		final HashSet<String> yesterday = activeServices(aDB, addDays(date, -1));
+
+		// trip_id -> {route, headsign}, and which days it runs on
+		final HashMap<String, String[]> tripNames = new HashMap<String, String[]>();
+		final HashSet<String> runsToday = new HashSet<String>(), ranYesterday = new HashSet<String>();
+		csr = aDB.rawQuery(mTripsQuery, new String[] { });
+		more = csr.moveToFirst();
+		while (more) {
+			final String trip_id = csr.getString(0);
+			final String service_id = csr.getString(1);
+			final boolean t = today.contains(service_id), y = yesterday.contains(service_id);
+			if (t || y) {
+				String route = csr.getString(2);
+				if (route == null || route.equals("")) {
+					route = csr.getString(3);
+				}
+				final String headsign = csr.getString(4);
+				tripNames.put(trip_id, new String[] { route, (headsign == null) ? "" : headsign });
+				if (t) {
+					runsToday.add(trip_id);
+				}
+				if (y) {
+					ranYesterday.add(trip_id);
+				}
+			}
+			more = csr.moveToNext();
+		}
+		csr.close();
+
+		// Walk the stop times a trip at a time
+		int[] stops = new int[64], sequences = new int[64], times = new int[64];
+		int count = 0;
+		String current = null;
+		csr = aDB.rawQuery(mStopTimesQuery, new String[] { });
+		more = csr.moveToFirst();
+		while (true) {
+			final String trip_id = more ? csr.getString(0) : null;
+			if (current != null && !current.equals(trip_id)) {
+				addTrip(builder, current, tripNames.get(current), runsToday.contains(current),
+						ranYesterday.contains(current), stops, sequences, times, count);
+				count = 0;
+			}
+			if (!more) {
+				break;
+			}
+			current = trip_id;
+			if (tripNames.containsKey(trip_id)) {
+				final int stop = builder.findStop(csr.getString(1));
+				final String time = csr.getString(2);
+				if (stop >= 0 && time != null && !time.equals("")) {
+					if (count == stops.length) {
+						stops = Arrays.copyOf(stops, count * 2);
+						sequences = Arrays.copyOf(sequences, count * 2);
+						times = Arrays.copyOf(times, count * 2);
+					}
+					stops[count] = stop;
+					sequences[count] = csr.getInt(3);
+					times[count] = DepartureBoard.parseSeconds(time);
+					count++;
+				}
+			}
+			more = csr.moveToNext();
+		}
+		csr.close();
+
+		builder.setFootpaths(FOOTPATH_RADIUS, JourneyPlanner.WALK_SPEED);
+		for (String[] t : readTransfers(aDB)) {
+			builder.addTransfer(t[0], t[1], parseInt(t[2], 0), parseInt(t[3], -1));
+		}
+
+		final Timetable tt = builder.build();
+		Log.v(TAG, "Loaded " + tt.getTripCount() + " trips in " + tt.getPatternCount() + " patterns and "
+				+ tt.getTransfers().getWalkCount() + " walks for " + date
+				+ " in " + (System.currentTimeMillis() - start) + "ms");
+		return tt;
+	}
+
+	private static void addTrip(TimetableBuilder builder, String trip_id, String[] names, boolean today,
+			boolean yesterday, int[] stops, int[] sequences, int[] times, int count) {
+		if (names == null || count < 2) {
+			return;
+		}
+		final int[] s = Arrays.copyOf(stops, count), q = Arrays.copyOf(sequences, count);
+		if (today) {
+			final int[] t = Arrays.copyOf(times, count);
+			builder.addTrip(trip_id, names[0], names[1], s, q, t, t, false);
+		}
+		// Only the end of yesterday's trips that run past midnight is any use
+		if (yesterday && times[count - 1] >= DAY) {
+			final int[] t = new int[count];
+			for (int i = 0; i < count; i++) {
+				t[i] = times[i] - DAY;
+			}
+			builder.addTrip(trip_id, names[0], names[1], s, q, t, t, true);
+		}
+	}
+
+	/* The rows of the feed's transfers table, {from_stop_id, to_stop_id, transfer_type,
+	 * min_transfer_time}; none if the feed was imported without one. */
+	static ArrayList<String[]> readTransfers(SQLiteDatabase aDB) {
+		final ArrayList<String[]> transfers = new ArrayList<String[]>();
+		Cursor csr = aDB.rawQuery(mHasTransfersQuery, new String[] { });
+		final boolean present = csr.moveToFirst();
+		csr.close();
+		if (!present) {
+			return transfers;
+		}
+		csr = aDB.rawQuery(mTransfersQuery, new String[] { });
+		boolean more = csr.moveToFirst();
+		while (more) {
+			transfers.add(new String[] { csr.getString(0), csr.getString(1), csr.getString(2), csr.getString(3) });
+			more = csr.moveToNext();
+		}
+		csr.close();
+		return transfers;
+	}
+
+	/* An integer column that may be empty. */
+	static int parseInt(String s, int dflt) {
+		if (s == null || s.equals("")) {
+			return dflt;
+		}
+		try {
+			return Integer.parseInt(s.trim());
+		} catch (NumberFormatException e) {
+			return dflt;
+		}
+	}
+
+	/* The service_ids running on a day, from calendar and calendar_dates. */
+	static HashSet<String> activeServices(SQLiteDatabase aDB, String date) {
+		final HashSet<String> services = new HashSet<String>();
+		final String weekday = mWeekDays[dayOfWeek(date)];
+		Cursor csr = aDB.rawQuery(mCalendarQuery, new String[] { });
+		boolean more = csr.moveToFirst();
+		while (more) {
+			final String start = csr.getString(csr.getColumnIndex("start_date"));
+			final String end = csr.getString(csr.getColumnIndex("end_date"));
+			if (date.compareTo(start) >= 0 && date.compareTo(end) <= 0
+					&& csr.getInt(csr.getColumnIndex(weekday)) == 1) {
+				services.add(csr.getString(csr.getColumnIndex("service_id")));
+			}
+			more = csr.moveToNext();
+		}
+		csr.close();
+
+		csr = aDB.rawQuery(mCalendarDatesQuery, new String[] { date });
+		more = csr.moveToFirst();
+		while (more) {
+			if (csr.getInt(1) == 1) {
+				services.add(csr.getString(0));
+			} else if (csr.getInt(1) == 2) {
+				services.remove(csr.getString(0));
+			}
+			more = csr.moveToNext();
+		}
+		csr.close();
+		return services;
+	}
+
+	/* yyyymmdd of the day days after date. */
+	static String addDays(String date, int days) {
+		final Calendar cal = calendarOf(date);
+		cal.add(Calendar.DAY_OF_MONTH, days);
+		return String.format("%04d%02d%02d", cal.get(Calendar.YEAR),
+				cal.get(Calendar.MONTH) + 1, cal.get(Calendar.DAY_OF_MONTH));
+	}
+
+	/* 0 for Sunday to 6 for Saturday. */
+	static int dayOfWeek(String date) {
+		return calendarOf(date).get(Calendar.DAY_OF_WEEK) - Calendar.SUNDAY;
+	}
+
+	private static Calendar calendarOf(String date) {
+		final Calendar cal = Calendar.getInstance();
+		cal.clear();
+		cal.set(Integer.parseInt(date.substring(0, 4)), Integer.parseInt(date.substring(4, 6)) - 1,
+				Integer.parseInt(date.substring(6, 8)));
+		return cal;
+	}
+}
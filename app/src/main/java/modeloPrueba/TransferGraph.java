@@ -0,0 +1,203 @@
+/*
+ * This file is part of GTFSOffline.
+ *
+ * GTFSOffline is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GTFSOffline is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GTFSOffline.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package modeloPrueba;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/* Walks between stops close enough to change on foot, such as a feeder stop and the
+ * trunk station across the road, as an adjacency list in three flat arrays: the walks
+ * from stop s are targets[start[s] .. start[s+1]-1], taking seconds[] each.
+ *
+ * The walks are found by looking for every stop within a radius of each stop, through
+ * the grid index, and timed at walking pace along the straight line. The feed's own
+ * transfers (GTFS transfers.txt) are then laid over them: a minimum transfer time
+ * replaces the walking time, a pair the feed says can't be changed between is dropped,
+ * and pairs further apart than the radius are added. */
+public class TransferGraph {
+
+	// Seconds for an explicit transfer that aren't a time
+	public static final int WALK = -1;			// use the walking time
+	public static final int FORBIDDEN = -2;		// no transfer between the two
+
+	final int numStops;
+	final int[] start;		// numStops+1 offsets
+	final int[] targets;
+	final int[] seconds;
+
+	private TransferGraph(int numStops, int[] start, int[] targets, int[] seconds) {
+		this.numStops = numStops;
+		this.start = start;
+		this.targets = targets;
+		this.seconds = seconds;
+	}
+
+	/* A graph with no walks at all. */
+	public static TransferGraph empty(int numStops) {
+		return new TransferGraph(numStops, new int[numStops + 1], new int[0], new int[0]);
+	}
+
+	/* Walks between the stops of index within radius metres at speed m/s, with the
+	 * explicit transfers fromStops[i] -> toStops[i] taking transferSeconds[i], or WALK
+	 * or FORBIDDEN. A stop's transfers to itself are left out. */
+	public static TransferGraph build(StopGridIndex index, double radius, double speed,
+			int[] fromStops, int[] toStops, int[] transferSeconds) {
+		final int n = index.size();
+		final int[] count = new int[n + 1];
+		int[] from = new int[n * 4], to = new int[n * 4], secs = new int[n * 4];
+		int edges = 0;
+
+		// The feed's own transfers by pair; the last one given for a pair wins
+		final HashMap<Long, Integer> rules = new HashMap<Long, Integer>();
+		final int explicit = (fromStops == null) ? 0 : fromStops.length;
+		for (int i = 0; i < explicit; i++) {
+			if (fromStops[i] >= 0 && toStops[i] >= 0 && fromStops[i] != toStops[i]) {
+				rules.put(pair(fromStops[i], toStops[i]), transferSeconds[i]);
+			}
+		}
+
+		if (radius > 0) {
+			int[] near = new int[64];
+			float[] dist = new float[64];
+			for (int s = 0; s < n; s++) {
+				int found = index.withinRadius(index.getLatitude(s), index.getLongitude(s), radius, near, dist);
+				if (found > near.length) {
+					near = new int[found * 2];
+					dist = new float[found * 2];
+					found = index.withinRadius(index.getLatitude(s), index.getLongitude(s), radius, near, dist);
+				}
+				if (edges + found > from.length) {
+					final int size = Math.max(edges + found, from.length * 2);
+					from = Arrays.copyOf(from, size);
+					to = Arrays.copyOf(to, size);
+					secs = Arrays.copyOf(secs, size);
+				}
+				for (int j = 0; j < found; j++) {
+					if (near[j] == s) {
+						continue;
+					}
+					int t = WALK;
+					if (!rules.isEmpty()) {
+						final Integer rule = rules.remove(pair(s, near[j]));
+						t = (rule == null) ? WALK : rule;
+					}
+					if (t != FORBIDDEN) {
+						from[edges] = s;
+						to[edges] = near[j];
+						secs[edges] = (t == WALK) ? walkSeconds(dist[j], speed) : t;
+						edges++;
+					}
+				}
+			}
+		}
+
+		// Explicit transfers between stops further apart than the radius
+		for (Map.Entry<Long, Integer> rule : rules.entrySet()) {
+			final int t = rule.getValue();
+			if (t == FORBIDDEN) {
+				continue;
+			}
+			final int a = (int) (rule.getKey() >>> 32), b = (int) (rule.getKey() & 0xffffffffL);
+			if (edges == from.length) {
+				from = Arrays.copyOf(from, edges * 2 + 1);
+				to = Arrays.copyOf(to, edges * 2 + 1);
+				secs = Arrays.copyOf(secs, edges * 2 + 1);
+			}
+			from[edges] = a;
+			to[edges] = b;
+			secs[edges] = (t == WALK) ? walkSeconds(StopGridIndex.distance(index.getLatitude(a),
+					index.getLongitude(a), index.getLatitude(b), index.getLongitude(b)), speed) : t;
+			edges++;
+		}
+
+		// Counting sort into adjacency lists, each in order of walking time
+		for (int e = 0; e < edges; e++) {
+			count[from[e] + 1]++;
+		}
+		for (int s = 0; s < n; s++) {
+			count[s + 1] += count[s];
+		}
+		final int[] targets = new int[edges], seconds = new int[edges];
+		final int[] fill = Arrays.copyOf(count, n);
+		for (int e = 0; e < edges; e++) {
+			final int at = fill[from[e]]++;
+			targets[at] = to[e];
+			seconds[at] = secs[e];
+		}
+		for (int s = 0; s < n; s++) {
+			for (int i = count[s] + 1; i < count[s + 1]; i++) {
+				final int t = targets[i], d = seconds[i];
+				int j = i;
+				while (j > count[s] && seconds[j - 1] > d) {
+					targets[j] = targets[j - 1];
+					seconds[j] = seconds[j - 1];
+					j--;
+				}
+				targets[j] = t;
+				seconds[j] = d;
+			}
+		}
+		return new TransferGraph(n, count, targets, seconds);
+	}
+
+	/* Seconds for a transfer_type and min_transfer_time from transfers.txt. */
+	public static int transferSeconds(int type, int minTime) {
+		switch (type) {
+		case 2:
+			return (minTime >= 0) ? minTime : WALK;
+		case 3:
+			return FORBIDDEN;
+		default:
+			return WALK;
+		}
+	}
+
+	public int getStopCount() {
+		return numStops;
+	}
+
+	public int getWalkCount() {
+		return targets.length;
+	}
+
+	/* The walks from a stop: targets and seconds from getFirst(stop) to getEnd(stop)-1. */
+	public int getFirst(int stop) {
+		return start[stop];
+	}
+
+	public int getEnd(int stop) {
+		return start[stop + 1];
+	}
+
+	public int getTarget(int walk) {
+		return targets[walk];
+	}
+
+	public int getSeconds(int walk) {
+		return seconds[walk];
+	}
+
+	private static int walkSeconds(double metres, double speed) {
+		return (int) Math.ceil(metres / speed);
+	}
+
+	private static long pair(int a, int b) {
+		return ((long) a << 32) | b;
+	}
+}
@@ -0,0 +1,459 @@
+/*
+ * This file is part of GTFSOffline.
+ *
+ * GTFSOffline is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GTFSOffline is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GTFSOffline.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package modeloPrueba;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+
+/* Transfer patterns between the busiest stops of a feed (Bast et al., "Fast Routing in
+ * Very Large Public Transportation Networks using Transfer Patterns", 2010), so that a
+ * journey between two of them only takes a few direct connection lookups.
+ *
+ * A transfer pattern is the sequence of stops an optimal journey changes at: where it
+ * gets on and off each vehicle, and where it walks to. For each hub the patterns of
+ * its journeys to the other hubs make a tree from the hub, each node a stop and how it
+ * was got to from its parent, riding or walking. A query works its way down the tree
+ * from the hub, taking the first vehicle going straight from one stop of a pattern to
+ * the next (any pattern of the Timetable will do), and keeps the best journey for each
+ * number of transfers among the nodes that end a pattern at the destination.
+ *
+ * Built offline by Builder, from RAPTOR searches from every hub each SAMPLE_SECONDS
+ * through the day on each day the feed runs differently, and kept in a small file next
+ * to the feed. The journeys sampled don't make every optimal one, so a query can come
+ * out a little worse than RAPTOR would; it's for answering at once, not instead. */
+public class TransferPatterns {
+
+	public static final String SUFFIX = ".tp";	// added to the feed's file name
+	public static final int DEFAULT_HUBS = 40;
+
+	private static final int MAGIC = 0x54504154;	// "TPAT"
+	private static final int VERSION = 1;
+	private static final int SAMPLE_SECONDS = 10 * 60;
+	private static final int FIRST_SAMPLE = 4 * 3600, LAST_SAMPLE = 24 * 3600;
+	private static final int INFINITY = RaptorRouter.INFINITY;
+
+	private final Timetable mTT;
+	private final int[] mHubs;								// stop numbers
+	private final HashMap<Integer, Integer> mHubIndex;		// stop number -> hub
+	// Per hub: node -> stop number (-1 if the timetable hasn't got it), parent, walked
+	// from it; node 0 is the hub itself. ends[t] lists the nodes ending at hub t.
+	private final int[][] mNodeStop, mNodeParent;
+	private final boolean[][] mNodeWalk;
+	private final int[][][] mEnds;
+	private int mChangeSeconds = 60;
+	private RealtimeOverlay mRealtime;	// the delays the query under way sees, or null
+
+	// stop pair -> {pattern, from pos, to pos, ...} of the patterns going straight between them
+	private final HashMap<Long, int[]> mDirect = new HashMap<Long, int[]>();
+
+	// scratch for a query, per node
+	private int[] mArrival = new int[0], mRides = new int[0], mTrip = new int[0], mFromPos = new int[0],
+			mToPos = new int[0], mLeave = new int[0];
+
+	private TransferPatterns(Timetable tt, int[] hubs, int[][] nodeStop, int[][] nodeParent, boolean[][] nodeWalk,
+			int[][][] ends) {
+		mTT = tt;
+		mHubs = hubs;
+		mNodeStop = nodeStop;
+		mNodeParent = nodeParent;
+		mNodeWalk = nodeWalk;
+		mEnds = ends;
+		mHubIndex = new HashMap<Integer, Integer>(hubs.length * 2);
+		for (int h = 0; h < hubs.length; h++) {
+			if (hubs[h] >= 0) {
+				mHubIndex.put(hubs[h], h);
+			}
+		}
+	}
+
+	public Timetable getTimetable() {
+		return mTT;
+	}
+
+	/* Time allowed to change vehicles at a stop, as for the routers. */
+	public void setChangeSeconds(int seconds) {
+		mChangeSeconds = seconds;
+	}
+
+	public int getHubCount() {
+		return mHubs.length;
+	}
+
+	/* True if there are patterns from one stop to the other. */
+	public boolean covers(int fromStop, int toStop) {
+		final Integer a = mHubIndex.get(fromStop), b = mHubIndex.get(toStop);
+		return a != null && b != null && a.intValue() != b.intValue() && mEnds[a][b].length > 0;
+	}
+
+	/* Journeys from one hub to another leaving at departure, in the same form as
+	 * JourneyRouter.route() gives them: for each number of transfers up to
+	 * maxTransfers, one that arrives earlier than all those with fewer. Empty if the
+	 * stops aren't covered(). */
+	public ArrayList<Journey> route(int fromStop, int toStop, int departure, int maxTransfers) {
+		final ArrayList<Journey> journeys = new ArrayList<Journey>();
+		if (!covers(fromStop, toStop)) {
+			return journeys;
+		}
+		final int h = mHubIndex.get(fromStop), t = mHubIndex.get(toStop);
+		mRealtime = mTT.getRealtime();
+		final int[] stop = mNodeStop[h], parent = mNodeParent[h], ends = mEnds[h][t];
+		final boolean[] walk = mNodeWalk[h];
+		final int n = stop.length;
+		if (mArrival.length < n) {
+			mArrival = new int[n];
+			mRides = new int[n];
+			mTrip = new int[n];
+			mFromPos = new int[n];
+			mToPos = new int[n];
+			mLeave = new int[n];
+		}
+		// Only the nodes on the way to the ends need working out; parents come first
+		Arrays.fill(mArrival, 0, n, -1);
+		for (int e : ends) {
+			for (int x = e; x >= 0 && mArrival[x] == -1; x = parent[x]) {
+				mArrival[x] = INFINITY;
+			}
+		}
+		mArrival[0] = departure;
+		mRides[0] = 0;
+		for (int x = 1; x < n; x++) {
+			if (mArrival[x] == -1) {
+				continue;
+			}
+			final int p = parent[x];
+			mArrival[x] = INFINITY;
+			mRides[x] = mRides[p] + (walk[x] ? 0 : 1);
+			if (mArrival[p] >= INFINITY || stop[x] < 0 || stop[p] < 0 || mRides[x] > maxTransfers + 1) {
+				continue;
+			}
+			if (walk[x]) {
+				final int secs = walkSeconds(stop[p], stop[x]);
+				if (secs >= 0) {
+					mArrival[x] = mArrival[p] + secs;
+					mLeave[x] = mArrival[p];
+				}
+			} else {
+				connect(x, stop[p], stop[x], mArrival[p] + ((mRides[p] > 0) ? mChangeSeconds : 0));
+			}
+		}
+
+		// Fewest transfers first, each arriving before all those with fewer
+		final ArrayList<Integer> order = new ArrayList<Integer>();
+		for (int e : ends) {
+			if (mArrival[e] < INFINITY) {
+				order.add(e);
+			}
+		}
+		Collections.sort(order, new java.util.Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return (mRides[a] != mRides[b]) ? mRides[a] - mRides[b] : mArrival[a] - mArrival[b];
+			}
+		});
+		int best = INFINITY;
+		for (int e : order) {
+			if (mArrival[e] < best) {
+				best = mArrival[e];
+				journeys.add(journey(h, e));
+			}
+		}
+		return journeys;
+	}
+
+	/* The first vehicle from a straight to b leaving at or after time, into node x. */
+	private void connect(int x, int a, int b, int time) {
+		final Timetable tt = mTT;
+		final RealtimeOverlay rt = mRealtime;
+		final int[] direct = direct(a, b);
+		for (int i = 0; i < direct.length; i += 3) {
+			final int p = direct[i], from = direct[i + 1], to = direct[i + 2];
+			final int trip = (rt == null) ? tt.earliestTrip(p, from, time) : rt.earliestTrip(p, from, time);
+			if (trip >= 0) {
+				final int arrival = (rt == null) ? tt.getArrival(trip, to) : rt.arrival(trip, to);
+				if (arrival < mArrival[x]) {
+					mArrival[x] = arrival;
+					mTrip[x] = trip;
+					mFromPos[x] = from;
+					mToPos[x] = to;
+				}
+			}
+		}
+	}
+
+	/* {pattern, position of a, position of b, ...} for the patterns calling at a and then b. */
+	private int[] direct(int a, int b) {
+		final Long key = ((long) a << 32) | b;
+		int[] direct = mDirect.get(key);
+		if (direct != null) {
+			return direct;
+		}
+		final Timetable tt = mTT;
+		direct = new int[0];
+		for (int j = tt.stopPatternStart[a]; j < tt.stopPatternStart[a + 1]; j++) {
+			final int p = tt.stopPatterns[j], from = tt.stopPatternPos[j];
+			final int stops = tt.patternStopStart[p], len = tt.getPatternLength(p);
+			for (int pos = from + 1; pos < len; pos++) {
+				if (tt.patternStops[stops + pos] == b) {
+					direct = Arrays.copyOf(direct, direct.length + 3);
+					direct[direct.length - 3] = p;
+					direct[direct.length - 2] = from;
+					direct[direct.length - 1] = pos;
+					break;
+				}
+			}
+		}
+		mDirect.put(key, direct);
+		return direct;
+	}
+
+	private int walkSeconds(int a, int b) {
+		final TransferGraph g = mTT.transfers;
+		for (int e = g.start[a]; e < g.start[a + 1]; e++) {
+			if (g.targets[e] == b) {
+				return g.seconds[e];
+			}
+		}
+		return -1;
+	}
+
+	private Journey journey(int h, int end) {
+		final Timetable tt = mTT;
+		final int[] stop = mNodeStop[h], parent = mNodeParent[h];
+		final Journey j = new Journey();
+		for (int x = end; x > 0; x = parent[x]) {
+			if (mNodeWalk[h][x]) {
+				j.legs.add(Journey.Leg.walk(stop[parent[x]], stop[x], mLeave[x], mArrival[x]));
+			} else {
+				j.legs.add(Journey.Leg.ride(mTrip[x], stop[parent[x]], mFromPos[x], stop[x], mToPos[x],
+						(mRealtime == null) ? tt.getDeparture(mTrip[x], mFromPos[x])
+								: mRealtime.departure(mTrip[x], mFromPos[x]), mArrival[x]));
+			}
+		}
+		Collections.reverse(j.legs);
+		return j;
+	}
+
+	/* Read patterns written by Builder.write() for use on tt, which may be for another
+	 * day of the same feed. Stops tt hasn't got are left out of the patterns. */
+	public static TransferPatterns read(File file, Timetable tt) throws IOException {
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Not a transfer patterns file: " + file);
+			}
+			final int[] table = new int[in.readInt()];
+			for (int i = 0; i < table.length; i++) {
+				table[i] = tt.findStop(in.readUTF());
+			}
+			final int hubCount = in.readInt();
+			final int[] hubs = new int[hubCount];
+			final int[][] nodeStop = new int[hubCount][], nodeParent = new int[hubCount][];
+			final boolean[][] nodeWalk = new boolean[hubCount][];
+			final int[][][] ends = new int[hubCount][hubCount][];
+			for (int h = 0; h < hubCount; h++) {
+				hubs[h] = table[in.readInt()];
+				final int n = in.readInt();
+				nodeStop[h] = new int[n];
+				nodeParent[h] = new int[n];
+				nodeWalk[h] = new boolean[n];
+				nodeStop[h][0] = hubs[h];
+				nodeParent[h][0] = -1;
+				for (int x = 1; x < n; x++) {
+					nodeStop[h][x] = table[in.readInt()];
+					nodeParent[h][x] = in.readInt();
+					nodeWalk[h][x] = in.readBoolean();
+				}
+				for (int t = 0; t < hubCount; t++) {
+					ends[h][t] = new int[in.readInt()];
+					for (int i = 0; i < ends[h][t].length; i++) {
+						ends[h][t][i] = in.readInt();
+					}
+				}
+			}
+			return new TransferPatterns(tt, hubs, nodeStop, nodeParent, nodeWalk, ends);
+		} finally {
+			in.close();
+		}
+	}
+
+	/* The busiest stops of a timetable, by the number of trips calling at them. */
+	public static int[] busiestStops(Timetable tt, int count) {
+		final long[] calls = new long[tt.numStops];
+		for (int s = 0; s < tt.numStops; s++) {
+			long n = 0;
+			for (int j = tt.stopPatternStart[s]; j < tt.stopPatternStart[s + 1]; j++) {
+				final int p = tt.stopPatterns[j];
+				n += tt.patternTrips[p + 1] - tt.patternTrips[p];
+			}
+			// most calls first, then by stop number
+			calls[s] = (-n << 32) | s;
+		}
+		Arrays.sort(calls);
+		final int[] busiest = new int[Math.min(count, tt.numStops)];
+		for (int i = 0; i < busiest.length; i++) {
+			busiest[i] = (int) calls[i];
+		}
+		return busiest;
+	}
+
+	/* Collects the patterns of sampled journeys between hubs, over one or more days of
+	 * a feed, and writes them out. */
+	public static class Builder {
+		private final String[] mHubIds;
+		private final int mMaxTransfers;
+		// Per hub: the tree so far, by (parent, stop, walked) -> node
+		private final ArrayList<HashMap<String, Integer>> mChildren = new ArrayList<HashMap<String, Integer>>();
+		private final ArrayList<ArrayList<String>> mNodeStop = new ArrayList<ArrayList<String>>();
+		private final ArrayList<ArrayList<int[]>> mNodeLink = new ArrayList<ArrayList<int[]>>();	// {parent, walked}
+		private final ArrayList<ArrayList<ArrayList<Integer>>> mEnds = new ArrayList<ArrayList<ArrayList<Integer>>>();
+
+		public Builder(String[] hubIds, int maxTransfers) {
+			mHubIds = hubIds;
+			mMaxTransfers = maxTransfers;
+			for (int h = 0; h < hubIds.length; h++) {
+				mChildren.add(new HashMap<String, Integer>());
+				final ArrayList<String> stops = new ArrayList<String>();
+				stops.add(hubIds[h]);
+				mNodeStop.add(stops);
+				final ArrayList<int[]> links = new ArrayList<int[]>();
+				links.add(new int[] { -1, 0 });
+				mNodeLink.add(links);
+				final ArrayList<ArrayList<Integer>> ends = new ArrayList<ArrayList<Integer>>();
+				for (int t = 0; t < hubIds.length; t++) {
+					ends.add(new ArrayList<Integer>());
+				}
+				mEnds.add(ends);
+			}
+		}
+
+		/* Sample the journeys between hubs on one day's timetable. */
+		public void addDay(Timetable tt) {
+			final RaptorRouter router = new RaptorRouter(tt);
+			final int[] hubs = new int[mHubIds.length];
+			for (int h = 0; h < hubs.length; h++) {
+				hubs[h] = tt.findStop(mHubIds[h]);
+			}
+			final int[] arrivals = new int[tt.numStops];
+			for (int h = 0; h < hubs.length; h++) {
+				if (hubs[h] < 0) {
+					continue;
+				}
+				for (int dep = FIRST_SAMPLE; dep < LAST_SAMPLE; dep += SAMPLE_SECONDS) {
+					router.reachAll(new int[] { hubs[h] }, new int[] { 0 }, dep, mMaxTransfers, arrivals);
+					for (int t = 0; t < hubs.length; t++) {
+						if (t != h && hubs[t] >= 0 && arrivals[hubs[t]] < INFINITY) {
+							for (Journey j : router.journeysTo(hubs[t], dep, mMaxTransfers)) {
+								add(tt, h, t, j);
+							}
+						}
+					}
+				}
+			}
+		}
+
+		private void add(Timetable tt, int h, int t, Journey j) {
+			final HashMap<String, Integer> children = mChildren.get(h);
+			int node = 0;
+			for (Journey.Leg l : j.legs) {
+				final String key = node + "\n" + l.toStop + (l.walk ? "w" : "r");
+				Integer child = children.get(key);
+				if (child == null) {
+					child = mNodeStop.get(h).size();
+					mNodeStop.get(h).add(tt.getStopId(l.toStop));
+					mNodeLink.get(h).add(new int[] { node, l.walk ? 1 : 0 });
+					children.put(key, child);
+				}
+				node = child;
+			}
+			final ArrayList<Integer> ends = mEnds.get(h).get(t);
+			if (!ends.contains(node)) {
+				ends.add(node);
+			}
+		}
+
+		public int getNodeCount() {
+			int n = 0;
+			for (ArrayList<String> stops : mNodeStop) {
+				n += stops.size();
+			}
+			return n;
+		}
+
+		/* Write the patterns to file, by way of a temporary file so a reader never sees
+		 * half of one. */
+		public void write(File file) throws IOException {
+			// Every stop id once, the nodes by their place in the table
+			final HashMap<String, Integer> table = new HashMap<String, Integer>();
+			final ArrayList<String> ids = new ArrayList<String>();
+			for (ArrayList<String> stops : mNodeStop) {
+				for (String id : stops) {
+					if (!table.containsKey(id)) {
+						table.put(id, ids.size());
+						ids.add(id);
+					}
+				}
+			}
+			final File tmp = new File(file.getPath() + ".new");
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(ids.size());
+				for (String id : ids) {
+					out.writeUTF(id);
+				}
+				out.writeInt(mHubIds.length);
+				for (int h = 0; h < mHubIds.length; h++) {
+					final ArrayList<String> stops = mNodeStop.get(h);
+					final ArrayList<int[]> links = mNodeLink.get(h);
+					out.writeInt(table.get(mHubIds[h]));
+					out.writeInt(stops.size());
+					for (int x = 1; x < stops.size(); x++) {
+						out.writeInt(table.get(stops.get(x)));
+						out.writeInt(links.get(x)[0]);
+						out.writeBoolean(links.get(x)[1] != 0);
+					}
+					for (ArrayList<Integer> ends : mEnds.get(h)) {
+						out.writeInt(ends.size());
+						for (int e : ends) {
+							out.writeInt(e);
+						}
+					}
+				}
+			} finally {
+				out.close();
+			}
+			if (!tmp.renameTo(file)) {
+				file.delete();
+				if (!tmp.renameTo(file)) {
+					throw new IOException("Couldn't write " + file);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,582 @@
+/*
+ * This file is part of GTFSOffline.
+ *
+ * GTFSOffline is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GTFSOffline is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GTFSOffline.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package modeloPrueba;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+
+/* The delays of a GTFS-realtime TripUpdates feed, by trip_id and start_date, to be
+ * applied to the static times as they are read, without changing the database, and
+ * where the vehicles of a VehiclePositions feed last said they were, by trip_id. An
+ * update without a start_date holds for any day's run of its trip that has none of
+ * its own, as we can't tell which one it means.
+ *
+ * A trip's updates hold for their own stop and, unless they say otherwise, for the
+ * stops after it up to the next update, as the GTFS-realtime spec has it. They're
+ * matched to stops by stop_sequence where both sides have one, else by stop_id, in
+ * order, so a loop that calls at a stop twice gets the right update each time. Before the
+ * first update there is no prediction, unless the feed gives a delay for the whole
+ * trip. Times in a feed are since the epoch; the scheduled ones here are seconds after
+ * the midnight of their service day, so lookups need that midnight, also in seconds
+ * since the epoch.
+ *
+ * Each feed's latest table is kept here, published by RealtimePoller, and dropped
+ * once it's older than MAX_AGE: by then the schedule is as good a guess. */
+public class TripDelays {
+	public static final int NONE = Integer.MIN_VALUE;	// no prediction
+	public static final int SKIPPED = NONE + 1;			// the stop won't be served
+	public static final long MAX_AGE = 10 * 60 * 1000;	// ms
+
+	// FeedHeader.Incrementality, TripDescriptor.ScheduleRelationship and
+	// StopTimeUpdate.ScheduleRelationship
+	private static final int DIFFERENTIAL = 1;
+	private static final int TRIP_CANCELED = 3;
+	private static final int STOP_SKIPPED = 1, STOP_NO_DATA = 2;
+
+	private static final HashMap<String, TripDelays> sCurrent = new HashMap<String, TripDelays>();
+
+	/* One trip's updates, in the order of its stops. */
+	static final class Trip {
+		String id;
+		long start = 0;					// midnight of start_date, s since the epoch; 0 if not given
+		boolean canceled = false;
+		int delay = NONE;				// for the whole trip, if the feed gives one
+		int count = 0;
+		int[] sequence = new int[4];	// stop_sequence, -1 if not given
+		String[] stops = new String[4];	// stop_id, null if not given
+		int[] arrivalDelay = new int[4], departureDelay = new int[4];	// NONE if not given
+		long[] arrivalTime = new long[4], departureTime = new long[4];	// 0 if not given
+		byte[] relationship = new byte[4];
+
+		Trip(String anId) {
+			id = anId;
+		}
+
+		private int add() {
+			if (count == sequence.length) {
+				final int n = count * 2;
+				sequence = Arrays.copyOf(sequence, n);
+				stops = Arrays.copyOf(stops, n);
+				arrivalDelay = Arrays.copyOf(arrivalDelay, n);
+				departureDelay = Arrays.copyOf(departureDelay, n);
+				arrivalTime = Arrays.copyOf(arrivalTime, n);
+				departureTime = Arrays.copyOf(departureTime, n);
+				relationship = Arrays.copyOf(relationship, n);
+			}
+			sequence[count] = -1;
+			stops[count] = null;
+			arrivalDelay[count] = departureDelay[count] = NONE;
+			arrivalTime[count] = departureTime[count] = 0;
+			relationship[count] = 0;
+			return count++;
+		}
+
+		/* The first update from from on for a stop: by stop_sequence if both have one,
+		 * otherwise by stop_id. */
+		int find(int stopSequence, String stopId, int from) {
+			for (int u = from; u < count; u++) {
+				if ((stopSequence >= 0 && sequence[u] >= 0) ? sequence[u] == stopSequence
+						: stopId != null && stopId.equals(stops[u])) {
+					return u;
+				}
+			}
+			return -1;
+		}
+
+		/* The delay update u gives at a stop it's scheduled to leave at scheduled, NONE if
+		 * it can't tell. Departure first, then arrival. */
+		int delay(int u, int scheduled, long midnight) {
+			if (departureDelay[u] != NONE) {
+				return departureDelay[u];
+			}
+			if (departureTime[u] != 0) {
+				return (int) (departureTime[u] - midnight - scheduled);
+			}
+			if (arrivalDelay[u] != NONE) {
+				return arrivalDelay[u];
+			}
+			if (arrivalTime[u] != 0) {
+				return (int) (arrivalTime[u] - midnight - scheduled);
+			}
+			return NONE;
+		}
+	}
+
+	/* Where a trip's vehicle was at timestamp, from its VehiclePosition. */
+	static final class Vehicle {
+		String tripId;
+		String label;
+		double lat, lon;
+		float bearing = Float.NaN;	// NaN if not given
+		long timestamp = 0;			// s since the epoch; the header's if not given
+		boolean located = false;
+	}
+
+	private static final int DAY = 24 * 60 * 60;	// s
+
+	private final HashMap<String, Trip> mTrips;	// by key()
+	private final HashMap<String, Vehicle> mVehicles;
+	private final long mTimestamp;	// s since the epoch, from the feed header
+	private final long mReceived;	// ms
+	private final boolean mDated;	// some trip has a start_date
+
+	private TripDelays(HashMap<String, Trip> trips, HashMap<String, Vehicle> vehicles, long timestamp, long received) {
+		mTrips = trips;
+		mVehicles = vehicles;
+		mTimestamp = timestamp;
+		mReceived = received;
+		boolean dated = false;
+		for (Trip t : trips.values()) {
+			dated |= t.start != 0;
+		}
+		mDated = dated;
+	}
+
+	/* The key of the updates to the run of tripId starting on the day whose midnight is
+	 * start, or 0 if not given. */
+	private static String key(String tripId, long start) {
+		return (start == 0) ? tripId : tripId + '@' + start;
+	}
+
+	/* The updates to the run of tripId on the service day starting at midnight, or null. */
+	private Trip trip(String tripId, long midnight) {
+		final Trip dated = mDated ? mTrips.get(key(tripId, midnight)) : null;
+		return (dated != null) ? dated : mTrips.get(tripId);
+	}
+
+	/* The midnight of the service day of a timetable trip, given that of the timetable's. */
+	private static long serviceDay(Timetable tt, int trip, long midnight) {
+		if (!tt.isFromYesterday(trip)) {
+			return midnight;
+		}
+		final Calendar cal = Calendar.getInstance();
+		cal.setTimeInMillis((midnight - DAY / 2) * 1000);
+		return startOf(cal.get(Calendar.YEAR), cal.get(Calendar.MONTH), cal.get(Calendar.DAY_OF_MONTH));
+	}
+
+	/* The start of a day, in seconds since the epoch; month from 0 as in Calendar. */
+	private static long startOf(int year, int month, int day) {
+		final Calendar cal = Calendar.getInstance();
+		cal.clear();
+		cal.set(year, month, day);
+		return cal.getTimeInMillis() / 1000;
+	}
+
+	/* The latest delays of a feed, or null if there are none recent enough. */
+	public static TripDelays get(String aDBName) {
+		synchronized (sCurrent) {
+			final TripDelays d = sCurrent.get(aDBName);
+			if (d != null && System.currentTimeMillis() - d.mReceived > MAX_AGE) {
+				sCurrent.remove(aDBName);
+				return null;
+			}
+			return d;
+		}
+	}
+
+	public static void publish(String aDBName, TripDelays delays) {
+		synchronized (sCurrent) {
+			sCurrent.put(aDBName, delays);
+		}
+	}
+
+	/* Forget a feed's delays, e.g. because a new version was installed. */
+	public static void invalidate(String aDBName) {
+		synchronized (sCurrent) {
+			sCurrent.remove(aDBName);
+		}
+	}
+
+	public long getTimestamp() {
+		return mTimestamp;
+	}
+
+	public long getReceived() {
+		return mReceived;
+	}
+
+	public int size() {
+		return mTrips.size();
+	}
+
+	/* How many trips have a vehicle position. */
+	public int getVehicleCount() {
+		return mVehicles.size();
+	}
+
+	/* The last position of a trip's vehicle, or null. */
+	Vehicle vehicle(String tripId) {
+		return mVehicles.get(tripId);
+	}
+
+	/* The trips and vehicles of feeds fetched separately, e.g. TripUpdates and
+	 * VehiclePositions from two addresses. Where both have a trip the later one wins. */
+	public static TripDelays merge(TripDelays[] parts) {
+		final HashMap<String, Trip> trips = new HashMap<String, Trip>();
+		final HashMap<String, Vehicle> vehicles = new HashMap<String, Vehicle>();
+		long timestamp = 0, received = 0;
+		for (TripDelays d : parts) {
+			trips.putAll(d.mTrips);
+			vehicles.putAll(d.mVehicles);
+			timestamp = Math.max(timestamp, d.mTimestamp);
+			received = Math.max(received, d.mReceived);
+		}
+		return new TripDelays(trips, vehicles, timestamp, received);
+	}
+
+	/* True if the feed cancels a trip, on the days it gives no start_date for. */
+	public boolean isCanceled(String tripId) {
+		final Trip t = mTrips.get(tripId);
+		return t != null && t.canceled;
+	}
+
+	/* Delay leaving a stop of a trip, or NONE or SKIPPED, when all we know about the stop
+	 * is its stop_sequence (or -1) and stop_id. An update for an earlier stop only counts
+	 * if the updates have stop_sequences to put them in order and it's given as a delay,
+	 * as we don't know when the trip was due there. midnight is that of the trip's
+	 * service day. */
+	public int departureDelay(String tripId, int stopSequence, String stopId, int scheduled, long midnight) {
+		final Trip t = trip(tripId, midnight);
+		if (t == null) {
+			return NONE;
+		}
+		if (t.canceled) {
+			return SKIPPED;
+		}
+		final int exact = t.find(stopSequence, stopId, 0);
+		if (exact >= 0) {
+			return atStop(t, exact, scheduled, midnight);
+		}
+		int before = -1;
+		if (stopSequence >= 0) {
+			for (int u = 0; u < t.count; u++) {
+				if (t.sequence[u] >= 0 && t.sequence[u] < stopSequence && t.relationship[u] != STOP_SKIPPED
+						&& (before < 0 || t.sequence[u] > t.sequence[before])) {
+					before = u;
+				}
+			}
+		}
+		if (before < 0) {
+			return t.delay;
+		}
+		if (t.relationship[before] == STOP_NO_DATA) {
+			return NONE;
+		}
+		return (t.departureDelay[before] != NONE) ? t.departureDelay[before] : t.arrivalDelay[before];
+	}
+
+	/* Delay leaving position pos of a timetable trip, or NONE or SKIPPED. midnight is that
+	 * of the timetable's day. */
+	public int departureDelay(Timetable tt, int trip, int pos, long midnight) {
+		if (!has(tt, trip, midnight)) {
+			return NONE;
+		}
+		final int[] delays = new int[tt.getPatternLength(tt.tripPattern[trip])];
+		fillDelays(tt, trip, midnight, delays);
+		return delays[pos];
+	}
+
+	/* True if the feed has something on a timetable trip, on the timetable's day starting
+	 * at midnight. */
+	boolean has(Timetable tt, int trip, long midnight) {
+		return trip(tt.getTripId(trip), serviceDay(tt, trip, midnight)) != null;
+	}
+
+	/* The delay leaving each position of a timetable trip (NONE or SKIPPED) into delays,
+	 * in one pass down the trip; midnight is that of the timetable's day. Its stops are
+	 * matched to the updates in order, which also gives the scheduled times of updates
+	 * given as times. */
+	void fillDelays(Timetable tt, int trip, long midnight, int[] delays) {
+		final Trip t = trip(tt.getTripId(trip), serviceDay(tt, trip, midnight));
+		final int stops = tt.patternStopStart[tt.tripPattern[trip]];
+		int current = (t == null) ? NONE : t.delay;
+		int next = 0;	// updates before this are for stops already passed
+		for (int pos = 0; pos < delays.length; pos++) {
+			if (t == null || t.canceled) {
+				delays[pos] = (t == null) ? NONE : SKIPPED;
+				continue;
+			}
+			final int u = t.find(tt.getStopSequence(trip, pos), tt.getStopId(tt.patternStops[stops + pos]), next);
+			if (u >= 0) {
+				next = u + 1;
+			}
+			if (u < 0) {
+				delays[pos] = current;
+			} else if (t.relationship[u] == STOP_SKIPPED) {
+				// and the delay carries on from before it
+				delays[pos] = SKIPPED;
+			} else {
+				current = atStop(t, u, tt.getDeparture(trip, pos), midnight);
+				delays[pos] = current;
+			}
+		}
+	}
+
+	private static int atStop(Trip t, int u, int scheduled, long midnight) {
+		switch (t.relationship[u]) {
+		case STOP_SKIPPED:
+			return SKIPPED;
+		case STOP_NO_DATA:
+			return NONE;
+		default:
+			return t.delay(u, scheduled, midnight);
+		}
+	}
+
+	/* Read a FeedMessage of TripUpdates and VehiclePositions entity by entity as it
+	 * comes in. A DIFFERENTIAL feed updates previous (which isn't changed); a
+	 * FULL_DATASET one replaces it. Other entities, such as alerts, are skipped. */
+	public static TripDelays decode(InputStream in, TripDelays previous) throws IOException {
+		return decode(in, previous, false);
+	}
+
+	/* As decode(in, previous), but with skipUnchanged, if the header has the timestamp of
+	 * previous, previous itself is returned as soon as the header's been read: the
+	 * feed hasn't moved on, and the rest of it needn't be looked at. */
+	public static TripDelays decode(InputStream in, TripDelays previous, boolean skipUnchanged) throws IOException {
+		final ProtoReader r = new ProtoReader(in);
+		final HashMap<String, Trip> trips = new HashMap<String, Trip>();
+		final HashMap<String, Vehicle> vehicles = new HashMap<String, Vehicle>();
+		long timestamp = 0;
+		int tag;
+		while ((tag = r.next()) != -1) {
+			switch (ProtoReader.field(tag)) {
+			case 1:		// header
+				r.push();
+				while ((tag = r.next()) != -1) {
+					switch (ProtoReader.field(tag)) {
+					case 2:		// incrementality
+						if (r.readInt() == DIFFERENTIAL && previous != null) {
+							trips.putAll(previous.mTrips);
+							vehicles.putAll(previous.mVehicles);
+						}
+						break;
+					case 3:		// timestamp
+						timestamp = r.readVarint();
+						break;
+					default:
+						r.skip();
+					}
+				}
+				r.pop();
+				if (skipUnchanged && previous != null && timestamp != 0 && timestamp == previous.mTimestamp) {
+					return previous;
+				}
+				break;
+			case 2:		// entity
+				r.push();
+				readEntity(r, trips, vehicles);
+				r.pop();
+				break;
+			default:
+				r.skip();
+			}
+		}
+		for (Vehicle v : vehicles.values()) {
+			if (v.timestamp == 0) {
+				v.timestamp = timestamp;
+			}
+		}
+		return new TripDelays(trips, vehicles, timestamp, System.currentTimeMillis());
+	}
+
+	private static void readEntity(ProtoReader r, HashMap<String, Trip> trips, HashMap<String, Vehicle> vehicles)
+			throws IOException {
+		boolean deleted = false;
+		Trip trip = null;
+		Vehicle vehicle = null;
+		int tag;
+		while ((tag = r.next()) != -1) {
+			switch (ProtoReader.field(tag)) {
+			case 2:		// is_deleted
+				deleted = r.readBool();
+				break;
+			case 3:		// trip_update
+				r.push();
+				trip = readTripUpdate(r);
+				r.pop();
+				break;
+			case 4:		// vehicle
+				r.push();
+				vehicle = readVehicle(r);
+				r.pop();
+				break;
+			default:
+				r.skip();
+			}
+		}
+		if (trip != null && trip.id != null) {
+			if (deleted) {
+				trips.remove(key(trip.id, trip.start));
+			} else {
+				trips.put(key(trip.id, trip.start), trip);
+			}
+		}
+		if (vehicle != null && vehicle.tripId != null) {
+			if (deleted || !vehicle.located) {
+				vehicles.remove(vehicle.tripId);
+			} else {
+				vehicles.put(vehicle.tripId, vehicle);
+			}
+		}
+	}
+
+	private static Vehicle readVehicle(ProtoReader r) throws IOException {
+		final Vehicle v = new Vehicle();
+		int tag;
+		while ((tag = r.next()) != -1) {
+			switch (ProtoReader.field(tag)) {
+			case 1:		// trip
+				r.push();
+				while ((tag = r.next()) != -1) {
+					if (ProtoReader.field(tag) == 1) {		// trip_id
+						v.tripId = r.readString();
+					} else {
+						r.skip();
+					}
+				}
+				r.pop();
+				break;
+			case 2:		// position
+				r.push();
+				while ((tag = r.next()) != -1) {
+					switch (ProtoReader.field(tag)) {
+					case 1:		// latitude
+						v.lat = r.readFloat();
+						v.located = true;
+						break;
+					case 2:		// longitude
+						v.lon = r.readFloat();
+						break;
+					case 3:		// bearing
+						v.bearing = r.readFloat();
+						break;
+					default:
+						r.skip();
+					}
+				}
+				r.pop();
+				break;
+			case 5:		// timestamp
+				v.timestamp = r.readVarint();
+				break;
+			case 8:		// vehicle
+				r.push();
+				while ((tag = r.next()) != -1) {
+					if (ProtoReader.field(tag) == 2) {		// label
+						v.label = r.readString();
+					} else {
+						r.skip();
+					}
+				}
+				r.pop();
+				break;
+			default:
+				r.skip();
+			}
+		}
+		return v;
+	}
+
+	private static Trip readTripUpdate(ProtoReader r) throws IOException {
+		final Trip trip = new Trip(null);
+		int tag;
+		while ((tag = r.next()) != -1) {
+			switch (ProtoReader.field(tag)) {
+			case 1:		// trip
+				r.push();
+				while ((tag = r.next()) != -1) {
+					switch (ProtoReader.field(tag)) {
+					case 1:		// trip_id
+						trip.id = r.readString();
+						break;
+					case 3:		// start_date, YYYYMMDD
+						final String date = r.readString();
+						if (date.length() == 8) {
+							try {
+								trip.start = startOf(Integer.parseInt(date.substring(0, 4)),
+										Integer.parseInt(date.substring(4, 6)) - 1, Integer.parseInt(date.substring(6)));
+							} catch (NumberFormatException e) {
+								// as if not given
+							}
+						}
+						break;
+					case 4:		// schedule_relationship
+						trip.canceled = r.readInt() == TRIP_CANCELED;
+						break;
+					default:
+						r.skip();
+					}
+				}
+				r.pop();
+				break;
+			case 2:		// stop_time_update
+				r.push();
+				readStopTimeUpdate(r, trip, trip.add());
+				r.pop();
+				break;
+			case 5:		// delay
+				trip.delay = r.readInt();
+				break;
+			default:
+				r.skip();
+			}
+		}
+		return trip;
+	}
+
+	private static void readStopTimeUpdate(ProtoReader r, Trip trip, int u) throws IOException {
+		int tag;
+		while ((tag = r.next()) != -1) {
+			switch (ProtoReader.field(tag)) {
+			case 1:		// stop_sequence
+				trip.sequence[u] = r.readInt();
+				break;
+			case 2:		// arrival
+			case 3:		// departure
+				final boolean arrival = ProtoReader.field(tag) == 2;
+				r.push();
+				while ((tag = r.next()) != -1) {
+					switch (ProtoReader.field(tag)) {
+					case 1:		// delay
+						(arrival ? trip.arrivalDelay : trip.departureDelay)[u] = r.readInt();
+						break;
+					case 2:		// time
+						(arrival ? trip.arrivalTime : trip.departureTime)[u] = r.readVarint();
+						break;
+					default:
+						r.skip();
+					}
+				}
+				r.pop();
+				break;
+			case 4:		// stop_id
+				trip.stops[u] = r.readString();
+				break;
+			case 5:		// schedule_relationship
+				trip.relationship[u] = (byte) r.readInt();
+				break;
+			default:
+				r.skip();
+			}
+		}
+	}
+}
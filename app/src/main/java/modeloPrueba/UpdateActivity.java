@@ -36,6 +36,7 @@ import android.database.sqlite.SQLiteDatabase;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Environment;
+import android.text.format.Time;
 import android.util.Log;
 import android.view.View;
 import android.view.View.OnClickListener;
@@ -171,6 +172,18 @@ public class UpdateActivity extends Activity {
 					final File n = new File(fileCachePath);
 					o.delete();
 					n.renameTo(o);
+					// Nothing worked out from the old version of the feed holds any more
+					TimetableLoader.invalidate(o.getName());
+					JourneyCache.get().invalidate(o.getName());
+					TripDelays.invalidate(o.getName());
+					StopTileCache.invalidate(o.getName());
+					// and work out the new transfer patterns while we're in the background
+					final File patterns = new File(o.getPath() + TransferPatterns.SUFFIX);
+					patterns.delete();
+					final Time t = new Time();
+					t.setToNow();
+					TimetableLoader.writeTransferPatterns(mDBHelper, o.getName(),
+							String.format("%04d%02d%02d", t.year, t.month + 1, t.monthDay), patterns);
 	
 					//DBtotal++;
 	
@@ -0,0 +1,323 @@
+/*
+ * This file is part of GTFSOffline.
+ *
+ * GTFSOffline is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GTFSOffline is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GTFSOffline.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package modeloPrueba;
+
+import java.util.Arrays;
+
+/* Where the buses of a Timetable are now, moved along their lines from one frame to
+ * the next, e.g. once a second for a live map.
+ *
+ * refresh() works out which trips are on the road and when each is at each of its
+ * stops: the static times with the realtime delays, shifted so the trip passes its
+ * last reported position when it said it was there, if the feed had one. That
+ * allocates, so call it when the delays change or once a minute. frame() then puts
+ * every vehicle where those times say it is, by binary search in its times and
+ * RouteShapes.locate(), into arrays that are kept from frame to frame, without
+ * allocating anything: hundreds of buses a second cost next to nothing.
+ *
+ * Not thread safe: refresh, frame and read on one thread. */
+public final class VehicleTracker {
+
+	// Trips up to this late or this early are looked at when finding which are running
+	private static final int WINDOW = 60 * 60;				// s
+	// Positions older than this are left out: by then the delays say as much
+	private static final long MAX_REPORT_AGE = 5 * 60;		// s
+
+	private final RouteShapes mShapes;
+	private final Timetable mTT;
+
+	private int mCount = 0;
+	private int[] mTrip = new int[64];
+	private int[] mTimeStart = new int[65];		// into mTimes, by vehicle +1
+	private double[] mTimes = new double[1024];	// arrival and departure at each stop, s
+	private boolean[] mReported = new boolean[64];
+	private final int[] mIndex;					// by trip, its vehicle or -1
+
+	// The last frame: lat, lon, bearing by vehicle, and metres along the line
+	private double[] mPosition = new double[3 * 64];
+	private double[] mAlong = new double[64];
+
+	public VehicleTracker(RouteShapes shapes) {
+		mShapes = shapes;
+		mTT = shapes.getTimetable();
+		mIndex = new int[mTT.numTrips];
+		Arrays.fill(mIndex, -1);
+	}
+
+	/* Find the trips running at now (s after midnight of delays' service day, which
+	 * starts at midnight, s since the epoch). realtime and delays may be null. */
+	public void refresh(int now, RealtimeOverlay realtime, TripDelays delays, long midnight) {
+		final Timetable tt = mTT;
+		if (realtime != null && realtime.getTimetable() != tt) {
+			realtime = null;
+		}
+		for (int i = 0; i < mCount; i++) {
+			mIndex[mTrip[i]] = -1;
+		}
+		mCount = 0;
+		mTimeStart[0] = 0;
+		for (int p = 0; p < tt.numPatterns; p++) {
+			final int len = tt.getPatternLength(p);
+			int t = tt.earliestTrip(p, len - 1, now - WINDOW);
+			if (t < 0) {
+				continue;
+			}
+			for (; t < tt.patternTrips[p + 1] && tt.getDeparture(t, 0) <= now + WINDOW; t++) {
+				add(p, t, len, realtime);
+				final TripDelays.Vehicle v = (delays == null) ? null : delays.vehicle(tt.tripIds[t]);
+				if (v != null && v.timestamp - midnight > now - MAX_REPORT_AGE) {
+					shift(mCount, p, len, v, (int) (v.timestamp - midnight));
+				}
+				// keep it only if it's between its first and last stop now
+				final int from = mTimeStart[mCount], to = mTimeStart[mCount + 1];
+				if (mTimes[from] <= now && mTimes[to - 1] >= now) {
+					mIndex[t] = mCount++;
+				}
+			}
+		}
+		if (mPosition.length < 3 * mCount) {
+			mPosition = new double[3 * mTrip.length];
+			mAlong = new double[mTrip.length];
+		}
+	}
+
+	/* Add trip t of pattern p as the next vehicle, with its predicted times. Stops it
+	 * will skip get times in proportion to the distance between the stops around them. */
+	private void add(int p, int t, int len, RealtimeOverlay realtime) {
+		final int v = mCount;
+		if (v == mTrip.length) {
+			mTrip = Arrays.copyOf(mTrip, v * 2);
+			mTimeStart = Arrays.copyOf(mTimeStart, v * 2 + 1);
+			mReported = Arrays.copyOf(mReported, v * 2);
+		}
+		final int start = mTimeStart[v];
+		if (start + 2 * len > mTimes.length) {
+			mTimes = Arrays.copyOf(mTimes, Math.max(mTimes.length * 2, start + 2 * len));
+		}
+		mTrip[v] = t;
+		mReported[v] = false;
+		mTimeStart[v + 1] = start + 2 * len;
+		int last = -1;
+		for (int pos = 0; pos < len; pos++) {
+			final int a, d;
+			if (realtime == null) {
+				a = mTT.getArrival(t, pos);
+				d = mTT.getDeparture(t, pos);
+			} else {
+				a = realtime.arrival(t, pos);
+				d = realtime.departure(t, pos);
+			}
+			if (d >= RealtimeOverlay.INFINITY) {
+				continue;
+			}
+			mTimes[start + 2 * pos] = a;
+			mTimes[start + 2 * pos + 1] = d;
+			fill(p, start, last, pos);
+			last = pos;
+		}
+		if (last < 0) {
+			// the whole trip is cancelled: it won't be anywhere
+			mTimes[start] = mTimes[start + 2 * len - 1] = Double.MAX_VALUE;
+			return;
+		}
+		fill(p, start, last, len);
+		// with delays going down faster than the trip goes a later stop can come out
+		// earlier; it can't really, and the binary search needs them in order
+		for (int i = start + 1; i < start + 2 * len; i++) {
+			mTimes[i] = Math.max(mTimes[i], mTimes[i - 1]);
+		}
+	}
+
+	/* Times for the skipped stops between positions last and next (either may be off
+	 * the ends of the trip, where the times stay with the nearest stop it serves). */
+	private void fill(int p, int start, int last, int next) {
+		final int len = mTT.getPatternLength(p);
+		for (int pos = last + 1; pos < next; pos++) {
+			final double time;
+			if (last < 0) {
+				time = mTimes[start + 2 * next];
+			} else if (next >= len) {
+				time = mTimes[start + 2 * last + 1];
+			} else {
+				final double from = mShapes.stopDistance(p, last), to = mShapes.stopDistance(p, next);
+				final double f = (to > from) ? (mShapes.stopDistance(p, pos) - from) / (to - from) : 0;
+				time = mTimes[start + 2 * last + 1] + f * (mTimes[start + 2 * next] - mTimes[start + 2 * last + 1]);
+			}
+			mTimes[start + 2 * pos] = mTimes[start + 2 * pos + 1] = time;
+		}
+	}
+
+	/* Move vehicle v's times so it's where it said it was at time. */
+	private void shift(int v, int p, int len, TripDelays.Vehicle report, int time) {
+		final int start = mTimeStart[v];
+		final double expected = along(v, p, len, time);
+		final double at = mShapes.project(p, report.lat, report.lon, expected);
+		final double when = timeAt(v, p, len, at);
+		if (Double.isNaN(when)) {
+			return;
+		}
+		final double shift = time - when;
+		for (int i = start; i < start + 2 * len; i++) {
+			mTimes[i] += shift;
+		}
+		mReported[v] = true;
+	}
+
+	/* When vehicle v passes the point at metres along its line: the time it leaves
+	 * there if it stops there. NaN if it's cancelled. */
+	private double timeAt(int v, int p, int len, double at) {
+		final int start = mTimeStart[v];
+		if (mTimes[start] == Double.MAX_VALUE) {
+			return Double.NaN;
+		}
+		// the last stop at or before the point
+		int lo = 0, hi = len - 1;
+		while (lo < hi) {
+			final int mid = (lo + hi + 1) >>> 1;
+			if (mShapes.stopDistance(p, mid) <= at) {
+				lo = mid;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		if (lo == len - 1) {
+			return mTimes[start + 2 * lo];
+		}
+		final double from = mShapes.stopDistance(p, lo), to = mShapes.stopDistance(p, lo + 1);
+		final double f = (to > from) ? (at - from) / (to - from) : 0;
+		final double leaves = mTimes[start + 2 * lo + 1];
+		return leaves + Math.max(0, f) * (mTimes[start + 2 * lo + 2] - leaves);
+	}
+
+	/* How far along its line vehicle v is at time. */
+	private double along(int v, int p, int len, double time) {
+		final int start = mTimeStart[v], end = start + 2 * len;
+		// the last time at or before now: between two stops if it's a departure,
+		// waiting at a stop if it's an arrival
+		int lo = start, hi = end - 1;
+		if (time < mTimes[lo]) {
+			return mShapes.stopDistance(p, 0);
+		}
+		while (lo < hi) {
+			final int mid = (lo + hi + 1) >>> 1;
+			if (mTimes[mid] <= time) {
+				lo = mid;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		final int pos = (lo - start) >> 1;
+		if (((lo - start) & 1) == 0 || lo == end - 1) {
+			return mShapes.stopDistance(p, pos);
+		}
+		final double leaves = mTimes[lo], arrives = mTimes[lo + 1];
+		final double from = mShapes.stopDistance(p, pos), to = mShapes.stopDistance(p, pos + 1);
+		return (arrives > leaves) ? from + (time - leaves) / (arrives - leaves) * (to - from) : to;
+	}
+
+	/* Put every vehicle where it is at now, in s after midnight with a fraction for a
+	 * smooth move between frames. */
+	public void frame(double now) {
+		final Timetable tt = mTT;
+		for (int v = 0; v < mCount; v++) {
+			final int p = tt.tripPattern[mTrip[v]];
+			final double a = along(v, p, tt.getPatternLength(p), now);
+			mAlong[v] = a;
+			mShapes.locate(p, a, mPosition, 3 * v);
+		}
+	}
+
+	/* Up to max vehicles on their way to a stop as of the last frame, nearest first,
+	 * into vehicles and how far they have to go along their lines into metres. Returns
+	 * how many there are. */
+	public int approaching(int stop, int max, int[] vehicles, double[] metres) {
+		final Timetable tt = mTT;
+		int n = 0;
+		for (int v = 0; v < mCount; v++) {
+			final int p = tt.tripPattern[mTrip[v]], stops = tt.patternStopStart[p];
+			for (int pos = 0; pos < tt.getPatternLength(p); pos++) {
+				if (tt.patternStops[stops + pos] != stop) {
+					continue;
+				}
+				final double d = mShapes.stopDistance(p, pos) - mAlong[v];
+				if (d < 0) {
+					// gone by; a loop may bring it back
+					continue;
+				}
+				// insertion into the nearest so far
+				int i = Math.min(n, max - 1);
+				if (i == n || d < metres[i]) {
+					while (i > 0 && metres[i - 1] > d) {
+						vehicles[i] = vehicles[i - 1];
+						metres[i] = metres[i - 1];
+						i--;
+					}
+					vehicles[i] = v;
+					metres[i] = d;
+					n = Math.min(n + 1, max);
+				}
+				break;
+			}
+		}
+		return n;
+	}
+
+	/* How many vehicles there are. */
+	public int size() {
+		return mCount;
+	}
+
+	/* The vehicle of a timetable trip, or -1 if it isn't running. */
+	public int find(int trip) {
+		return mIndex[trip];
+	}
+
+	public int getTrip(int v) {
+		return mTrip[v];
+	}
+
+	/* True if the vehicle's position comes from the feed, not just the timetable. */
+	public boolean isReported(int v) {
+		return mReported[v];
+	}
+
+	public double getLat(int v) {
+		return mPosition[3 * v];
+	}
+
+	public double getLon(int v) {
+		return mPosition[3 * v + 1];
+	}
+
+	/* Which way it's heading, degrees clockwise from north. */
+	public double getBearing(int v) {
+		return mPosition[3 * v + 2];
+	}
+
+	/* How far along its line it is, m. */
+	public double getAlong(int v) {
+		return mAlong[v];
+	}
+
+	/* How far it has still to go along its line to its pos'th stop, m: negative once
+	 * it's gone by. */
+	public double getDistanceTo(int v, int pos) {
+		return mShapes.stopDistance(mTT.tripPattern[mTrip[v]], pos) - mAlong[v];
+	}
+}
@@ -0,0 +1,131 @@
+package modeloPrueba;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks balances survive reopening from the snapshot and a short tail, that a record
+ * cut short is dropped, that a sync sends only what the backend hasn't acknowledged and
+ * takes in its remote entries without sending them back.
+ */
+public class CardLedgerTest {
+
+    private static final long T = 1792386000000L;   // 2026-10-19 in Cali, ms
+    private static final String CARD = "4210987", OTHER = "4210988";
+
+    @Test
+    public void reopensFromSnapshotAndTail() throws Exception {
+        final File dir = tempDir();
+        try {
+            CardLedger ledger = CardLedger.open(dir);
+            assertNotNull(ledger.append(CardLedger.REGISTER, CARD, 0, T));
+            assertNull(ledger.append(CardLedger.REGISTER, CARD, 0, T));
+            assertNull(ledger.append(CardLedger.FARE, CARD, 2200, T));      // no money on it yet
+            assertNull(ledger.append(CardLedger.RECHARGE, OTHER, 5000, T)); // not registered
+            final int entries = 2 * CardLedger.SNAPSHOT_EVERY + 6;
+            for (int i = 1; i < entries; i++) {
+                ledger.append((i % 2 == 1) ? CardLedger.RECHARGE : CardLedger.FARE, CARD, 2200, T + i * 1000);
+            }
+            final long balance = ledger.getCard(CARD).getBalance();
+            assertEquals(2200, balance);
+            ledger.close();
+
+            ledger = CardLedger.open(dir);
+            assertEquals(balance, ledger.getCard(CARD).getBalance());
+            // only what came after the last snapshot was read
+            assertEquals(entries % CardLedger.SNAPSHOT_EVERY, ledger.getTail());
+            final List<CardLedger.Entry> recent = ledger.getCard(CARD).getRecent();
+            assertEquals(CardLedger.RECENT, recent.size());
+            assertEquals(T + (entries - 1) * 1000, recent.get(0).time);
+            assertEquals(entries, ledger.getPending());
+            // and numbering carries on
+            assertEquals(entries + 1, ledger.append(CardLedger.REGISTER, OTHER, 0, T).seq);
+            ledger.close();
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void dropsAHalfWrittenRecord() throws Exception {
+        final File dir = tempDir();
+        try {
+            CardLedger ledger = CardLedger.open(dir);
+            ledger.append(CardLedger.REGISTER, CARD, 0, T);
+            ledger.append(CardLedger.RECHARGE, CARD, 10000, T);
+            ledger.append(CardLedger.FARE, CARD, 2200, T);
+            ledger.close();
+            // the phone died during the last write
+            final RandomAccessFile log = new RandomAccessFile(new File(dir, "tarjetas.log"), "rw");
+            final long whole = log.length();
+            log.setLength(whole - 3);
+            log.close();
+
+            ledger = CardLedger.open(dir);
+            assertEquals(10000, ledger.getCard(CARD).getBalance());
+            assertEquals(3, ledger.append(CardLedger.FARE, CARD, 2400, T).seq);
+            assertEquals(7600, ledger.getCard(CARD).getBalance());
+            ledger.close();
+            ledger = CardLedger.open(dir);
+            assertEquals(7600, ledger.getCard(CARD).getBalance());
+            ledger.close();
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void syncSendsOnlyWhatsNew() throws Exception {
+        final File dir = tempDir();
+        final LocalCardBackend backend = new LocalCardBackend();
+        try {
+            CardLedger ledger = CardLedger.open(dir);
+            ledger.append(CardLedger.REGISTER, CARD, 0, T);
+            ledger.append(CardLedger.RECHARGE, CARD, 10000, T);
+            assertArrayEquals(new int[] { 2, 0 }, ledger.sync(backend));
+            assertEquals(0, ledger.getPending());
+            // Nothing new: nothing goes
+            assertArrayEquals(new int[] { 0, 0 }, ledger.sync(backend));
+            assertEquals(2, backend.getReceived());
+
+            // A fare charged on the bus comes back, and isn't sent out again
+            backend.addRemote(CardLedger.FARE, CARD, 2400, T + 60000);
+            ledger.append(CardLedger.RECHARGE, CARD, 5000, T + 120000);
+            assertArrayEquals(new int[] { 1, 1 }, ledger.sync(backend));
+            assertEquals(12600, ledger.getCard(CARD).getBalance());
+            ledger.close();
+
+            ledger = CardLedger.open(dir);
+            ledger.append(CardLedger.FARE, CARD, 2400, T + 180000);
+            assertArrayEquals(new int[] { 1, 0 }, ledger.sync(backend));
+            assertEquals(4, backend.getReceived());
+            assertEquals(4, backend.getStored());
+            assertEquals(1, backend.getSent());
+            assertEquals(10200, ledger.getCard(CARD).getBalance());
+            ledger.close();
+        } finally {
+            delete(dir);
+        }
+    }
+
+    private static File tempDir() throws Exception {
+        final File dir = File.createTempFile("tarjetas", "");
+        dir.delete();
+        return dir;
+    }
+
+    private static void delete(File dir) {
+        final File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+}
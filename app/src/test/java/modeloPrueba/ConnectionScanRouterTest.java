@@ -0,0 +1,120 @@
+package modeloPrueba;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the Connection Scan router gives the same choice of journeys as RAPTOR, and
+ * that its profiles agree with single queries, on the grid network of RaptorRouterTest.
+ */
+public class ConnectionScanRouterTest {
+
+    @Test
+    public void connectionsAreSortedByDeparture() throws Exception {
+        final Timetable tt = RaptorRouterTest.gridNetwork(new Random(35), 15);
+        final ConnectionScanRouter csa = new ConnectionScanRouter(tt);
+        assertTrue(csa.numConnections > 0);
+        for (int c = 1; c < csa.numConnections; c++) {
+            assertTrue(csa.connDeparture[c - 1] <= csa.connDeparture[c]);
+        }
+        for (int c = 0; c < csa.numConnections; c++) {
+            assertEquals(csa.connDeparture[c], tt.getDeparture(csa.connTrip[c], csa.connPos[c]));
+            assertEquals(csa.connArrival[c], tt.getArrival(csa.connTrip[c], csa.connPos[c] + 1));
+        }
+    }
+
+    @Test
+    public void sameJourneysAsRaptor() throws Exception {
+        final Timetable tt = RaptorRouterTest.gridNetwork(new Random(36), 15);
+        final RaptorRouter raptor = new RaptorRouter(tt);
+        final ConnectionScanRouter csa = new ConnectionScanRouter(tt);
+        final Random rnd = new Random(3);
+        for (int q = 0; q < 200; q++) {
+            final int from = rnd.nextInt(tt.numStops), to = rnd.nextInt(tt.numStops);
+            if (from == to) {
+                continue;
+            }
+            final int dep = 6 * 3600 + rnd.nextInt(14 * 3600);
+            final int maxTransfers = rnd.nextInt(4);
+            final ArrayList<Journey> a = raptor.route(new int[] { from }, new int[] { 0 },
+                    new int[] { to }, new int[] { 0 }, dep, maxTransfers);
+            final ArrayList<Journey> b = csa.route(new int[] { from }, new int[] { 0 },
+                    new int[] { to }, new int[] { 0 }, dep, maxTransfers);
+            assertEquals(a.size(), b.size());
+            for (int i = 0; i < a.size(); i++) {
+                assertEquals(a.get(i).getArrival(), b.get(i).getArrival());
+                assertEquals(a.get(i).getTransfers(), b.get(i).getTransfers());
+                checkLegs(tt, b.get(i), from, to, dep);
+            }
+        }
+    }
+
+    @Test
+    public void profileAgreesWithSingleQueries() throws Exception {
+        final Timetable tt = RaptorRouterTest.gridNetwork(new Random(37), 15);
+        final ConnectionScanRouter csa = new ConnectionScanRouter(tt);
+        final Random rnd = new Random(4);
+        for (int q = 0; q < 20; q++) {
+            final int from = rnd.nextInt(tt.numStops), to = rnd.nextInt(tt.numStops);
+            if (from == to) {
+                continue;
+            }
+            final int start = 7 * 3600 + rnd.nextInt(10 * 3600);
+            final int[][] profile = csa.profile(new int[] { from }, new int[] { 0 }, to, start, start + 3600);
+            assertTrue(profile[0].length > 0);
+            for (int i = 0; i < profile[0].length; i++) {
+                if (i > 0) {
+                    assertTrue(profile[0][i] < profile[0][i - 1]);
+                    assertTrue(profile[1][i] < profile[1][i - 1]);
+                }
+                final ArrayList<Journey> js = csa.route(new int[] { from }, new int[] { 0 },
+                        new int[] { to }, new int[] { 0 }, profile[0][i], JourneyRouter.MAX_TRANSFERS);
+                assertEquals(profile[1][i], js.get(js.size() - 1).getArrival());
+            }
+        }
+    }
+
+    @Test
+    public void benchmarkAgainstRaptor() throws Exception {
+        final Timetable tt = RaptorRouterTest.gridNetwork(new Random(50), 15);
+        long t0 = System.nanoTime();
+        final JourneyRouter csa = new ConnectionScanRouter(tt);
+        final long setup = System.nanoTime() - t0;
+        final JourneyRouter raptor = new RaptorRouter(tt);
+        final int queries = 300;
+        final long[] total = new long[2];
+        final Random rnd = new Random(2);
+        for (int q = 0; q < queries + 50; q++) {
+            final int from = rnd.nextInt(tt.numStops), to = rnd.nextInt(tt.numStops);
+            final int dep = 6 * 3600 + rnd.nextInt(14 * 3600);
+            for (int r = 0; r < 2; r++) {
+                t0 = System.nanoTime();
+                ((r == 0) ? raptor : csa).route(new int[] { from }, new int[] { 0 },
+                        new int[] { to }, new int[] { 0 }, dep, 4);
+                if (q >= 50) {
+                    total[r] += System.nanoTime() - t0;
+                }
+            }
+        }
+        System.out.printf("connections sorted in %.0fms; mean query RAPTOR %.2fms, CSA %.2fms%n",
+                setup / 1e6, total[0] / 1e6 / queries, total[1] / 1e6 / queries);
+    }
+
+    private static void checkLegs(Timetable tt, Journey j, int from, int to, int dep) {
+        int at = from, time = dep;
+        for (Journey.Leg l : j.legs) {
+            assertFalse(l.walk);
+            assertEquals(at, l.fromStop);
+            assertTrue(l.departure >= time);
+            assertEquals(tt.getDeparture(l.trip, l.fromPos), l.departure);
+            assertEquals(tt.getArrival(l.trip, l.toPos), l.arrival);
+            at = l.toStop;
+            time = l.arrival;
+        }
+        assertEquals(to, at);
+    }
+}
@@ -0,0 +1,116 @@
+package modeloPrueba;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+
+import org.junit.Test;
+
+import modeloPrueba.TripDelaysTest.Proto;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks a key keeps only its last delays and predicts their median, that a full set
+ * makes way for new keys by age, that the delays laid over a timetable are recorded
+ * once their buses have gone, and that a history comes back the same from its file.
+ */
+public class DelayHistoryTest {
+
+    private static final long MIDNIGHT = 1792386000L;   // 2026-10-19 00:00 in Cali, a Monday
+    private static final long NOW = MIDNIGHT * 1000;
+    private static final int MONDAY = 1, SATURDAY = 6;
+
+    @Test
+    public void medianOfTheLastDelays() {
+        final DelayHistory h = new DelayHistory();
+        final int bucket = DelayHistory.bucket(MONDAY, 8 * 3600);
+        h.add("E31", "Universidades", "S1", bucket, 60, NOW);
+        h.add("E31", "Universidades", "S1", bucket, 600, NOW);
+        assertEquals(DelayHistory.NONE, h.typicalDelay("E31", "Universidades", "S1", bucket));
+        h.add("E31", "Universidades", "S1", bucket, 120, NOW);
+        assertEquals(120, h.typicalDelay("E31", "Universidades", "S1", bucket));
+        // Another stop, headsign or hour knows nothing
+        assertEquals(DelayHistory.NONE, h.typicalDelay("E31", "Universidades", "S2", bucket));
+        assertEquals(DelayHistory.NONE, h.typicalDelay("E31", "Chiminangos", "S1", bucket));
+        assertEquals(DelayHistory.NONE, h.typicalDelay("E31", "Universidades", "S1", bucket + 1));
+        // Only the last RING count: a run of long delays takes over
+        for (int i = 0; i < DelayHistory.RING; i++) {
+            h.add("E31", "Universidades", "S1", bucket, 300, NOW);
+        }
+        assertEquals(300, h.typicalDelay("E31", "Universidades", "S1", bucket));
+        assertEquals(1, h.size());
+    }
+
+    @Test
+    public void bucketsByHourAndKindOfDay() {
+        assertEquals(8, DelayHistory.bucket(MONDAY, 8 * 3600 + 59 * 60));
+        assertEquals(24 + 23, DelayHistory.bucket(SATURDAY, 23 * 3600));
+        // Past midnight on Saturday is Sunday morning
+        assertEquals(48 + 1, DelayHistory.bucket(SATURDAY, 25 * 3600 + 30 * 60));
+    }
+
+    @Test
+    public void fullSetsForgetTheOldest() {
+        final DelayHistory h = new DelayHistory(4);     // one set
+        for (int k = 0; k < 4; k++) {
+            fill(h, "S" + k, 60 * (k + 1), NOW + k * 60000);
+        }
+        fill(h, "S0", 60, NOW + 10 * 60000);           // S1 is now the oldest
+        fill(h, "S4", 300, NOW + 11 * 60000);
+        assertEquals(4, h.size());
+        assertEquals(DelayHistory.NONE, h.typicalDelay("E21", "Terminal", "S1", 8));
+        assertEquals(60, h.typicalDelay("E21", "Terminal", "S0", 8));
+        assertEquals(300, h.typicalDelay("E21", "Terminal", "S4", 8));
+    }
+
+    @Test
+    public void recordsDeparturesOnceTheyreDue() throws Exception {
+        final TimetableBuilder b = new TimetableBuilder("20261019");
+        final int[] stops = { b.addStop("S0", "Uno", 3.40, -76.55), b.addStop("S1", "Dos", 3.41, -76.55),
+                b.addStop("S2", "Tres", 3.42, -76.55) };
+        final int[] times = { 8 * 3600, 8 * 3600 + 300, 8 * 3600 + 600 };
+        b.addTrip("T1", "P10", "", stops, times, times);
+        final Timetable tt = b.build();
+        final TripDelays d = TripDelays.decode(new ByteArrayInputStream(new Proto().message(2, new Proto()
+                .string(1, "e").message(3, new Proto().message(1, new Proto().string(1, "T1")).varint(5, 120)))
+                .bytes()), null);
+        final RealtimeOverlay rt = RealtimeOverlay.build(tt, d, MIDNIGHT);
+        final DelayHistory h = new DelayHistory();
+        // Only the first two have gone by 8:07
+        for (int day = 0; day < DelayHistory.MIN_SAMPLES; day++) {
+            assertEquals(2, h.record(rt, MONDAY, 8 * 3600, 8 * 3600 + 420, NOW));
+        }
+        // no headsign: the route stands in for it, as on the boards
+        assertEquals(120, h.typicalDelay("P10", "P10", "S1", 8));
+        assertEquals(DelayHistory.NONE, h.typicalDelay("P10", "P10", "S2", 8));
+        assertEquals(0, h.record(rt, MONDAY, 8 * 3600 + 420, 8 * 3600 + 600, NOW));
+    }
+
+    @Test
+    public void readsBackWhatItWrote() throws Exception {
+        final DelayHistory h = new DelayHistory();
+        for (int i = 0; i < 200; i++) {
+            fill(h, "S" + i, i, NOW);
+        }
+        h.add("E21", "Terminal", "S7", 8, -90, NOW);
+        final File file = File.createTempFile("mio", DelayHistory.SUFFIX);
+        try {
+            h.write(file);
+            final DelayHistory back = DelayHistory.read(file);
+            assertEquals(h.size(), back.size());
+            for (int i = 0; i < 200; i++) {
+                assertEquals(h.typicalDelay("E21", "Terminal", "S" + i, 8),
+                        back.typicalDelay("E21", "Terminal", "S" + i, 8));
+            }
+            assertFalse(new File(file.getPath() + ".new").exists());
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void fill(DelayHistory h, String stop, int delay, long now) {
+        for (int i = 0; i < DelayHistory.MIN_SAMPLES; i++) {
+            h.add("E21", "Terminal", stop, 8, delay, now);
+        }
+    }
+}
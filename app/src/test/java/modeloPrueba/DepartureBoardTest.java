@@ -0,0 +1,96 @@
+package modeloPrueba;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks departures are pinned to the right side of midnight, counted down and dropped
+ * as the clock moves on, that a stop running out asks for more while an empty board
+ * only asks again after a while, and the "Departs in" text.
+ */
+public class DepartureBoardTest {
+
+    private static final long MIDNIGHT = 1792386000L;   // 2026-10-19 00:00 in Cali, a Monday
+    private static final long MINUTE = DepartureBoard.MINUTE;
+
+    /* A list row for a departure from stop at hhmmss (or hh:mm:ss). */
+    private static String[] row(String stop, String trip, String time) {
+        return new String[] { "100", stop, "Stop " + stop, "Centro", "", trip, "mio", "E31", time };
+    }
+
+    /* A board built at the given second of the day. */
+    private static DepartureBoard board(List<String[]> rows, int second, int minPerStop) {
+        return new DepartureBoard(rows, (MIDNIGHT + second) * 1000, second, minPerStop);
+    }
+
+    private static long at(int second) {
+        return (MIDNIGHT + second) * 1000;
+    }
+
+    @Test
+    public void departuresAfterMidnightAreTomorrow() {
+        final int built = 23 * 3600 + 58 * 60;
+        final List<String[]> rows = new ArrayList<String[]>();
+        rows.add(row("S1", "T1", "000500"));    // 00:05 tomorrow
+        rows.add(row("S1", "T2", "24:10:00"));  // GTFS time past midnight
+        rows.add(row("S1", "T3", "235730"));    // a moment ago, not tomorrow night
+        final DepartureBoard b = board(rows, built, 0);
+        assertEquals(2, b.tick(at(built)));
+        final List<String[]> out = new ArrayList<String[]>();
+        b.copyRows(out);
+        assertEquals("T1", out.get(0)[5]);
+        assertEquals("Departs in 7 minutes", out.get(0)[4]);
+        assertEquals("T2", out.get(1)[5]);
+        assertEquals("Departs in 12 minutes", out.get(1)[4]);
+
+        // Just past midnight the countdown carries on
+        assertEquals(2, b.tick(at(built) + 3 * MINUTE));
+        b.copyRows(out);
+        assertEquals("Departs in 4 minutes", out.get(0)[4]);
+        assertEquals(1, b.tick(at(built) + 8 * MINUTE));
+        b.copyRows(out);
+        assertEquals("T2", out.get(0)[5]);
+    }
+
+    @Test
+    public void lowWhenAStopRunsOut() {
+        final int built = 8 * 3600;
+        final List<String[]> rows = new ArrayList<String[]>();
+        rows.add(row("S1", "T1", "080500"));
+        rows.add(row("S1", "T2", "081000"));
+        rows.add(row("S1", "T3", "081500"));
+        rows.add(row("S2", "T4", "090000"));
+        final DepartureBoard b = board(rows, built, 1);
+        // S2 started with only one, so it's low once that's gone, not before
+        assertFalse(b.isLow(at(built)));
+        b.tick(at(built) + 6 * MINUTE);
+        assertFalse(b.isLow(at(built) + 6 * MINUTE));
+        b.tick(at(built) + 11 * MINUTE);
+        assertEquals(2, b.size());
+        assertTrue(b.isLow(at(built) + 11 * MINUTE));
+    }
+
+    @Test
+    public void emptyBoardWaitsBeforeAskingAgain() {
+        final int built = 23 * 3600;
+        final DepartureBoard b = board(new ArrayList<String[]>(), built, 1);
+        assertEquals(0, b.tick(at(built)));
+        assertFalse(b.isLow(at(built)));
+        assertFalse(b.isLow(at(built) + DepartureBoard.EMPTY_RECHECK - 1));
+        assertTrue(b.isLow(at(built) + DepartureBoard.EMPTY_RECHECK));
+    }
+
+    @Test
+    public void departsInText() {
+        assertEquals("Departs in 0 minutes", DepartureBoard.departsIn(0));
+        assertEquals("Departs in 1 minute", DepartureBoard.departsIn(1));
+        assertEquals("Departs in 45 minutes", DepartureBoard.departsIn(45));
+        assertEquals("Departs in 1 hour 0 minutes", DepartureBoard.departsIn(60));
+        assertEquals("Departs in 1 hour and 1 minute", DepartureBoard.departsIn(61));
+        assertEquals("Departs in 2 hours 5 minutes", DepartureBoard.departsIn(125));
+    }
+}
@@ -0,0 +1,163 @@
+package modeloPrueba;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the distance kernel and grid index against a straight sort of every stop, and
+ * times them against the old per-object path (one object per stop, measured and sorted
+ * on every fix) for feeds of 10k to 100k stops around Cali.
+ */
+public class DistanceKernelTest {
+
+    private static final int K = 8;
+
+    static class StopLocn {
+        float dist;
+        double lat, lon;
+    }
+
+    @Test
+    public void gridIndexMatchesFullSort() throws Exception {
+        final Random rnd = new Random(26);
+        final double[] lat = new double[20000], lon = new double[20000];
+        randomStops(rnd, lat, lon);
+        final StopGridIndex index = new StopGridIndex(lat, lon, lat.length, 250.0);
+
+        final int[] idx = new int[K];
+        final float[] dist = new float[K], bearing = new float[K];
+        for (int q = 0; q < 200; q++) {
+            final double qlat = 3.30 + rnd.nextDouble() * 0.25, qlon = -76.60 + rnd.nextDouble() * 0.20;
+            assertEquals(K, index.nearest(qlat, qlon, K, idx, dist, bearing));
+
+            final float[] all = new float[lat.length];
+            for (int i = 0; i < lat.length; i++) {
+                all[i] = (float) StopGridIndex.distance(qlat, qlon, lat[i], lon[i]);
+            }
+            Arrays.sort(all);
+            for (int i = 0; i < K; i++) {
+                assertEquals(all[i], dist[i], 0.01f);
+                assertEquals(StopGridIndex.bearing(qlat, qlon, lat[idx[i]], lon[idx[i]]), bearing[i], 0.01);
+            }
+        }
+    }
+
+    @Test
+    public void prefilterKeepsEverythingInRange() throws Exception {
+        final Random rnd = new Random(31);
+        final int n = 5000;
+        final double[] lat = new double[n], lon = new double[n];
+        randomStops(rnd, lat, lon);
+        final double[] latR = new double[n], lonR = new double[n];
+        DistanceKernel.toRadians(lat, latR, 0, n);
+        DistanceKernel.toRadians(lon, lonR, 0, n);
+
+        final double qlat = 3.42, qlon = -76.52;
+        final int[] out = new int[n];
+        final int hits = DistanceKernel.prefilter(Math.toRadians(qlat), Math.toRadians(qlon),
+                latR, lonR, 0, n, 1500.0, new double[n], out);
+        int expected = 0;
+        for (int i = 0; i < n; i++) {
+            if (StopGridIndex.distance(qlat, qlon, lat[i], lon[i]) <= 1500.0) {
+                expected++;
+            }
+        }
+        // may let a few extra through, must not drop any
+        assertTrue(hits >= expected);
+        assertTrue(hits <= expected + n / 100);
+    }
+
+    @Test
+    public void benchmarkAgainstPerObjectSort() throws Exception {
+        for (int n : new int[] { 10000, 30000, 100000 }) {
+            final Random rnd = new Random(n);
+            final double[] lat = new double[n], lon = new double[n];
+            randomStops(rnd, lat, lon);
+            final int queries = 50;
+            final double[] qlat = new double[queries], qlon = new double[queries];
+            for (int q = 0; q < queries; q++) {
+                qlat[q] = 3.30 + rnd.nextDouble() * 0.25;
+                qlon[q] = -76.60 + rnd.nextDouble() * 0.20;
+            }
+
+            // The old path: measure every object, sort them all, take the first K
+            final StopLocn[] stops = new StopLocn[n];
+            for (int i = 0; i < n; i++) {
+                stops[i] = new StopLocn();
+                stops[i].lat = lat[i];
+                stops[i].lon = lon[i];
+            }
+            final float[] objectTopK = new float[queries];
+            long t0 = System.nanoTime();
+            for (int q = 0; q < queries; q++) {
+                for (final StopLocn s : stops) {
+                    s.dist = (float) StopGridIndex.distance(qlat[q], qlon[q], s.lat, s.lon);
+                }
+                Arrays.sort(stops, new Comparator<StopLocn>() {
+                    @Override
+                    public int compare(StopLocn a, StopLocn b) {
+                        return Float.compare(a.dist, b.dist);
+                    }
+                });
+                objectTopK[q] = stops[K - 1].dist;
+            }
+            final long objectNs = (System.nanoTime() - t0) / queries;
+
+            // Kernel over the whole feed: one pass over the arrays, no sort
+            final double[] latR = new double[n], lonR = new double[n], cosR = new double[n];
+            DistanceKernel.toRadians(lat, latR, 0, n);
+            DistanceKernel.toRadians(lon, lonR, 0, n);
+            DistanceKernel.cosines(latR, cosR, 0, n);
+            final float[] all = new float[n];
+            t0 = System.nanoTime();
+            for (int q = 0; q < queries; q++) {
+                DistanceKernel.haversine(Math.toRadians(qlat[q]), Math.toRadians(qlon[q]),
+                        latR, lonR, cosR, 0, n, all);
+                assertEquals(objectTopK[q], kthSmallest(all, K), 0.01f);
+            }
+            final long kernelNs = (System.nanoTime() - t0) / queries;
+
+            // Grid index: only the cells around the fix
+            final StopGridIndex index = new StopGridIndex(lat, lon, n, 250.0);
+            final int[] idx = new int[K];
+            final float[] dist = new float[K], bearing = new float[K];
+            t0 = System.nanoTime();
+            for (int q = 0; q < queries; q++) {
+                index.nearest(qlat[q], qlon[q], K, idx, dist, bearing);
+                assertEquals(objectTopK[q], dist[K - 1], 0.01f);
+            }
+            final long gridNs = (System.nanoTime() - t0) / queries;
+
+            System.out.println(String.format("%6d stops: per-object sort %8d us, kernel scan %6d us, grid %5d us",
+                    n, objectNs / 1000, kernelNs / 1000, gridNs / 1000));
+        }
+    }
+
+    private static void randomStops(Random rnd, double[] lat, double[] lon) {
+        for (int i = 0; i < lat.length; i++) {
+            lat[i] = 3.30 + rnd.nextDouble() * 0.25;
+            lon[i] = -76.60 + rnd.nextDouble() * 0.20;
+        }
+    }
+
+    private static float kthSmallest(float[] values, int k) {
+        final float[] best = new float[k];
+        Arrays.fill(best, Float.MAX_VALUE);
+        for (float v : values) {
+            if (v < best[k - 1]) {
+                int pos = k - 1;
+                while (pos > 0 && best[pos - 1] > v) {
+                    best[pos] = best[pos - 1];
+                    pos--;
+                }
+                best[pos] = v;
+            }
+        }
+        return best[k - 1];
+    }
+}
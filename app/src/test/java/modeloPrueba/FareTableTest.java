@@ -0,0 +1,229 @@
+package modeloPrueba;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks a fare's transfers and transfer_duration decide how many fares a journey
+ * takes, that zones pick the fare for the ride, that each rule holds on its own, while
+ * contains_ids go for the fare as a whole, that what no fare covers is unknown, and
+ * how long pricing a planner result takes, on the grid network of RaptorRouterTest.
+ */
+public class FareTableTest {
+
+    private static final int HOP = 180;
+
+    @Test
+    public void transfersWithinTheWindowAreFree() throws Exception {
+        final Timetable tt = line();
+        final FareTable fares = new FareTable(rows(attr("MIO", "2700", 2, "3600")),
+                rows(rule("MIO", "R1", "", "", ""), rule("MIO", "R2", "", "", "")));
+        final FareTable.Pricer pricer = fares.pricer(tt, tripRoutes(tt), new HashMap<String, String>());
+        assertEquals(270000, fares.getCheapest());
+        final int r1 = trip(tt, "A8"), r2 = trip(tt, "B8"), late = trip(tt, "B10");
+        assertEquals(270000, pricer.price(journey(tt, r1, 0, 2)));
+        assertEquals(270000, pricer.price(journey(tt, r1, 0, 1, r2, 1, 2)));
+        // Two hours on, it's a new fare
+        assertEquals(540000, pricer.price(journey(tt, r1, 0, 1, late, 1, 2)));
+        // Three changes are one too many
+        assertEquals(540000, pricer.price(journey(tt, r1, 0, 1, r2, 1, 2, r1, 0, 1, r2, 1, 2)));
+        // Walking is free
+        final Journey walk = new Journey();
+        walk.legs.add(Journey.Leg.walk(0, 1, 8 * 3600, 8 * 3600 + 600));
+        assertEquals(0, pricer.price(walk));
+    }
+
+    @Test
+    public void zonesPickTheFare() throws Exception {
+        final Timetable tt = line();
+        final HashMap<String, String> zones = new HashMap<String, String>();
+        zones.put("S0", "Z1");
+        zones.put("S1", "Z1");
+        zones.put("S2", "Z2");
+        final FareTable fares = new FareTable(
+                rows(attr("LOCAL", "2000", 0, ""), attr("CROSS", "3500", 0, ""), attr("INNER", "1500", 0, "")),
+                rows(rule("LOCAL", "", "Z1", "Z1", ""), rule("LOCAL", "", "Z2", "Z2", ""),
+                        rule("CROSS", "", "Z1", "", ""), rule("INNER", "R2", "", "", "Z1")));
+        final FareTable.Pricer pricer = fares.pricer(tt, tripRoutes(tt), zones);
+        final int r1 = trip(tt, "A8"), r2 = trip(tt, "B8");
+        assertEquals(200000, pricer.price(journey(tt, r1, 0, 1)));
+        assertEquals(350000, pricer.price(journey(tt, r1, 0, 2)));
+        // Only route 2 has the inner fare, and only while it stays in zone 1
+        assertEquals(150000, pricer.price(journey(tt, r2, 0, 1)));
+        assertEquals(350000, pricer.price(journey(tt, r2, 0, 2)));
+        // No transfers: a local fare, then a cross one
+        assertEquals(550000, pricer.price(journey(tt, r1, 0, 1, r2, 1, 2)));
+    }
+
+    @Test
+    public void eachRuleHoldsOnItsOwn() throws Exception {
+        final Timetable tt = line();
+        final HashMap<String, String> zones = new HashMap<String, String>();
+        zones.put("S0", "Z1");
+        zones.put("S1", "Z1");
+        zones.put("S2", "Z2");
+        // SHORT is route 1 within zone 1, or route 2 within zone 2; EITHER is route 1
+        // anywhere, or anything from zone 2
+        final FareTable fares = new FareTable(
+                rows(attr("SHORT", "1000", 0, ""), attr("EITHER", "2000", 0, ""), attr("FULL", "5000", 0, "")),
+                rows(rule("SHORT", "R1", "Z1", "Z1", ""), rule("SHORT", "R2", "Z2", "Z2", ""),
+                        rule("EITHER", "R1", "", "", ""), rule("EITHER", "", "Z2", "", ""),
+                        rule("FULL", "", "", "", "")));
+        final FareTable.Pricer pricer = fares.pricer(tt, tripRoutes(tt), zones);
+        final int r1 = trip(tt, "A8"), r2 = trip(tt, "B8");
+        assertEquals(100000, pricer.price(journey(tt, r1, 0, 1)));
+        // Route 2 within zone 1: neither SHORT rule, nor EITHER's, though each has a
+        // rule for the route and one for the zones
+        assertEquals(500000, pricer.price(journey(tt, r2, 0, 1)));
+        assertEquals(200000, pricer.price(journey(tt, r1, 1, 2)));
+        assertEquals(500000, pricer.price(journey(tt, r2, 1, 2)));
+    }
+
+    @Test
+    public void containsGoesForTheWholeFare() throws Exception {
+        final Timetable tt = line();
+        final HashMap<String, String> zones = new HashMap<String, String>();
+        zones.put("S0", "Z1");
+        zones.put("S1", "Z1");
+        zones.put("S2", "Z2");
+        // By the rules route 2 may only pass through zone 1, but the fare's zones are
+        // taken together: an approximation, priced as if route 2 could go through Z2
+        final FareTable fares = new FareTable(rows(attr("RING", "1200", 0, ""), attr("FULL", "5000", 0, "")),
+                rows(rule("RING", "R1", "", "", "Z1"), rule("RING", "R1", "", "", "Z2"),
+                        rule("RING", "R2", "", "", "Z1"), rule("FULL", "", "", "", "")));
+        final FareTable.Pricer pricer = fares.pricer(tt, tripRoutes(tt), zones);
+        assertEquals(120000, pricer.price(journey(tt, trip(tt, "A8"), 0, 2)));
+        assertEquals(120000, pricer.price(journey(tt, trip(tt, "B8"), 0, 2)));
+    }
+
+    @Test
+    public void unknownWhenNoFareCovers() throws Exception {
+        final Timetable tt = line();
+        final FareTable fares = new FareTable(rows(attr("MIO", "2700", 2, "")), rows(rule("MIO", "R1", "", "", "")));
+        final FareTable.Pricer pricer = fares.pricer(tt, tripRoutes(tt), new HashMap<String, String>());
+        assertEquals(FareTable.UNKNOWN, pricer.price(journey(tt, trip(tt, "B8"), 0, 2)));
+        assertEquals(FareTable.UNKNOWN, pricer.price(journey(tt, trip(tt, "A8"), 0, 1, trip(tt, "B8"), 1, 2)));
+        // and a feed without fares knows nothing
+        final FareTable none = new FareTable(new ArrayList<String[]>(), new ArrayList<String[]>());
+        assertEquals(FareTable.UNKNOWN, none.getCheapest());
+        assertEquals(FareTable.UNKNOWN, none.pricer(tt, tripRoutes(tt), new HashMap<String, String>())
+                .price(journey(tt, trip(tt, "A8"), 0, 2)));
+    }
+
+    @Test
+    public void benchmarkPricingPlannerResults() throws Exception {
+        final Timetable tt = RaptorRouterTest.gridNetwork(new Random(51), 15);
+        // A fare for each line, a cheaper one for the first half of the lines, and a
+        // day pass good for everything
+        final ArrayList<String[]> attributes = new ArrayList<String[]>(), rules = new ArrayList<String[]>();
+        attributes.add(attr("BASE", "2700", 2, "5400"));
+        attributes.add(attr("MEDIO", "1800", 1, "3600"));
+        attributes.add(attr("DIA", "9000", -1, ""));
+        rules.add(rule("DIA", "", "", "", ""));
+        final HashMap<String, String> tripRoutes = tripRoutes(tt);
+        final HashMap<String, Boolean> lines = new HashMap<String, Boolean>();
+        for (String route : tripRoutes.values()) {
+            lines.put(route, Boolean.TRUE);
+        }
+        for (String route : lines.keySet()) {
+            rules.add(rule("BASE", route, "", "", ""));
+            if (Integer.parseInt(route.substring(1)) % 2 == 0) {
+                rules.add(rule("MEDIO", route, "", "", ""));
+            }
+        }
+        final FareTable.Pricer pricer = new FareTable(attributes, rules).pricer(tt, tripRoutes,
+                new HashMap<String, String>());
+        final RaptorRouter router = new RaptorRouter(tt);
+        final Random rnd = new Random(52);
+        final ArrayList<Journey> journeys = new ArrayList<Journey>();
+        while (journeys.size() < 200) {
+            final int from = rnd.nextInt(tt.numStops), to = rnd.nextInt(tt.numStops);
+            if (from != to) {
+                journeys.addAll(router.route(new int[] { from }, new int[] { 0 }, new int[] { to }, new int[] { 0 },
+                        7 * 3600 + rnd.nextInt(12 * 3600), 4));
+            }
+        }
+        long total = 0;
+        for (Journey j : journeys) {
+            final long price = pricer.price(j);
+            assertTrue(price > 0 && price <= 900000);
+            total += price;
+        }
+        final int runs = 50;
+        final long t0 = System.nanoTime();
+        for (int run = 0; run < runs; run++) {
+            for (Journey j : journeys) {
+                pricer.price(j);
+            }
+        }
+        final double each = (System.nanoTime() - t0) / 1e3 / runs / journeys.size();
+        System.out.printf("%d journeys, %d fares: %.2fus an itinerary, %.0f on average%n", journeys.size(),
+                attributes.size(), each, total / 100.0 / journeys.size());
+    }
+
+    // Route 1 and route 2 over the same three stops, hourly from 6:00
+    static Timetable line() {
+        final TimetableBuilder b = new TimetableBuilder("20261019");
+        final int[] stops = { b.addStop("S0", "Uno", 3.40, -76.55), b.addStop("S1", "Dos", 3.41, -76.55),
+                b.addStop("S2", "Tres", 3.42, -76.55) };
+        for (int h = 6; h <= 20; h++) {
+            final int[] times = { h * 3600, h * 3600 + HOP, h * 3600 + 2 * HOP };
+            b.addTrip("A" + h, "1", "Uno", stops, times, times);
+            final int[] later = { h * 3600 + 600, h * 3600 + 600 + HOP, h * 3600 + 600 + 2 * HOP };
+            b.addTrip("B" + h, "2", "Dos", stops, later, later);
+        }
+        return b.build();
+    }
+
+    // trip_id -> route_id: "R" and the route name for line(), the route name for the grid
+    static HashMap<String, String> tripRoutes(Timetable tt) {
+        final HashMap<String, String> routes = new HashMap<String, String>();
+        for (int t = 0; t < tt.getTripCount(); t++) {
+            final String route = tt.getTripRoute(t);
+            routes.put(tt.getTripId(t), route.startsWith("L") ? route : "R" + route);
+        }
+        return routes;
+    }
+
+    // Rides on trip from pos to pos, each three ints
+    static Journey journey(Timetable tt, int... rides) {
+        final Journey j = new Journey();
+        for (int i = 0; i < rides.length; i += 3) {
+            final int trip = rides[i], from = rides[i + 1], to = rides[i + 2];
+            final int p = tt.tripPattern[trip], stops = tt.patternStopStart[p];
+            j.legs.add(Journey.Leg.ride(trip, tt.patternStops[stops + from], from, tt.patternStops[stops + to], to,
+                    tt.getDeparture(trip, from), tt.getArrival(trip, to)));
+        }
+        return j;
+    }
+
+    static int trip(Timetable tt, String id) {
+        for (int t = 0; t < tt.getTripCount(); t++) {
+            if (tt.getTripId(t).equals(id)) {
+                return t;
+            }
+        }
+        throw new AssertionError(id);
+    }
+
+    private static String[] attr(String id, String price, int transfers, String duration) {
+        return new String[] { id, price, "COP", "0", (transfers < 0) ? "" : Integer.toString(transfers), duration };
+    }
+
+    private static String[] rule(String id, String route, String origin, String destination, String contains) {
+        return new String[] { id, route, origin, destination, contains };
+    }
+
+    private static ArrayList<String[]> rows(String[]... rows) {
+        final ArrayList<String[]> list = new ArrayList<String[]>();
+        for (String[] r : rows) {
+            list.add(r);
+        }
+        return list;
+    }
+}
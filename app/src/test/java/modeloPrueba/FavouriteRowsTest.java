@@ -0,0 +1,145 @@
+package modeloPrueba;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the favourites rows built through the stop_id map against the old way (an
+ * indexOf() through the feed's stop ids for every departure), and times both for 60
+ * favourites spread over four feeds.
+ */
+public class FavouriteRowsTest {
+
+    private static final String[] FEEDS = { "mio", "metrocali", "jamundi", "palmira" };
+    private static final int FAVOURITES = 60;
+    private static final int BUSES = 3;
+
+    private static final FavouriteRows.DepartureLabel LABEL = new FavouriteRows.DepartureLabel() {
+        @Override
+        public String departsIn(String hours, String minutes) {
+            return hours + ":" + minutes;
+        }
+    };
+
+    @Test
+    public void matchesIndexOfAssembly() throws Exception {
+        final Random rnd = new Random(33);
+        final List<LinkedHashMap<String, FavouritesStore.Favourite>> favs = favourites(rnd);
+        for (int f = 0; f < FEEDS.length; f++) {
+            final List<String[]> deps = departures(rnd, favs.get(f));
+            final List<String[]> expected = new ArrayList<String[]>(), actual = new ArrayList<String[]>();
+            indexOfAssembly(FEEDS[f], favs.get(f), deps, true, expected);
+            assertEquals(deps.size(), FavouriteRows.assemble(FEEDS[f], favs.get(f), deps, true, LABEL, actual));
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertArrayEquals(expected.get(i), actual.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void skipsDeparturesOfOtherStops() throws Exception {
+        final LinkedHashMap<String, FavouritesStore.Favourite> favs = new LinkedHashMap<String, FavouritesStore.Favourite>();
+        favs.put("100", new FavouritesStore.Favourite(1, "mio", "100", "Universidades"));
+        final List<String[]> deps = Arrays.asList(
+                new String[] { "071500", "1", "t1", "E21", "Centro", "100" },
+                new String[] { "072000", "1", "t2", "", "Centro", "200" });
+        final List<String[]> rows = new ArrayList<String[]>();
+        assertEquals(1, FavouriteRows.assemble("mio", favs, deps, false, LABEL, rows));
+        assertArrayEquals(new String[] { "", "100", "Universidades", "Centro", "07:15", "t1", "mio", "100", "071500" },
+                rows.get(0));
+    }
+
+    @Test
+    public void benchmarkAgainstIndexOf() throws Exception {
+        final Random rnd = new Random(50);
+        final List<LinkedHashMap<String, FavouritesStore.Favourite>> favs = favourites(rnd);
+        final List<List<String[]>> deps = new ArrayList<List<String[]>>();
+        for (int f = 0; f < FEEDS.length; f++) {
+            deps.add(departures(rnd, favs.get(f)));
+        }
+        final int reps = 2000;
+        long sink = 0;
+        for (int warm = 0; warm < 2; warm++) {
+            long t0 = System.nanoTime();
+            for (int r = 0; r < reps; r++) {
+                final List<String[]> rows = new ArrayList<String[]>();
+                for (int f = 0; f < FEEDS.length; f++) {
+                    indexOfAssembly(FEEDS[f], favs.get(f), deps.get(f), true, rows);
+                }
+                sink += rows.size();
+            }
+            final long old = System.nanoTime() - t0;
+            t0 = System.nanoTime();
+            for (int r = 0; r < reps; r++) {
+                final List<String[]> rows = new ArrayList<String[]>();
+                for (int f = 0; f < FEEDS.length; f++) {
+                    FavouriteRows.assemble(FEEDS[f], favs.get(f), deps.get(f), true, LABEL, rows);
+                }
+                sink += rows.size();
+            }
+            final long map = System.nanoTime() - t0;
+            if (warm == 1) {
+                System.out.printf("%d favourites, %d feeds: indexOf %.1fus, map %.1fus per board%n",
+                        FAVOURITES, FEEDS.length, old / 1e3 / reps, map / 1e3 / reps);
+            }
+        }
+        assertTrue(sink > 0);
+    }
+
+    // FAVOURITES stops spread round-robin over the feeds
+    private static List<LinkedHashMap<String, FavouritesStore.Favourite>> favourites(Random rnd) {
+        final List<LinkedHashMap<String, FavouritesStore.Favourite>> favs =
+                new ArrayList<LinkedHashMap<String, FavouritesStore.Favourite>>();
+        for (int f = 0; f < FEEDS.length; f++) {
+            favs.add(new LinkedHashMap<String, FavouritesStore.Favourite>());
+        }
+        for (int i = 0; i < FAVOURITES; i++) {
+            final int f = i % FEEDS.length;
+            final String stop = Integer.toString(500000 + rnd.nextInt(400000));
+            favs.get(f).put(stop, new FavouritesStore.Favourite(i + 1, FEEDS[f], stop, "Parada " + stop));
+        }
+        return favs;
+    }
+
+    // BUSES departures per stop for today and for the day either side, as getNextDepartureTimesGen gives them
+    private static List<String[]> departures(Random rnd, LinkedHashMap<String, FavouritesStore.Favourite> favs) {
+        final List<String[]> deps = new ArrayList<String[]>();
+        for (int pass = 0; pass < 2; pass++) {
+            for (String stop : favs.keySet()) {
+                for (int b = 0; b < BUSES; b++) {
+                    deps.add(new String[] { String.format("%02d%02d00", rnd.nextInt(24), rnd.nextInt(60)),
+                            "1", "trip" + rnd.nextInt(100000), rnd.nextBoolean() ? "" : "T" + rnd.nextInt(50),
+                            "Destino " + rnd.nextInt(20), stop });
+                }
+            }
+        }
+        return deps;
+    }
+
+    // The assembly FavFragmentHelper used to do
+    private static void indexOfAssembly(String dbName, LinkedHashMap<String, FavouritesStore.Favourite> favs,
+            List<String[]> deps, boolean useRouteNo, List<String[]> out) {
+        final String[] stopIds = new String[favs.size()];
+        final String[] names = new String[favs.size()];
+        int n = 0;
+        for (FavouritesStore.Favourite fav : favs.values()) {
+            stopIds[n] = fav.stop_id;
+            names[n++] = fav.stop_name;
+        }
+        for (String[] str : deps) {
+            final int myIndex = Arrays.asList(stopIds).indexOf(str[5]);
+            final String routeNo = (str[3].equals("") || !useRouteNo) ? stopIds[myIndex] : str[3];
+            out.add(new String[] { "", str[5], names[myIndex], str[4],
+                    LABEL.departsIn(str[0].substring(0, 2), str[0].substring(2, 4)), str[2], dbName, routeNo,
+                    str[0] });
+        }
+    }
+}
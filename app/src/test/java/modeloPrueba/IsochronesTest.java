@@ -0,0 +1,108 @@
+package modeloPrueba;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the time bands agree with single queries and don't depend on how many threads
+ * share the work, and measures how the searches scale with cores, on the grid network
+ * of RaptorRouterTest.
+ */
+public class IsochronesTest {
+
+    private static final int[] BANDS = { 30 * 60, 45 * 60, 60 * 60 };
+
+    @Test
+    public void bandsMatchSingleQueries() throws Exception {
+        final Timetable tt = RaptorRouterTest.gridNetwork(new Random(42), 10);
+        final Isochrones iso = new Isochrones(tt, 4);
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        final int from = tt.findStop("10-10"), dep = 8 * 3600, departures = 7;
+        final Isochrones.Result r = iso.compute(pool, new int[] { from }, new int[] { 0 }, dep, departures, 60, BANDS);
+        pool.shutdown();
+
+        assertEquals(0, r.travel[from]);
+        int banded = 0;
+        for (int b = 0; b < BANDS.length; b++) {
+            banded += r.counts[b];
+        }
+        int counted = 0;
+        final RaptorRouter router = new RaptorRouter(tt);
+        final Random rnd = new Random(12);
+        for (int s = 0; s < tt.numStops; s++) {
+            if (r.band[s] != Isochrones.UNREACHED) {
+                counted++;
+                assertTrue(r.travel[s] <= BANDS[r.band[s]]);
+                assertTrue(r.band[s] == 0 || r.travel[s] > BANDS[r.band[s] - 1]);
+            }
+            if (s == from || rnd.nextInt(10) != 0) {
+                continue;
+            }
+            // The lower median of the best arrivals over the departures
+            final int[] times = new int[departures];
+            for (int d = 0; d < departures; d++) {
+                final ArrayList<Journey> js = router.route(new int[] { from }, new int[] { 0 },
+                        new int[] { s }, new int[] { 0 }, dep + 60 * d, 4);
+                times[d] = js.isEmpty() ? Integer.MAX_VALUE : js.get(js.size() - 1).getArrival() - (dep + 60 * d);
+            }
+            Arrays.sort(times);
+            final int median = times[(departures - 1) / 2];
+            assertEquals(median == Integer.MAX_VALUE ? Isochrones.UNREACHED : median, r.travel[s]);
+        }
+        assertEquals(banded, counted);
+        assertTrue(r.counts[0] > 0 && r.counts[2] > 0);
+    }
+
+    @Test
+    public void sameBandsOnAnyNumberOfThreads() throws Exception {
+        final Timetable tt = TransferGraphTest.splitGrid(new Random(43), 120);
+        final Isochrones iso = new Isochrones(tt, 4);
+        Isochrones.Result first = null;
+        for (int threads = 1; threads <= 3; threads++) {
+            final ForkJoinPool pool = new ForkJoinPool(threads);
+            final Isochrones.Result r = iso.compute(pool, new int[] { 17, 400 }, new int[] { 0, 90 },
+                    9 * 3600, 9, 60, BANDS);
+            pool.shutdown();
+            if (first == null) {
+                first = r;
+            } else {
+                assertArrayEquals(first.travel, r.travel);
+                assertArrayEquals(first.counts, r.counts);
+            }
+        }
+    }
+
+    @Test
+    public void benchmarkScalingWithCores() throws Exception {
+        final Timetable tt = RaptorRouterTest.gridNetwork(new Random(50), 15);
+        final Isochrones iso = new Isochrones(tt, 4);
+        final int cores = Runtime.getRuntime().availableProcessors();
+        final int departures = 16, runs = 5;
+        double single = 0;
+        final StringBuilder sb = new StringBuilder();
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            final ForkJoinPool pool = new ForkJoinPool(threads);
+            long total = 0;
+            for (int run = 0; run < runs + 2; run++) {
+                final long t0 = System.nanoTime();
+                iso.compute(pool, new int[] { run * 97 % tt.numStops }, new int[] { 0 }, 8 * 3600, departures, 60, BANDS);
+                if (run >= 2) {
+                    total += System.nanoTime() - t0;
+                }
+            }
+            pool.shutdown();
+            final double ms = total / 1e6 / runs;
+            if (threads == 1) {
+                single = ms;
+            }
+            sb.append(String.format(" %d threads %.1fms (x%.1f);", threads, ms, single / ms));
+        }
+        System.out.printf("%d one-to-all searches on %d stops:%s%n", departures, tt.numStops, sb);
+    }
+}
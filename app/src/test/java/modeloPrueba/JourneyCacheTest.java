@@ -0,0 +1,122 @@
+package modeloPrueba;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks plans from nearby points a little later come back from the cache only while
+ * they're still the right answer, that the byte budget evicts the least recently used
+ * plans, and that installing a feed forgets its plans, on the grid network of
+ * RaptorRouterTest.
+ */
+public class JourneyCacheTest {
+
+    private static final String FEED = "mio.db", DATE = "20261019";
+
+    @Test
+    public void nearbyLaterPlansHit() throws Exception {
+        final Timetable tt = RaptorRouterTest.gridNetwork(new Random(41), 10);
+        final JourneyPlanner planner = new JourneyPlanner(tt);
+        final JourneyCache cache = new JourneyCache(1 << 20);
+        final double fromLat = 3.4005, fromLon = -76.5495, toLat = 3.4545, toLon = -76.469;
+        final int dep = 8 * 3600 + 5;
+        final String key = key(fromLat, fromLon, toLat, toLon, dep);
+        assertNull(cache.lookup(key, dep));
+        final ArrayList<Journey> planned = planner.plan(fromLat, fromLon, toLat, toLon, dep, 3);
+        assertFalse(planned.isEmpty());
+        cache.put(key, FEED, dep, false, planned);
+
+        // A few metres away, a few seconds later: same key, same journeys
+        final String near = key(fromLat + 0.0002, fromLon - 0.0002, toLat, toLon, dep + 10);
+        assertEquals(key, near);
+        final ArrayList<Journey> again = cache.lookup(near, dep + 10);
+        assertNotNull(again);
+        assertEquals(planned.size(), again.size());
+        // Another block, or another bucket, is a different plan
+        assertFalse(key.equals(key(fromLat + 0.01, fromLon, toLat, toLon, dep)));
+        assertFalse(key.equals(key(fromLat, fromLon, toLat, toLon, dep + JourneyCache.BUCKET_SECONDS)));
+        // Earlier than the plan was made for, it may have missed something
+        assertNull(cache.lookup(key, dep - 1));
+        assertEquals(1, cache.getHits());
+
+        // Once the first bus has gone the plan isn't right any more
+        int first = Integer.MAX_VALUE;
+        for (Journey j : planned) {
+            first = Math.min(first, JourneyCache.leaves(j));
+        }
+        if (first < dep + JourneyCache.BUCKET_SECONDS) {
+            assertNull(cache.lookup(key, first + 1));
+            assertEquals(0, cache.size());
+        }
+    }
+
+    @Test
+    public void rangesDropWhatHasLeft() throws Exception {
+        final Timetable tt = RaptorRouterTest.gridNetwork(new Random(42), 10);
+        final JourneyPlanner planner = new JourneyPlanner(tt);
+        final JourneyCache cache = new JourneyCache(1 << 20);
+        final int dep = 9 * 3600;
+        final String key = JourneyCache.key(FEED, DATE, "raptor", 3, 3600, 3.4005, -76.5495, 3.4545, -76.469, dep);
+        final ArrayList<Journey> range = planner.planRange(3.4005, -76.5495, 3.4545, -76.469, dep, dep + 3600, 3);
+        assertTrue(range.size() > 1);
+        cache.put(key, FEED, dep, true, range);
+        final int later = JourneyCache.leaves(range.get(0)) + 1;
+        final ArrayList<Journey> left = cache.lookup(key, later);
+        if (later < dep + JourneyCache.BUCKET_SECONDS) {
+            assertNotNull(left);
+            for (Journey j : left) {
+                assertTrue(JourneyCache.leaves(j) >= later);
+            }
+            assertTrue(left.size() < range.size());
+        }
+    }
+
+    @Test
+    public void budgetEvictsLeastRecentlyUsed() throws Exception {
+        final Timetable tt = RaptorRouterTest.gridNetwork(new Random(43), 10);
+        final JourneyPlanner planner = new JourneyPlanner(tt);
+        final ArrayList<Journey> js = planner.plan(3.4005, -76.5495, 3.4545, -76.469, 8 * 3600, 3);
+        final JourneyCache sizing = new JourneyCache(1 << 20);
+        sizing.put(key(3.40, -76.55, 3.45, -76.47, 0), FEED, 0, false, js);
+        final long each = sizing.getBytes();
+        assertTrue(each > 0);
+
+        final JourneyCache cache = new JourneyCache(each * 3 + each / 2);
+        final String[] keys = new String[4];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = key(3.40 + i * 0.01, -76.55, 3.45, -76.47, 0);
+        }
+        cache.put(keys[0], FEED, 0, false, js);
+        cache.put(keys[1], FEED, 0, false, js);
+        cache.put(keys[2], FEED, 0, false, js);
+        assertNotNull(cache.lookup(keys[0], 0));    // now keys[1] is the oldest
+        cache.put(keys[3], FEED, 0, false, js);
+        assertEquals(3, cache.size());
+        assertTrue(cache.getBytes() <= each * 3 + each / 2);
+        assertNull(cache.lookup(keys[1], 0));
+        assertNotNull(cache.lookup(keys[0], 0));
+        assertNotNull(cache.lookup(keys[3], 0));
+    }
+
+    @Test
+    public void installingAFeedForgetsItsPlans() throws Exception {
+        final JourneyCache cache = new JourneyCache(1 << 20);
+        final ArrayList<Journey> none = new ArrayList<Journey>();
+        cache.put(key(3.40, -76.55, 3.45, -76.47, 0), FEED, 0, false, none);
+        final String other = JourneyCache.key("otro.db", DATE, "raptor", 3, 0, 3.40, -76.55, 3.45, -76.47, 0);
+        cache.put(other, "otro.db", 0, false, none);
+        cache.invalidate(FEED);
+        assertEquals(1, cache.size());
+        assertNotNull(cache.lookup(other, 0));
+        cache.invalidate("otro.db");
+        assertEquals(0, cache.getBytes());
+    }
+
+    private static String key(double fromLat, double fromLon, double toLat, double toLon, int dep) {
+        return JourneyCache.key(FEED, DATE, "raptor", 3, 0, fromLat, fromLon, toLat, toLon, dep);
+    }
+}
@@ -0,0 +1,92 @@
+package modeloPrueba;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the multi-criteria router never does worse than RAPTOR on arrival for any
+ * number of transfers, that its journeys don't beat each other, and that its budgets
+ * cut a query short, on the grid whose lines change on foot (TransferGraphTest).
+ */
+public class McRaptorRouterTest {
+
+    @Test
+    public void coversRaptorAndIsPareto() throws Exception {
+        final Timetable tt = TransferGraphTest.splitGrid(new Random(38), 120);
+        final RaptorRouter raptor = new RaptorRouter(tt);
+        final McRaptorRouter mc = new McRaptorRouter(tt);
+        final Random rnd = new Random(6);
+        int richer = 0;
+        for (int q = 0; q < 150; q++) {
+            final int from = rnd.nextInt(tt.numStops), to = rnd.nextInt(tt.numStops);
+            if (from == to) {
+                continue;
+            }
+            final int dep = 6 * 3600 + rnd.nextInt(14 * 3600);
+            final ArrayList<Journey> a = raptor.route(new int[] { from }, new int[] { 0 },
+                    new int[] { to }, new int[] { 0 }, dep, 4);
+            final ArrayList<Journey> b = mc.route(new int[] { from }, new int[] { 0 },
+                    new int[] { to }, new int[] { 0 }, dep, 4);
+            assertFalse(mc.isTruncated());
+            for (Journey r : a) {
+                boolean covered = false;
+                for (Journey m : b) {
+                    covered |= m.getTransfers() <= r.getTransfers() && m.getArrival() <= r.getArrival();
+                }
+                assertTrue(covered);
+            }
+            for (Journey x : b) {
+                for (Journey y : b) {
+                    if (x != y) {
+                        assertFalse(x.getArrival() <= y.getArrival() && x.getTransfers() <= y.getTransfers()
+                                && x.getWalkSeconds() <= y.getWalkSeconds());
+                    }
+                }
+            }
+            richer += (b.size() > a.size()) ? 1 : 0;
+        }
+        // Trading a walk for a later bus should come up
+        assertTrue(richer > 0);
+    }
+
+    @Test
+    public void budgetsCutQueriesShort() throws Exception {
+        final Timetable tt = TransferGraphTest.splitGrid(new Random(39), 120);
+        final McRaptorRouter mc = new McRaptorRouter(tt);
+        mc.setBudget(500, 12, 1000);
+        final ArrayList<Journey> js = mc.route(new int[] { 0 }, new int[] { 0 },
+                new int[] { tt.numStops - 1 }, new int[] { 0 }, 8 * 3600, 4);
+        assertTrue(mc.isTruncated());
+        for (Journey j : js) {
+            assertTrue(j.getArrival() > 8 * 3600);
+        }
+    }
+
+    @Test
+    public void benchmarkWorstCase() throws Exception {
+        final Timetable tt = TransferGraphTest.splitGrid(new Random(40), 120);
+        final McRaptorRouter mc = new McRaptorRouter(tt);
+        final Random rnd = new Random(7);
+        final int queries = 200;
+        long total = 0, worst = 0;
+        int truncated = 0;
+        for (int q = 0; q < queries + 30; q++) {
+            final int from = rnd.nextInt(tt.numStops), to = rnd.nextInt(tt.numStops);
+            final int dep = 6 * 3600 + rnd.nextInt(14 * 3600);
+            final long t0 = System.nanoTime();
+            mc.route(new int[] { from }, new int[] { 0 }, new int[] { to }, new int[] { 0 }, dep, 4);
+            final long t = System.nanoTime() - t0;
+            if (q >= 30) {
+                total += t;
+                worst = Math.max(worst, t);
+                truncated += mc.isTruncated() ? 1 : 0;
+            }
+        }
+        System.out.printf("McRAPTOR on %d stops: mean %.2fms, worst %.2fms, %d of %d truncated%n",
+                tt.numStops, total / 1e6 / queries, worst / 1e6, truncated, queries);
+    }
+}
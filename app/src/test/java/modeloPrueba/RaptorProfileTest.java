@@ -0,0 +1,172 @@
+package modeloPrueba;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks a range query gives, for every minute of the hour, the same best arrivals by
+ * number of transfers as a query leaving that minute, and times it against asking
+ * once a minute.
+ */
+public class RaptorProfileTest {
+
+    @Test
+    public void profileMatchesQueriesEveryMinute() throws Exception {
+        final Timetable tt = TransferGraphTest.splitGrid(new Random(41), 120);
+        final RaptorRouter router = new RaptorRouter(tt);
+        final Random rnd = new Random(8);
+        for (int q = 0; q < 30; q++) {
+            final int from = rnd.nextInt(tt.numStops), to = rnd.nextInt(tt.numStops);
+            if (from == to) {
+                continue;
+            }
+            final int earliest = 7 * 3600 + rnd.nextInt(12 * 3600);
+            final ArrayList<Journey> profile = router.profile(new int[] { from }, new int[] { 0 },
+                    new int[] { to }, new int[] { 0 }, earliest, earliest + 3600, 4);
+            for (int i = 1; i < profile.size(); i++) {
+                assertTrue(profile.get(i).getDeparture() >= profile.get(i - 1).getDeparture());
+            }
+            for (Journey j : profile) {
+                checkLegs(tt, j, from, to);
+            }
+            for (int t = earliest; t <= earliest + 3600; t += 60) {
+                final ArrayList<Journey> single = router.route(new int[] { from }, new int[] { 0 },
+                        new int[] { to }, new int[] { 0 }, t, 4);
+                for (int k = 0; k <= 4; k++) {
+                    // A single query may wait for something after the hour
+                    final Journey best = best(single, k);
+                    if (best != null && leaves(best) <= earliest + 3600) {
+                        assertEquals(best.getArrival(), bestArrival(profile, t, k));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void profilesBackToBackLeaveNothingBehind() throws Exception {
+        // Only ranges on this one, so nothing in between clears what a profile left
+        final Timetable tt = TransferGraphTest.splitGrid(new Random(41), 120);
+        final RaptorRouter profiled = new RaptorRouter(tt);
+        final RaptorRouter fresh = new RaptorRouter(tt);
+        final Random rnd = new Random(12);
+        for (int q = 0; q < 30; q++) {
+            final int from = rnd.nextInt(tt.numStops), to = rnd.nextInt(tt.numStops);
+            if (from == to) {
+                continue;
+            }
+            final int earliest = 7 * 3600 + rnd.nextInt(12 * 3600);
+            final ArrayList<Journey> profile = profiled.profile(new int[] { from }, new int[] { 0 },
+                    new int[] { to }, new int[] { 0 }, earliest, earliest + 3600, 3);
+            for (int t = earliest; t <= earliest + 3600; t += 60) {
+                final ArrayList<Journey> single = fresh.route(new int[] { from }, new int[] { 0 },
+                        new int[] { to }, new int[] { 0 }, t, 3);
+                for (int k = 0; k <= 3; k++) {
+                    final Journey best = best(single, k);
+                    if (best != null && leaves(best) <= earliest + 3600) {
+                        assertEquals(best.getArrival(), bestArrival(profile, t, k));
+                    }
+                }
+            }
+        }
+        // And a plain query on the same router afterwards is as good as on a new one
+        for (int q = 0; q < 100; q++) {
+            final int from = rnd.nextInt(tt.numStops), to = rnd.nextInt(tt.numStops);
+            final int t = 7 * 3600 + rnd.nextInt(12 * 3600);
+            final ArrayList<Journey> after = profiled.route(new int[] { from }, new int[] { 0 },
+                    new int[] { to }, new int[] { 0 }, t, 3);
+            final ArrayList<Journey> expected = fresh.route(new int[] { from }, new int[] { 0 },
+                    new int[] { to }, new int[] { 0 }, t, 3);
+            for (int k = 0; k <= 3; k++) {
+                final Journey a = best(after, k), e = best(expected, k);
+                assertEquals(e == null, a == null);
+                if (e != null) {
+                    assertEquals(e.getArrival(), a.getArrival());
+                }
+            }
+            profiled.profile(new int[] { to }, new int[] { 0 }, new int[] { from }, new int[] { 0 },
+                    t, t + 3600, 3);
+        }
+    }
+
+    @Test
+    public void benchmarkAgainstQueryPerMinute() throws Exception {
+        final Timetable tt = RaptorRouterTest.gridNetwork(new Random(50), 15);
+        final RaptorRouter router = new RaptorRouter(tt);
+        final Random rnd = new Random(9);
+        final int queries = 30;
+        long range = 0, perMinute = 0;
+        int journeys = 0;
+        for (int q = 0; q < queries + 5; q++) {
+            final int from = rnd.nextInt(tt.numStops), to = rnd.nextInt(tt.numStops);
+            final int earliest = 7 * 3600 + rnd.nextInt(12 * 3600);
+            long t0 = System.nanoTime();
+            final ArrayList<Journey> profile = router.profile(new int[] { from }, new int[] { 0 },
+                    new int[] { to }, new int[] { 0 }, earliest, earliest + 3600, 4);
+            final long t1 = System.nanoTime();
+            for (int t = earliest; t <= earliest + 3600; t += 60) {
+                router.route(new int[] { from }, new int[] { 0 }, new int[] { to }, new int[] { 0 }, t, 4);
+            }
+            final long t2 = System.nanoTime();
+            if (q >= 5) {
+                range += t1 - t0;
+                perMinute += t2 - t1;
+                journeys += profile.size();
+            }
+        }
+        System.out.printf("next hour: range query %.2fms (%.1f journeys), 61 single queries %.2fms%n",
+                range / 1e6 / queries, journeys / (double) queries, perMinute / 1e6 / queries);
+    }
+
+    private static Journey best(ArrayList<Journey> js, int k) {
+        Journey best = null;
+        for (Journey j : js) {
+            if (j.getTransfers() <= k && (best == null || j.getArrival() < best.getArrival())) {
+                best = j;
+            }
+        }
+        return best;
+    }
+
+    // The latest the journey could leave and still make its first ride
+    private static int leaves(Journey j) {
+        int walk = 0;
+        for (Journey.Leg l : j.legs) {
+            if (!l.walk) {
+                return l.departure - walk;
+            }
+            walk += l.arrival - l.departure;
+        }
+        return j.getDeparture();
+    }
+
+    // Earliest arrival leaving at or after t with at most k transfers
+    private static int bestArrival(ArrayList<Journey> js, int t, int k) {
+        int best = Integer.MAX_VALUE;
+        for (Journey j : js) {
+            if (j.getDeparture() >= t && j.getTransfers() <= k) {
+                best = Math.min(best, j.getArrival());
+            }
+        }
+        return best;
+    }
+
+    private static void checkLegs(Timetable tt, Journey j, int from, int to) {
+        int at = from, time = j.getDeparture();
+        for (Journey.Leg l : j.legs) {
+            assertEquals(at, l.fromStop);
+            assertTrue(l.departure >= time);
+            if (!l.walk) {
+                assertEquals(tt.getDeparture(l.trip, l.fromPos), l.departure);
+                assertEquals(tt.getArrival(l.trip, l.toPos), l.arrival);
+            }
+            at = l.toStop;
+            time = l.arrival;
+        }
+        assertEquals(to, at);
+    }
+}
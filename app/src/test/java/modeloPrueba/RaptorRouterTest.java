@@ -0,0 +1,166 @@
+package modeloPrueba;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks RAPTOR's earliest arrivals against a plain scan of every connection of the
+ * day, and times queries on a made-up network the size of the MIO: a 45 x 45 grid of
+ * stops 300m apart with a line along every row and column, each way, every 6 to 15
+ * minutes from 5:00 to 23:00.
+ */
+public class RaptorRouterTest {
+
+    static final int GRID = 45;
+    static final int HOP = 60;          // s between stops
+
+    @Test
+    public void earliestArrivalMatchesConnectionScan() throws Exception {
+        final Timetable tt = gridNetwork(new Random(35), 15);
+        final RaptorRouter router = new RaptorRouter(tt);
+        router.setChangeSeconds(0);
+        final Random rnd = new Random(1);
+        for (int q = 0; q < 100; q++) {
+            final int from = rnd.nextInt(tt.numStops), to = rnd.nextInt(tt.numStops);
+            if (from == to) {
+                continue;
+            }
+            final int dep = 6 * 3600 + rnd.nextInt(14 * 3600);
+            final ArrayList<Journey> js = router.route(new int[] { from }, new int[] { 0 },
+                    new int[] { to }, new int[] { 0 }, dep, RaptorRouter.MAX_TRANSFERS);
+            final int expected = scanAll(tt, from, to, dep);
+            assertFalse(js.isEmpty());
+            assertEquals(expected, js.get(js.size() - 1).getArrival());
+            for (Journey j : js) {
+                checkLegs(tt, j, from, to, dep);
+            }
+            // Later journeys need more transfers but arrive earlier
+            for (int i = 1; i < js.size(); i++) {
+                assertTrue(js.get(i).getTransfers() > js.get(i - 1).getTransfers());
+                assertTrue(js.get(i).getArrival() < js.get(i - 1).getArrival());
+            }
+        }
+    }
+
+    @Test
+    public void coordinatesWalkToNearbyStops() throws Exception {
+        final Timetable tt = gridNetwork(new Random(36), 10);
+        final JourneyPlanner planner = new JourneyPlanner(tt);
+        // Between two grid points, a little off the stops
+        final ArrayList<Journey> js = planner.plan(3.40 + 0.0005, -76.55 + 0.0005,
+                3.40 + 20 * 0.0027 + 0.0005, -76.55 + 30 * 0.0027, 8 * 3600, 3);
+        assertFalse(js.isEmpty());
+        final Journey j = js.get(0);
+        assertTrue(j.legs.get(0).walk);
+        assertEquals(Journey.NO_STOP, j.legs.get(0).fromStop);
+        assertTrue(j.legs.get(j.legs.size() - 1).walk);
+        assertEquals(Journey.NO_STOP, j.legs.get(j.legs.size() - 1).toStop);
+    }
+
+    @Test
+    public void benchmarkMioSizedNetwork() throws Exception {
+        final Timetable tt = gridNetwork(new Random(50), 15);
+        final RaptorRouter router = new RaptorRouter(tt);
+        final Random rnd = new Random(2);
+        final int queries = 300;
+        long total = 0, worst = 0;
+        int found = 0;
+        for (int q = 0; q < queries + 50; q++) {
+            final int from = rnd.nextInt(tt.numStops), to = rnd.nextInt(tt.numStops);
+            final int dep = 6 * 3600 + rnd.nextInt(14 * 3600);
+            final long t0 = System.nanoTime();
+            final ArrayList<Journey> js = router.route(new int[] { from }, new int[] { 0 },
+                    new int[] { to }, new int[] { 0 }, dep, 4);
+            final long t = System.nanoTime() - t0;
+            if (q >= 50) {  // after warm up
+                total += t;
+                worst = Math.max(worst, t);
+                found += js.isEmpty() ? 0 : 1;
+            }
+        }
+        System.out.printf("%d stops, %d patterns, %d trips, %d stop times: mean %.2fms, worst %.2fms%n",
+                tt.numStops, tt.numPatterns, tt.numTrips, tt.departures.length,
+                total / 1e6 / queries, worst / 1e6);
+        assertTrue(found > queries / 2);
+    }
+
+    // Lines along every row and column of the grid, each way
+    static Timetable gridNetwork(Random rnd, int maxHeadwayMins) {
+        final TimetableBuilder b = new TimetableBuilder("20261019");
+        for (int r = 0; r < GRID; r++) {
+            for (int c = 0; c < GRID; c++) {
+                b.addStop(r + "-" + c, "Parada " + r + "-" + c, 3.40 + r * 0.0027, -76.55 + c * 0.0027);
+            }
+        }
+        int line = 0;
+        for (int dir = 0; dir < 4; dir++) {
+            for (int i = 0; i < GRID; i++) {
+                final int[] stops = new int[GRID];
+                for (int j = 0; j < GRID; j++) {
+                    final int k = (dir % 2 == 0) ? j : GRID - 1 - j;
+                    stops[j] = (dir < 2) ? i * GRID + k : k * GRID + i;
+                }
+                final int headway = 60 * (6 + rnd.nextInt(maxHeadwayMins - 5));
+                int trip = 0;
+                for (int start = 5 * 3600 + rnd.nextInt(headway); start < 23 * 3600; start += headway) {
+                    final int[] times = new int[GRID];
+                    for (int j = 0; j < GRID; j++) {
+                        times[j] = start + j * HOP;
+                    }
+                    b.addTrip("T" + line + "." + trip++, "L" + line, "Linea " + line, stops, times, times);
+                }
+                line++;
+            }
+        }
+        return b.build();
+    }
+
+    // Earliest arrival by scanning every connection in departure order, unlimited transfers
+    static int scanAll(Timetable tt, int from, int to, int dep) {
+        final ArrayList<int[]> conns = new ArrayList<int[]>();
+        for (int t = 0; t < tt.numTrips; t++) {
+            final int p = tt.tripPattern[t];
+            for (int i = 0; i + 1 < tt.getPatternLength(p); i++) {
+                conns.add(new int[] { tt.getDeparture(t, i), tt.getArrival(t, i + 1),
+                        tt.patternStops[tt.patternStopStart[p] + i], tt.patternStops[tt.patternStopStart[p] + i + 1], t });
+            }
+        }
+        final int[][] sorted = conns.toArray(new int[conns.size()][]);
+        Arrays.sort(sorted, new java.util.Comparator<int[]>() {
+            @Override
+            public int compare(int[] a, int[] b) {
+                return a[0] - b[0];
+            }
+        });
+        final int[] best = new int[tt.numStops];
+        Arrays.fill(best, Integer.MAX_VALUE);
+        best[from] = dep;
+        final boolean[] onTrip = new boolean[tt.numTrips];
+        for (int[] c : sorted) {
+            if (onTrip[c[4]] || best[c[2]] <= c[0]) {
+                onTrip[c[4]] = true;
+                best[c[3]] = Math.min(best[c[3]], c[1]);
+            }
+        }
+        return best[to];
+    }
+
+    private static void checkLegs(Timetable tt, Journey j, int from, int to, int dep) {
+        int at = from, time = dep;
+        for (Journey.Leg l : j.legs) {
+            assertFalse(l.walk);
+            assertEquals(at, l.fromStop);
+            assertTrue(l.departure >= time);
+            assertEquals(tt.getDeparture(l.trip, l.fromPos), l.departure);
+            assertEquals(tt.getArrival(l.trip, l.toPos), l.arrival);
+            at = l.toStop;
+            time = l.arrival;
+        }
+        assertEquals(to, at);
+    }
+}
@@ -0,0 +1,190 @@
+package modeloPrueba;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import modeloPrueba.TripDelaysTest.Proto;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the overlay gives the predicted times without changing the timetable's
+ * arrays, that boarding by it finds the trip a scan would, that RAPTOR rides the
+ * predicted times, and that readers always see one whole snapshot while overlays are
+ * swapped under them, on the grid network of RaptorRouterTest.
+ */
+public class RealtimeOverlayTest {
+
+    private static final long MIDNIGHT = 1792386000L;
+
+    @Test
+    public void delaysAreReadNotWritten() throws Exception {
+        final Timetable tt = RaptorRouterTest.gridNetwork(new Random(45), 10);
+        final int[] departures = tt.departures.clone();
+        final Random rnd = new Random(16);
+        final int[] delay = new int[tt.getTripCount()];
+        final RealtimeOverlay rt = overlay(tt, rnd, delay);
+        assertArrayEquals(departures, tt.departures);
+        assertNull(tt.getRealtime());
+        tt.setRealtime(rt);
+        assertSame(rt, tt.getRealtime());
+
+        for (int q = 0; q < 2000; q++) {
+            final int trip = rnd.nextInt(tt.getTripCount());
+            final int pos = rnd.nextInt(tt.getPatternLength(tt.tripPattern[trip]));
+            final int expected = (delay[trip] == 0) ? tt.getDeparture(trip, pos) : tt.getDeparture(trip, pos) + delay[trip];
+            assertEquals(expected, rt.departure(trip, pos));
+        }
+        // Boarding finds the first predicted departure, whatever the order now
+        for (int q = 0; q < 2000; q++) {
+            final int p = rnd.nextInt(tt.getPatternCount());
+            final int pos = rnd.nextInt(tt.getPatternLength(p));
+            final int time = 6 * 3600 + rnd.nextInt(16 * 3600);
+            int best = Integer.MAX_VALUE;
+            for (int t = tt.patternTrips[p]; t < tt.patternTrips[p + 1]; t++) {
+                final int d = rt.departure(t, pos);
+                if (d >= time) {
+                    best = Math.min(best, d);
+                }
+            }
+            final int found = rt.earliestTrip(p, pos, time);
+            assertEquals(best, (found < 0) ? Integer.MAX_VALUE : rt.departure(found, pos));
+        }
+        tt.setRealtime(null);
+        assertNull(tt.getRealtime());
+    }
+
+    @Test
+    public void raptorRidesPredictedTimes() throws Exception {
+        final Timetable tt = RaptorRouterTest.gridNetwork(new Random(46), 10);
+        final RaptorRouter router = new RaptorRouter(tt);
+        final Random rnd = new Random(17);
+        // Nothing running late is the timetable. Built first, as a newer overlay
+        // wouldn't make way for an older one
+        final RealtimeOverlay none = RealtimeOverlay.build(tt, decode(new Proto()), MIDNIGHT);
+        final int[] delay = new int[tt.getTripCount()];
+        final RealtimeOverlay rt = overlay(tt, rnd, delay);
+        for (int q = 0; q < 50; q++) {
+            final int from = rnd.nextInt(tt.numStops), to = rnd.nextInt(tt.numStops);
+            final int dep = 7 * 3600 + rnd.nextInt(12 * 3600);
+            tt.setRealtime(null);
+            final ArrayList<Journey> plain = route(router, from, to, dep);
+            tt.setRealtime(none);
+            assertEquals(arrivals(plain), arrivals(route(router, from, to, dep)));
+
+            // With delays every ride is at its predicted times
+            tt.setRealtime(rt);
+            for (Journey j : route(router, from, to, dep)) {
+                int time = dep;
+                for (Journey.Leg l : j.legs) {
+                    assertTrue(l.departure >= time);
+                    if (!l.walk) {
+                        assertEquals(tt.getDeparture(l.trip, l.fromPos) + delay[l.trip], l.departure);
+                        assertEquals(tt.getArrival(l.trip, l.toPos) + delay[l.trip], l.arrival);
+                    }
+                    time = l.arrival;
+                }
+            }
+        }
+        tt.setRealtime(null);
+    }
+
+    @Test
+    public void readersSeeOneSnapshot() throws Exception {
+        final Timetable tt = RaptorRouterTest.gridNetwork(new Random(47), 10);
+        final int trips = Math.min(200, tt.getTripCount());
+        final RealtimeOverlay[] overlays = new RealtimeOverlay[20];
+        for (int i = 0; i < overlays.length; i++) {
+            // every trip the same delay, different in each snapshot
+            final Proto feed = new Proto();
+            for (int t = 0; t < trips; t++) {
+                feed.message(2, new Proto().string(1, "e" + t).message(3, new Proto()
+                        .message(1, new Proto().string(1, tt.getTripId(t))).varint(5, 60 * (i + 1))));
+            }
+            overlays[i] = RealtimeOverlay.build(tt, decode(feed), MIDNIGHT);
+        }
+        // An older overlay doesn't replace a newer one
+        tt.setRealtime(overlays[1]);
+        tt.setRealtime(overlays[0]);
+        assertSame(overlays[1], tt.getRealtime());
+        assertTrue(overlays[1].getGeneration() > overlays[0].getGeneration());
+        assertEquals(trips, overlays[1].getUpdatedTrips());
+
+        final AtomicInteger torn = new AtomicInteger(), reads = new AtomicInteger();
+        final AtomicBoolean stop = new AtomicBoolean();
+        final Thread[] readers = new Thread[3];
+        for (int r = 0; r < readers.length; r++) {
+            readers[r] = new Thread() {
+                @Override
+                public void run() {
+                    while (!stop.get()) {
+                        final RealtimeOverlay rt = tt.getRealtime();
+                        final int first = rt.delay(0, 0);
+                        for (int t = 1; t < trips; t++) {
+                            if (rt.delay(t, 0) != first) {
+                                torn.incrementAndGet();
+                            }
+                        }
+                        reads.incrementAndGet();
+                    }
+                }
+            };
+            readers[r].start();
+        }
+        for (int round = 0; round < 50; round++) {
+            for (int i = 1; i < overlays.length; i++) {
+                tt.setRealtime(RealtimeOverlay.build(tt, decodeSame(tt, trips, i), MIDNIGHT));
+            }
+        }
+        stop.set(true);
+        for (Thread t : readers) {
+            t.join();
+        }
+        assertEquals(0, torn.get());
+        assertTrue(reads.get() > 0);
+    }
+
+    // Random delays, from a minute early to ten late, on about half the trips
+    private static RealtimeOverlay overlay(Timetable tt, Random rnd, int[] delay) throws Exception {
+        final Proto feed = new Proto();
+        for (int t = 0; t < tt.getTripCount(); t++) {
+            if (rnd.nextBoolean()) {
+                delay[t] = 60 * (rnd.nextInt(12) - 1);
+                feed.message(2, new Proto().string(1, "e" + t).message(3, new Proto()
+                        .message(1, new Proto().string(1, tt.getTripId(t))).varint(5, delay[t])));
+            }
+        }
+        return RealtimeOverlay.build(tt, decode(feed), MIDNIGHT);
+    }
+
+    private static TripDelays decodeSame(Timetable tt, int trips, int i) throws Exception {
+        final Proto feed = new Proto();
+        for (int t = 0; t < trips; t++) {
+            feed.message(2, new Proto().string(1, "e" + t).message(3, new Proto()
+                    .message(1, new Proto().string(1, tt.getTripId(t))).varint(5, 60 * i)));
+        }
+        return decode(feed);
+    }
+
+    private static TripDelays decode(Proto feed) throws Exception {
+        return TripDelays.decode(new ByteArrayInputStream(feed.bytes()), null);
+    }
+
+    private static ArrayList<Journey> route(RaptorRouter router, int from, int to, int dep) {
+        return router.route(new int[] { from }, new int[] { 0 }, new int[] { to }, new int[] { 0 }, dep, 4);
+    }
+
+    private static String arrivals(ArrayList<Journey> js) {
+        final int[] a = new int[js.size()];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = js.get(i).getArrival();
+        }
+        return Arrays.toString(a);
+    }
+}
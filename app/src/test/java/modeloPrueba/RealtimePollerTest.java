@@ -0,0 +1,205 @@
+package modeloPrueba;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import modeloPrueba.TripDelaysTest.Proto;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the poller asks conditionally, doesn't decode or publish a feed that hasn't
+ * moved on, stretches its interval while the feed is still and while hidden, and
+ * backs off on errors, against a stand-in server on the loopback.
+ */
+public class RealtimePollerTest {
+
+    private static final String FEED = "mio.db";
+    private static final long MIDNIGHT = 1792386000L;
+
+    @Test
+    public void conditionalAndUnchangedFeeds() throws Exception {
+        final StandIn server = new StandIn();
+        try {
+            server.serve(feed(MIDNIGHT + 8 * 3600, 60), "\"v1\"");
+            final RealtimePoller poller = new RealtimePoller(FEED, server.address(), 1000, null);
+            final TripDelays first = poller.poll();
+            assertEquals(60, first.departureDelay("T1", 1, "S1", 0, MIDNIGHT));
+            assertSame(first, TripDelays.get(FEED));
+            assertEquals(server.length(), poller.getBytes());
+            assertTrue(poller.getDecodeNanos() > 0);
+            assertNull(server.lastIfNoneMatch);
+            assertEquals(1000, poller.getNextDelay());
+
+            // Same ETag: 304, nothing read
+            assertSame(first, poller.poll());
+            assertEquals("\"v1\"", server.lastIfNoneMatch);
+            assertEquals(1, poller.getNotModified());
+            assertEquals(server.length(), poller.getBytes());
+            assertEquals(2000, poller.getNextDelay());
+
+            // A new body with the same header timestamp isn't decoded
+            server.serve(feed(MIDNIGHT + 8 * 3600, 90), "\"v2\"");
+            assertSame(first, poller.poll());
+            assertEquals(1, poller.getSkipped());
+            assertSame(first, TripDelays.get(FEED));
+            assertEquals(3000, poller.getNextDelay());
+
+            // A new timestamp is
+            server.serve(feed(MIDNIGHT + 8 * 3600 + 30, 120), "\"v3\"");
+            final TripDelays next = poller.poll();
+            assertNotSame(first, next);
+            assertEquals(120, next.departureDelay("T1", 1, "S1", 0, MIDNIGHT));
+            assertSame(next, TripDelays.get(FEED));
+            assertEquals(4, poller.getPolls());
+            assertEquals(1000, poller.getNextDelay());
+            // and the interval stretches while hidden
+            poller.setVisible(false);
+            assertEquals(4000, poller.getNextDelay());
+        } finally {
+            server.stop();
+            TripDelays.invalidate(FEED);
+        }
+    }
+
+    @Test
+    public void backsOffOnErrors() throws Exception {
+        final StandIn server = new StandIn();
+        try {
+            server.fail(503, null);
+            final RealtimePoller poller = new RealtimePoller(FEED, server.address(), 1000, null);
+            for (int i = 1; i <= 3; i++) {
+                try {
+                    poller.poll();
+                    fail("polled a failing server");
+                } catch (IOException e) {
+                    // as it should
+                }
+                assertEquals(1000L << i, poller.getNextDelay());
+            }
+            assertEquals(3, poller.getErrors());
+            // The server says when, up to the most we wait
+            server.fail(429, "600");
+            try {
+                poller.poll();
+                fail("polled a failing server");
+            } catch (IOException e) {
+                // as it should
+            }
+            assertEquals(RealtimePoller.MAX_INTERVAL, poller.getNextDelay());
+            server.serve(feed(MIDNIGHT + 8 * 3600, 60), "\"v1\"");
+            poller.poll();
+            assertEquals(1000, poller.getNextDelay());
+            assertEquals(1, poller.getPolls());
+        } finally {
+            server.stop();
+            TripDelays.invalidate(FEED);
+        }
+    }
+
+    @Test
+    public void listenerOnlyHearsOfChanges() throws Exception {
+        final StandIn server = new StandIn();
+        try {
+            server.serve(feed(MIDNIGHT + 8 * 3600, 60), "\"v1\"");
+            final AtomicInteger heard = new AtomicInteger();
+            final RealtimePoller poller = new RealtimePoller(FEED, server.address(), 20, new RealtimePoller.Listener() {
+                @Override
+                public void onDelays(TripDelays delays) {
+                    heard.incrementAndGet();
+                }
+
+                @Override
+                public void onError(IOException e) {
+                    // counted by the poller
+                }
+            });
+            poller.start();
+            final long give = System.currentTimeMillis() + 5000;
+            while (poller.getPolls() < 3 && System.currentTimeMillis() < give) {
+                Thread.sleep(10);
+            }
+            poller.stop();
+            assertEquals(0, poller.getErrors());
+            assertEquals(1, heard.get());
+            assertTrue(poller.getNotModified() >= 2);
+        } finally {
+            server.stop();
+            TripDelays.invalidate(FEED);
+        }
+    }
+
+    private static byte[] feed(long timestamp, int delay) {
+        return new Proto().message(1, new Proto().string(1, "2.0").varint(3, timestamp))
+                .message(2, new Proto().string(1, "e1").message(3, new Proto()
+                        .message(1, new Proto().string(1, "T1")).varint(5, delay)))
+                .bytes();
+    }
+
+    // Serves one feed with an ETag, answering 304 to a request that has it, or fails
+    private static final class StandIn implements HttpHandler {
+        private final HttpServer mServer;
+        private volatile byte[] mBody;
+        private volatile String mETag, mRetryAfter;
+        private volatile int mStatus = 200;
+        volatile String lastIfNoneMatch;
+
+        StandIn() throws IOException {
+            mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            mServer.createContext("/", this);
+            mServer.start();
+        }
+
+        String address() {
+            return "http://127.0.0.1:" + mServer.getAddress().getPort() + "/tripupdates.pb";
+        }
+
+        void serve(byte[] body, String eTag) {
+            mBody = body;
+            mETag = eTag;
+            mStatus = 200;
+        }
+
+        void fail(int status, String retryAfter) {
+            mStatus = status;
+            mRetryAfter = retryAfter;
+        }
+
+        int length() {
+            return mBody.length;
+        }
+
+        void stop() {
+            mServer.stop(0);
+        }
+
+        @Override
+        public void handle(HttpExchange x) throws IOException {
+            lastIfNoneMatch = x.getRequestHeaders().getFirst("If-None-Match");
+            if (mStatus != 200) {
+                if (mRetryAfter != null) {
+                    x.getResponseHeaders().set("Retry-After", mRetryAfter);
+                }
+                x.sendResponseHeaders(mStatus, -1);
+            } else if (mETag.equals(lastIfNoneMatch)) {
+                x.getResponseHeaders().set("ETag", mETag);
+                x.sendResponseHeaders(304, -1);
+            } else {
+                x.getResponseHeaders().set("ETag", mETag);
+                x.sendResponseHeaders(200, mBody.length);
+                final OutputStream out = x.getResponseBody();
+                out.write(mBody);
+                out.close();
+            }
+            x.close();
+        }
+    }
+}
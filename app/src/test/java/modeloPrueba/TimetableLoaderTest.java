@@ -0,0 +1,82 @@
+package modeloPrueba;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the fares are loaded from fare_attributes with or without fare_rules, that
+ * without rules a fare goes for any ride, and that a feed with no fares has none.
+ */
+public class TimetableLoaderTest {
+
+    /* Rows from made-up tables, by the table the query reads; asking for one that isn't
+     * there fails, as it would in SQLite. */
+    private static class FakeRows implements TimetableLoader.Rows {
+        final HashMap<String, ArrayList<String[]>> tables = new HashMap<String, ArrayList<String[]>>();
+
+        @Override
+        public void read(String query, String[] columns, ArrayList<String[]> rows) {
+            if (query.contains("sqlite_master")) {
+                for (String name : tables.keySet()) {
+                    rows.add(new String[] { name });
+                }
+                return;
+            }
+            final String name = query.substring(query.lastIndexOf(' ') + 1);
+            assertTrue("no such table: " + name, tables.containsKey(name));
+            rows.addAll(tables.get(name));
+        }
+    }
+
+    private static ArrayList<String[]> attributes() {
+        final ArrayList<String[]> rows = new ArrayList<String[]>();
+        rows.add(new String[] { "MIO", "2700", "COP", "0", "", "" });
+        return rows;
+    }
+
+    @Test
+    public void attributesWithoutRules() throws Exception {
+        final FakeRows db = new FakeRows();
+        db.tables.put("fare_attributes", attributes());
+        final FareTable fares = TimetableLoader.loadFares(db);
+        assertEquals(1, fares.getFareCount());
+        assertEquals(270000, fares.getCheapest());
+        // Any route will do
+        final Timetable tt = FareTableTest.line();
+        final FareTable.Pricer pricer = fares.pricer(tt, FareTableTest.tripRoutes(tt),
+                new HashMap<String, String>());
+        assertEquals(270000, pricer.price(FareTableTest.journey(tt, FareTableTest.trip(tt, "A8"), 0, 2)));
+        assertEquals(270000, pricer.price(FareTableTest.journey(tt, FareTableTest.trip(tt, "B8"), 0, 1)));
+    }
+
+    @Test
+    public void attributesWithRules() throws Exception {
+        final FakeRows db = new FakeRows();
+        db.tables.put("fare_attributes", attributes());
+        final ArrayList<String[]> rules = new ArrayList<String[]>();
+        rules.add(new String[] { "MIO", "R1", "", "", "" });
+        db.tables.put("fare_rules", rules);
+        final FareTable fares = TimetableLoader.loadFares(db);
+        assertEquals(1, fares.getFareCount());
+        final Timetable tt = FareTableTest.line();
+        final FareTable.Pricer pricer = fares.pricer(tt, FareTableTest.tripRoutes(tt),
+                new HashMap<String, String>());
+        assertEquals(270000, pricer.price(FareTableTest.journey(tt, FareTableTest.trip(tt, "A8"), 0, 2)));
+        // Route 2 has no fare
+        assertEquals(FareTable.UNKNOWN,
+                pricer.price(FareTableTest.journey(tt, FareTableTest.trip(tt, "B8"), 0, 1)));
+    }
+
+    @Test
+    public void noFares() throws Exception {
+        final FakeRows db = new FakeRows();
+        assertEquals(0, TimetableLoader.loadFares(db).getFareCount());
+        // Rules on their own price nothing
+        db.tables.put("fare_rules", new ArrayList<String[]>());
+        assertEquals(0, TimetableLoader.loadFares(db).getFareCount());
+    }
+}
@@ -0,0 +1,109 @@
+package modeloPrueba;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the builder splits a line where express trips overtake the stopping ones, so
+ * that boarding by binary search finds the same trip as looking at them all, and that
+ * the next departures at a stop are the ones a scan of every trip would give.
+ */
+public class TimetableTest {
+
+    private static final int STOPS = 12;
+
+    @Test
+    public void overtakingTripsGetTheirOwnPattern() throws Exception {
+        final Timetable tt = overtakingLine(new Random(40));
+        assertTrue(tt.getPatternCount() > 1);
+        for (int p = 0; p < tt.getPatternCount(); p++) {
+            final int len = tt.getPatternLength(p);
+            for (int t = tt.patternTrips[p] + 1; t < tt.patternTrips[p + 1]; t++) {
+                for (int pos = 0; pos < len; pos++) {
+                    assertTrue(tt.getDeparture(t - 1, pos) <= tt.getDeparture(t, pos));
+                    assertTrue(tt.getArrival(t - 1, pos) <= tt.getArrival(t, pos));
+                }
+            }
+        }
+        // The loader's trips only have one time, so it's kept once
+        assertSame(tt.arrivals, tt.departures);
+    }
+
+    @Test
+    public void earliestTripMatchesScan() throws Exception {
+        final Timetable tt = overtakingLine(new Random(41));
+        final Random rnd = new Random(10);
+        for (int q = 0; q < 2000; q++) {
+            final int p = rnd.nextInt(tt.getPatternCount());
+            final int pos = rnd.nextInt(tt.getPatternLength(p));
+            final int time = 5 * 3600 + rnd.nextInt(19 * 3600);
+            int best = -1;
+            for (int t = tt.patternTrips[p]; t < tt.patternTrips[p + 1]; t++) {
+                if (tt.getDeparture(t, pos) >= time && (best < 0 || tt.getDeparture(t, pos) < tt.getDeparture(best, pos))) {
+                    best = t;
+                }
+            }
+            final int found = tt.earliestTrip(p, pos, time);
+            if (best < 0) {
+                assertEquals(-1, found);
+            } else {
+                assertEquals(tt.getDeparture(best, pos), tt.getDeparture(found, pos));
+            }
+        }
+    }
+
+    @Test
+    public void nextDeparturesMatchScan() throws Exception {
+        final Timetable tt = overtakingLine(new Random(42));
+        final Random rnd = new Random(11);
+        final int[] trips = new int[8], times = new int[8];
+        for (int q = 0; q < 500; q++) {
+            final int stop = rnd.nextInt(tt.getStopCount());
+            final int from = 5 * 3600 + rnd.nextInt(19 * 3600), to = from + rnd.nextInt(2 * 3600);
+            final ArrayList<Integer> all = new ArrayList<Integer>();
+            for (int t = 0; t < tt.getTripCount(); t++) {
+                final int p = tt.tripPattern[t];
+                for (int pos = 0; pos < tt.getPatternLength(p); pos++) {
+                    final int d = tt.getDeparture(t, pos);
+                    if (tt.patternStops[tt.patternStopStart[p] + pos] == stop && d >= from && d <= to) {
+                        all.add(d);
+                    }
+                }
+            }
+            Collections.sort(all);
+            final int n = tt.nextDepartures(stop, from, to, trips.length, trips, times);
+            assertEquals(Math.min(all.size(), trips.length), n);
+            for (int i = 0; i < n; i++) {
+                assertEquals((int) all.get(i), times[i]);
+            }
+        }
+    }
+
+    // One line of stopping trips every 10 minutes, and express trips that lose less
+    // time at each stop and catch up with the ones ahead
+    private static Timetable overtakingLine(Random rnd) {
+        final TimetableBuilder b = new TimetableBuilder("20261019");
+        final int[] stops = new int[STOPS];
+        for (int i = 0; i < STOPS; i++) {
+            stops[i] = b.addStop("S" + i, "Parada " + i, 3.40 + i * 0.004, -76.55);
+        }
+        int n = 0;
+        for (int start = 5 * 3600; start < 23 * 3600; start += 600) {
+            for (int express = 0; express < 2; express++) {
+                final int leave = start + (express == 0 ? 0 : 60 + rnd.nextInt(500));
+                final int hop = (express == 0) ? 150 : 70;
+                final int[] times = new int[STOPS];
+                for (int i = 0; i < STOPS; i++) {
+                    times[i] = leave + i * hop;
+                }
+                b.addTrip("T" + n++, "E31", "Universidades", stops, times, times);
+            }
+        }
+        return b.build();
+    }
+}
@@ -0,0 +1,155 @@
+package modeloPrueba;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the walks found through the grid index against measuring every pair of stops,
+ * the feed's own transfers laid over them, and that both routers change lines on foot
+ * the same way, on a grid whose row and column lines stop on opposite sides of the road.
+ */
+public class TransferGraphTest {
+
+    static final int GRID = 30;
+
+    @Test
+    public void walksMatchAllPairs() throws Exception {
+        final Random rnd = new Random(37);
+        final int n = 3000;
+        final double[] lat = new double[n], lon = new double[n];
+        for (int i = 0; i < n; i++) {
+            lat[i] = 3.35 + rnd.nextDouble() * 0.15;
+            lon[i] = -76.58 + rnd.nextDouble() * 0.12;
+        }
+        final double radius = 300;
+        final long t0 = System.nanoTime();
+        final TransferGraph g = TransferGraph.build(new StopGridIndex(lat, lon, n, 250), radius, 1.25,
+                null, null, null);
+        final long t = System.nanoTime() - t0;
+        int pairs = 0;
+        for (int a = 0; a < n; a++) {
+            int from = g.getFirst(a);
+            for (int b = 0; b < n; b++) {
+                final double d = StopGridIndex.distance(lat[a], lon[a], lat[b], lon[b]);
+                if (a != b && d <= radius - 0.01) {
+                    pairs++;
+                    assertTrue(walkSeconds(g, a, b) == (int) Math.ceil(d / 1.25)
+                            || walkSeconds(g, a, b) == (int) Math.ceil(d / 1.25) - 1);
+                }
+            }
+            for (int e = from + 1; e < g.getEnd(a); e++) {
+                assertTrue(g.getSeconds(e - 1) <= g.getSeconds(e));
+            }
+        }
+        assertTrue(g.getWalkCount() >= pairs);
+        System.out.printf("%d stops, %d walks within %.0fm built in %.1fms%n", n, g.getWalkCount(), radius, t / 1e6);
+    }
+
+    @Test
+    public void feedTransfersOverrideWalks() throws Exception {
+        final double[] lat = { 3.40, 3.4005, 3.4010, 3.45 }, lon = { -76.55, -76.55, -76.55, -76.55 };
+        final TransferGraph g = TransferGraph.build(new StopGridIndex(lat, lon, 4, 250), 200, 1.25,
+                new int[] { 0, 1, 0, 2 },
+                new int[] { 1, 0, 3, 2 },
+                new int[] { TransferGraph.FORBIDDEN, 180, TransferGraph.WALK, 30 });
+        assertEquals(-1, walkSeconds(g, 0, 1));
+        assertEquals(180, walkSeconds(g, 1, 0));
+        assertTrue(walkSeconds(g, 0, 3) > 4000);    // 5.5km, not within the radius
+        assertEquals(-1, walkSeconds(g, 2, 2));
+        assertTrue(walkSeconds(g, 0, 2) > 0);
+        assertEquals(-1, walkSeconds(g, 3, 0));
+    }
+
+    @Test
+    public void routersChangeOnFoot() throws Exception {
+        final Timetable tt = splitGrid(new Random(38), 120);
+        assertTrue(tt.getTransfers().getWalkCount() > 0);
+        final RaptorRouter raptor = new RaptorRouter(tt);
+        final ConnectionScanRouter csa = new ConnectionScanRouter(tt);
+        final Random rnd = new Random(5);
+        int changed = 0;
+        for (int q = 0; q < 200; q++) {
+            final int from = rnd.nextInt(tt.numStops), to = rnd.nextInt(tt.numStops);
+            if (from == to) {
+                continue;
+            }
+            final int dep = 6 * 3600 + rnd.nextInt(14 * 3600);
+            final ArrayList<Journey> a = raptor.route(new int[] { from }, new int[] { 0 },
+                    new int[] { to }, new int[] { 0 }, dep, 4);
+            final ArrayList<Journey> b = csa.route(new int[] { from }, new int[] { 0 },
+                    new int[] { to }, new int[] { 0 }, dep, 4);
+            assertEquals(a.size(), b.size());
+            for (int i = 0; i < a.size(); i++) {
+                assertEquals(a.get(i).getArrival(), b.get(i).getArrival());
+                checkLegs(tt, a.get(i), from, to, dep);
+                checkLegs(tt, b.get(i), from, to, dep);
+                changed += (a.get(i).getTransfers() > 0) ? 1 : 0;
+            }
+        }
+        // Row and column lines share no stops, so every change is a walk
+        assertTrue(changed > 50);
+    }
+
+    // Row lines stop at the grid points, column lines 50m east of them
+    static Timetable splitGrid(Random rnd, double radius) {
+        final TimetableBuilder b = new TimetableBuilder("20261019");
+        b.setFootpaths(radius, 1.25);
+        for (int r = 0; r < GRID; r++) {
+            for (int c = 0; c < GRID; c++) {
+                b.addStop("R" + r + "-" + c, "Fila " + r + "-" + c, 3.40 + r * 0.0027, -76.55 + c * 0.0027);
+                b.addStop("C" + r + "-" + c, "Columna " + r + "-" + c, 3.40 + r * 0.0027, -76.55 + c * 0.0027 + 0.00045);
+            }
+        }
+        int line = 0;
+        for (int dir = 0; dir < 4; dir++) {
+            for (int i = 0; i < GRID; i++) {
+                final int[] stops = new int[GRID];
+                for (int j = 0; j < GRID; j++) {
+                    final int k = (dir % 2 == 0) ? j : GRID - 1 - j;
+                    stops[j] = (dir < 2) ? b.findStop("R" + i + "-" + k) : b.findStop("C" + k + "-" + i);
+                }
+                final int headway = 60 * (6 + rnd.nextInt(10));
+                int trip = 0;
+                for (int start = 5 * 3600 + rnd.nextInt(headway); start < 23 * 3600; start += headway) {
+                    final int[] times = new int[GRID];
+                    for (int j = 0; j < GRID; j++) {
+                        times[j] = start + j * RaptorRouterTest.HOP;
+                    }
+                    b.addTrip("T" + line + "." + trip++, "L" + line, "Linea " + line, stops, times, times);
+                }
+                line++;
+            }
+        }
+        return b.build();
+    }
+
+    private static int walkSeconds(TransferGraph g, int a, int b) {
+        for (int e = g.getFirst(a); e < g.getEnd(a); e++) {
+            if (g.getTarget(e) == b) {
+                return g.getSeconds(e);
+            }
+        }
+        return -1;
+    }
+
+    private static void checkLegs(Timetable tt, Journey j, int from, int to, int dep) {
+        int at = from, time = dep;
+        for (Journey.Leg l : j.legs) {
+            assertEquals(at, l.fromStop);
+            assertTrue(l.departure >= time);
+            if (l.walk) {
+                assertEquals(walkSeconds(tt.getTransfers(), l.fromStop, l.toStop), l.arrival - l.departure);
+            } else {
+                assertEquals(tt.getDeparture(l.trip, l.fromPos), l.departure);
+                assertEquals(tt.getArrival(l.trip, l.toPos), l.arrival);
+            }
+            at = l.toStop;
+            time = l.arrival;
+        }
+        assertEquals(to, at);
+    }
+}
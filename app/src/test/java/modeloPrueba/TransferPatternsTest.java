@@ -0,0 +1,160 @@
+package modeloPrueba;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks journeys between hubs from the transfer patterns arrive no later than RAPTOR's
+ * at the departures they were sampled at, and hardly ever later in between, that the
+ * patterns come back the same from their file, and times them against RAPTOR, on the
+ * grid network of RaptorRouterTest.
+ */
+public class TransferPatternsTest {
+
+    private static final int HUBS = 12, MAX_TRANSFERS = 4;
+
+    @Test
+    public void patternsMatchRaptorBetweenHubs() throws Exception {
+        final Timetable tt = RaptorRouterTest.gridNetwork(new Random(43), 10);
+        final TransferPatterns tp = build(tt);
+        final RaptorRouter router = new RaptorRouter(tt);
+        final int[] hubs = TransferPatterns.busiestStops(tt, HUBS);
+        final Random rnd = new Random(13);
+        int queries = 0, later = 0;
+        for (int q = 0; q < 300; q++) {
+            final int from = hubs[rnd.nextInt(HUBS)], to = hubs[rnd.nextInt(HUBS)];
+            if (from == to) {
+                continue;
+            }
+            // Every 10 minutes the patterns have RAPTOR's journeys; in between, nearly always
+            final int dep = 6 * 3600 + rnd.nextInt(14 * 3600);
+            final int sampled = dep - dep % 600;
+            for (int t : new int[] { sampled, dep }) {
+                final ArrayList<Journey> raptor = router.route(new int[] { from }, new int[] { 0 },
+                        new int[] { to }, new int[] { 0 }, t, MAX_TRANSFERS);
+                if (raptor.isEmpty()) {
+                    continue;
+                }
+                assertTrue(tp.covers(from, to));
+                final ArrayList<Journey> patterns = tp.route(from, to, t, MAX_TRANSFERS);
+                assertFalse(patterns.isEmpty());
+                for (Journey j : patterns) {
+                    checkLegs(tt, j, from, to, t);
+                }
+                final int best = patterns.get(patterns.size() - 1).getArrival();
+                final int raptorBest = raptor.get(raptor.size() - 1).getArrival();
+                assertTrue(best >= raptorBest);
+                if (t == sampled) {
+                    assertEquals(raptorBest, best);
+                } else if (best > raptorBest) {
+                    later++;
+                }
+                queries++;
+            }
+        }
+        assertTrue(queries > 200);
+        assertTrue(later * 20 < queries);
+    }
+
+    @Test
+    public void fileRoundTrips() throws Exception {
+        final Timetable tt = RaptorRouterTest.gridNetwork(new Random(44), 10);
+        final int[] hubs = TransferPatterns.busiestStops(tt, HUBS);
+        final TransferPatterns.Builder b = builder(tt);
+        b.addDay(tt);
+        final File file = File.createTempFile("patrones", TransferPatterns.SUFFIX);
+        try {
+            b.write(file);
+            final TransferPatterns tp = TransferPatterns.read(file, tt);
+            assertEquals(HUBS, tp.getHubCount());
+            // A second write over the first one is read back the same
+            b.write(file);
+            final TransferPatterns again = TransferPatterns.read(file, tt);
+            final Random rnd = new Random(14);
+            for (int q = 0; q < 50; q++) {
+                final int from = hubs[rnd.nextInt(HUBS)], to = hubs[rnd.nextInt(HUBS)];
+                final int dep = 7 * 3600 + rnd.nextInt(12 * 3600);
+                assertEquals(tp.covers(from, to), again.covers(from, to));
+                final ArrayList<Journey> a = tp.route(from, to, dep, MAX_TRANSFERS);
+                final ArrayList<Journey> c = again.route(from, to, dep, MAX_TRANSFERS);
+                assertEquals(a.size(), c.size());
+                for (int i = 0; i < a.size(); i++) {
+                    assertEquals(a.get(i).getArrival(), c.get(i).getArrival());
+                }
+            }
+            assertFalse(tp.covers(hubs[0], hubs[0]));
+            assertFalse(new File(file.getPath() + ".new").exists());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void benchmarkAgainstRaptor() throws Exception {
+        final Timetable tt = RaptorRouterTest.gridNetwork(new Random(50), 15);
+        final long b0 = System.nanoTime();
+        final TransferPatterns tp = build(tt);
+        final long built = System.nanoTime() - b0;
+        final RaptorRouter router = new RaptorRouter(tt);
+        final int[] hubs = TransferPatterns.busiestStops(tt, HUBS);
+        final Random rnd = new Random(15);
+        final int queries = 500;
+        long patterns = 0, raptor = 0;
+        for (int q = 0; q < queries + 50; q++) {
+            final int from = hubs[rnd.nextInt(HUBS)], to = hubs[(rnd.nextInt(HUBS - 1) + 1 + q) % HUBS];
+            final int dep = 7 * 3600 + rnd.nextInt(12 * 3600);
+            final long t0 = System.nanoTime();
+            tp.route(from, to, dep, MAX_TRANSFERS);
+            final long t1 = System.nanoTime();
+            router.route(new int[] { from }, new int[] { 0 }, new int[] { to }, new int[] { 0 }, dep, MAX_TRANSFERS);
+            final long t2 = System.nanoTime();
+            if (q >= 50) {
+                patterns += t1 - t0;
+                raptor += t2 - t1;
+            }
+        }
+        System.out.printf("between %d hubs: patterns %.3fms, RAPTOR %.3fms a query (built in %dms)%n", HUBS,
+                patterns / 1e6 / queries, raptor / 1e6 / queries, built / 1000000);
+    }
+
+    private static TransferPatterns.Builder builder(Timetable tt) {
+        final int[] hubs = TransferPatterns.busiestStops(tt, HUBS);
+        final String[] ids = new String[hubs.length];
+        for (int h = 0; h < hubs.length; h++) {
+            ids[h] = tt.getStopId(hubs[h]);
+        }
+        return new TransferPatterns.Builder(ids, MAX_TRANSFERS);
+    }
+
+    private static TransferPatterns build(Timetable tt) throws Exception {
+        final TransferPatterns.Builder b = builder(tt);
+        b.addDay(tt);
+        final File file = File.createTempFile("patrones", TransferPatterns.SUFFIX);
+        try {
+            b.write(file);
+            return TransferPatterns.read(file, tt);
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void checkLegs(Timetable tt, Journey j, int from, int to, int dep) {
+        int at = from, time = dep;
+        for (Journey.Leg l : j.legs) {
+            assertEquals(at, l.fromStop);
+            assertTrue(l.departure >= time);
+            if (!l.walk) {
+                assertEquals(tt.getDeparture(l.trip, l.fromPos), l.departure);
+                assertEquals(tt.getArrival(l.trip, l.toPos), l.arrival);
+            }
+            at = l.toStop;
+            time = l.arrival;
+        }
+        assertEquals(to, at);
+    }
+}
@@ -0,0 +1,308 @@
+package modeloPrueba;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Calendar;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks TripUpdates and VehiclePositions are read field by field whatever else the
+ * feed carries, that
+ * delays carry on down the trip the way the GTFS-realtime spec says, on their own and
+ * against a timetable, that they go to the day's run the start_date says and to each
+ * visit of a loop, and that the poller publishes what it reads from a local file.
+ */
+public class TripDelaysTest {
+
+    private static final long MIDNIGHT = 1792386000L;   // 2026-10-19 00:00 in Cali
+    private static final int SCHEDULED = 0, SKIPPED = 1, NO_DATA = 2, CANCELED = 3;
+    private static final int DAY = 24 * 3600;
+
+    /* Local midnight of a day, as start_dates are read; month from 0. */
+    private static long midnight(int year, int month, int day) {
+        final Calendar cal = Calendar.getInstance();
+        cal.clear();
+        cal.set(year, month, day);
+        return cal.getTimeInMillis() / 1000;
+    }
+
+    @Test
+    public void decodesAndSkipsWhatItDoesntKnow() throws Exception {
+        final Proto feed = new Proto()
+                .message(1, new Proto().string(1, "2.0").varint(2, 0).varint(3, MIDNIGHT + 8 * 3600))
+                .message(2, new Proto().string(1, "v1").message(4, vehicle("T9", 3.4123f, -76.5321f)))
+                // an alert, not for us
+                .message(2, new Proto().string(1, "a1").message(5, new Proto().string(10, "Desvio")))
+                .message(2, new Proto().string(1, "e1").message(3, new Proto()
+                        .message(1, new Proto().string(1, "T1").string(3, "20261019"))
+                        .message(2, stop(3, "S3", SCHEDULED, 120, 0))
+                        .message(2, stop(6, "S6", SCHEDULED, -60, 0))   // early: ten byte varint
+                        .fixed32(99)))                                  // an extension
+                .message(2, new Proto().string(1, "e2").message(3, new Proto()
+                        .message(1, new Proto().string(1, "T2").varint(4, CANCELED))));
+        final TripDelays d = TripDelays.decode(new ByteArrayInputStream(feed.bytes()), null);
+        assertEquals(2, d.size());
+        assertEquals(1, d.getVehicleCount());
+        assertEquals(MIDNIGHT + 8 * 3600, d.getTimestamp());
+        final TripDelays.Vehicle v = d.vehicle("T9");
+        assertEquals(3.4123f, (float) v.lat, 0f);
+        assertEquals(-76.5321f, (float) v.lon, 0f);
+        assertEquals("bus 12", v.label);
+        assertEquals(MIDNIGHT + 8 * 3600, v.timestamp);     // the header's
+        assertNull(d.vehicle("T1"));
+        assertTrue(d.isCanceled("T2"));
+        assertFalse(d.isCanceled("T1"));
+        assertEquals(TripDelays.SKIPPED, d.departureDelay("T2", 1, "S1", 8 * 3600, MIDNIGHT));
+
+        // T1 is for the run starting on the 19th, as the feed says
+        final long day = midnight(2026, 9, 19);
+        assertEquals(TripDelays.NONE, d.departureDelay("T1", 3, "S3", 8 * 3600, day - DAY));
+
+        // Nothing before the first update, then each one until the next
+        assertEquals(TripDelays.NONE, d.departureDelay("T1", 2, "S2", 8 * 3600, day));
+        assertEquals(120, d.departureDelay("T1", 3, "S3", 8 * 3600, day));
+        assertEquals(120, d.departureDelay("T1", 5, "S5", 8 * 3600, day));
+        assertEquals(-60, d.departureDelay("T1", 6, "S6", 8 * 3600, day));
+        assertEquals(-60, d.departureDelay("T1", 9, "S9", 8 * 3600, day));
+        // Without a stop_sequence only the stop's own update is known
+        assertEquals(120, d.departureDelay("T1", -1, "S3", 8 * 3600, day));
+        assertEquals(TripDelays.NONE, d.departureDelay("T1", -1, "S5", 8 * 3600, day));
+        assertEquals(TripDelays.NONE, d.departureDelay("T3", 5, "S5", 8 * 3600, MIDNIGHT));
+    }
+
+    @Test
+    public void delaysAlongATimetableTrip() throws Exception {
+        final TimetableBuilder b = new TimetableBuilder("20261019");
+        final int[] stops = new int[8], times = new int[8];
+        for (int i = 0; i < stops.length; i++) {
+            stops[i] = b.addStop("S" + i, "Parada " + i, 3.40 + i * 0.004, -76.55);
+            times[i] = 8 * 3600 + i * 180;
+        }
+        b.addTrip("T1", "E31", "Universidades", stops, times, times);
+        final Timetable tt = b.build();
+        final int trip = 0;
+
+        // S2 given as a time 3 minutes late, S4 skipped, S5 no data, S6 two minutes late
+        final Proto feed = new Proto().message(2, new Proto().string(1, "e1").message(3, new Proto()
+                .message(1, new Proto().string(1, "T1"))
+                .message(2, new Proto().varint(1, 3).string(4, "S2")
+                        .message(3, new Proto().varint(2, MIDNIGHT + times[2] + 180)))
+                .message(2, stop(5, "S4", SKIPPED, 0, 0))
+                .message(2, stop(6, "S5", NO_DATA, 0, 0))
+                .message(2, stop(7, "S6", SCHEDULED, 120, 0))
+                .varint(5, 30)));
+        final TripDelays d = TripDelays.decode(new ByteArrayInputStream(feed.bytes()), null);
+        final int[] expected = { 30, 30, 180, 180, TripDelays.SKIPPED, TripDelays.NONE, 120, 120 };
+        for (int pos = 0; pos < stops.length; pos++) {
+            assertEquals("pos " + pos, expected[pos], d.departureDelay(tt, trip, pos, MIDNIGHT));
+        }
+    }
+
+    @Test
+    public void startDatePicksTheRun() throws Exception {
+        // T1 leaves at 23:30 and runs past midnight, every day: the end of last night's
+        // run is in today's timetable too, under the same trip_id
+        final TimetableBuilder b = new TimetableBuilder("20261019");
+        final int[] stops = new int[4], sequences = new int[4], times = new int[4], early = new int[4];
+        for (int i = 0; i < stops.length; i++) {
+            stops[i] = b.addStop("S" + i, "Parada " + i, 3.40 + i * 0.004, -76.55);
+            sequences[i] = i + 1;
+            times[i] = 23 * 3600 + 30 * 60 + i * 20 * 60;
+            early[i] = times[i] - DAY;
+        }
+        b.addTrip("T1", "E31", "Universidades", stops, sequences, times, times, false);
+        b.addTrip("T1", "E31", "Universidades", stops, sequences, early, early, true);
+        final Timetable tt = b.build();
+        final int today = tt.isFromYesterday(0) ? 1 : 0, lastNight = 1 - today;
+        assertTrue(tt.isFromYesterday(lastNight));
+
+        final long day = midnight(2026, 9, 19);
+        final Proto feed = new Proto().message(2, new Proto().string(1, "e1").message(3, new Proto()
+                .message(1, new Proto().string(1, "T1").string(3, "20261018"))
+                .message(2, stop(3, "S2", SCHEDULED, 240, 0))));
+        final TripDelays d = TripDelays.decode(new ByteArrayInputStream(feed.bytes()), null);
+        assertEquals(240, d.departureDelay(tt, lastNight, 3, day));
+        assertEquals(TripDelays.NONE, d.departureDelay(tt, today, 3, day));
+        assertEquals(240, d.departureDelay("T1", 4, "S3", times[3], day - DAY));
+        assertEquals(TripDelays.NONE, d.departureDelay("T1", 4, "S3", times[3], day));
+
+        // Without a start_date the feed could mean either
+        final Proto undated = new Proto().message(2, new Proto().string(1, "e1").message(3, tripDelay("T1", 60)));
+        final TripDelays u = TripDelays.decode(new ByteArrayInputStream(undated.bytes()), null);
+        assertEquals(60, u.departureDelay(tt, lastNight, 3, day));
+        assertEquals(60, u.departureDelay(tt, today, 3, day));
+    }
+
+    @Test
+    public void loopGetsEachVisitsUpdate() throws Exception {
+        // S1 is called at twice, on the way out and on the way back
+        final TimetableBuilder b = new TimetableBuilder("20261019");
+        final int[] stops = new int[5], sequences = new int[5], times = new int[5];
+        for (int i = 0; i < 4; i++) {
+            b.addStop("S" + i, "Parada " + i, 3.40 + i * 0.004, -76.55);
+        }
+        final String[] ids = { "S0", "S1", "S2", "S1", "S3" };
+        for (int i = 0; i < stops.length; i++) {
+            stops[i] = b.findStop(ids[i]);
+            sequences[i] = 10 * (i + 1);
+            times[i] = 8 * 3600 + i * 300;
+        }
+        b.addTrip("T1", "E31", "Universidades", stops, sequences, times, times, false);
+        b.addTrip("T2", "E31", "Universidades", stops, times, times);     // no stop_sequences
+        final Timetable tt = b.build();
+        final int withSequences = tt.getTripId(0).equals("T1") ? 0 : 1, without = 1 - withSequences;
+
+        // Only the way back has a prediction for T1; T2 has one for each visit, by stop_id
+        final Proto feed = new Proto()
+                .message(2, new Proto().string(1, "e1").message(3, new Proto()
+                        .message(1, new Proto().string(1, "T1"))
+                        .message(2, stop(40, "S1", SCHEDULED, 300, 0))))
+                .message(2, new Proto().string(1, "e2").message(3, new Proto()
+                        .message(1, new Proto().string(1, "T2"))
+                        .message(2, new Proto().string(4, "S1").message(3, new Proto().varint(1, 60)))
+                        .message(2, new Proto().string(4, "S1").message(3, new Proto().varint(1, 300)))));
+        final TripDelays d = TripDelays.decode(new ByteArrayInputStream(feed.bytes()), null);
+        final int[] expected = { TripDelays.NONE, TripDelays.NONE, TripDelays.NONE, 300, 300 };
+        final int[] byStop = { TripDelays.NONE, 60, 60, 300, 300 };
+        for (int pos = 0; pos < stops.length; pos++) {
+            assertEquals("pos " + pos, expected[pos], d.departureDelay(tt, withSequences, pos, MIDNIGHT));
+            assertEquals("pos " + pos, byStop[pos], d.departureDelay(tt, without, pos, MIDNIGHT));
+        }
+    }
+
+    @Test
+    public void differentialUpdatesThePreviousFeed() throws Exception {
+        final Proto full = new Proto()
+                .message(2, new Proto().string(1, "a").message(3, tripDelay("T1", 60)))
+                .message(2, new Proto().string(1, "b").message(3, tripDelay("T2", 90)));
+        final TripDelays first = TripDelays.decode(new ByteArrayInputStream(full.bytes()), null);
+        final Proto diff = new Proto().message(1, new Proto().string(1, "2.0").varint(2, 1))
+                .message(2, new Proto().string(1, "b").varint(2, 1).message(3, tripDelay("T2", 0)))
+                .message(2, new Proto().string(1, "c").message(3, tripDelay("T3", 300)));
+        final TripDelays second = TripDelays.decode(new ByteArrayInputStream(diff.bytes()), first);
+        assertEquals(2, first.size());
+        assertEquals(2, second.size());
+        assertEquals(60, second.departureDelay("T1", 1, "S1", 0, MIDNIGHT));
+        assertEquals(TripDelays.NONE, second.departureDelay("T2", 1, "S1", 0, MIDNIGHT));
+        assertEquals(300, second.departureDelay("T3", 1, "S1", 0, MIDNIGHT));
+        // A full feed starts again
+        final TripDelays third = TripDelays.decode(new ByteArrayInputStream(full.bytes()), second);
+        assertEquals(TripDelays.NONE, third.departureDelay("T3", 1, "S1", 0, MIDNIGHT));
+    }
+
+    @Test
+    public void pollerPublishesALocalFile() throws Exception {
+        final File file = File.createTempFile("tripupdates", ".pb");
+        try {
+            final FileOutputStream out = new FileOutputStream(file);
+            out.write(new Proto().message(2, new Proto().string(1, "a").message(3, tripDelay("T1", 45))).bytes());
+            out.close();
+            final RealtimePoller poller = new RealtimePoller("mio.db", file.getPath(), 1000, null);
+            assertNull(TripDelays.get("mio.db"));
+            final TripDelays d = poller.poll();
+            assertSame(d, TripDelays.get("mio.db"));
+            assertEquals(45, d.departureDelay("T1", 4, "S4", 0, MIDNIGHT));
+            assertEquals(1, poller.getPolls());
+            TripDelays.invalidate("mio.db");
+            assertNull(TripDelays.get("mio.db"));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void truncatedFeedFails() throws Exception {
+        final byte[] bytes = new Proto().message(2, new Proto().string(1, "a").message(3, tripDelay("T1", 45))).bytes();
+        try {
+            TripDelays.decode(new ByteArrayInputStream(bytes, 0, bytes.length - 3), null);
+            fail("read a truncated feed");
+        } catch (IOException e) {
+            // as it should
+        }
+    }
+
+    private static Proto stop(int sequence, String stopId, int relationship, int delay, long time) {
+        final Proto event = new Proto();
+        if (delay != 0) {
+            event.varint(1, delay);
+        }
+        if (time != 0) {
+            event.varint(2, time);
+        }
+        final Proto p = new Proto().varint(1, sequence).string(4, stopId).varint(5, relationship);
+        return (relationship == SCHEDULED) ? p.message(3, event) : p;
+    }
+
+    private static Proto vehicle(String trip, float lat, float lon) {
+        return new Proto().message(1, new Proto().string(1, trip))
+                .message(2, new Proto().float32(1, lat).float32(2, lon).float32(3, 90f))
+                .message(8, new Proto().string(1, "v-12").string(2, "bus 12"));
+    }
+
+    private static Proto tripDelay(String trip, int delay) {
+        final Proto p = new Proto().message(1, new Proto().string(1, trip));
+        return (delay != 0) ? p.varint(5, delay) : p;
+    }
+
+    // Writes protocol buffer fields, as much of the format as the tests here, in
+    // RealtimeOverlayTest and in VehicleTrackerTest need
+    static final class Proto {
+        private final ByteArrayOutputStream mOut = new ByteArrayOutputStream();
+
+        Proto varint(int field, long value) {
+            raw((field << 3) | ProtoReader.VARINT);
+            raw(value);
+            return this;
+        }
+
+        Proto fixed32(int field) {
+            raw((field << 3) | ProtoReader.FIXED32);
+            for (int i = 0; i < 4; i++) {
+                mOut.write(i);
+            }
+            return this;
+        }
+
+        Proto float32(int field, float value) {
+            raw((field << 3) | ProtoReader.FIXED32);
+            final int bits = Float.floatToIntBits(value);
+            for (int i = 0; i < 32; i += 8) {
+                mOut.write((bits >>> i) & 0xff);
+            }
+            return this;
+        }
+
+        Proto string(int field, String s) {
+            return bytes(field, s.getBytes());
+        }
+
+        Proto message(int field, Proto m) {
+            return bytes(field, m.bytes());
+        }
+
+        byte[] bytes() {
+            return mOut.toByteArray();
+        }
+
+        private Proto bytes(int field, byte[] b) {
+            raw((field << 3) | ProtoReader.LENGTH);
+            raw(b.length);
+            mOut.write(b, 0, b.length);
+            return this;
+        }
+
+        private void raw(long v) {
+            while ((v & ~0x7fL) != 0) {
+                mOut.write((int) (v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            mOut.write((int) v);
+        }
+    }
+}
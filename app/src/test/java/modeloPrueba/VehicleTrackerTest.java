@@ -0,0 +1,205 @@
+package modeloPrueba;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Test;
+
+import modeloPrueba.TripDelaysTest.Proto;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the lines run stop to stop when the feed has no shapes and that stops are
+ * put on the right pass of a shape that comes back along the same road, that buses
+ * are where their times, delays and reported positions say, and how long a frame of
+ * a whole network takes.
+ */
+public class VehicleTrackerTest {
+
+    private static final long MIDNIGHT = 1792386000L;   // 2026-10-19 00:00 in Cali
+    private static final int STOPS = 10, HOP = 120;
+
+    @Test
+    public void stopToStopWithoutShapes() throws Exception {
+        final Timetable tt = line();
+        final RouteShapes shapes = RouteShapes.build(tt, new HashMap<String, String>(), new HashMap<String, double[]>());
+        assertEquals(0, shapes.getShapeCount());
+        final double[] out = new double[3];
+        double along = 0;
+        for (int pos = 0; pos < STOPS; pos++) {
+            if (pos > 0) {
+                along += RouteShapes.metres(stopLat(pos - 1), -76.55, stopLat(pos), -76.55);
+            }
+            assertEquals(along, shapes.stopDistance(0, pos), 0.01);
+            shapes.locate(0, along, out, 0);
+            assertEquals(stopLat(pos), out[0], 1e-9);
+            assertEquals(-76.55, out[1], 1e-9);
+            assertEquals(0, out[2], 1e-6);     // heading north
+        }
+        assertEquals(along, shapes.length(0), 0.01);
+        // Off the ends it stays at them
+        shapes.locate(0, -50, out, 0);
+        assertEquals(stopLat(0), out[0], 1e-9);
+        shapes.locate(0, along + 50, out, 0);
+        assertEquals(stopLat(STOPS - 1), out[0], 1e-9);
+    }
+
+    @Test
+    public void stopsGoOnTheirOwnPass() throws Exception {
+        // Out along a road and back along it 15 m over, with a stop each way at the middle
+        final TimetableBuilder b = new TimetableBuilder("20261019");
+        final int a = b.addStop("A", "Ida", 3.400, -76.55);
+        final int m1 = b.addStop("M1", "Mitad ida", 3.410, -76.55);
+        final int c = b.addStop("C", "Vuelta", 3.420, -76.55);
+        final int m2 = b.addStop("M2", "Mitad vuelta", 3.410, -76.54986);
+        final int d = b.addStop("D", "Final", 3.400, -76.54986);
+        final int[] stops = { a, m1, c, m2, d }, times = { 0, 300, 600, 900, 1200 };
+        b.addTrip("T1", "P10", "Circular", stops, times, times);
+        final Timetable tt = b.build();
+        final HashMap<String, String> tripShapes = new HashMap<String, String>();
+        tripShapes.put("T1", "S1");
+        final HashMap<String, double[]> shapes = new HashMap<String, double[]>();
+        final double[] pts = new double[2 * 41];
+        for (int i = 0; i <= 40; i++) {
+            final double f = (i <= 20) ? i / 20.0 : (40 - i) / 20.0;
+            pts[2 * i] = 3.400 + 0.02 * f;
+            pts[2 * i + 1] = (i <= 20) ? -76.55 : -76.54986;
+        }
+        shapes.put("S1", pts);
+        final RouteShapes r = RouteShapes.build(tt, tripShapes, shapes);
+        assertEquals(1, r.getShapeCount());
+        final double length = r.length(0);
+        assertEquals(length / 4, r.stopDistance(0, 1), 20);
+        assertEquals(length / 2, r.stopDistance(0, 2), 20);
+        assertEquals(3 * length / 4, r.stopDistance(0, 3), 20);
+        assertEquals(length, r.stopDistance(0, 4), 20);
+    }
+
+    @Test
+    public void busesAreWhereTheirTimesSay() throws Exception {
+        final Timetable tt = line();
+        final RouteShapes shapes = RouteShapes.build(tt, new HashMap<String, String>(), new HashMap<String, double[]>());
+        final VehicleTracker tracker = new VehicleTracker(shapes);
+        final int now = 8 * 3600 + 130;
+        final int eight = trip(tt, "T8:00"), ten = trip(tt, "T7:50");
+        tracker.refresh(now, null, null, MIDNIGHT);
+        // 7:40 is done and 8:10 not out yet
+        assertEquals(2, tracker.size());
+        assertEquals(-1, tracker.find(trip(tt, "T7:40")));
+        assertEquals(-1, tracker.find(trip(tt, "T8:10")));
+        tracker.frame(now);
+        final int v = tracker.find(eight);
+        assertEquals(eight, tracker.getTrip(v));
+        assertFalse(tracker.isReported(v));
+        assertEquals(between(shapes, 1, 10.0 / HOP), tracker.getAlong(v), 0.01);
+        assertEquals(stopLat(1) + 10.0 / HOP * (stopLat(2) - stopLat(1)), tracker.getLat(v), 1e-9);
+        // the one ahead is nearer stop 8, and both have gone by stop 1 at this frame
+        final int[] near = new int[3];
+        final double[] metres = new double[3];
+        assertEquals(2, tracker.approaching(tt.findStop("S8"), 3, near, metres));
+        assertEquals(ten, tracker.getTrip(near[0]));
+        assertTrue(metres[0] < metres[1]);
+        assertEquals(0, tracker.approaching(tt.findStop("S1"), 3, near, metres));
+
+        // Two minutes late, it's only just left the first stop
+        final TripDelays late = decode(new Proto().message(2, new Proto().string(1, "e").message(3, new Proto()
+                .message(1, new Proto().string(1, "T8:00")).varint(5, 120))));
+        tracker.refresh(now, RealtimeOverlay.build(tt, late, MIDNIGHT), late, MIDNIGHT);
+        tracker.frame(now);
+        assertEquals(between(shapes, 0, 10.0 / HOP), tracker.getAlong(tracker.find(eight)), 0.01);
+
+        // Half a minute ago it said it was at stop 5, well ahead of time
+        final TripDelays seen = decode(new Proto().message(2, new Proto().string(1, "v").message(4, new Proto()
+                .message(1, new Proto().string(1, "T8:00"))
+                .message(2, new Proto().float32(1, (float) stopLat(5)).float32(2, -76.55f))
+                .varint(5, MIDNIGHT + now - 30))));
+        tracker.refresh(now, null, seen, MIDNIGHT);
+        tracker.frame(now);
+        final int w = tracker.find(eight);
+        assertTrue(tracker.isReported(w));
+        // float coordinates put it within a metre of the stop
+        assertEquals(between(shapes, 5, 30.0 / HOP), tracker.getAlong(w), 1.0);
+        // a moment later it's a little further on
+        tracker.frame(now + 0.5);
+        assertEquals(between(shapes, 5, 30.5 / HOP), tracker.getAlong(w), 1.0);
+    }
+
+    @Test
+    public void benchmarkFrameOfANetwork() throws Exception {
+        final Timetable tt = RaptorRouterTest.gridNetwork(new Random(50), 15);
+        final RouteShapes shapes = RouteShapes.build(tt, new HashMap<String, String>(), new HashMap<String, double[]>());
+        final VehicleTracker tracker = new VehicleTracker(shapes);
+        final int now = 8 * 3600;
+        long t0 = System.nanoTime();
+        tracker.refresh(now, null, null, MIDNIGHT);
+        final long refresh = System.nanoTime() - t0;
+        assertTrue(tracker.size() > 0);
+        final int frames = 2000;
+        for (int f = 0; f < frames; f++) {
+            tracker.frame(now + f / 1000.0);
+        }
+        final java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        final long id = Thread.currentThread().getId();
+        long allocated = -1;
+        t0 = System.nanoTime();
+        if (mx instanceof com.sun.management.ThreadMXBean) {
+            final com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean) mx;
+            final long before = sun.getThreadAllocatedBytes(id);
+            for (int f = 0; f < frames; f++) {
+                tracker.frame(now + 2 + f / 1000.0);
+            }
+            allocated = sun.getThreadAllocatedBytes(id) - before;
+            // nothing but the odd bookkeeping of the bean itself
+            assertTrue("allocated " + allocated, allocated < 4096);
+        } else {
+            for (int f = 0; f < frames; f++) {
+                tracker.frame(now + 2 + f / 1000.0);
+            }
+        }
+        final long frame = (System.nanoTime() - t0) / frames;
+        System.out.printf("%d buses: refresh %.2fms, frame %.1fus (%.0fns a bus), %d bytes allocated in %d frames%n",
+                tracker.size(), refresh / 1e6, frame / 1e3, frame / (double) tracker.size(), allocated, frames);
+    }
+
+    // Trips every 10 minutes up a straight line of stops, HOP s apart
+    private static Timetable line() {
+        final TimetableBuilder b = new TimetableBuilder("20261019");
+        final int[] stops = new int[STOPS];
+        for (int i = 0; i < STOPS; i++) {
+            stops[i] = b.addStop("S" + i, "Parada " + i, stopLat(i), -76.55);
+        }
+        for (int start = 6 * 3600; start < 22 * 3600; start += 600) {
+            final int[] times = new int[STOPS];
+            for (int i = 0; i < STOPS; i++) {
+                times[i] = start + i * HOP;
+            }
+            b.addTrip(String.format("T%d:%02d", start / 3600, start / 60 % 60), "E31", "Universidades",
+                    stops, times, times);
+        }
+        return b.build();
+    }
+
+    private static double stopLat(int i) {
+        return 3.40 + i * 0.004;
+    }
+
+    private static double between(RouteShapes shapes, int pos, double f) {
+        return shapes.stopDistance(0, pos) + f * (shapes.stopDistance(0, pos + 1) - shapes.stopDistance(0, pos));
+    }
+
+    private static int trip(Timetable tt, String id) {
+        for (int t = 0; t < tt.getTripCount(); t++) {
+            if (tt.getTripId(t).equals(id)) {
+                return t;
+            }
+        }
+        throw new AssertionError(id);
+    }
+
+    private static TripDelays decode(Proto feed) throws Exception {
+        return TripDelays.decode(new ByteArrayInputStream(feed.bytes()), null);
+    }
+}